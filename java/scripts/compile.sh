@@ -3,9 +3,28 @@ DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
 
 
 # compile the java program
-javac -d $DIR/../classes $DIR/../src/GameRental.java
+javac -d $DIR/../classes -cp $DIR/../lib/pg73jdbc3.jar $DIR/../src/*.java
 
 #run the java program
 #Use your database name, port number and login
+#The connection pool is sized with -Dgamerental.pool.size=<n> (default 4)
 java -cp $DIR/../classes:$DIR/../lib/pg73jdbc3.jar GameRental $USER"_project_phase_3_DB" $PGPORT $USER
 
+#or serve the same operations over HTTP/JSON on port 8080
+#java -cp $DIR/../classes:$DIR/../lib/pg73jdbc3.jar GameRentalServer $USER"_project_phase_3_DB" $PGPORT $USER 8080
+
+#or replay concurrent customer/employee/manager sessions against the database
+#java -cp $DIR/../classes:$DIR/../lib/pg73jdbc3.jar LoadDriver $USER"_project_phase_3_DB" $PGPORT $USER --sessions 200 --time 120
+
+#or export RentalOrder, GamesInOrder and TrackingInfo as columnar snapshots, then query one offline
+#java -cp $DIR/../classes:$DIR/../lib/pg73jdbc3.jar SnapshotExport $USER"_project_phase_3_DB" $PGPORT $USER snapshots --incremental
+#java -cp $DIR/../classes ColumnarFile snapshots/RentalOrder-full-<stamp>.grc --count-by login --sum totalPrice
+
+#or bulk load the CSV files in data/; the bundled pg73 driver has no COPY API, so this runs batched multi-row INSERTs
+#java -cp $DIR/../classes:$DIR/../lib/pg73jdbc3.jar BulkLoader $USER"_project_phase_3_DB" $PGPORT $USER data sql/src --truncate
+
+#or create the coming monthly order partitions and archive the months older than two years, e.g. daily from cron
+#java -cp $DIR/../classes:$DIR/../lib/pg73jdbc3.jar PartitionManager $USER"_project_phase_3_DB" $PGPORT $USER --keep 24 --archive-dir archive
+
+#or explain every statement of the benchmark operations, compare with the last run and get index advice
+#java -cp $DIR/../classes:$DIR/../lib/pg73jdbc3.jar QueryPlanAdvisor $USER"_project_phase_3_DB" $PGPORT $USER --baseline plans.json --json plans-new.json --advice index-advice.sql
@@ -0,0 +1,348 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * This class answers login attempts and login availability checks in
+ * process, in front of the Users table. A Bloom filter over every login
+ * rejects unknown users without a query, and a bounded LRU of verified
+ * credentials answers known users, right or wrong password, from memory.
+ * Only the first attempt on a login, or one after the cached profile went
+ * stale, costs a query, so a burst of guesses against the same accounts
+ * stays off the database.
+ *
+ * A cached credential is the salted SHA-256 digest of the password next to
+ * the profile row with its password blanked, and it is trusted under the same rules as a Session
+ * snapshot: for gamerental.session.ttlSeconds, and only until the login is
+ * invalidated by updateProfile, updateUser or the OverdueTracker. A Bloom
+ * filter cannot forget, so renamed logins stay in it until the next
+ * rebuild; that only costs a query. Logins created by another process are
+ * missing from it until the filter is rebuilt, every
+ * gamerental.auth.bloomRefreshSeconds. The rebuild reads Users on a
+ * background thread while logins keep being answered from the old filter.
+ *
+ */
+public class Authenticator {
+
+   static final String LOGINS_QUERY = "SELECT login FROM Users";
+
+   /**
+    * A Bloom filter of strings with k probes derived from one 64 bit hash.
+    * Adds and lookups are lock-free.
+    */
+   static class BloomFilter {
+      private final AtomicLongArray words;
+      private final long bits;
+      private final int hashes;
+      private final long capacity;
+      private final AtomicLong added = new AtomicLong();
+
+      /**
+       * @param capacity the number of strings it is sized for
+       * @param fpp the false positive rate at capacity
+       */
+      BloomFilter(long capacity, double fpp) {
+         long m = (long) Math.ceil(-capacity * Math.log(fpp) / (Math.log(2) * Math.log(2)));
+         this.bits = Math.max(64, (m + 63) / 64 * 64);
+         this.hashes = Math.max(1, (int) Math.round((double) bits / capacity * Math.log(2)));
+         this.words = new AtomicLongArray((int) (bits / 64));
+         this.capacity = capacity;
+      }
+
+      // FNV-1a over the chars, finished with the murmur3 mix
+      static long hash(String s) {
+         long h = 0xcbf29ce484222325L;
+         for (int i = 0; i < s.length(); ++i) {
+            h ^= s.charAt(i);
+            h *= 0x100000001b3L;
+         }
+         h ^= h >>> 33;
+         h *= 0xff51afd7ed558ccdL;
+         h ^= h >>> 33;
+         h *= 0xc4ceb9fe1a85ec53L;
+         return h ^ (h >>> 33);
+      }
+
+      void add(String s) {
+         long h = hash(s);
+         int h1 = (int) h, h2 = (int) (h >>> 32);
+         for (int i = 0; i < hashes; ++i) {
+            long bit = ((h1 + (long) i * h2) & Long.MAX_VALUE) % bits;
+            int w = (int) (bit >>> 6);
+            long mask = 1L << bit;
+            long old;
+            while (((old = words.get(w)) & mask) == 0 && !words.compareAndSet(w, old, old | mask)) {
+               // another add changed the word, retry
+            }
+         }
+         added.incrementAndGet();
+      }
+
+      boolean mightContain(String s) {
+         long h = hash(s);
+         int h1 = (int) h, h2 = (int) (h >>> 32);
+         for (int i = 0; i < hashes; ++i) {
+            long bit = ((h1 + (long) i * h2) & Long.MAX_VALUE) % bits;
+            if ((words.get((int) (bit >>> 6)) & (1L << bit)) == 0)
+               return false;
+         }
+         return true;
+      }
+
+      boolean isFull() {
+         return added.get() > capacity;
+      }
+
+      long getBytes() {
+         return bits / 8;
+      }
+   }//end BloomFilter
+
+   /**
+    * A verified credential: the digest of the password and the profile it
+    * was read with, shaped like Session.PROFILE_QUERY but without the
+    * password.
+    */
+   static final class Credential {
+      final byte[] digest;
+      final List<String> profile;
+      final long version;
+      final long loadedAt;
+
+      Credential(byte[] digest, List<String> profile, long version, long loadedAt) {
+         this.digest = digest;
+         this.profile = profile;
+         this.version = version;
+         this.loadedAt = loadedAt;
+      }
+   }//end Credential
+
+   private final GameRental esql;
+   private final int cacheSize;
+   private final long refreshMillis;
+   private final double fpp;
+   private final boolean bloom;
+   private final byte[] salt = new byte[16];
+
+   private volatile BloomFilter filter;
+   private volatile long builtAt;
+   // receives the logins added while a rebuild reads the table
+   private BloomFilter building;
+   private final AtomicBoolean rebuilding = new AtomicBoolean(false);
+   private final Object addLock = new Object();
+
+   private final LinkedHashMap<String, Credential> credentials;
+
+   private final AtomicLong attempts = new AtomicLong();
+   private final AtomicLong rejected = new AtomicLong();
+   private final AtomicLong hits = new AtomicLong();
+   private final AtomicLong queries = new AtomicLong();
+   private final AtomicLong rebuilds = new AtomicLong();
+
+   public Authenticator(GameRental esql) {
+      this(esql, Integer.getInteger("gamerental.auth.cacheSize", 10000),
+           Long.getLong("gamerental.auth.bloomRefreshSeconds", 300L) * 1000L,
+           Double.parseDouble(System.getProperty("gamerental.auth.bloomFpp", "0.01")),
+           !"false".equalsIgnoreCase(System.getProperty("gamerental.auth.bloom", "true")));
+   }
+
+   /**
+    * @param cacheSize the number of credentials kept, 0 to cache none
+    * @param refreshMillis how often the Bloom filter is rebuilt from Users
+    * @param fpp the false positive rate the filter is sized for
+    * @param bloom false to send every unknown login to the database
+    */
+   public Authenticator(GameRental esql, final int cacheSize, long refreshMillis, double fpp, boolean bloom) {
+      this.esql = esql;
+      this.cacheSize = cacheSize;
+      this.refreshMillis = refreshMillis;
+      this.fpp = fpp;
+      this.bloom = bloom;
+      new SecureRandom().nextBytes(salt);
+      this.credentials = new LinkedHashMap<String, Credential>(16, 0.75f, true) {
+         protected boolean removeEldestEntry(Map.Entry<String, Credential> eldest) {
+            return size() > cacheSize;
+         }
+      };
+   }
+
+   private byte[] digest(String password) {
+      try {
+         MessageDigest md = MessageDigest.getInstance("SHA-256");
+         md.update(salt);
+         return md.digest(password.getBytes(StandardCharsets.UTF_8));
+      } catch (NoSuchAlgorithmException e) {
+         throw new IllegalStateException("SHA-256 is not available", e);
+      }
+   }
+
+   /**
+    * @return the current filter, null until the first one is built; a
+    *         missing, full or expired filter is rebuilt in the background
+    */
+   private BloomFilter filter() {
+      if (!bloom) return null;
+      BloomFilter f = filter;
+      if ((f == null || f.isFull() || System.currentTimeMillis() - builtAt >= refreshMillis)
+          && rebuilding.compareAndSet(false, true)) {
+         Thread t = new Thread(new Runnable() {
+            public void run() {
+               try {
+                  rebuild();
+               } catch (SQLException e) {
+                  System.err.println("Login filter not rebuilt: " + e.getMessage());
+                  // keep answering from the old filter until the next interval
+                  builtAt = System.currentTimeMillis();
+               } finally {
+                  rebuilding.set(false);
+               }
+            }
+         }, "login-filter");
+         t.setDaemon(true);
+         t.start();
+      }
+      // a full filter still has no false negatives, only more false positives
+      return f;
+   }//end filter
+
+   private void rebuild() throws SQLException {
+      long users = Long.parseLong(esql.executeQueryAndReturnResult("SELECT COUNT(*) FROM Users").get(0).get(0));
+      // room to double before the false positive rate degrades
+      final BloomFilter next = new BloomFilter(Math.max(1024, users * 2), fpp);
+      synchronized (addLock) {
+         building = next;
+      }
+      try {
+         esql.executeQueryAndStream(LOGINS_QUERY, new RowHandler() {
+            public boolean handle(Row row) throws SQLException {
+               next.add(row.getString(1));
+               return true;
+            }
+         });
+         synchronized (addLock) {
+            filter = next;
+            builtAt = System.currentTimeMillis();
+         }
+         rebuilds.incrementAndGet();
+      } finally {
+         synchronized (addLock) {
+            building = null;
+         }
+      }
+   }//end rebuild
+
+   /**
+    * @return false when the login certainly does not exist
+    */
+   public boolean mightExist(String login) {
+      BloomFilter f = filter();
+      return f == null || f.mightContain(login);
+   }//end mightExist
+
+   /**
+    * Records a login that is about to be created or renamed to, before the
+    * row is written so no attempt can miss it.
+    */
+   public void added(String login) {
+      synchronized (addLock) {
+         if (filter != null) filter.add(login);
+         if (building != null) building.add(login);
+      }
+      forget(login);
+   }//end added
+
+   /**
+    * Drops the cached credential of a login whose password or name changed.
+    */
+   public void forget(String login) {
+      synchronized (credentials) {
+         credentials.remove(login);
+      }
+   }//end forget
+
+   /**
+    * Checks credentials and opens a session, without a query for an
+    * unknown login or a login with a current cached credential.
+    *
+    * @return the session or null when the login or password is wrong
+    */
+   public Session authenticate(String login, String pwd) throws SQLException {
+      attempts.incrementAndGet();
+      if (!mightExist(login)) {
+         rejected.incrementAndGet();
+         return null;
+      }
+      Credential c;
+      synchronized (credentials) {
+         c = credentials.get(login);
+      }
+      if (c != null && Session.isCurrent(login, c.version, c.loadedAt)) {
+         hits.incrementAndGet();
+         if (!MessageDigest.isEqual(c.digest, digest(pwd)))
+            return null;
+         // the password was just verified, so the session gets it back
+         List<String> profile = new ArrayList<String>(c.profile);
+         profile.set(1, pwd);
+         return Session.fromRow(profile, c.version, c.loadedAt);
+      }
+
+      queries.incrementAndGet();
+      // read before the query, an invalidation racing with it leaves the entry stale
+      long version = Session.currentVersion();
+      long loadedAt = System.currentTimeMillis();
+      List<List<String>> profile = esql.executeQueryAndReturnResult(Session.PROFILE_QUERY, login);
+      if (profile.isEmpty()) {
+         forget(login);
+         return null;
+      }
+      List<String> row = profile.get(0);
+      // the true password is cached whatever was tried, so repeated guesses are answered from memory
+      if (cacheSize > 0) {
+         List<String> cached = new ArrayList<String>(row);
+         cached.set(1, null);
+         synchronized (credentials) {
+            credentials.put(login, new Credential(digest(row.get(1)), cached, version, loadedAt));
+         }
+      }
+      return row.get(1).equals(pwd) ? Session.fromRow(row, version, loadedAt) : null;
+   }//end authenticate
+
+   public long getAttempts() { return attempts.get(); }
+   public long getRejected() { return rejected.get(); }
+   public long getHits() { return hits.get(); }
+   public long getQueries() { return queries.get(); }
+
+   public String toString() {
+      BloomFilter f = filter;
+      int cached;
+      synchronized (credentials) {
+         cached = credentials.size();
+      }
+      long n = getAttempts();
+      return String.format("authenticator: %d attempts, %d rejected by the filter, %d cached, %d queried " +
+                           "(%.2f queries per attempt), %d credentials, filter %d bytes rebuilt %d times",
+                           n, getRejected(), getHits(), getQueries(), n == 0 ? 0.0 : (double) getQueries() / n,
+                           cached, f == null ? 0 : f.getBytes(), rebuilds.get());
+   }//end toString
+
+}//end Authenticator
@@ -0,0 +1,516 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.lang.reflect.InvocationTargetException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * This class bulk loads the data/*.csv files into the GameRental database.
+ * Every file is streamed with COPY FROM STDIN when the JDBC driver offers the
+ * copy API, and with batched multi-row INSERTs otherwise. Tables are loaded
+ * in foreign key order, and the indexes and triggers defined in
+ * create_indexes.sql and create_triggers.sql are dropped for the load and
+ * created again afterwards. The monthly order partitions are created from
+ * the date range of the orders before anything is loaded, so every row is
+ * routed straight into its month. The bundled pg73 driver has no copy API,
+ * so with it the load runs the INSERT fallback.
+ *
+ */
+public class BulkLoader {
+
+   // rows sent per INSERT statement when COPY is not available
+   static final int ROWS_PER_INSERT = Integer.getInteger("gamerental.load.rowsPerInsert", 500);
+
+   /**
+    * A table of the schema together with the CSV file it is loaded from.
+    * The casts are used by the INSERT fallback, which binds every value as
+    * text.
+    */
+   public static class Table {
+      public final String name;
+      public final String file;
+      public final String[] columns;
+      public final String[] casts;
+      // rows take the orderTimestamp of their RentalOrder, which the CSV does not have
+      public final boolean stamped;
+
+      Table(String name, String file, String[] columns, String[] casts) {
+         this(name, file, columns, casts, false);
+      }
+
+      Table(String name, String file, String[] columns, String[] casts, boolean stamped) {
+         this.name = name;
+         this.file = file;
+         this.columns = columns;
+         this.casts = casts;
+         this.stamped = stamped;
+      }
+
+      String columnList() {
+         return String.join(", ", columns);
+      }
+   }//end Table
+
+   public static final Table USERS = new Table("Users", "users.csv",
+      new String[] {"login", "password", "role", "favGames", "phoneNum", "numOverDueGames"},
+      new String[] {null, null, null, null, null, "integer"});
+   public static final Table CATALOG = new Table("Catalog", "catalog.csv",
+      new String[] {"gameID", "gameName", "genre", "price", "description", "imageURL"},
+      new String[] {null, null, null, "numeric", null, null});
+   public static final Table RENTAL_ORDER = new Table("RentalOrder", "rentalorder.csv",
+      new String[] {"rentalOrderID", "login", "noOfGames", "totalPrice", "orderTimestamp", "dueDate"},
+      new String[] {null, null, "integer", "numeric", "timestamp", "timestamp"});
+   public static final Table GAMES_IN_ORDER = new Table("GamesInOrder", "gamesinorder.csv",
+      new String[] {"rentalOrderID", "gameID", "unitsOrdered"},
+      new String[] {null, null, "integer"}, true);
+   public static final Table TRACKING_INFO = new Table("TrackingInfo", "trackinginfo.csv",
+      new String[] {"trackingID", "rentalOrderID", "status", "currentLocation", "courierName", "lastUpdateDate", "additionalComments"},
+      new String[] {null, null, null, null, null, "timestamp", null}, true);
+
+   // parents before children so foreign keys are satisfied and order timestamps found at every step
+   public static final Table[] LOAD_ORDER = {USERS, CATALOG, RENTAL_ORDER, GAMES_IN_ORDER, TRACKING_INFO};
+
+   private static final Pattern INDEX_NAME = Pattern.compile("CREATE\\s+INDEX\\s+(\\w+)", Pattern.CASE_INSENSITIVE);
+   private static final Pattern TRIGGER_NAME = Pattern.compile(
+      "CREATE\\s+TRIGGER\\s+(\\w+)\\s+.*?\\s+ON\\s+(\\w+)", Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+
+   // the history trigger was off, so every loaded shipment starts with its current state
+   static final String TRACKING_HISTORY_SEED =
+      "SELECT ensure_monthly_partitions('TrackingEvent', 'eventTime', MIN(lastUpdateDate), MAX(lastUpdateDate)) " +
+      "FROM TrackingInfo;\n" +
+      "INSERT INTO TrackingEvent (trackingID, eventTime, status, currentLocation, courierName, additionalComments) " +
+      "SELECT T.trackingID, T.lastUpdateDate, T.status, T.currentLocation, T.courierName, T.additionalComments " +
+      "FROM TrackingInfo T " +
+      "WHERE NOT EXISTS (SELECT 1 FROM TrackingEvent E WHERE E.trackingID = T.trackingID);";
+
+   // orders outside the range the partitions were created for land in the default partitions,
+   // this moves them into their months; it finds nothing to move when the range was known
+   static final String ORDER_PARTITIONS =
+      "SELECT ensure_order_partitions(MIN(orderTimestamp), MAX(orderTimestamp)) FROM RentalOrder_default;\n" +
+      "SELECT ensure_order_partitions(MIN(orderTimestamp), MAX(orderTimestamp)) FROM GamesInOrder_default;";
+
+   // the (rentalOrderID, orderTimestamp) of the orders this loader loaded, kept for the session
+   static final String LOADED_ORDERS = "loaded_orders";
+
+   private final Connection connection;
+   private final boolean useCopy;
+   private boolean ordersLoaded = false;
+
+   public BulkLoader(Connection connection, boolean allowCopy) {
+      this.connection = connection;
+      this.useCopy = allowCopy && copySupported();
+   }
+
+   /**
+    * @return true when the driver on the classpath has the COPY API
+    */
+   static boolean copySupported() {
+      try {
+         Class.forName("org.postgresql.copy.CopyManager");
+         return true;
+      } catch (ClassNotFoundException e) {
+         return false;
+      }
+   }//end copySupported
+
+   public boolean isUsingCopy() {
+      return useCopy;
+   }
+
+   /**
+    * Creates the RentalOrder and GamesInOrder partitions of every month in
+    * the range. Run while the default partitions are empty, it moves nothing.
+    */
+   public void createOrderPartitions(Timestamp from, Timestamp to) throws SQLException {
+      PreparedStatement stmt = connection.prepareStatement("SELECT ensure_order_partitions(?, ?)");
+      try {
+         stmt.setTimestamp(1, from);
+         stmt.setTimestamp(2, to);
+         stmt.executeQuery().close();
+      } finally {
+         stmt.close();
+      }
+   }//end createOrderPartitions
+
+   /**
+    * Reads the orderTimestamp column of a RentalOrder CSV.
+    *
+    * @return the earliest and latest order timestamp, null for a file without orders
+    */
+   static Timestamp[] orderRange(File csv) throws IOException {
+      int column = java.util.Arrays.asList(RENTAL_ORDER.columns).indexOf("orderTimestamp");
+      Reader in = open(csv);
+      try {
+         CsvReader reader = new CsvReader(in);
+         if (reader.next() == null)
+            return null;
+         Timestamp min = null, max = null;
+         String[] record;
+         while ((record = reader.next()) != null) {
+            if (record.length <= column || record[column].isEmpty())
+               continue;
+            Timestamp t = Timestamp.valueOf(record[column]);
+            if (min == null || t.before(min)) min = t;
+            if (max == null || t.after(max)) max = t;
+         }
+         return min == null ? null : new Timestamp[] {min, max};
+      } finally {
+         in.close();
+      }
+   }//end orderRange
+
+   /**
+    * Streams one CSV into its table. The CSV must start with a header line.
+    * RentalOrder and the stamped tables are streamed into a temporary table
+    * first. The keys of the loaded orders are kept, and a stamped table is
+    * copied over joined to them, so its rows take the orderTimestamp of an
+    * order of this load even when an older order has the same
+    * rentalOrderID; lines of unknown orders are dropped. Stamped tables must
+    * be loaded after RENTAL_ORDER by the same loader.
+    *
+    * @param table the target table
+    * @param csv the CSV text, read sequentially
+    * @return the number of rows loaded
+    */
+   public long load(Table table, Reader csv) throws SQLException, IOException {
+      if (table.stamped && !ordersLoaded)
+         throw new SQLException(table.name + " takes its orderTimestamp from the orders of this load, load "
+                                + RENTAL_ORDER.name + " first");
+      boolean autoCommit = connection.getAutoCommit();
+      connection.setAutoCommit(false);
+      try {
+         boolean staged = table.stamped || table == RENTAL_ORDER;
+         String target = staged ? stage(table) : table.name;
+         long rows = useCopy ? copy(table, target, csv) : insert(table, target, csv);
+         if (table == RENTAL_ORDER) rows = unstageOrders(target);
+         else if (table.stamped) rows = unstage(table, target);
+         connection.commit();
+         if (table == RENTAL_ORDER) ordersLoaded = true;
+         return rows;
+      } catch (SQLException | IOException e) {
+         connection.rollback();
+         throw e;
+      } finally {
+         connection.setAutoCommit(autoCommit);
+      }
+   }//end load
+
+   private String stage(Table table) throws SQLException {
+      String stage = table.name + "_stage";
+      execute("CREATE TEMP TABLE " + stage + " ON COMMIT DROP AS SELECT " + table.columnList() + " FROM "
+              + table.name + " WITH NO DATA");
+      return stage;
+   }
+
+   // the primary key also rejects a CSV that has the same rentalOrderID twice
+   private long unstageOrders(String stage) throws SQLException {
+      execute("DROP TABLE IF EXISTS " + LOADED_ORDERS);
+      execute("CREATE TEMP TABLE " + LOADED_ORDERS + " (rentalOrderID varchar(50) PRIMARY KEY, " +
+              "orderTimestamp timestamp NOT NULL)");
+      Statement stmt = connection.createStatement();
+      try {
+         stmt.executeUpdate("INSERT INTO " + LOADED_ORDERS + " SELECT rentalOrderID, orderTimestamp FROM " + stage);
+         return stmt.executeUpdate("INSERT INTO RentalOrder (" + RENTAL_ORDER.columnList() + ") " +
+                                   "SELECT " + RENTAL_ORDER.columnList() + " FROM " + stage);
+      } finally {
+         stmt.close();
+      }
+   }//end unstageOrders
+
+   private long unstage(Table table, String stage) throws SQLException {
+      StringBuilder select = new StringBuilder();
+      for (String c : table.columns) select.append("S.").append(c).append(", ");
+      Statement stmt = connection.createStatement();
+      try {
+         return stmt.executeUpdate(
+            "INSERT INTO " + table.name + " (" + table.columnList() + ", orderTimestamp) " +
+            "SELECT " + select + "L.orderTimestamp FROM " + stage + " S " +
+            "JOIN " + LOADED_ORDERS + " L ON L.rentalOrderID = S.rentalOrderID");
+      } finally {
+         stmt.close();
+      }
+   }//end unstage
+
+   private long copy(Table table, String target, Reader csv) throws SQLException, IOException {
+      String sql = "COPY " + target + " (" + table.columnList() + ") FROM STDIN WITH (FORMAT csv, HEADER true)";
+      try {
+         // the copy API only exists in newer drivers, so it is looked up at runtime
+         Class<?> managerClass = Class.forName("org.postgresql.copy.CopyManager");
+         Class<?> baseConnection = Class.forName("org.postgresql.core.BaseConnection");
+         Object manager = managerClass.getConstructor(baseConnection).newInstance(connection);
+         Object rows = managerClass.getMethod("copyIn", String.class, Reader.class).invoke(manager, sql, csv);
+         return ((Number) rows).longValue();
+      } catch (InvocationTargetException e) {
+         Throwable cause = e.getCause();
+         if (cause instanceof SQLException) throw (SQLException) cause;
+         if (cause instanceof IOException) throw (IOException) cause;
+         throw new SQLException("COPY into " + table.name + " failed: " + cause);
+      } catch (ReflectiveOperationException e) {
+         throw new SQLException("COPY is not available: " + e);
+      }
+   }//end copy
+
+   private long insert(Table table, String target, Reader csv) throws SQLException, IOException {
+      CsvReader reader = new CsvReader(csv);
+      if (reader.next() == null)
+         return 0;
+
+      StringBuilder row = new StringBuilder("(");
+      for (int i = 0; i < table.columns.length; ++i) {
+         if (i > 0) row.append(", ");
+         row.append(table.casts[i] == null ? "?" : "CAST(? AS " + table.casts[i] + ")");
+      }
+      row.append(")");
+      String prefix = "INSERT INTO " + target + " (" + table.columnList() + ") VALUES ";
+
+      PreparedStatement full = connection.prepareStatement(values(prefix, row, ROWS_PER_INSERT));
+      try {
+         String[][] pending = new String[ROWS_PER_INSERT][];
+         int count = 0;
+         long rows = 0;
+         String[] record;
+         while ((record = reader.next()) != null) {
+            if (record.length == 1 && record[0].isEmpty())
+               continue;
+            if (record.length != table.columns.length)
+               throw new IOException(table.file + " record " + reader.getRecords() + " has "
+                                     + record.length + " fields, expected " + table.columns.length);
+            pending[count++] = record;
+            if (count == ROWS_PER_INSERT) {
+               bindRows(full, table, pending, count);
+               full.executeUpdate();
+               rows += count;
+               count = 0;
+            }
+         }
+         if (count > 0) {
+            PreparedStatement tail = connection.prepareStatement(values(prefix, row, count));
+            try {
+               bindRows(tail, table, pending, count);
+               tail.executeUpdate();
+            } finally {
+               tail.close();
+            }
+            rows += count;
+         }
+         return rows;
+      } finally {
+         full.close();
+      }
+   }//end insert
+
+   private static String values(String prefix, StringBuilder row, int rows) {
+      StringBuilder sql = new StringBuilder(prefix);
+      for (int i = 0; i < rows; ++i) {
+         if (i > 0) sql.append(", ");
+         sql.append(row);
+      }
+      return sql.toString();
+   }
+
+   private static void bindRows(PreparedStatement stmt, Table table, String[][] rows, int count) throws SQLException {
+      int index = 1;
+      for (int r = 0; r < count; ++r) {
+         for (int c = 0; c < table.columns.length; ++c) {
+            String value = rows[r][c];
+            // an empty number or timestamp means NULL, an empty text stays empty as with COPY
+            if (value.isEmpty() && table.casts[c] != null)
+               stmt.setNull(index++, java.sql.Types.VARCHAR);
+            else
+               stmt.setString(index++, value);
+         }
+      }
+   }
+
+   /**
+    * Drops the indexes named in an index script so the load does not
+    * maintain them row by row.
+    */
+   public void dropIndexes(File script) throws SQLException, IOException {
+      Matcher m = INDEX_NAME.matcher(read(script));
+      while (m.find())
+         execute("DROP INDEX IF EXISTS " + m.group(1));
+   }//end dropIndexes
+
+   /**
+    * Drops the triggers named in a trigger script so they do not fire for
+    * the loaded rows, which already carry their totals and counters.
+    */
+   public void dropTriggers(File script) throws SQLException, IOException {
+      Matcher m = TRIGGER_NAME.matcher(read(script));
+      while (m.find())
+         execute("DROP TRIGGER IF EXISTS " + m.group(1) + " ON " + m.group(2));
+   }//end dropTriggers
+
+   /**
+    * Runs a whole SQL script as one simple query.
+    */
+   public void runScript(File script) throws SQLException, IOException {
+      execute(read(script));
+   }//end runScript
+
+   /**
+    * Runs a single statement in autocommit mode.
+    */
+   public void execute(String sql) throws SQLException {
+      Statement stmt = connection.createStatement();
+      try {
+         stmt.execute(sql);
+      } finally {
+         stmt.close();
+      }
+   }//end execute
+
+   private static String read(File script) throws IOException {
+      return new String(Files.readAllBytes(script.toPath()), StandardCharsets.UTF_8);
+   }
+
+   static Reader open(File file) throws IOException {
+      return new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8), 1 << 20);
+   }
+
+   /**
+    * Loads one table and prints its throughput.
+    */
+   public long loadAndReport(Table table, Reader csv) throws SQLException, IOException {
+      long start = System.nanoTime();
+      long rows = load(table, csv);
+      double seconds = Math.max(1e-9, (System.nanoTime() - start) / 1e9);
+      System.out.println(String.format("%-14s %,12d rows %9.2f s %,14.0f rows/s",
+                                       table.name, rows, seconds, rows / seconds));
+      return rows;
+   }//end loadAndReport
+
+   /**
+    * Runs the whole load: drop indexes and triggers, stream every table, then
+    * rebuild indexes and triggers and refresh the planner statistics.
+    *
+    * @param sqlDir directory holding create_indexes.sql and create_triggers.sql
+    * @param sources one reader per entry of LOAD_ORDER
+    * @param orderRange earliest and latest order timestamp, null when unknown
+    */
+   public void loadAll(File sqlDir, Reader[] sources, boolean truncate, Timestamp[] orderRange)
+      throws SQLException, IOException {
+      File indexes = new File(sqlDir, "create_indexes.sql");
+      File triggers = new File(sqlDir, "create_triggers.sql");
+
+      if (truncate) {
+         List<String> names = new ArrayList<String>();
+         for (Table t : LOAD_ORDER) names.add(t.name);
+         names.add("TrackingEvent");
+         execute("TRUNCATE " + String.join(", ", names) + " CASCADE");
+      }
+      dropTriggers(triggers);
+      dropIndexes(indexes);
+      if (orderRange != null)
+         createOrderPartitions(orderRange[0], orderRange[1]);
+
+      System.out.println("Loading with " + (useCopy ? "COPY FROM STDIN" : "batched INSERT (driver has no COPY API)"));
+      long start = System.nanoTime();
+      long total = 0;
+      for (int i = 0; i < LOAD_ORDER.length; ++i) {
+         try {
+            total += loadAndReport(LOAD_ORDER[i], sources[i]);
+         } finally {
+            sources[i].close();
+         }
+      }
+      double seconds = (System.nanoTime() - start) / 1e9;
+      System.out.println(String.format("%-14s %,12d rows %9.2f s %,14.0f rows/s",
+                                       "total", total, seconds, total / Math.max(1e-9, seconds)));
+
+      long rebuild = System.nanoTime();
+      // loaded orders arrive uncounted, recount the users the way OverdueTracker would have
+      execute(ORDER_PARTITIONS);
+      execute(OverdueTracker.RECONCILE_SCRIPT);
+      execute(TRACKING_HISTORY_SEED);
+      execute(Reports.REBUILD_SCRIPT);
+      runScript(indexes);
+      runScript(triggers);
+      for (Table t : LOAD_ORDER)
+         execute("ANALYZE " + t.name);
+      System.out.println(String.format("Indexes, triggers and statistics rebuilt in %.2f s",
+                                       (System.nanoTime() - rebuild) / 1e9));
+   }//end loadAll
+
+   /**
+    * Opens a physical connection the same way GameRental does.
+    */
+   static Connection connect(String dbname, String dbport, String user) throws Exception {
+      Class.forName ("org.postgresql.Driver").newInstance ();
+      String url = "jdbc:postgresql://localhost:" + dbport + "/" + dbname;
+      return DriverManager.getConnection(url, user, "");
+   }//end connect
+
+   /**
+    * The bulk load command
+    *
+    * @param args <dbname> <port> <user> [dataDir] [sqlDir] [--truncate] [--no-copy]
+    */
+   public static void main(String[] args) {
+      List<String> positional = new ArrayList<String>();
+      boolean truncate = false;
+      boolean allowCopy = true;
+      for (String arg : args) {
+         if (arg.equals("--truncate")) truncate = true;
+         else if (arg.equals("--no-copy")) allowCopy = false;
+         else positional.add(arg);
+      }
+      if (positional.size() < 3 || positional.size() > 5) {
+         System.err.println (
+            "Usage: " +
+            "java [-classpath <classpath>] " +
+            BulkLoader.class.getName () +
+            " <dbname> <port> <user> [dataDir] [sqlDir] [--truncate] [--no-copy]");
+         return;
+      }
+      File dataDir = new File(positional.size() > 3 ? positional.get(3) : "data");
+      File sqlDir = new File(positional.size() > 4 ? positional.get(4) : "sql/src");
+
+      Connection connection = null;
+      try {
+         connection = connect(positional.get(0), positional.get(1), positional.get(2));
+         BulkLoader loader = new BulkLoader(connection, allowCopy);
+         Timestamp[] orderRange = orderRange(new File(dataDir, RENTAL_ORDER.file));
+         Reader[] sources = new Reader[LOAD_ORDER.length];
+         for (int i = 0; i < LOAD_ORDER.length; ++i)
+            sources[i] = open(new File(dataDir, LOAD_ORDER[i].file));
+         loader.loadAll(sqlDir, sources, truncate, orderRange);
+      } catch (Exception e) {
+         System.err.println("❌Bulk load failed: " + e.getMessage());
+         System.exit(1);
+      } finally {
+         try {
+            if (connection != null) connection.close();
+         } catch (SQLException e) {
+            // ignored.
+         }
+      }
+   }//end main
+
+}//end BulkLoader
@@ -0,0 +1,390 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+import java.math.BigDecimal;
+import java.sql.SQLException;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class is a read-through, in-process copy of the Catalog table. The
+ * whole table is loaded with a single query on first use and kept as an
+ * immutable snapshot with a hash index on gameID, a per-genre index and a
+ * price-sorted index, so catalog browsing and order pricing need no round
+ * trips. A full-text index over names and descriptions is built for a
+ * snapshot on its first search, facet lists for CatalogQuery on its first
+ * faceted query and name indexes on their first lookup or sort by name.
+ * Writes through updateCatalog invalidate the snapshot, and with it these
+ * indexes; a load that started before the write is not installed.
+ *
+ */
+public class CatalogCache {
+
+   static final String LOAD_QUERY =
+      "SELECT gameID, gameName, genre, price, description, imageURL FROM Catalog";
+
+   // sort orders understood by the lookups
+   public static final int UNSORTED = 0;
+   public static final int PRICE_ASC = 1;
+   public static final int PRICE_DESC = 2;
+   public static final int NAME_ASC = 3;
+   public static final int NAME_DESC = 4;
+
+   /**
+    * One row of the Catalog table.
+    */
+   public static class Game {
+      public final String gameID;
+      public final String gameName;
+      public final String genre;
+      public final BigDecimal price;
+      public final String description;
+      public final String imageURL;
+      // parsed out of the "Platform: ...; Publisher: ..." description, "" when missing
+      public final String platform;
+      public final String publisher;
+
+      public Game(String gameID, String gameName, String genre, BigDecimal price,
+                  String description, String imageURL) {
+         this.gameID = gameID;
+         this.gameName = gameName;
+         this.genre = genre;
+         this.price = price;
+         this.description = description;
+         this.imageURL = imageURL;
+         this.platform = field(description, "Platform");
+         this.publisher = field(description, "Publisher");
+      }
+   }//end Game
+
+   /**
+    * @return the value of a "Key: value" part of a ;-separated description
+    */
+   static String field(String description, String key) {
+      if (description == null) return "";
+      for (String part : description.split(";")) {
+         int colon = part.indexOf(':');
+         if (colon > 0 && part.substring(0, colon).trim().equalsIgnoreCase(key))
+            return part.substring(colon + 1).trim();
+      }
+      return "";
+   }//end field
+
+   static final Comparator<Game> BY_PRICE = new Comparator<Game>() {
+      public int compare(Game a, Game b) {
+         int c = a.price.compareTo(b.price);
+         return c != 0 ? c : a.gameID.compareTo(b.gameID);
+      }
+   };
+
+   static final Comparator<Game> BY_NAME = new Comparator<Game>() {
+      public int compare(Game a, Game b) {
+         int c = String.CASE_INSENSITIVE_ORDER.compare(a.gameName, b.gameName);
+         return c != 0 ? c : a.gameID.compareTo(b.gameID);
+      }
+   };
+
+   private static final Comparator<Game> BY_ID = new Comparator<Game>() {
+      public int compare(Game a, Game b) {
+         return a.gameID.compareTo(b.gameID);
+      }
+   };
+
+   /**
+    * The indexes over one load of the table. Never modified once built.
+    */
+   private static class Snapshot {
+      final Map<String, Game> byId;
+      final Map<String, Game[]> byGenre;   // each genre sorted by price
+      final Game[] byPrice;
+      final Game[] byGameID;
+      final long loadedAt = System.currentTimeMillis();
+      // built on the first search, most snapshots are never searched
+      private CatalogSearch search;
+      private CatalogQuery.Facets facets;
+      private Map<String, Game> byName;
+      private Game[] nameOrder;
+
+      Snapshot(List<Game> games) {
+         byId = new HashMap<String, Game>(games.size() * 2);
+         for (Game g : games)
+            byId.put(g.gameID, g);
+
+         byPrice = games.toArray(new Game[games.size()]);
+         Arrays.sort(byPrice, BY_PRICE);
+         byGameID = games.toArray(new Game[games.size()]);
+         Arrays.sort(byGameID, BY_ID);
+
+         // walking the price order keeps every genre bucket price sorted too
+         Map<String, List<Game>> genres = new HashMap<String, List<Game>>();
+         for (Game g : byPrice) {
+            List<Game> bucket = genres.get(g.genre);
+            if (bucket == null) {
+               bucket = new ArrayList<Game>();
+               genres.put(g.genre, bucket);
+            }
+            bucket.add(g);
+         }
+         byGenre = new HashMap<String, Game[]>(genres.size() * 2);
+         for (Map.Entry<String, List<Game>> e : genres.entrySet())
+            byGenre.put(e.getKey(), e.getValue().toArray(new Game[e.getValue().size()]));
+      }
+
+      synchronized CatalogSearch search() {
+         if (search == null)
+            search = new CatalogSearch(byGameID);
+         return search;
+      }
+
+      synchronized Map<String, Game> byName() {
+         if (byName == null) {
+            byName = new HashMap<String, Game>(byGameID.length * 2);
+            // the lowest gameID wins when two games share a name
+            for (int i = byGameID.length - 1; i >= 0; --i)
+               byName.put(byGameID[i].gameName.trim().toLowerCase(), byGameID[i]);
+         }
+         return byName;
+      }
+
+      synchronized Game[] nameOrder() {
+         if (nameOrder == null) {
+            Game[] sorted = byGameID.clone();
+            Arrays.sort(sorted, BY_NAME);
+            nameOrder = sorted;
+         }
+         return nameOrder;
+      }
+
+      synchronized CatalogQuery.Facets facets() {
+         if (facets == null)
+            facets = new CatalogQuery.Facets(byPrice);
+         return facets;
+      }
+   }//end Snapshot
+
+   // how long a snapshot is trusted, guards against writes from other processes
+   private final long ttlMillis;
+   private volatile Snapshot snapshot = null;
+   // bumped by invalidate, a load only installs its snapshot if it did not change meanwhile
+   private final AtomicLong generation = new AtomicLong(0);
+
+   private final AtomicLong lookups = new AtomicLong(0);
+   private final AtomicLong loads = new AtomicLong(0);
+
+   public CatalogCache() {
+      this(Long.getLong("gamerental.catalog.ttlSeconds", 600L) * 1000L);
+   }
+
+   public CatalogCache(long ttlMillis) {
+      this.ttlMillis = ttlMillis;
+   }
+
+   /**
+    * Returns the current snapshot, loading the table if there is none yet or
+    * the previous one expired.
+    */
+   private Snapshot snapshot(GameRental esql) throws SQLException {
+      lookups.incrementAndGet();
+      Snapshot s = snapshot;
+      if (s != null && System.currentTimeMillis() - s.loadedAt < ttlMillis)
+         return s;
+      synchronized (this) {
+         s = snapshot;
+         if (s == null || System.currentTimeMillis() - s.loadedAt >= ttlMillis) {
+            long g = generation.get();
+            s = load(esql);
+            // an update committed during the load may be missing from it, serve it once but do not keep it
+            if (generation.get() == g)
+               snapshot = s;
+         }
+         return s;
+      }
+   }//end snapshot
+
+   private Snapshot load(GameRental esql) throws SQLException {
+      loads.incrementAndGet();
+      final List<Game> games = new ArrayList<Game>();
+      // the snapshot keeps every row anyway, so a cursor would only add round trips
+      esql.executeQueryAndHandle(LOAD_QUERY, new RowHandler() {
+         public boolean handle(Row row) throws SQLException {
+            games.add(new Game(row.getString(1), row.getString(2), row.getString(3), row.getBigDecimal(4),
+                               row.getString(5), row.getString(6)));
+            return true;
+         }
+      });
+      return new Snapshot(games);
+   }//end load
+
+   /**
+    * Drops the snapshot so the next lookup reloads the table.
+    */
+   public void invalidate() {
+      generation.incrementAndGet();
+      snapshot = null;
+   }//end invalidate
+
+   /**
+    * @return the game with this ID or null
+    */
+   public Game findById(GameRental esql, String gameID) throws SQLException {
+      return snapshot(esql).byId.get(gameID);
+   }//end findById
+
+   /**
+    * @return the game with this name, ignoring case, or null
+    */
+   public Game findByName(GameRental esql, String gameName) throws SQLException {
+      return snapshot(esql).byName().get(gameName.trim().toLowerCase());
+   }//end findByName
+
+   /**
+    * @return every game of the genre in the requested order
+    */
+   public List<Game> findByGenre(GameRental esql, String genre, int sort) throws SQLException {
+      Game[] bucket = snapshot(esql).byGenre.get(genre);
+      if (bucket == null)
+         return Collections.emptyList();
+      return ordered(bucket, 0, bucket.length, sort);
+   }//end findByGenre
+
+   /**
+    * @return every game with exactly this price in the requested order
+    */
+   public List<Game> findByPrice(GameRental esql, BigDecimal price, int sort) throws SQLException {
+      Game[] byPrice = snapshot(esql).byPrice;
+      int from = lowerBound(byPrice, price);
+      int to = from;
+      while (to < byPrice.length && byPrice[to].price.compareTo(price) == 0)
+         to++;
+      return ordered(byPrice, from, to, sort);
+   }//end findByPrice
+
+   /**
+    * @param max inclusive, like min
+    * @return every game priced between min and max in the requested order
+    */
+   public List<Game> findByPriceRange(GameRental esql, BigDecimal min, BigDecimal max, int sort) throws SQLException {
+      Game[] byPrice = snapshot(esql).byPrice;
+      return ordered(byPrice, lowerBound(byPrice, min), upperBound(byPrice, max), sort);
+   }//end findByPriceRange
+
+   /**
+    * Runs a faceted query, see CatalogQuery.
+    */
+   public CatalogQuery.Page query(GameRental esql, CatalogQuery query) throws SQLException {
+      return snapshot(esql).facets().run(query);
+   }//end query
+
+   /**
+    * @return every game in the requested order
+    */
+   public List<Game> findAll(GameRental esql, int sort) throws SQLException {
+      Snapshot s = snapshot(esql);
+      if (sort == UNSORTED)
+         return Collections.unmodifiableList(Arrays.asList(s.byGameID));
+      if (sort == NAME_ASC || sort == NAME_DESC)
+         return view(s.nameOrder(), 0, s.byPrice.length, sort == NAME_DESC);
+      return ordered(s.byPrice, 0, s.byPrice.length, sort);
+   }//end findAll
+
+   /**
+    * Ranks the games whose name or description match the words of the
+    * query, see CatalogSearch.
+    *
+    * @return at most limit games, best match first unless a sort is requested
+    */
+   public List<Game> search(GameRental esql, String query, int limit, int sort) throws SQLException {
+      List<Game> ranked = snapshot(esql).search().search(query, limit);
+      if (sort == UNSORTED || ranked.size() < 2)
+         return ranked;
+      Game[] sorted = ranked.toArray(new Game[ranked.size()]);
+      Arrays.sort(sorted, BY_PRICE);
+      return ordered(sorted, 0, sorted.length, sort);
+   }//end search
+
+   /**
+    * Binary search for the first game whose price is not below the given one.
+    */
+   static int lowerBound(Game[] byPrice, BigDecimal price) {
+      int lo = 0, hi = byPrice.length;
+      while (lo < hi) {
+         int mid = (lo + hi) >>> 1;
+         if (byPrice[mid].price.compareTo(price) < 0)
+            lo = mid + 1;
+         else
+            hi = mid;
+      }
+      return lo;
+   }//end lowerBound
+
+   /**
+    * Binary search for the first game whose price is above the given one.
+    */
+   static int upperBound(Game[] byPrice, BigDecimal price) {
+      int lo = 0, hi = byPrice.length;
+      while (lo < hi) {
+         int mid = (lo + hi) >>> 1;
+         if (byPrice[mid].price.compareTo(price) <= 0)
+            lo = mid + 1;
+         else
+            hi = mid;
+      }
+      return lo;
+   }//end upperBound
+
+   /**
+    * A slice of a price sorted index in the requested order. A name order
+    * sorts a copy of the slice, a price order is a view of it.
+    */
+   private static List<Game> ordered(Game[] byPrice, int from, int to, int sort) {
+      if (sort == NAME_ASC || sort == NAME_DESC) {
+         Game[] byName = Arrays.copyOfRange(byPrice, from, to);
+         Arrays.sort(byName, BY_NAME);
+         return view(byName, 0, byName.length, sort == NAME_DESC);
+      }
+      return view(byPrice, from, to, sort == PRICE_DESC);
+   }//end ordered
+
+   /**
+    * A read-only view over a slice of an index, walked backwards when
+    * reversed. Snapshots are immutable, so nothing is copied.
+    */
+   private static List<Game> view(final Game[] index, final int from, final int to, final boolean reversed) {
+      return new AbstractList<Game>() {
+         public Game get(int i) {
+            if (i < 0 || i >= to - from)
+               throw new IndexOutOfBoundsException("Index: " + i);
+            return reversed ? index[to - 1 - i] : index[from + i];
+         }
+
+         public int size() {
+            return to - from;
+         }
+      };
+   }//end view
+
+   public long getLookups() { return lookups.get(); }
+   public long getLoads() { return loads.get(); }
+
+   public String toString() {
+      Snapshot s = snapshot;
+      return String.format("catalog cache games=%d lookups=%d loads=%d",
+                           s == null ? 0 : s.byPrice.length, getLookups(), getLoads());
+   }//end toString
+
+}//end CatalogCache
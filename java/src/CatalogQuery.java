@@ -0,0 +1,341 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * This class is a faceted catalog query: any set of genres, platforms and
+ * publishers, a price range, a sort by price or name and a page of results,
+ * addressed by offset or by the keyset token of the previous page.
+ *
+ * Queries run against Facets, built once per catalog snapshot: the games in
+ * price order and in name order, and for each order the ascending positions
+ * of the games of every genre, platform and publisher. A query walks the
+ * sorted games from the start of its price range or keyset, leapfrogging
+ * between the position lists of the facets it filters on, so it only touches
+ * the games it returns plus one binary search per facet and step.
+ *
+ */
+public class CatalogQuery {
+
+   /**
+    * One page of results.
+    */
+   public static class Page {
+      public final List<CatalogCache.Game> games;
+      // null on the last page
+      public final String next;
+
+      Page(List<CatalogCache.Game> games, String next) {
+         this.games = games;
+         this.next = next;
+      }
+   }//end Page
+
+   final Set<String> genres = new LinkedHashSet<String>();
+   final Set<String> platforms = new LinkedHashSet<String>();
+   final Set<String> publishers = new LinkedHashSet<String>();
+   BigDecimal minPrice;
+   BigDecimal maxPrice;
+   int sort = CatalogCache.PRICE_ASC;
+   int limit = 20;
+   int offset = 0;
+   String after;
+
+   public CatalogQuery genre(String... values) { add(genres, values); return this; }
+   public CatalogQuery platform(String... values) { add(platforms, values); return this; }
+   public CatalogQuery publisher(String... values) { add(publishers, values); return this; }
+
+   /**
+    * @param min inclusive, null for no lower bound
+    * @param max inclusive, null for no upper bound
+    */
+   public CatalogQuery price(BigDecimal min, BigDecimal max) {
+      this.minPrice = min;
+      this.maxPrice = max;
+      return this;
+   }
+
+   /**
+    * @param sort CatalogCache.PRICE_ASC, PRICE_DESC, NAME_ASC or NAME_DESC
+    */
+   public CatalogQuery sort(int sort) {
+      this.sort = sort == CatalogCache.UNSORTED ? CatalogCache.PRICE_ASC : sort;
+      return this;
+   }
+
+   public CatalogQuery limit(int limit) { this.limit = limit; return this; }
+
+   /**
+    * Skips games before the page. Costs one step per skipped game, prefer
+    * after() for deep pages.
+    */
+   public CatalogQuery offset(int offset) { this.offset = offset; return this; }
+
+   /**
+    * @param token the next token of the previous page, null for the first page
+    */
+   public CatalogQuery after(String token) { this.after = token; return this; }
+
+   private static void add(Set<String> set, String... values) {
+      for (String v : values)
+         if (v != null && !v.trim().isEmpty())
+            set.add(key(v));
+   }
+
+   // facet values match case-insensitively
+   static String key(String value) {
+      return value == null ? "" : value.trim().toLowerCase(Locale.ROOT);
+   }
+
+   /**
+    * Reads a query from request parameters: genre, platform and publisher as
+    * comma separated lists, minPrice, maxPrice, sort (price, price_desc,
+    * name, name_desc), limit, offset and after.
+    */
+   public static CatalogQuery fromParams(Map<String, String> params) {
+      CatalogQuery q = new CatalogQuery();
+      if (params.containsKey("genre")) q.genre(params.get("genre").split(","));
+      if (params.containsKey("platform")) q.platform(params.get("platform").split(","));
+      if (params.containsKey("publisher")) q.publisher(params.get("publisher").split(","));
+      q.price(params.containsKey("minPrice") ? new BigDecimal(params.get("minPrice").trim()) : null,
+              params.containsKey("maxPrice") ? new BigDecimal(params.get("maxPrice").trim()) : null);
+      String s = params.get("sort");
+      if (s != null) q.sort(parseSort(s));
+      if (params.containsKey("limit")) q.limit(Integer.parseInt(params.get("limit")));
+      if (params.containsKey("offset")) q.offset(Integer.parseInt(params.get("offset")));
+      q.after(params.get("after"));
+      return q;
+   }//end fromParams
+
+   static int parseSort(String s) {
+      s = s.trim().toLowerCase(Locale.ROOT);
+      if (s.equals("price") || s.equals("asc") || s.equals("price_asc")) return CatalogCache.PRICE_ASC;
+      if (s.equals("price_desc") || s.equals("desc")) return CatalogCache.PRICE_DESC;
+      if (s.equals("name") || s.equals("name_asc")) return CatalogCache.NAME_ASC;
+      if (s.equals("name_desc")) return CatalogCache.NAME_DESC;
+      throw new IllegalArgumentException("Unknown sort " + s);
+   }
+
+   // ---------------------------------------------------------------- tokens
+
+   // the sort key of the last game of a page and its gameID, which breaks ties
+   static String token(CatalogCache.Game last, boolean byName) {
+      String key = byName ? last.gameName : last.price.toPlainString();
+      return Base64.getUrlEncoder().withoutPadding().encodeToString(
+         (last.gameID + "|" + key).getBytes(StandardCharsets.UTF_8));
+   }
+
+   static CatalogCache.Game probe(String token, boolean byName) {
+      try {
+         String s = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+         int bar = s.indexOf('|');
+         String gameID = s.substring(0, bar);
+         String key = s.substring(bar + 1);
+         return byName ? new CatalogCache.Game(gameID, key, null, null, null, null)
+                       : new CatalogCache.Game(gameID, null, null, new BigDecimal(key), null, null);
+      } catch (RuntimeException e) {
+         throw new IllegalArgumentException("Invalid page token");
+      }
+   }//end probe
+
+   // ---------------------------------------------------------------- facets
+
+   /**
+    * The games of a snapshot in one order, with the positions of every facet
+    * value in that order.
+    */
+   static class Order {
+      final CatalogCache.Game[] games;
+      final Map<String, int[]> genre;
+      final Map<String, int[]> platform;
+      final Map<String, int[]> publisher;
+
+      Order(CatalogCache.Game[] games) {
+         this.games = games;
+         genre = new HashMap<String, int[]>();
+         platform = new HashMap<String, int[]>();
+         publisher = new HashMap<String, int[]>();
+         // counts every value first so each list is allocated once at its final size
+         Map<String, int[]> sizes = new HashMap<String, int[]>();
+         for (CatalogCache.Game g : games) {
+            count(sizes, "g" + key(g.genre));
+            count(sizes, "l" + key(g.platform));
+            count(sizes, "u" + key(g.publisher));
+         }
+         Map<String, int[]> filled = new HashMap<String, int[]>(sizes.size() * 2);
+         for (int i = 0; i < games.length; ++i) {
+            append(genre, sizes, filled, "g", games[i].genre, i);
+            append(platform, sizes, filled, "l", games[i].platform, i);
+            append(publisher, sizes, filled, "u", games[i].publisher, i);
+         }
+      }
+
+      private static void count(Map<String, int[]> sizes, String k) {
+         int[] n = sizes.get(k);
+         if (n == null) sizes.put(k, new int[] {1});
+         else n[0]++;
+      }
+
+      private static void append(Map<String, int[]> index, Map<String, int[]> sizes, Map<String, int[]> filled,
+                                 String dimension, String value, int position) {
+         String k = key(value);
+         int[] list = index.get(k);
+         if (list == null) {
+            list = new int[sizes.get(dimension + k)[0]];
+            index.put(k, list);
+            filled.put(dimension + k, new int[1]);
+         }
+         int[] n = filled.get(dimension + k);
+         list[n[0]++] = position;
+      }
+
+      /**
+       * @return the position lists of the selected values, null when no
+       *         value is selected, empty when none of them exists
+       */
+      int[][] lists(Map<String, int[]> index, Set<String> values) {
+         if (values.isEmpty()) return null;
+         List<int[]> found = new ArrayList<int[]>();
+         for (String v : values) {
+            int[] l = index.get(v);
+            if (l != null) found.add(l);
+         }
+         return found.toArray(new int[found.size()][]);
+      }
+   }//end Order
+
+   /**
+    * The facet lists of one snapshot. Never modified once built.
+    */
+   static class Facets {
+      final Order byPrice;
+      final Order byName;
+
+      Facets(CatalogCache.Game[] priceOrder) {
+         byPrice = new Order(priceOrder);
+         CatalogCache.Game[] nameOrder = priceOrder.clone();
+         Arrays.sort(nameOrder, CatalogCache.BY_NAME);
+         byName = new Order(nameOrder);
+      }
+
+      // the first position at or after from in any of the lists, to if none
+      private static int ceiling(int[][] lists, int from, int to) {
+         int best = to;
+         for (int[] l : lists) {
+            int at = Arrays.binarySearch(l, from);
+            if (at < 0) at = -at - 1;
+            if (at < l.length && l[at] < best) best = l[at];
+         }
+         return best;
+      }
+
+      // the last position at or before from in any of the lists, to if none
+      private static int floor(int[][] lists, int from, int to) {
+         int best = to;
+         for (int[] l : lists) {
+            int at = Arrays.binarySearch(l, from);
+            if (at < 0) at = -at - 2;
+            if (at >= 0 && l[at] > best) best = l[at];
+         }
+         return best;
+      }
+
+      /**
+       * The next position at or beyond from, in the walking direction, that
+       * is in every facet: each facet moves the candidate forward to its
+       * next game until they all agree.
+       */
+      private static int next(List<int[][]> facets, int from, int end, boolean desc) {
+         int candidate = from;
+         int agreed = 0;
+         for (int i = 0; agreed < facets.size(); i = (i + 1) % facets.size()) {
+            if (desc ? candidate <= end : candidate >= end) return end;
+            int p = desc ? floor(facets.get(i), candidate, end) : ceiling(facets.get(i), candidate, end);
+            if (p == candidate) {
+               agreed++;
+            } else {
+               candidate = p;
+               agreed = 1;
+            }
+         }
+         return candidate;
+      }//end next
+
+      Page run(CatalogQuery q) {
+         if (q.limit < 1)
+            throw new IllegalArgumentException("limit must be positive");
+         boolean name = q.sort == CatalogCache.NAME_ASC || q.sort == CatalogCache.NAME_DESC;
+         boolean desc = q.sort == CatalogCache.PRICE_DESC || q.sort == CatalogCache.NAME_DESC;
+         Order o = name ? byName : byPrice;
+
+         // [lo, hi) holds every candidate, narrowed by the price range in price order and by the keyset
+         int lo = 0, hi = o.games.length;
+         if (!name) {
+            if (q.minPrice != null) lo = CatalogCache.lowerBound(o.games, q.minPrice);
+            if (q.maxPrice != null) hi = CatalogCache.upperBound(o.games, q.maxPrice);
+         }
+         if (q.after != null) {
+            Comparator<CatalogCache.Game> cmp = name ? CatalogCache.BY_NAME : CatalogCache.BY_PRICE;
+            int at = Arrays.binarySearch(o.games, probe(q.after, name), cmp);
+            if (desc) hi = Math.min(hi, at >= 0 ? at : -at - 1);
+            else lo = Math.max(lo, at >= 0 ? at + 1 : -at - 1);
+         }
+
+         List<int[][]> facets = new ArrayList<int[][]>(3);
+         for (int[][] l : new int[][][] {o.lists(o.genre, q.genres), o.lists(o.platform, q.platforms),
+                                         o.lists(o.publisher, q.publishers)}) {
+            if (l == null) continue;
+            if (l.length == 0) return new Page(Collections.<CatalogCache.Game>emptyList(), null);
+            facets.add(l);
+         }
+
+         List<CatalogCache.Game> page = new ArrayList<CatalogCache.Game>(Math.min(q.limit, 1000) + 1);
+         int skip = q.offset;
+         int end = desc ? lo - 1 : hi;
+         int cursor = desc ? hi - 1 : lo;
+         while (page.size() <= q.limit) {
+            int p = facets.isEmpty() ? cursor : next(facets, cursor, end, desc);
+            if (desc ? p <= end : p >= end) break;
+            cursor = desc ? p - 1 : p + 1;
+            CatalogCache.Game g = o.games[p];
+            // in name order the price range is a filter rather than a range
+            if (name && ((q.minPrice != null && g.price.compareTo(q.minPrice) < 0)
+                         || (q.maxPrice != null && g.price.compareTo(q.maxPrice) > 0)))
+               continue;
+            if (skip > 0) {
+               skip--;
+               continue;
+            }
+            page.add(g);
+         }
+         String next = null;
+         if (page.size() > q.limit) {
+            page.remove(page.size() - 1);
+            next = token(page.get(page.size() - 1), name);
+         }
+         return new Page(page, next);
+      }//end run
+   }//end Facets
+
+}//end CatalogQuery
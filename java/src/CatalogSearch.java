@@ -0,0 +1,485 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * This class is an inverted index over the gameName and description of one
+ * catalog snapshot. Both fields are split into lower case words; every word
+ * maps to the sorted array of games that contain it, with the word's count
+ * weighted NAME_WEIGHT times higher in the name. Queries are ranked with
+ * BM25, only games containing every query word match (all of them falling
+ * back to any), the last word also matches as a prefix so results follow
+ * the user's typing, and a word that is not in the index is replaced by the
+ * indexed words within one or two edits, found through a trigram index over
+ * the vocabulary.
+ *
+ * Postings are primitive arrays, so a snapshot of a million games costs a
+ * few tens of megabytes and a query touches only the posting lists of its
+ * words. Like the snapshot it belongs to, the index is never modified.
+ *
+ */
+public class CatalogSearch {
+
+   static final int NAME_WEIGHT = 3;
+   static final float K1 = 1.2f;
+   static final float B = 0.75f;
+   // words a prefix or a typo may expand to, the most frequent are kept
+   static final int MAX_EXPANSIONS = 64;
+   // expanded and corrected words rank below exact ones
+   static final float PREFIX_BOOST = 0.8f;
+   static final float FUZZY_BOOST = 0.5f;
+
+   private final CatalogCache.Game[] docs;
+   private final String[] terms;        // sorted
+   private final int[][] postings;      // ascending game positions per term
+   private final byte[][] freqs;        // weighted counts, unsigned and capped at 255
+   private final int[] lengths;         // weighted words per game
+   private final float averageLength;
+   private final Map<String, int[]> trigrams;   // trigram to ascending term numbers
+
+   /**
+    * A growable int array, the index is built out of these.
+    */
+   private static class IntList {
+      int[] values = new int[4];
+      int size = 0;
+
+      void add(int v) {
+         if (size == values.length) values = Arrays.copyOf(values, size * 2);
+         values[size++] = v;
+      }
+
+      int[] toArray() {
+         return Arrays.copyOf(values, size);
+      }
+   }//end IntList
+
+   public CatalogSearch(CatalogCache.Game[] docs) {
+      this.docs = docs;
+      this.lengths = new int[docs.length];
+      Map<String, IntList> docLists = new HashMap<String, IntList>();
+      Map<String, IntList> freqLists = new HashMap<String, IntList>();
+      Map<String, Integer> counts = new HashMap<String, Integer>();
+      long total = 0;
+      for (int d = 0; d < docs.length; ++d) {
+         counts.clear();
+         int length = count(docs[d].gameName, NAME_WEIGHT, counts) + count(docs[d].description, 1, counts);
+         lengths[d] = length;
+         total += length;
+         for (Map.Entry<String, Integer> e : counts.entrySet()) {
+            IntList dl = docLists.get(e.getKey());
+            if (dl == null) {
+               dl = new IntList();
+               docLists.put(e.getKey(), dl);
+               freqLists.put(e.getKey(), new IntList());
+            }
+            // documents are visited in order, so every posting list comes out sorted
+            dl.add(d);
+            freqLists.get(e.getKey()).add(Math.min(255, e.getValue()));
+         }
+      }
+      averageLength = docs.length == 0 ? 1 : Math.max(1, (float) total / docs.length);
+
+      terms = docLists.keySet().toArray(new String[docLists.size()]);
+      Arrays.sort(terms);
+      postings = new int[terms.length][];
+      freqs = new byte[terms.length][];
+      Map<String, IntList> grams = new HashMap<String, IntList>();
+      for (int t = 0; t < terms.length; ++t) {
+         postings[t] = docLists.get(terms[t]).toArray();
+         IntList f = freqLists.get(terms[t]);
+         freqs[t] = new byte[f.size];
+         for (int i = 0; i < f.size; ++i)
+            freqs[t][i] = (byte) f.values[i];
+         for (String g : trigramsOf(terms[t])) {
+            IntList l = grams.get(g);
+            if (l == null) {
+               l = new IntList();
+               grams.put(g, l);
+            }
+            if (l.size == 0 || l.values[l.size - 1] != t) l.add(t);
+         }
+      }
+      trigrams = new HashMap<String, int[]>(grams.size() * 2);
+      for (Map.Entry<String, IntList> e : grams.entrySet())
+         trigrams.put(e.getKey(), e.getValue().toArray());
+   }
+
+   /**
+    * Splits text into lower case words of letters and digits.
+    */
+   static List<String> tokenize(String text) {
+      List<String> words = new ArrayList<String>();
+      if (text == null) return words;
+      int start = -1;
+      for (int i = 0; i <= text.length(); ++i) {
+         boolean word = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+         if (word && start < 0) {
+            start = i;
+         } else if (!word && start >= 0) {
+            words.add(text.substring(start, i).toLowerCase(java.util.Locale.ROOT));
+            start = -1;
+         }
+      }
+      return words;
+   }//end tokenize
+
+   private static int count(String text, int weight, Map<String, Integer> counts) {
+      List<String> words = tokenize(text);
+      for (String w : words) {
+         Integer c = counts.get(w);
+         counts.put(w, c == null ? weight : c + weight);
+      }
+      return words.size() * weight;
+   }
+
+   // the word padded with $ at both ends, so short words have trigrams too
+   private static List<String> trigramsOf(String word) {
+      String padded = "$" + word + "$";
+      List<String> grams = new ArrayList<String>(padded.length());
+      for (int i = 0; i + 3 <= padded.length(); ++i)
+         grams.add(padded.substring(i, i + 3));
+      return grams;
+   }
+
+   /**
+    * The optimal string alignment distance, giving up beyond max.
+    */
+   static int distance(String a, String b, int max) {
+      if (Math.abs(a.length() - b.length()) > max) return max + 1;
+      int[] prev2 = new int[b.length() + 1];
+      int[] prev = new int[b.length() + 1];
+      int[] cur = new int[b.length() + 1];
+      for (int j = 0; j <= b.length(); ++j) prev[j] = j;
+      for (int i = 1; i <= a.length(); ++i) {
+         cur[0] = i;
+         int rowMin = cur[0];
+         for (int j = 1; j <= b.length(); ++j) {
+            int cost = a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1;
+            int d = Math.min(Math.min(prev[j] + 1, cur[j - 1] + 1), prev[j - 1] + cost);
+            if (i > 1 && j > 1 && a.charAt(i - 1) == b.charAt(j - 2) && a.charAt(i - 2) == b.charAt(j - 1))
+               d = Math.min(d, prev2[j - 2] + 1);
+            cur[j] = d;
+            rowMin = Math.min(rowMin, d);
+         }
+         if (rowMin > max) return max + 1;
+         int[] t = prev2; prev2 = prev; prev = cur; cur = t;
+      }
+      return prev[b.length()];
+   }//end distance
+
+   static int maxEdits(String word) {
+      return word.length() <= 2 ? 0 : word.length() <= 5 ? 1 : 2;
+   }
+
+   /**
+    * A query word resolved to the terms it matches.
+    */
+   private static class Expansion {
+      final List<Integer> terms = new ArrayList<Integer>();
+      final List<Float> boosts = new ArrayList<Float>();
+      long postings = 0;
+
+      void add(int term, float boost, int length) {
+         if (!terms.contains(term)) {
+            terms.add(term);
+            boosts.add(boost);
+            postings += length;
+         }
+      }
+   }//end Expansion
+
+   private Expansion expand(String word, boolean prefix) {
+      Expansion x = new Expansion();
+      int exact = Arrays.binarySearch(terms, word);
+      if (exact >= 0)
+         x.add(exact, 1f, postings[exact].length);
+      // a single letter matches too much of the catalog to be worth expanding
+      if (prefix && word.length() > 1) {
+         int from = exact >= 0 ? exact + 1 : -exact - 1;
+         int to = from;
+         while (to < terms.length && terms[to].startsWith(word)) to++;
+         for (int t : mostFrequent(from, to))
+            x.add(t, PREFIX_BOOST, postings[t].length);
+      }
+      if (x.terms.isEmpty()) {
+         for (int t : corrections(word))
+            x.add(t, FUZZY_BOOST, postings[t].length);
+      }
+      return x;
+   }//end expand
+
+   private int[] mostFrequent(int from, int to) {
+      if (to - from <= MAX_EXPANSIONS) {
+         int[] all = new int[to - from];
+         for (int i = 0; i < all.length; ++i) all[i] = from + i;
+         return all;
+      }
+      PriorityQueue<Integer> top = new PriorityQueue<Integer>(MAX_EXPANSIONS, new Comparator<Integer>() {
+         public int compare(Integer a, Integer b) {
+            return Integer.compare(postings[a].length, postings[b].length);
+         }
+      });
+      for (int t = from; t < to; ++t) {
+         top.add(t);
+         if (top.size() > MAX_EXPANSIONS) top.poll();
+      }
+      int[] kept = new int[top.size()];
+      for (int i = 0; i < kept.length; ++i) kept[i] = top.poll();
+      return kept;
+   }//end mostFrequent
+
+   /**
+    * The indexed words within maxEdits of the word. Only the words sharing
+    * enough trigrams with it are compared.
+    */
+   private int[] corrections(String word) {
+      int max = maxEdits(word);
+      if (max == 0) return new int[0];
+      List<String> grams = trigramsOf(word);
+      // an edit destroys at most three trigrams, a transposition four
+      int needed = Math.max(1, grams.size() - 4 * max);
+      Map<Integer, Integer> shared = new HashMap<Integer, Integer>();
+      for (String g : grams) {
+         int[] list = trigrams.get(g);
+         if (list == null) continue;
+         for (int t : list) {
+            Integer c = shared.get(t);
+            shared.put(t, c == null ? 1 : c + 1);
+         }
+      }
+      List<Integer> close = new ArrayList<Integer>();
+      for (Map.Entry<Integer, Integer> e : shared.entrySet())
+         if (e.getValue() >= needed && distance(word, terms[e.getKey()], max) <= max)
+            close.add(e.getKey());
+      if (close.size() <= MAX_EXPANSIONS) {
+         int[] all = new int[close.size()];
+         for (int i = 0; i < all.length; ++i) all[i] = close.get(i);
+         return all;
+      }
+      Collections.sort(close, new Comparator<Integer>() {
+         public int compare(Integer a, Integer b) {
+            return Integer.compare(postings[b].length, postings[a].length);
+         }
+      });
+      int[] kept = new int[MAX_EXPANSIONS];
+      for (int i = 0; i < kept.length; ++i) kept[i] = close.get(i);
+      return kept;
+   }//end corrections
+
+   /**
+    * Games and scores of one query word, sorted by game.
+    */
+   private static class Hits {
+      int[] docs;
+      float[] scores;
+      int size;
+
+      Hits(int capacity) {
+         docs = new int[capacity];
+         scores = new float[capacity];
+      }
+   }//end Hits
+
+   private float idf(int term) {
+      int df = postings[term].length;
+      return (float) Math.log(1 + (docs.length - df + 0.5) / (df + 0.5));
+   }
+
+   // the BM25 score of the i-th game in the term's posting list
+   private float score(int term, int i, float idf) {
+      int tf = freqs[term][i] & 0xff;
+      int d = postings[term][i];
+      return idf * tf * (K1 + 1) / (tf + K1 * (1 - B + B * lengths[d] / averageLength));
+   }
+
+   // merges the posting lists of the word's terms pairwise, a game keeps its best term
+   private Hits hits(Expansion x) {
+      List<Hits> lists = new ArrayList<Hits>(x.terms.size());
+      for (int k = 0; k < x.terms.size(); ++k) {
+         int t = x.terms.get(k);
+         float boost = x.boosts.get(k) * idf(t);
+         Hits h = new Hits(postings[t].length);
+         for (int i = 0; i < postings[t].length; ++i) {
+            h.docs[i] = postings[t][i];
+            h.scores[i] = score(t, i, boost);
+         }
+         h.size = postings[t].length;
+         lists.add(h);
+      }
+      if (lists.isEmpty())
+         return new Hits(0);
+      while (lists.size() > 1) {
+         List<Hits> next = new ArrayList<Hits>((lists.size() + 1) / 2);
+         for (int i = 0; i + 1 < lists.size(); i += 2)
+            next.add(union(lists.get(i), lists.get(i + 1), false));
+         if (lists.size() % 2 == 1)
+            next.add(lists.get(lists.size() - 1));
+         lists = next;
+      }
+      return lists.get(0);
+   }//end hits
+
+   /**
+    * Finds key in the ascending range [from, to) by doubling the step from
+    * from, then binary searching the last step. Cheap when successive keys
+    * are close, as they are when two sorted lists are walked together.
+    *
+    * @return the index of key, or -(insertion point) - 1
+    */
+   static int gallop(int[] sorted, int from, int to, int key) {
+      int step = 1, hi = from;
+      while (hi < to && sorted[hi] < key) {
+         from = hi + 1;
+         hi += step;
+         step <<= 1;
+      }
+      return Arrays.binarySearch(sorted, from, Math.min(hi + 1, to), key);
+   }//end gallop
+
+   /**
+    * Keeps the hits whose game also contains the word. Each term of the word
+    * is walked from its shorter side against the hits, galloping through
+    * the longer one, so a long posting list is never scored in full when
+    * only a few games are still in the running.
+    */
+   private Hits intersect(Hits a, Expansion x) {
+      // the best score of the word per hit, 0 while no term matched
+      float[] best = new float[a.size];
+      for (int k = 0; k < x.terms.size(); ++k) {
+         int t = x.terms.get(k);
+         int[] list = postings[t];
+         float boost = x.boosts.get(k) * idf(t);
+         int lo = 0;
+         if (list.length <= a.size) {
+            for (int j = 0; j < list.length && lo < a.size; ++j) {
+               int at = gallop(a.docs, lo, a.size, list[j]);
+               if (at >= 0) {
+                  best[at] = Math.max(best[at], score(t, j, boost));
+                  lo = at + 1;
+               } else {
+                  lo = -at - 1;
+               }
+            }
+         } else {
+            for (int i = 0; i < a.size && lo < list.length; ++i) {
+               int at = gallop(list, lo, list.length, a.docs[i]);
+               if (at >= 0) {
+                  best[i] = Math.max(best[i], score(t, at, boost));
+                  lo = at + 1;
+               } else {
+                  lo = -at - 1;
+               }
+            }
+         }
+      }
+      Hits out = new Hits(a.size);
+      for (int i = 0; i < a.size; ++i) {
+         if (best[i] > 0) {
+            out.docs[out.size] = a.docs[i];
+            out.scores[out.size++] = a.scores[i] + best[i];
+         }
+      }
+      return out;
+   }//end intersect
+
+   // games in both lists get the sum of their scores, or the better one
+   private static Hits union(Hits a, Hits b, boolean sum) {
+      Hits out = new Hits(a.size + b.size);
+      int i = 0, j = 0;
+      while (i < a.size || j < b.size) {
+         if (j == b.size || (i < a.size && a.docs[i] < b.docs[j])) {
+            out.docs[out.size] = a.docs[i];
+            out.scores[out.size++] = a.scores[i++];
+         } else if (i == a.size || b.docs[j] < a.docs[i]) {
+            out.docs[out.size] = b.docs[j];
+            out.scores[out.size++] = b.scores[j++];
+         } else {
+            out.docs[out.size] = a.docs[i];
+            out.scores[out.size++] = sum ? a.scores[i++] + b.scores[j++] : Math.max(a.scores[i++], b.scores[j++]);
+         }
+      }
+      return out;
+   }
+
+   /**
+    * Ranks the games matching the query.
+    *
+    * @param limit the number of games returned at most
+    * @return the best matches, best first
+    */
+   public List<CatalogCache.Game> search(String query, int limit) {
+      List<String> words = tokenize(query);
+      if (words.isEmpty() || limit <= 0)
+         return Collections.emptyList();
+      // the last word is still being typed unless the query ends with a separator
+      boolean typing = !Character.isWhitespace(query.charAt(query.length() - 1));
+      List<Expansion> perWord = new ArrayList<Expansion>(words.size());
+      for (int w = 0; w < words.size(); ++w) {
+         Expansion x = expand(words.get(w), typing && w == words.size() - 1);
+         if (!x.terms.isEmpty()) perWord.add(x);
+      }
+      if (perWord.isEmpty())
+         return Collections.emptyList();
+
+      // the rarest word first keeps every intermediate intersection small
+      Collections.sort(perWord, new Comparator<Expansion>() {
+         public int compare(Expansion a, Expansion b) {
+            return Long.compare(a.postings, b.postings);
+         }
+      });
+      Hits all = hits(perWord.get(0));
+      for (int i = 1; i < perWord.size() && all.size > 0; ++i)
+         all = intersect(all, perWord.get(i));
+      if (all.size == 0) {
+         all = hits(perWord.get(0));
+         for (int i = 1; i < perWord.size(); ++i)
+            all = union(all, hits(perWord.get(i)), true);
+      }
+      return top(all, limit);
+   }//end search
+
+   private List<CatalogCache.Game> top(final Hits hits, int limit) {
+      // min-heap on score, the weakest kept hit is replaced first
+      PriorityQueue<Integer> heap = new PriorityQueue<Integer>(Math.min(limit, hits.size) + 1, new Comparator<Integer>() {
+         public int compare(Integer a, Integer b) {
+            int c = Float.compare(hits.scores[a], hits.scores[b]);
+            return c != 0 ? c : Integer.compare(hits.docs[b], hits.docs[a]);
+         }
+      });
+      for (int i = 0; i < hits.size; ++i) {
+         if (heap.size() == limit) {
+            // most hits lose to the weakest kept one, so they are not boxed
+            int weakest = heap.peek();
+            if (hits.scores[i] < hits.scores[weakest]
+                || (hits.scores[i] == hits.scores[weakest] && hits.docs[i] > hits.docs[weakest]))
+               continue;
+         }
+         heap.add(i);
+         if (heap.size() > limit) heap.poll();
+      }
+      CatalogCache.Game[] ranked = new CatalogCache.Game[heap.size()];
+      for (int i = ranked.length - 1; i >= 0; --i)
+         ranked[i] = docs[hits.docs[heap.poll()]];
+      return Arrays.asList(ranked);
+   }//end top
+
+   public int getTermCount() { return terms.length; }
+
+}//end CatalogSearch
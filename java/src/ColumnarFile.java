@@ -0,0 +1,781 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * This class reads and writes the columnar files of SnapshotExport. A file
+ * holds one table as a sequence of row groups; each row group stores every
+ * column as its own Deflate compressed chunk, so a reader decodes only the
+ * columns it asks for and skips whole row groups whose min/max statistics
+ * rule them out. Within a chunk nulls are a bitmap, strings are dictionary
+ * encoded when at most half of them are distinct and stored plain
+ * otherwise, and timestamps, integers and decimals are zigzag varint deltas
+ * from the previous value. Every chunk records the min and max of its
+ * values, so a file sorted on a column finds a value in one row group.
+ *
+ * Layout: "GRC1", the chunks, a UTF-8 JSON footer with the schema and the
+ * offset, sizes and statistics of every chunk, the footer length as a 4 byte
+ * big endian int and "GRC1" again. Readers map one chunk at a time, so files
+ * of any size are read with a bounded heap.
+ *
+ * The main method is a small query tool over one file.
+ *
+ */
+public class ColumnarFile {
+
+   // column types
+   public static final int STRING = 0;
+   public static final int LONG = 1;
+   public static final int TIMESTAMP = 2;
+   public static final int DECIMAL = 3;
+   static final String[] TYPE_NAMES = {"string", "long", "timestamp", "decimal"};
+
+   // string chunk encodings
+   static final int PLAIN = 0;
+   static final int DICTIONARY = 1;
+
+   static final byte[] MAGIC = "GRC1".getBytes(StandardCharsets.US_ASCII);
+
+   /**
+    * One column of the schema. Decimals are stored unscaled at scale.
+    */
+   public static class Column {
+      public final String name;
+      public final int type;
+      public final int scale;
+
+      public Column(String name, int type, int scale) {
+         this.name = name;
+         this.type = type;
+         this.scale = scale;
+      }
+
+      public Column(String name, int type) {
+         this(name, type, 0);
+      }
+   }//end Column
+
+   /**
+    * A growable byte array with the varint writers the encodings need.
+    */
+   static class Bytes {
+      byte[] buf = new byte[1 << 16];
+      int size = 0;
+
+      void ensure(int n) {
+         if (size + n > buf.length) buf = Arrays.copyOf(buf, Math.max(buf.length * 2, size + n));
+      }
+
+      void put(int b) {
+         ensure(1);
+         buf[size++] = (byte) b;
+      }
+
+      void put(byte[] b) {
+         ensure(b.length);
+         System.arraycopy(b, 0, buf, size, b.length);
+         size += b.length;
+      }
+
+      void putVarLong(long v) {
+         ensure(10);
+         while ((v & ~0x7FL) != 0) {
+            buf[size++] = (byte) ((v & 0x7F) | 0x80);
+            v >>>= 7;
+         }
+         buf[size++] = (byte) v;
+      }
+
+      void putZigZag(long v) {
+         putVarLong((v << 1) ^ (v >> 63));
+      }
+
+      void putString(String s) {
+         byte[] b = s.getBytes(StandardCharsets.UTF_8);
+         putVarLong(b.length);
+         put(b);
+      }
+   }//end Bytes
+
+   static long getVarLong(ByteBuffer in) {
+      long v = 0;
+      int shift = 0;
+      while (true) {
+         byte b = in.get();
+         v |= (long) (b & 0x7F) << shift;
+         if (b >= 0) return v;
+         shift += 7;
+      }
+   }
+
+   static long getZigZag(ByteBuffer in) {
+      long v = getVarLong(in);
+      return (v >>> 1) ^ -(v & 1);
+   }
+
+   static String getString(ByteBuffer in) {
+      int n = (int) getVarLong(in);
+      String s = new String(in.array(), in.arrayOffset() + in.position(), n, StandardCharsets.UTF_8);
+      in.position(in.position() + n);
+      return s;
+   }
+
+   // ---------------------------------------------------------------- writing
+
+   /**
+    * Writes rows into a file, one row group at a time. Only the current row
+    * group is held in memory.
+    */
+   public static class Writer implements Closeable {
+      private final List<Column> columns;
+      private final int groupRows;
+      private final OutputStream out;
+      private final Deflater deflater;
+      private final Map<String, Object> meta = new LinkedHashMap<String, Object>();
+      private final List<Object> groups = new ArrayList<Object>();
+
+      // the current row group, one array per column
+      private final Object[] values;
+      private final boolean[][] nulls;
+      private int buffered = 0;
+      private long offset = 0;
+      private long rows = 0;
+      private final Bytes raw = new Bytes();
+      private byte[] compressed = new byte[1 << 16];
+
+      public Writer(File file, List<Column> columns, int groupRows, int level) throws IOException {
+         this.columns = columns;
+         this.groupRows = groupRows;
+         this.out = new BufferedOutputStream(new FileOutputStream(file), 1 << 20);
+         this.deflater = new Deflater(level);
+         this.values = new Object[columns.size()];
+         this.nulls = new boolean[columns.size()][groupRows];
+         for (int c = 0; c < columns.size(); ++c)
+            values[c] = columns.get(c).type == STRING ? new String[groupRows] : new long[groupRows];
+         write(MAGIC, MAGIC.length);
+      }
+
+      private void write(byte[] b, int n) throws IOException {
+         out.write(b, 0, n);
+         offset += n;
+      }
+
+      /**
+       * Adds a value to the footer, e.g. the watermark of an export.
+       */
+      public void putMeta(String key, Object value) {
+         meta.put(key, value);
+      }
+
+      /**
+       * Appends the current row of a query, its columns in schema order.
+       */
+      public void add(Row row) throws SQLException, IOException {
+         int r = buffered;
+         for (int c = 0; c < columns.size(); ++c) {
+            Column col = columns.get(c);
+            boolean isNull;
+            switch (col.type) {
+               case STRING: {
+                  String s = row.getString(c + 1);
+                  isNull = s == null;
+                  ((String[]) values[c])[r] = s;
+                  break;
+               }
+               case TIMESTAMP: {
+                  Timestamp t = row.getTimestamp(c + 1);
+                  isNull = t == null;
+                  ((long[]) values[c])[r] = isNull ? 0 : t.getTime();
+                  break;
+               }
+               case DECIMAL: {
+                  BigDecimal d = row.getBigDecimal(c + 1);
+                  isNull = d == null;
+                  ((long[]) values[c])[r] = isNull ? 0 : d.setScale(col.scale, RoundingMode.HALF_UP).unscaledValue().longValueExact();
+                  break;
+               }
+               default: {
+                  isNull = row.isNull(c + 1);
+                  ((long[]) values[c])[r] = isNull ? 0 : row.getLong(c + 1);
+               }
+            }
+            nulls[c][r] = isNull;
+         }
+         if (++buffered == groupRows)
+            flush();
+      }//end add
+
+      private void flush() throws IOException {
+         if (buffered == 0) return;
+         Map<String, Object> group = new LinkedHashMap<String, Object>();
+         group.put("rows", buffered);
+         List<Object> chunks = new ArrayList<Object>(columns.size());
+         for (int c = 0; c < columns.size(); ++c)
+            chunks.add(writeChunk(c));
+         group.put("chunks", chunks);
+         groups.add(group);
+         rows += buffered;
+         buffered = 0;
+      }//end flush
+
+      private Map<String, Object> writeChunk(int c) throws IOException {
+         Map<String, Object> chunk = new LinkedHashMap<String, Object>();
+         raw.size = 0;
+         boolean[] isNull = nulls[c];
+         int nullCount = 0;
+         for (int r = 0; r < buffered; ++r)
+            if (isNull[r]) nullCount++;
+         raw.put(nullCount > 0 ? 1 : 0);
+         if (nullCount > 0) {
+            for (int r = 0; r < buffered; r += 8) {
+               int b = 0;
+               for (int k = 0; k < 8 && r + k < buffered; ++k)
+                  if (isNull[r + k]) b |= 1 << k;
+               raw.put(b);
+            }
+         }
+
+         if (columns.get(c).type == STRING) {
+            String[] s = (String[]) values[c];
+            String min = null, max = null;
+            for (int r = 0; r < buffered; ++r) {
+               if (isNull[r]) continue;
+               if (min == null || s[r].compareTo(min) < 0) min = s[r];
+               if (max == null || s[r].compareTo(max) > 0) max = s[r];
+            }
+            if (min != null) {
+               chunk.put("min", min);
+               chunk.put("max", max);
+            }
+            // dictionary encodes while at most half of the values are distinct
+            Map<String, Integer> dict = new HashMap<String, Integer>();
+            List<String> entries = new ArrayList<String>();
+            int limit = Math.max(1, (buffered - nullCount) / 2);
+            for (int r = 0; r < buffered && entries.size() <= limit; ++r) {
+               if (isNull[r] || dict.containsKey(s[r])) continue;
+               dict.put(s[r], entries.size());
+               entries.add(s[r]);
+            }
+            if (entries.size() <= limit) {
+               raw.put(DICTIONARY);
+               raw.putVarLong(entries.size());
+               for (String e : entries)
+                  raw.putString(e);
+               for (int r = 0; r < buffered; ++r)
+                  if (!isNull[r]) raw.putVarLong(dict.get(s[r]));
+               chunk.put("encoding", "dictionary");
+               chunk.put("distinct", entries.size());
+            } else {
+               raw.put(PLAIN);
+               for (int r = 0; r < buffered; ++r)
+                  if (!isNull[r]) raw.putString(s[r]);
+               chunk.put("encoding", "plain");
+            }
+            for (int r = 0; r < buffered; ++r) s[r] = null;
+         } else {
+            long[] v = (long[]) values[c];
+            long previous = 0, min = Long.MAX_VALUE, max = Long.MIN_VALUE;
+            for (int r = 0; r < buffered; ++r) {
+               if (isNull[r]) continue;
+               raw.putZigZag(v[r] - previous);
+               previous = v[r];
+               min = Math.min(min, v[r]);
+               max = Math.max(max, v[r]);
+            }
+            chunk.put("encoding", "delta");
+            if (nullCount < buffered) {
+               chunk.put("min", min);
+               chunk.put("max", max);
+            }
+         }
+
+         deflater.reset();
+         deflater.setInput(raw.buf, 0, raw.size);
+         deflater.finish();
+         int length = 0;
+         while (!deflater.finished()) {
+            if (length == compressed.length) compressed = Arrays.copyOf(compressed, compressed.length * 2);
+            length += deflater.deflate(compressed, length, compressed.length - length);
+         }
+         chunk.put("offset", offset);
+         chunk.put("length", length);
+         chunk.put("raw", raw.size);
+         chunk.put("nulls", nullCount);
+         write(compressed, length);
+         return chunk;
+      }//end writeChunk
+
+      public long getRows() {
+         return rows + buffered;
+      }
+
+      public long getBytes() {
+         return offset;
+      }
+
+      /**
+       * Writes the last row group and the footer.
+       */
+      public void close() throws IOException {
+         try {
+            flush();
+            Map<String, Object> footer = new LinkedHashMap<String, Object>();
+            footer.put("format", "GRC1");
+            List<Object> schema = new ArrayList<Object>();
+            for (Column col : columns) {
+               Map<String, Object> m = new LinkedHashMap<String, Object>();
+               m.put("name", col.name);
+               m.put("type", TYPE_NAMES[col.type]);
+               m.put("scale", col.scale);
+               schema.add(m);
+            }
+            footer.put("columns", schema);
+            footer.put("rows", rows);
+            footer.put("meta", meta);
+            footer.put("groups", groups);
+            byte[] json = Json.write(footer).getBytes(StandardCharsets.UTF_8);
+            write(json, json.length);
+            byte[] tail = ByteBuffer.allocate(4).putInt(json.length).array();
+            write(tail, 4);
+            write(MAGIC, MAGIC.length);
+         } finally {
+            deflater.end();
+            out.close();
+         }
+      }//end close
+   }//end Writer
+
+   // ---------------------------------------------------------------- reading
+
+   /**
+    * One decoded chunk. Strings of a dictionary chunk stay codes into the
+    * dictionary until asked for.
+    */
+   public static class Chunk {
+      public final Column column;
+      public final int rows;
+      boolean[] nulls;          // null when the chunk has none
+      long[] longs;
+      String[] plain;
+      String[] dictionary;
+      int[] codes;
+
+      Chunk(Column column, int rows) {
+         this.column = column;
+         this.rows = rows;
+      }
+
+      public boolean isNull(int r) {
+         return nulls != null && nulls[r];
+      }
+
+      public long getLong(int r) {
+         return longs[r];
+      }
+
+      public String getString(int r) {
+         if (isNull(r)) return null;
+         switch (column.type) {
+            case STRING: return dictionary != null ? dictionary[codes[r]] : plain[r];
+            case TIMESTAMP: return new Timestamp(longs[r]).toString();
+            case DECIMAL: return BigDecimal.valueOf(longs[r], column.scale).toPlainString();
+            default: return Long.toString(longs[r]);
+         }
+      }
+
+      /**
+       * @return the dictionary code of a value, -1 if the chunk does not
+       *         contain it, -2 when the chunk is not dictionary encoded
+       */
+      public int code(String value) {
+         if (dictionary == null) return -2;
+         for (int i = 0; i < dictionary.length; ++i)
+            if (dictionary[i].equals(value)) return i;
+         return -1;
+      }
+   }//end Chunk
+
+   /**
+    * Reads a file written by Writer. Chunks are mapped and decoded on
+    * demand.
+    */
+   public static class Reader implements Closeable {
+      private final RandomAccessFile file;
+      private final FileChannel channel;
+      private final List<Column> columns = new ArrayList<Column>();
+      private final List<Map<String, Object>> groups = new ArrayList<Map<String, Object>>();
+      private final Map<String, Object> footer;
+      private final Inflater inflater = new Inflater();
+
+      @SuppressWarnings("unchecked")
+      public Reader(File f) throws IOException {
+         file = new RandomAccessFile(f, "r");
+         channel = file.getChannel();
+         long size = channel.size();
+         ByteBuffer tail = channel.map(FileChannel.MapMode.READ_ONLY, size - 8, 8);
+         int footerLength = tail.getInt();
+         byte[] magic = new byte[4];
+         tail.get(magic);
+         if (!Arrays.equals(magic, MAGIC))
+            throw new IOException(f + " is not a GRC1 file");
+         byte[] json = new byte[footerLength];
+         channel.map(FileChannel.MapMode.READ_ONLY, size - 8 - footerLength, footerLength).get(json);
+         footer = Json.parseObject(new String(json, StandardCharsets.UTF_8));
+         for (Object o : (List<Object>) footer.get("columns")) {
+            Map<String, Object> m = (Map<String, Object>) o;
+            columns.add(new Column((String) m.get("name"), Arrays.asList(TYPE_NAMES).indexOf(m.get("type")),
+                                   ((Number) m.get("scale")).intValue()));
+         }
+         for (Object o : (List<Object>) footer.get("groups"))
+            groups.add((Map<String, Object>) o);
+      }
+
+      public List<Column> getColumns() { return columns; }
+      public int getGroupCount() { return groups.size(); }
+      public long getRows() { return ((Number) footer.get("rows")).longValue(); }
+
+      @SuppressWarnings("unchecked")
+      public Map<String, Object> getMeta() {
+         return (Map<String, Object>) footer.get("meta");
+      }
+
+      public int getRows(int group) {
+         return ((Number) groups.get(group).get("rows")).intValue();
+      }
+
+      public int indexOf(String column) {
+         for (int c = 0; c < columns.size(); ++c)
+            if (columns.get(c).name.equalsIgnoreCase(column)) return c;
+         throw new IllegalArgumentException("No column " + column);
+      }
+
+      /**
+       * @return the footer entry of a chunk: offset, length, raw, nulls,
+       *         encoding, min and max
+       */
+      @SuppressWarnings("unchecked")
+      public Map<String, Object> stats(int group, int column) {
+         return (Map<String, Object>) ((List<Object>) groups.get(group).get("chunks")).get(column);
+      }
+
+      /**
+       * Maps, inflates and decodes one chunk.
+       */
+      public Chunk read(int group, int column) throws IOException {
+         Map<String, Object> s = stats(group, column);
+         long offset = ((Number) s.get("offset")).longValue();
+         int length = ((Number) s.get("length")).intValue();
+         byte[] raw = new byte[((Number) s.get("raw")).intValue()];
+         inflater.reset();
+         inflater.setInput(channel.map(FileChannel.MapMode.READ_ONLY, offset, length));
+         try {
+            int n = 0;
+            while (n < raw.length && !inflater.finished())
+               n += inflater.inflate(raw, n, raw.length - n);
+         } catch (DataFormatException e) {
+            throw new IOException("Corrupt chunk " + group + "/" + column + ": " + e.getMessage());
+         }
+
+         int rows = getRows(group);
+         Column col = columns.get(column);
+         Chunk chunk = new Chunk(col, rows);
+         ByteBuffer in = ByteBuffer.wrap(raw);
+         if (in.get() == 1) {
+            chunk.nulls = new boolean[rows];
+            for (int r = 0; r < rows; r += 8) {
+               int b = in.get();
+               for (int k = 0; k < 8 && r + k < rows; ++k)
+                  chunk.nulls[r + k] = (b & (1 << k)) != 0;
+            }
+         }
+         if (col.type == STRING) {
+            if (in.get() == DICTIONARY) {
+               chunk.dictionary = new String[(int) getVarLong(in)];
+               for (int i = 0; i < chunk.dictionary.length; ++i)
+                  chunk.dictionary[i] = getString(in);
+               chunk.codes = new int[rows];
+               for (int r = 0; r < rows; ++r)
+                  chunk.codes[r] = chunk.isNull(r) ? -1 : (int) getVarLong(in);
+            } else {
+               chunk.plain = new String[rows];
+               for (int r = 0; r < rows; ++r)
+                  if (!chunk.isNull(r)) chunk.plain[r] = getString(in);
+            }
+         } else {
+            chunk.longs = new long[rows];
+            long previous = 0;
+            for (int r = 0; r < rows; ++r) {
+               if (chunk.isNull(r)) continue;
+               previous += getZigZag(in);
+               chunk.longs[r] = previous;
+            }
+         }
+         return chunk;
+      }//end read
+
+      public void close() throws IOException {
+         inflater.end();
+         file.close();
+      }
+   }//end Reader
+
+   // ---------------------------------------------------------------- query tool
+
+   /**
+    * Parses a value of a numeric column into its stored long.
+    */
+   static long parse(Column col, String value) {
+      switch (col.type) {
+         case TIMESTAMP:
+            return Timestamp.valueOf(value.length() == 10 ? value + " 00:00:00" : value).getTime();
+         case DECIMAL:
+            return new BigDecimal(value).setScale(col.scale, RoundingMode.HALF_UP).unscaledValue().longValueExact();
+         default:
+            return Long.parseLong(value);
+      }
+   }
+
+   /**
+    * A condition on one column: equality for strings, an inclusive range
+    * for the other types.
+    */
+   static class Filter {
+      final int column;
+      final String equals;
+      final long from;
+      final long to;
+
+      Filter(int column, String equals, long from, long to) {
+         this.column = column;
+         this.equals = equals;
+         this.from = from;
+         this.to = to;
+      }
+
+      // rules a row group out from its statistics alone
+      boolean skips(Map<String, Object> stats) {
+         // a chunk without min/max holds only nulls, or is a string chunk of an older file
+         if (!stats.containsKey("min")) return equals == null;
+         if (equals != null)
+            return stats.get("min") instanceof String
+               && (equals.compareTo((String) stats.get("min")) < 0 || equals.compareTo((String) stats.get("max")) > 0);
+         return ((Number) stats.get("max")).longValue() < from || ((Number) stats.get("min")).longValue() > to;
+      }
+
+      boolean matches(Chunk chunk, int r, int code) {
+         if (chunk.isNull(r)) return false;
+         if (equals == null) return chunk.longs[r] >= from && chunk.longs[r] <= to;
+         if (code >= 0) return chunk.codes[r] == code;
+         return equals.equals(chunk.getString(r));
+      }
+   }//end Filter
+
+   static void usage() {
+      System.err.println(
+         "Usage: java [-classpath <classpath>] " + ColumnarFile.class.getName() + " <file> [options]\n" +
+         "  --info                   print the schema, row groups and chunk sizes\n" +
+         "  --columns <a,b,...>      columns to print (default all)\n" +
+         "  --where <col>=<value>    keep rows where a column equals the value\n" +
+         "  --range <col>=<from>..<to>  keep rows where a number or timestamp lies in the range, either end optional\n" +
+         "  --count-by <col>         count the kept rows per value instead of printing them\n" +
+         "  --sum <col>              with --count-by, also sum a number column per value\n" +
+         "  --limit <n>              print at most n rows (default 100)");
+   }
+
+   /**
+    * The query tool
+    *
+    * @param args <file> followed by the options in usage()
+    */
+   public static void main(String[] args) {
+      if (args.length < 1) {
+         usage();
+         return;
+      }
+      Reader reader = null;
+      try {
+         reader = new Reader(new File(args[0]));
+         List<Integer> print = new ArrayList<Integer>();
+         List<Filter> filters = new ArrayList<Filter>();
+         int countBy = -1, sum = -1;
+         long limit = 100;
+         boolean info = false;
+         for (int i = 1; i < args.length; ++i) {
+            String a = args[i];
+            if (a.equals("--info")) {
+               info = true;
+            } else if (a.equals("--columns")) {
+               for (String c : args[++i].split(",")) print.add(reader.indexOf(c.trim()));
+            } else if (a.equals("--where")) {
+               String[] kv = args[++i].split("=", 2);
+               filters.add(new Filter(reader.indexOf(kv[0]), kv[1], 0, 0));
+            } else if (a.equals("--range")) {
+               String[] kv = args[++i].split("=", 2);
+               int c = reader.indexOf(kv[0]);
+               Column col = reader.getColumns().get(c);
+               if (col.type == STRING)
+                  throw new IllegalArgumentException(col.name + " is not a number or timestamp");
+               String[] ends = kv[1].split("\\.\\.", -1);
+               filters.add(new Filter(c, null,
+                  ends[0].isEmpty() ? Long.MIN_VALUE : parse(col, ends[0]),
+                  ends.length < 2 || ends[1].isEmpty() ? Long.MAX_VALUE : parse(col, ends[1])));
+            } else if (a.equals("--count-by")) {
+               countBy = reader.indexOf(args[++i]);
+            } else if (a.equals("--sum")) {
+               sum = reader.indexOf(args[++i]);
+            } else if (a.equals("--limit")) {
+               limit = Long.parseLong(args[++i]);
+            } else {
+               usage();
+               return;
+            }
+         }
+
+         if (info) {
+            System.out.println(args[0] + ": " + reader.getRows() + " rows in " + reader.getGroupCount() + " row groups, " +
+                               "meta " + Json.write(reader.getMeta()));
+            for (int c = 0; c < reader.getColumns().size(); ++c) {
+               Column col = reader.getColumns().get(c);
+               long length = 0, raw = 0;
+               Map<String, Integer> encodings = new TreeMap<String, Integer>();
+               for (int g = 0; g < reader.getGroupCount(); ++g) {
+                  Map<String, Object> s = reader.stats(g, c);
+                  length += ((Number) s.get("length")).longValue();
+                  raw += ((Number) s.get("raw")).longValue();
+                  String e = (String) s.get("encoding");
+                  encodings.put(e, encodings.containsKey(e) ? encodings.get(e) + 1 : 1);
+               }
+               System.out.println(String.format(Locale.ROOT, "  %-22s %-10s %12d bytes (%.1fx) %s",
+                                                col.name, TYPE_NAMES[col.type], length,
+                                                length == 0 ? 0 : (double) raw / length, encodings));
+            }
+            return;
+         }
+
+         if (print.isEmpty())
+            for (int c = 0; c < reader.getColumns().size(); ++c) print.add(c);
+         if (countBy < 0) {
+            StringBuilder header = new StringBuilder();
+            for (int c : print) {
+               if (header.length() > 0) header.append(',');
+               header.append(reader.getColumns().get(c).name);
+            }
+            System.out.println(header);
+         }
+
+         Map<String, long[]> counts = new TreeMap<String, long[]>();
+         long printed = 0, scanned = 0, skipped = 0;
+         for (int g = 0; g < reader.getGroupCount() && (countBy >= 0 || printed < limit); ++g) {
+            boolean skip = false;
+            for (Filter f : filters)
+               if (f.skips(reader.stats(g, f.column))) skip = true;
+            if (skip) {
+               skipped++;
+               continue;
+            }
+            scanned++;
+            int rows = reader.getRows(g);
+            Chunk[] chunks = new Chunk[reader.getColumns().size()];
+            // evaluates the filters first and decodes the other columns only if a row survives
+            boolean[] keep = new boolean[rows];
+            Arrays.fill(keep, true);
+            int kept = rows;
+            for (Filter f : filters) {
+               if (kept == 0) break;
+               Chunk chunk = chunks[f.column] != null ? chunks[f.column] : (chunks[f.column] = reader.read(g, f.column));
+               int code = f.equals == null ? -2 : chunk.code(f.equals);
+               if (code == -1) {
+                  kept = 0;
+                  break;
+               }
+               for (int r = 0; r < rows; ++r)
+                  if (keep[r] && !f.matches(chunk, r, code)) { keep[r] = false; kept--; }
+            }
+            if (kept == 0) continue;
+
+            if (countBy >= 0) {
+               Chunk key = chunks[countBy] != null ? chunks[countBy] : (chunks[countBy] = reader.read(g, countBy));
+               Chunk total = sum < 0 ? null : chunks[sum] != null ? chunks[sum] : (chunks[sum] = reader.read(g, sum));
+               for (int r = 0; r < rows; ++r) {
+                  if (!keep[r]) continue;
+                  String k = String.valueOf(key.getString(r));
+                  long[] acc = counts.get(k);
+                  if (acc == null) counts.put(k, acc = new long[2]);
+                  acc[0]++;
+                  if (total != null && !total.isNull(r)) acc[1] += total.getLong(r);
+               }
+               continue;
+            }
+            for (int c : print)
+               if (chunks[c] == null) chunks[c] = reader.read(g, c);
+            for (int r = 0; r < rows && printed < limit; ++r) {
+               if (!keep[r]) continue;
+               StringBuilder line = new StringBuilder();
+               for (int i = 0; i < print.size(); ++i) {
+                  if (i > 0) line.append(',');
+                  String v = chunks[print.get(i)].getString(r);
+                  line.append(v == null ? "" : CsvReader.quote(v));
+               }
+               System.out.println(line);
+               printed++;
+            }
+         }
+
+         if (countBy >= 0) {
+            Column sumColumn = sum < 0 ? null : reader.getColumns().get(sum);
+            for (Map.Entry<String, long[]> e : counts.entrySet()) {
+               String total = "";
+               if (sumColumn != null)
+                  total = "," + (sumColumn.type == DECIMAL ? BigDecimal.valueOf(e.getValue()[1], sumColumn.scale).toPlainString()
+                                                           : Long.toString(e.getValue()[1]));
+               System.out.println(CsvReader.quote(e.getKey()) + "," + e.getValue()[0] + total);
+            }
+         }
+         System.err.println(scanned + " row groups scanned, " + skipped + " skipped by statistics");
+      } catch (Exception e) {
+         System.err.println("❌Query failed: " + e.getMessage());
+      } finally {
+         if (reader != null) {
+            try {
+               reader.close();
+            } catch (IOException e) {
+               // nothing left to read
+            }
+         }
+      }
+   }//end main
+
+}//end ColumnarFile
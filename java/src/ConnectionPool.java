@@ -0,0 +1,265 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class keeps a bounded pool of physical connections to the GameRental
+ * database. Every pooled connection owns a cache of prepared statements keyed
+ * by the SQL text, so each query shape is parsed and planned once per
+ * connection instead of once per call.
+ *
+ */
+public class ConnectionPool {
+
+   // connection settings used whenever the pool has to open a new connection
+   private final String url;
+   private final String user;
+   private final String passwd;
+
+   // upper bound on physical connections and on cached statements per connection
+   private final int maxSize;
+   private final int statementCacheSize;
+   private final long waitTimeoutMillis;
+
+   // connections that are currently not handed out
+   private final BlockingQueue<PooledConnection> idle;
+   private final AtomicInteger created = new AtomicInteger(0);
+   private volatile boolean closed = false;
+
+   // counters used to size the pool under load
+   private final AtomicLong hits = new AtomicLong(0);
+   private final AtomicLong misses = new AtomicLong(0);
+   private final AtomicLong waits = new AtomicLong(0);
+   private final AtomicLong waitNanos = new AtomicLong(0);
+   private final AtomicLong statementHits = new AtomicLong(0);
+   private final AtomicLong statementMisses = new AtomicLong(0);
+
+   /**
+    * Creates a new pool. No connection is opened until the first acquire.
+    *
+    * @param url the JDBC connection URL
+    * @param user the user name used to login to the database
+    * @param passwd the user login password
+    * @param maxSize the maximum number of physical connections
+    * @param statementCacheSize the number of prepared statements kept per connection
+    * @param waitTimeoutMillis how long acquire waits for a free connection
+    */
+   public ConnectionPool(String url, String user, String passwd,
+                         int maxSize, int statementCacheSize, long waitTimeoutMillis) {
+      this.url = url;
+      this.user = user;
+      this.passwd = passwd;
+      this.maxSize = Math.max(1, maxSize);
+      this.statementCacheSize = Math.max(1, statementCacheSize);
+      this.waitTimeoutMillis = waitTimeoutMillis;
+      this.idle = new ArrayBlockingQueue<PooledConnection>(this.maxSize);
+   }//end ConnectionPool
+
+   /**
+    * Hands out a connection, opening a new one while the pool is below its
+    * bound and waiting for a released one otherwise.
+    *
+    * @return a pooled connection that must be given back with release
+    * @throws java.sql.SQLException when no connection became free in time or
+    *         the pool is closed
+    */
+   public PooledConnection acquire() throws SQLException {
+      if (closed)
+         throw new SQLException("The connection pool is closed");
+      PooledConnection conn = idle.poll();
+      if (conn != null) {
+         hits.incrementAndGet();
+         return conn;
+      }
+      while (true) {
+         int current = created.get();
+         if (current >= maxSize) break;
+         if (created.compareAndSet(current, current + 1)) {
+            misses.incrementAndGet();
+            try {
+               return new PooledConnection(DriverManager.getConnection(url, user, passwd));
+            } catch (SQLException e) {
+               created.decrementAndGet();
+               throw e;
+            }
+         }
+      }
+
+      // the pool is exhausted, wait for another caller to release a connection
+      waits.incrementAndGet();
+      long start = System.nanoTime();
+      try {
+         conn = idle.poll(waitTimeoutMillis, TimeUnit.MILLISECONDS);
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+         throw new SQLException("Interrupted while waiting for a database connection");
+      } finally {
+         waitNanos.addAndGet(System.nanoTime() - start);
+      }
+      if (conn == null)
+         throw new SQLException("Timed out waiting for a database connection after " + waitTimeoutMillis + " ms");
+      if (closed) {
+         release(conn);
+         throw new SQLException("The connection pool is closed");
+      }
+      hits.incrementAndGet();
+      return conn;
+   }//end acquire
+
+   /**
+    * Gives a connection back to the pool. Broken connections, and every
+    * connection once the pool is closed, are closed and forgotten so that a
+    * later acquire opens a fresh one.
+    *
+    * @param conn the connection obtained from acquire
+    */
+   public void release(PooledConnection conn) {
+      if (conn == null) return;
+      boolean healthy;
+      try {
+         healthy = !conn.connection.isClosed();
+         if (healthy && !conn.connection.getAutoCommit()) {
+            // never hand out a connection with a half finished transaction
+            conn.connection.rollback();
+            conn.connection.setAutoCommit(true);
+         }
+      } catch (SQLException e) {
+         healthy = false;
+      }
+      if (!healthy || closed || !idle.offer(conn)) {
+         conn.close();
+         created.decrementAndGet();
+      } else if (closed) {
+         // the pool was closed while the connection went back in
+         closeIdle();
+      }
+   }//end release
+
+   /**
+    * Closes every idle connection. Connections still handed out are closed
+    * when they are released, and acquire fails from now on.
+    */
+   public void close() {
+      closed = true;
+      closeIdle();
+   }//end close
+
+   private void closeIdle() {
+      PooledConnection conn;
+      while ((conn = idle.poll()) != null) {
+         conn.close();
+         created.decrementAndGet();
+      }
+   }
+
+   public long getHits() { return hits.get(); }
+   public long getMisses() { return misses.get(); }
+   public long getWaits() { return waits.get(); }
+   public long getWaitMillis() { return TimeUnit.NANOSECONDS.toMillis(waitNanos.get()); }
+   public long getStatementHits() { return statementHits.get(); }
+   public long getStatementMisses() { return statementMisses.get(); }
+   public int getSize() { return created.get(); }
+   public int getMaxSize() { return maxSize; }
+
+   /**
+    * Summarises the pool counters on one line.
+    */
+   public String toString() {
+      return String.format(
+         "pool size=%d/%d hits=%d misses=%d waits=%d waitTime=%dms statements hits=%d misses=%d",
+         getSize(), maxSize, getHits(), getMisses(), getWaits(), getWaitMillis(),
+         getStatementHits(), getStatementMisses());
+   }//end toString
+
+   /**
+    * A physical connection together with its prepared statement cache.
+    * Instances are only ever used by one thread between acquire and release.
+    */
+   public class PooledConnection {
+
+      private final Connection connection;
+      private final Map<String, PreparedStatement> statements;
+
+      private PooledConnection(Connection connection) {
+         this.connection = connection;
+         // access ordered so the least recently used statement is evicted first
+         this.statements = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true);
+      }
+
+      /**
+       * @return the underlying JDBC connection, e.g. to control transactions
+       */
+      public Connection getConnection() {
+         return connection;
+      }
+
+      /**
+       * Returns the cached prepared statement for the given SQL, preparing it
+       * on the server the first time this connection sees the query shape.
+       * The statement must not be closed by the caller.
+       *
+       * @param sql the SQL text with ? placeholders
+       * @return a prepared statement with its parameters cleared
+       * @throws java.sql.SQLException when the statement cannot be prepared
+       */
+      public PreparedStatement prepare(String sql) throws SQLException {
+         PreparedStatement stmt = statements.get(sql);
+         if (stmt != null) {
+            statementHits.incrementAndGet();
+            stmt.clearParameters();
+            return stmt;
+         }
+         statementMisses.incrementAndGet();
+         stmt = connection.prepareStatement(sql);
+         if (stmt instanceof org.postgresql.PGStatement)
+            ((org.postgresql.PGStatement) stmt).setUseServerPrepare(true);
+         statements.put(sql, stmt);
+         if (statements.size() > statementCacheSize) {
+            Iterator<PreparedStatement> eldest = statements.values().iterator();
+            closeQuietly(eldest.next());
+            eldest.remove();
+         }
+         return stmt;
+      }//end prepare
+
+      private void close() {
+         for (PreparedStatement stmt : statements.values())
+            closeQuietly(stmt);
+         statements.clear();
+         try {
+            connection.close();
+         } catch (SQLException e) {
+            // ignored.
+         }
+      }
+   }//end PooledConnection
+
+   private static void closeQuietly(PreparedStatement stmt) {
+      try {
+         stmt.close();
+      } catch (SQLException e) {
+         // ignored.
+      }
+   }
+
+}//end ConnectionPool
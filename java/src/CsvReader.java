@@ -0,0 +1,120 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class reads RFC 4180 style CSV one record at a time, so files of any
+ * size can be processed without holding them in memory. Quoted fields may
+ * contain commas, doubled quotes and line breaks.
+ *
+ */
+public class CsvReader {
+
+   private final Reader reader;
+   private final char[] buffer = new char[1 << 16];
+   private int pos = 0;
+   private int limit = 0;
+   private long records = 0;
+
+   // the fields of the record being assembled
+   private final List<String> fields = new ArrayList<String>();
+   private final StringBuilder field = new StringBuilder();
+
+   public CsvReader(Reader reader) {
+      this.reader = reader;
+   }
+
+   private int read() throws IOException {
+      if (pos == limit) {
+         limit = reader.read(buffer, 0, buffer.length);
+         pos = 0;
+         if (limit <= 0) {
+            limit = 0;
+            return -1;
+         }
+      }
+      return buffer[pos++];
+   }
+
+   private int peek() throws IOException {
+      int c = read();
+      if (c != -1) pos--;
+      return c;
+   }
+
+   /**
+    * Reads the next record.
+    *
+    * @return the fields of the record, or null at the end of the input
+    * @throws java.io.IOException when the input cannot be read or a quoted
+    *         field is not terminated
+    */
+   public String[] next() throws IOException {
+      fields.clear();
+      field.setLength(0);
+      int c = read();
+      if (c == -1)
+         return null;
+
+      boolean quoted = false;
+      while (true) {
+         if (quoted) {
+            if (c == -1)
+               throw new IOException("Unterminated quoted field in record " + (records + 1));
+            if (c == '"') {
+               if (peek() == '"') {
+                  read();
+                  field.append('"');
+               } else {
+                  quoted = false;
+               }
+            } else {
+               field.append((char) c);
+            }
+         } else if (c == '"') {
+            quoted = true;
+         } else if (c == ',') {
+            fields.add(field.toString());
+            field.setLength(0);
+         } else if (c == '\n' || c == '\r' || c == -1) {
+            if (c == '\r' && peek() == '\n')
+               read();
+            fields.add(field.toString());
+            records++;
+            return fields.toArray(new String[fields.size()]);
+         } else {
+            field.append((char) c);
+         }
+         c = read();
+      }
+   }//end next
+
+   /**
+    * @return the number of records returned so far, including a header
+    */
+   public long getRecords() {
+      return records;
+   }
+
+   /**
+    * Quotes a value for a CSV file in the format of the files in data/.
+    */
+   public static String quote(String value) {
+      if (value == null)
+         return "";
+      return "\"" + value.replace("\"", "\"\"") + "\"";
+   }//end quote
+
+}//end CsvReader
@@ -0,0 +1,584 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PipedReader;
+import java.io.PipedWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.Timestamp;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.TimeZone;
+
+/**
+ * This class generates synthetic GameRental datasets in exactly the format of
+ * the files in data/. Generation is deterministic for a given seed: every
+ * user, game and order is derived from its own random stream, so each table
+ * can be written independently and in a single pass, and memory stays
+ * bounded by the catalog size no matter how many orders are produced. The
+ * output goes either to CSV files or straight into BulkLoader.
+ *
+ */
+public class DataGenerator {
+
+   static final String[] GENRES = {"Action", "Shooter", "Platform", "Sports", "Role-Playing", "Misc",
+      "Racing", "Fighting", "Simulation", "Puzzle", "Adventure", "Strategy"};
+   static final String[] PLATFORMS = {"PS2", "X360", "PS", "Wii", "PS3", "DS", "PS4", "GB", "NES", "3DS",
+      "N64", "SNES", "PC", "XOne", "GBA", "Multi"};
+   static final String[] PUBLISHERS = {"Nintendo", "Electronic Arts", "Sony Computer Entertainment",
+      "Activision", "Ubisoft", "Microsoft Game Studios", "Take-Two Interactive", "THQ", "Capcom",
+      "Konami Digital Entertainment", "Sega", "Atari", "Epic Games"};
+   static final String[] TITLE_WORDS = {"Super", "Mario", "Zelda", "Legend", "Dragon", "Quest", "Kart",
+      "Star", "Wars", "Final", "Fantasy", "Call", "Duty", "Grand", "Theft", "Auto", "Pokemon", "Sonic",
+      "Halo", "Racing", "Street", "Fighter", "Tennis", "Soccer", "Party", "Island", "Space", "Knight",
+      "Shadow", "World", "Galaxy", "Battle", "Ninja", "Rally", "Sims", "Craft", "Tactics", "Warrior"};
+   static final String[] FIRST_NAMES = {"aaron", "amy", "brandon", "carla", "daniel", "emma", "frank",
+      "grace", "henry", "isabel", "jason", "katie", "logan", "maria", "nathan", "olivia", "peter",
+      "quinn", "rachel", "samuel", "tiffany", "victor", "whitney", "xavier", "yvonne", "zoe"};
+   static final String[] LAST_NAMES = {"haley", "henson", "watson", "potts", "hodge", "bowen", "gaines",
+      "richardson", "smith", "johnson", "lee", "martin", "garcia", "clark", "lewis", "walker", "young",
+      "allen", "king", "wright", "scott", "green", "baker", "adams", "nelson", "hill"};
+   static final String[] CITIES = {"Houston,TX", "San Antonio,TX", "Detroit,MI", "Tulsa,OK", "Wichita,KS",
+      "Jacksonville,FL", "Milwaukee,WI", "Indianapolis,IN", "Tucson,AZ", "Austin,TX", "Memphis,TN",
+      "Albuquerque,NM", "New York,NY", "Miami,FL", "Los Angeles,CA", "San Jose,CA", "Riverside,CA"};
+   static final String[] COURIERS = {"USPS", "TNT", "FedEx", "UPS", "DHL"};
+   static final String DEFAULT_STATUS_MIX = "Delayed=1,Ready for Pickup=1,Arrived at Facility=1,"
+      + "Out for Delivery=1,Returned to Sender=1,Attempted Delivery=1,Delivered=1,In Transit=1";
+
+   private static final long DAY = 24L * 60 * 60 * 1000;
+   private static final char[] PASSWORD_CHARS =
+      "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789".toCharArray();
+
+   // generation settings, see usage() for their meaning
+   long seed = 166;
+   int users = 500;
+   int games = 500;
+   long orders = 3000;
+   double userSkew = 1.1;
+   double gameSkew = 0.8;
+   int minGamesPerOrder = 1;
+   int maxGamesPerOrder = 5;
+   int maxUnits = 5;
+   long fromMillis = parse("2014-01-01 00:00:00");
+   long toMillis = parse("2024-12-31 23:59:59");
+   String statusMix = DEFAULT_STATUS_MIX;
+   boolean compactIds = false;
+
+   // derived state, all of it proportional to the catalog or constant
+   private String[] statuses;
+   private double[] statusCdf;
+   private long[] gamePriceCents;
+   private ZipfSampler userSampler;
+   private ZipfSampler gameSampler;
+   private long userStride;
+
+   /**
+    * Precomputes the catalog prices and the samplers. Must be called after
+    * the settings are final and before any table is written.
+    */
+   void prepare() {
+      if (minGamesPerOrder < 1 || maxGamesPerOrder < minGamesPerOrder || maxGamesPerOrder > games)
+         throw new IllegalArgumentException("games per order must satisfy 1 <= min <= max <= catalog size");
+      String[] entries = statusMix.split(",");
+      statuses = new String[entries.length];
+      statusCdf = new double[entries.length];
+      double sum = 0;
+      for (int i = 0; i < entries.length; ++i) {
+         int eq = entries[i].lastIndexOf('=');
+         statuses[i] = eq < 0 ? entries[i].trim() : entries[i].substring(0, eq).trim();
+         sum += eq < 0 ? 1.0 : Double.parseDouble(entries[i].substring(eq + 1));
+         statusCdf[i] = sum;
+      }
+      for (int i = 0; i < statusCdf.length; ++i)
+         statusCdf[i] /= sum;
+
+      gamePriceCents = new long[games];
+      for (int g = 0; g < games; ++g)
+         gamePriceCents[g] = new SplittableRandom(mix(seed, 2, g)).nextInt(10, 70) * 100L + 99;
+
+      userSampler = new ZipfSampler(users, userSkew);
+      gameSampler = new ZipfSampler(games, gameSkew);
+      // a stride coprime to the user count spreads the heavy users over the login space
+      userStride = 7919;
+      while (gcd(userStride, users) != 1)
+         userStride += 2;
+   }//end prepare
+
+   private static long gcd(long a, long b) {
+      return b == 0 ? a : gcd(b, a % b);
+   }
+
+   /**
+    * SplitMix64 style mixing of the seed, a table tag and a row number into
+    * the seed of that row's random stream.
+    */
+   static long mix(long seed, long table, long row) {
+      long z = seed + table * 0x9E3779B97F4A7C15L + row * 0xBF58476D1CE4E5B9L;
+      z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+      z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+      return z ^ (z >>> 31);
+   }//end mix
+
+   static long parse(String timestamp) {
+      try {
+         SimpleDateFormat f = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+         f.setTimeZone(TimeZone.getTimeZone("UTC"));
+         return f.parse(timestamp).getTime();
+      } catch (java.text.ParseException e) {
+         throw new IllegalArgumentException("Expected yyyy-MM-dd HH:mm:ss, got " + timestamp);
+      }
+   }
+
+   static String login(int user) {
+      return FIRST_NAMES[user % FIRST_NAMES.length]
+         + LAST_NAMES[(user / FIRST_NAMES.length) % LAST_NAMES.length] + user;
+   }
+
+   static String gameID(int game) {
+      return String.format("game%04d", game + 1);
+   }
+
+   static String gameName(long gameSeed) {
+      SplittableRandom rng = new SplittableRandom(gameSeed);
+      int words = rng.nextInt(1, 4);
+      StringBuilder name = new StringBuilder();
+      for (int w = 0; w < words; ++w) {
+         if (w > 0) name.append(' ');
+         name.append(TITLE_WORDS[rng.nextInt(TITLE_WORDS.length)]);
+      }
+      if (rng.nextInt(4) == 0)
+         name.append(' ').append(rng.nextInt(2, 6));
+      return name.toString();
+   }
+
+   // a compact ID carries the time of its order, so it finds the order's partition; orders
+   // share whole seconds, so the order number picks the millisecond, counter and worker
+   static String compactID(long order, long timestamp, int kind) {
+      return IdGenerator.encode(IdGenerator.compose(timestamp + order % 1000,
+                                                    (int) (order / 4096000 % 512) * 2 + kind,
+                                                    (int) (order / 1000 % 4096)));
+   }
+
+   String rentalOrderID(long order, long timestamp) {
+      if (compactIds) return compactID(order, timestamp, 0);
+      return "gamerentalorder" + (1000 + order);
+   }
+
+   String trackingID(long order, long timestamp) {
+      if (compactIds) return compactID(order, timestamp, 1);
+      return "trackingid" + (1000 + order);
+   }
+
+   /**
+    * Writes users.csv.
+    */
+   public void writeUsers(Writer out) throws IOException {
+      out.write("\"login\",\"password\",\"role\",\"favGames\",\"phoneNumber\",\"numOverDueGames\"\n");
+      StringBuilder line = new StringBuilder(160);
+      for (int u = 0; u < users; ++u) {
+         SplittableRandom rng = new SplittableRandom(mix(seed, 1, u));
+         char[] password = new char[9];
+         for (int i = 0; i < password.length; ++i)
+            password[i] = PASSWORD_CHARS[rng.nextInt(PASSWORD_CHARS.length)];
+         int r = rng.nextInt(100);
+         String role = r == 0 ? "manager" : r < 4 ? "employee" : "customer";
+         int favorites = rng.nextInt(0, 4);
+         StringBuilder fav = new StringBuilder();
+         for (int f = 0; f < favorites; ++f) {
+            if (f > 0) fav.append(',');
+            fav.append(gameName(mix(seed, 3, gameSampler.sample(rng) - 1)));
+         }
+         String phone = String.format("+1-%03d-%03d-%04d", rng.nextInt(200, 1000), rng.nextInt(200, 1000), rng.nextInt(10000));
+
+         line.setLength(0);
+         line.append(CsvReader.quote(login(u))).append(',')
+             .append(CsvReader.quote(new String(password))).append(',')
+             .append(CsvReader.quote(role)).append(',')
+             .append(CsvReader.quote(fav.toString())).append(',')
+             .append(CsvReader.quote(phone)).append(",0\n");
+         out.write(line.toString());
+      }
+   }//end writeUsers
+
+   /**
+    * Writes catalog.csv.
+    */
+   public void writeCatalog(Writer out) throws IOException {
+      out.write("\"gameID\",\"gameName\",\"genre\",\"price\",\"description\",\"imageURL\"\n");
+      StringBuilder line = new StringBuilder(200);
+      for (int g = 0; g < games; ++g) {
+         SplittableRandom rng = new SplittableRandom(mix(seed, 4, g));
+         String description = "Platform: " + PLATFORMS[rng.nextInt(PLATFORMS.length)]
+            + ";  Publisher: " + PUBLISHERS[rng.nextInt(PUBLISHERS.length)];
+         line.setLength(0);
+         line.append(CsvReader.quote(gameID(g))).append(',')
+             .append(CsvReader.quote(gameName(mix(seed, 3, g)))).append(',')
+             .append(CsvReader.quote(GENRES[rng.nextInt(GENRES.length)])).append(',')
+             .append(cents(gamePriceCents[g])).append(',')
+             .append(CsvReader.quote(description)).append(",\"\"\n");
+         out.write(line.toString());
+      }
+   }//end writeCatalog
+
+   private static String cents(long cents) {
+      return (cents / 100) + "." + String.format("%02d", cents % 100);
+   }
+
+   /**
+    * One generated order. Instances are reused while a table is written.
+    */
+   final class Order {
+      long index;
+      int user;
+      long timestamp;
+      int count;
+      final int[] gameIdx = new int[maxGamesPerOrder];
+      final int[] units = new int[maxGamesPerOrder];
+      SplittableRandom rng;
+
+      /**
+       * Regenerates order i from its own stream, so every table sees the same order.
+       */
+      void generate(long i) {
+         index = i;
+         rng = new SplittableRandom(mix(seed, 5, i));
+         user = (int) (((userSampler.sample(rng) - 1) * userStride) % users);
+         timestamp = fromMillis + (long) (rng.nextDouble() * (toMillis - fromMillis));
+         timestamp -= timestamp % 1000;
+         count = rng.nextInt(minGamesPerOrder, maxGamesPerOrder + 1);
+         for (int k = 0; k < count; ++k) {
+            int candidate;
+            boolean duplicate;
+            do {
+               candidate = gameSampler.sample(rng) - 1;
+               duplicate = false;
+               for (int j = 0; j < k; ++j)
+                  if (gameIdx[j] == candidate) duplicate = true;
+            } while (duplicate);
+            gameIdx[k] = candidate;
+            units[k] = rng.nextInt(1, maxUnits + 1);
+         }
+      }
+
+      int totalUnits() {
+         int sum = 0;
+         for (int k = 0; k < count; ++k) sum += units[k];
+         return sum;
+      }
+
+      long totalCents() {
+         long sum = 0;
+         for (int k = 0; k < count; ++k) sum += gamePriceCents[gameIdx[k]] * units[k];
+         return sum;
+      }
+   }//end Order
+
+   private static SimpleDateFormat format(String pattern) {
+      SimpleDateFormat f = new SimpleDateFormat(pattern);
+      f.setTimeZone(TimeZone.getTimeZone("UTC"));
+      return f;
+   }
+
+   /**
+    * Writes rentalorder.csv.
+    */
+   public void writeRentalOrders(Writer out) throws IOException {
+      out.write("\"rentalorderid\",\"login\",\"noOfGames\",\"totalprice\",\"orderTimestamp\",\"dueDate\"\n");
+      SimpleDateFormat ts = format("yyyy-MM-dd HH:mm:ss");
+      SimpleDateFormat day = format("yyyy-MM-dd");
+      Order o = new Order();
+      StringBuilder line = new StringBuilder(160);
+      for (long i = 0; i < orders; ++i) {
+         o.generate(i);
+         line.setLength(0);
+         line.append(CsvReader.quote(rentalOrderID(i, o.timestamp))).append(',')
+             .append(CsvReader.quote(login(o.user))).append(',')
+             .append(o.totalUnits()).append(',')
+             .append(cents(o.totalCents())).append(',')
+             .append(CsvReader.quote(ts.format(o.timestamp))).append(',')
+             .append(CsvReader.quote(day.format(o.timestamp + 30 * DAY))).append('\n');
+         out.write(line.toString());
+      }
+   }//end writeRentalOrders
+
+   /**
+    * Writes gamesinorder.csv.
+    */
+   public void writeGamesInOrder(Writer out) throws IOException {
+      out.write("\"rentalorderid\",\"gameID\",\"unitsOrdered\"\n");
+      Order o = new Order();
+      StringBuilder line = new StringBuilder(80);
+      for (long i = 0; i < orders; ++i) {
+         o.generate(i);
+         for (int k = 0; k < o.count; ++k) {
+            line.setLength(0);
+            line.append(CsvReader.quote(rentalOrderID(i, o.timestamp))).append(',')
+                .append(CsvReader.quote(gameID(o.gameIdx[k]))).append(',')
+                .append(o.units[k]).append('\n');
+            out.write(line.toString());
+         }
+      }
+   }//end writeGamesInOrder
+
+   /**
+    * Writes trackinginfo.csv.
+    */
+   public void writeTrackingInfo(Writer out) throws IOException {
+      out.write("\"trackingID\",\"rentalorderid\",\"status\",\"currentLocation\",\"courierName\",\"lastUpdateDate\",\"additionalComments\"\n");
+      SimpleDateFormat ts = format("yyyy-MM-dd HH:mm:ss");
+      Order o = new Order();
+      StringBuilder line = new StringBuilder(160);
+      for (long i = 0; i < orders; ++i) {
+         o.generate(i);
+         // tracking values come from a separate stream so they do not shift the order itself
+         SplittableRandom rng = new SplittableRandom(mix(seed, 6, i));
+         double p = rng.nextDouble();
+         int s = 0;
+         while (s < statusCdf.length - 1 && statusCdf[s] < p) s++;
+         line.setLength(0);
+         line.append(CsvReader.quote(trackingID(i, o.timestamp))).append(',')
+             .append(CsvReader.quote(rentalOrderID(i, o.timestamp))).append(',')
+             .append(CsvReader.quote(statuses[s])).append(',')
+             .append(CsvReader.quote(CITIES[rng.nextInt(CITIES.length)])).append(',')
+             .append(CsvReader.quote(COURIERS[rng.nextInt(COURIERS.length)])).append(',')
+             .append(CsvReader.quote(ts.format(o.timestamp + 2 * DAY))).append(",\"\"\n");
+         out.write(line.toString());
+      }
+   }//end writeTrackingInfo
+
+   /**
+    * Writes one table, identified by its position in BulkLoader.LOAD_ORDER.
+    */
+   void write(int table, Writer out) throws IOException {
+      switch (table) {
+         case 0: writeUsers(out); break;
+         case 1: writeCatalog(out); break;
+         case 2: writeRentalOrders(out); break;
+         case 3: writeGamesInOrder(out); break;
+         case 4: writeTrackingInfo(out); break;
+         default: throw new IllegalArgumentException("Unknown table " + table);
+      }
+   }//end write
+
+   /**
+    * Writes the five CSV files into a directory.
+    */
+   public void writeFiles(File dir) throws IOException {
+      if (!dir.isDirectory() && !dir.mkdirs())
+         throw new IOException("Cannot create " + dir);
+      for (int t = 0; t < BulkLoader.LOAD_ORDER.length; ++t) {
+         long start = System.nanoTime();
+         File file = new File(dir, BulkLoader.LOAD_ORDER[t].file);
+         Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8), 1 << 20);
+         try {
+            write(t, out);
+         } finally {
+            out.close();
+         }
+         System.out.println(String.format("%-18s %,14d bytes %8.2f s", file.getName(), file.length(),
+                                          (System.nanoTime() - start) / 1e9));
+      }
+   }//end writeFiles
+
+   /**
+    * Streams every table through a pipe straight into the bulk loader. Each
+    * table has its own writer thread, which blocks until the loader reaches
+    * that table, so nothing is buffered beyond the pipe.
+    */
+   public void load(BulkLoader loader, File sqlDir, boolean truncate) throws Exception {
+      Reader[] sources = new Reader[BulkLoader.LOAD_ORDER.length];
+      List<Thread> writers = new ArrayList<Thread>();
+      final List<Exception> failures = new ArrayList<Exception>();
+      for (int t = 0; t < sources.length; ++t) {
+         final int table = t;
+         final PipedWriter pipe = new PipedWriter();
+         sources[t] = new PipedReader(pipe, 1 << 20);
+         Thread writer = new Thread(new Runnable() {
+            public void run() {
+               try {
+                  Writer out = new BufferedWriter(pipe, 1 << 16);
+                  try {
+                     write(table, out);
+                  } finally {
+                     out.close();
+                  }
+               } catch (IOException e) {
+                  synchronized (failures) { failures.add(e); }
+               }
+            }
+         }, "generator-" + BulkLoader.LOAD_ORDER[t].name);
+         writer.setDaemon(true);
+         writer.start();
+         writers.add(writer);
+      }
+      // the orders are written as UTC wall clock times, the partitions are created for the same range
+      SimpleDateFormat ts = format("yyyy-MM-dd HH:mm:ss");
+      loader.loadAll(sqlDir, sources, truncate, new Timestamp[] {Timestamp.valueOf(ts.format(fromMillis)),
+                                                                 Timestamp.valueOf(ts.format(toMillis))});
+      for (Thread writer : writers)
+         writer.join();
+      if (!failures.isEmpty())
+         throw failures.get(0);
+   }//end load
+
+   /**
+    * Samples ranks 1..n with probability proportional to 1/k^s using
+    * rejection-inversion (Hormann and Derflinger), in constant time and
+    * memory.
+    */
+   static final class ZipfSampler {
+      private final int n;
+      private final double s;
+      private final double hIntegralX1;
+      private final double hIntegralN;
+      private final double threshold;
+
+      ZipfSampler(int n, double s) {
+         if (n < 1 || s <= 0)
+            throw new IllegalArgumentException("Zipf needs n >= 1 and s > 0");
+         this.n = n;
+         this.s = s;
+         this.hIntegralX1 = hIntegral(1.5) - 1.0;
+         this.hIntegralN = hIntegral(n + 0.5);
+         this.threshold = 2.0 - hIntegralInverse(hIntegral(2.5) - h(2.0));
+      }
+
+      int sample(SplittableRandom rng) {
+         while (true) {
+            double u = hIntegralN + rng.nextDouble() * (hIntegralX1 - hIntegralN);
+            double x = hIntegralInverse(u);
+            int k = (int) (x + 0.5);
+            if (k < 1) k = 1;
+            else if (k > n) k = n;
+            if (k - x <= threshold || u >= hIntegral(k + 0.5) - h(k))
+               return k;
+         }
+      }
+
+      private double h(double x) {
+         return Math.exp(-s * Math.log(x));
+      }
+
+      private double hIntegral(double x) {
+         double logX = Math.log(x);
+         return helper2((1.0 - s) * logX) * logX;
+      }
+
+      private double hIntegralInverse(double x) {
+         double t = x * (1.0 - s);
+         if (t < -1.0) t = -1.0;
+         return Math.exp(helper1(t) * x);
+      }
+
+      // log1p(x)/x with a series near zero
+      private static double helper1(double x) {
+         return Math.abs(x) > 1e-8 ? Math.log1p(x) / x : 1.0 - x * (0.5 - x * (1.0 / 3.0 - 0.25 * x));
+      }
+
+      // expm1(x)/x with a series near zero
+      private static double helper2(double x) {
+         return Math.abs(x) > 1e-8 ? Math.expm1(x) / x : 1.0 + x * 0.5 * (1.0 + x * (1.0 / 3.0) * (1.0 + 0.25 * x));
+      }
+   }//end ZipfSampler
+
+   static void usage() {
+      System.err.println(
+         "Usage: java [-classpath <classpath>] " + DataGenerator.class.getName() + " [options]\n" +
+         "  --out <dir>                  write the CSV files into <dir> (default data-gen)\n" +
+         "  --load <dbname> <port> <user> stream straight into the database instead\n" +
+         "  --sql <dir>                  directory of create_indexes.sql/create_triggers.sql (default sql/src)\n" +
+         "  --truncate                   empty the tables before loading\n" +
+         "  --seed <n>                   random seed (default 166)\n" +
+         "  --users <n>                  number of users (default 500)\n" +
+         "  --games <n>                  catalog size (default 500)\n" +
+         "  --orders <n>                 number of rental orders (default 3000)\n" +
+         "  --user-skew <s>              Zipf exponent of orders per user (default 1.1)\n" +
+         "  --game-skew <s>              Zipf exponent of game popularity (default 0.8)\n" +
+         "  --games-per-order <min-max>  distinct games per order (default 1-5)\n" +
+         "  --max-units <n>              units per game, uniform from 1 (default 5)\n" +
+         "  --from/--to <yyyy-MM-dd>     range of order timestamps (default 2014-01-01..2024-12-31)\n" +
+         "  --status-mix <s=w,...>       tracking status weights (default uniform over 8 statuses)\n" +
+         "  --ids <legacy|compact>       gamerentalorder1000 style or IdGenerator style order and tracking IDs (default legacy)");
+   }
+
+   /**
+    * The generator command
+    *
+    * @param args see usage()
+    */
+   public static void main(String[] args) {
+      DataGenerator gen = new DataGenerator();
+      File out = new File("data-gen");
+      File sqlDir = new File("sql/src");
+      String[] db = null;
+      boolean truncate = false;
+      try {
+         for (int i = 0; i < args.length; ++i) {
+            String a = args[i];
+            if (a.equals("--out")) out = new File(args[++i]);
+            else if (a.equals("--load")) db = new String[] {args[++i], args[++i], args[++i]};
+            else if (a.equals("--sql")) sqlDir = new File(args[++i]);
+            else if (a.equals("--truncate")) truncate = true;
+            else if (a.equals("--seed")) gen.seed = Long.parseLong(args[++i]);
+            else if (a.equals("--users")) gen.users = Integer.parseInt(args[++i]);
+            else if (a.equals("--games")) gen.games = Integer.parseInt(args[++i]);
+            else if (a.equals("--orders")) gen.orders = Long.parseLong(args[++i]);
+            else if (a.equals("--user-skew")) gen.userSkew = Double.parseDouble(args[++i]);
+            else if (a.equals("--game-skew")) gen.gameSkew = Double.parseDouble(args[++i]);
+            else if (a.equals("--games-per-order")) {
+               String[] range = args[++i].split("-");
+               gen.minGamesPerOrder = Integer.parseInt(range[0]);
+               gen.maxGamesPerOrder = Integer.parseInt(range[range.length - 1]);
+            }
+            else if (a.equals("--max-units")) gen.maxUnits = Integer.parseInt(args[++i]);
+            else if (a.equals("--from")) gen.fromMillis = parse(args[++i] + " 00:00:00");
+            else if (a.equals("--to")) gen.toMillis = parse(args[++i] + " 23:59:59");
+            else if (a.equals("--status-mix")) gen.statusMix = args[++i];
+            else if (a.equals("--ids")) gen.compactIds = args[++i].equalsIgnoreCase("compact");
+            else {
+               usage();
+               return;
+            }
+         }
+         gen.prepare();
+      } catch (RuntimeException e) {
+         System.err.println("❌" + e.getMessage());
+         usage();
+         return;
+      }
+
+      try {
+         if (db == null) {
+            gen.writeFiles(out);
+         } else {
+            Connection connection = BulkLoader.connect(db[0], db[1], db[2]);
+            try {
+               gen.load(new BulkLoader(connection, true), sqlDir, truncate);
+            } finally {
+               connection.close();
+            }
+         }
+      } catch (Exception e) {
+         System.err.println("❌Generation failed: " + e.getMessage());
+         System.exit(1);
+      }
+   }//end main
+
+}//end DataGenerator
@@ -25,11 +25,16 @@ import java.io.BufferedReader;
 import java.io.InputStreamReader;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.lang.Math;
 import java.sql.PreparedStatement;
-import java.util.UUID;
 import java.util.Calendar;
 import java.sql.Timestamp;
+import java.sql.Types;
+import java.math.BigDecimal;
 
 /**
  * This class defines a simple embedded SQL utility class that is designed to
@@ -38,8 +43,29 @@ import java.sql.Timestamp;
  */
 public class GameRental {
 
-   // reference to physical database connection.
-   private Connection _connection = null;
+   // pool of physical database connections with per connection statement caches.
+   private ConnectionPool _pool = null;
+
+   // in-process copy of the Catalog table used for browsing and pricing.
+   private final CatalogCache _catalog = new CatalogCache();
+
+   // counts orders into Users.numOverDueGames as they pass their due date.
+   private final OverdueTracker _overdue = new OverdueTracker(this);
+
+   // co-rental recommendations, kept current as orders are placed.
+   private final Recommender _recommender = new Recommender();
+
+   // time ordered IDs for new orders and their tracking rows.
+   private final IdGenerator _ids = new IdGenerator(this);
+
+   // monthly order partitions and the archive of the expired months.
+   private final PartitionManager _partitions = new PartitionManager(this);
+
+   // login filter and credential cache in front of the Users table.
+   private final Authenticator _auth = new Authenticator(this);
+
+   // rows fetched per round trip by executeQueryAndStream, bounded queries are fetched at once.
+   private final int _fetchSize = Integer.getInteger("gamerental.fetchSize", 500);
 
    // handling the keyboard inputs through a BufferedReader
    // This variable can be global for convenience.
@@ -63,8 +89,14 @@ public class GameRental {
          String url = "jdbc:postgresql://localhost:" + dbport + "/" + dbname;
          System.out.println ("Connection URL: " + url + "\n");
 
-         // obtain a physical connection
-         this._connection = DriverManager.getConnection(url, user, passwd);
+         // the pool is sized through system properties, e.g. -Dgamerental.pool.size=8
+         this._pool = new ConnectionPool(url, user, passwd,
+            Integer.getInteger("gamerental.pool.size", 4),
+            Integer.getInteger("gamerental.pool.statements", 64),
+            Long.getLong("gamerental.pool.waitMillis", 30000L));
+
+         // obtain a physical connection up front so a bad setup fails fast
+         this._pool.release(this._pool.acquire());
          System.out.println("Done");
       }catch (Exception e){
          System.err.println("Error - Unable to Connect to Database: " + e.getMessage() );
@@ -73,22 +105,114 @@ public class GameRental {
       }//end catch
    }//end GameRental
 
+   /**
+    * @return the connection pool backing this instance
+    */
+   public ConnectionPool getPool() {
+      return this._pool;
+   }//end getPool
+
+   /**
+    * @return the catalog cache backing viewCatalog and placeOrder
+    */
+   public CatalogCache getCatalog() {
+      return this._catalog;
+   }//end getCatalog
+
+   /**
+    * @return the tracker maintaining the overdue counters
+    */
+   public OverdueTracker getOverdueTracker() {
+      return this._overdue;
+   }//end getOverdueTracker
+
+   /**
+    * @return the recommender behind viewRecommendations
+    */
+   public Recommender getRecommender() {
+      return this._recommender;
+   }//end getRecommender
+
+   /**
+    * @return the generator of rentalOrderIDs and trackingIDs
+    */
+   public IdGenerator getIds() {
+      return this._ids;
+   }//end getIds
+
+   /**
+    * @return the manager of the order partitions and their archive
+    */
+   public PartitionManager getPartitions() {
+      return this._partitions;
+   }//end getPartitions
+
+   /**
+    * @return the front of LogIn and CreateUser
+    */
+   public Authenticator getAuthenticator() {
+      return this._auth;
+   }//end getAuthenticator
+
+   /**
+    * Binds the positional parameters of a prepared statement.
+    *
+    * @param stmt the prepared statement
+    * @param params the values for the ? placeholders, in order
+    * @throws java.sql.SQLException when a value cannot be bound
+    */
+   public static void bind (PreparedStatement stmt, Object... params) throws SQLException {
+      for (int i = 0; i < params.length; ++i) {
+         Object p = params[i];
+         if (p == null)
+            stmt.setNull(i + 1, Types.VARCHAR);
+         else if (p instanceof String)
+            stmt.setString(i + 1, (String) p);
+         else if (p instanceof Integer)
+            stmt.setInt(i + 1, (Integer) p);
+         else if (p instanceof Long)
+            stmt.setLong(i + 1, (Long) p);
+         else if (p instanceof Double)
+            stmt.setDouble(i + 1, (Double) p);
+         else if (p instanceof BigDecimal)
+            stmt.setBigDecimal(i + 1, (BigDecimal) p);
+         else if (p instanceof Timestamp)
+            stmt.setTimestamp(i + 1, (Timestamp) p);
+         else if (p instanceof Boolean)
+            stmt.setBoolean(i + 1, (Boolean) p);
+         else
+            stmt.setObject(i + 1, p);
+      }
+   }//end bind
+
    /**
     * Method to execute an update SQL statement.  Update SQL instructions
     * includes CREATE, INSERT, UPDATE, DELETE, and DROP.
     *
-    * @param sql the input SQL string
+    * @param sql the input SQL string with ? placeholders
+    * @param params the values bound to the placeholders
+    * @return the number of rows affected
     * @throws java.sql.SQLException when update failed
     */
-   public void executeUpdate (String sql) throws SQLException {
-      // creates a statement object
-      Statement stmt = this._connection.createStatement ();
-
-      // issues the update instruction
-      stmt.executeUpdate (sql);
-
-      // close the instruction
-      stmt.close ();
+   public int executeUpdate (String sql, Object... params) throws SQLException {
+      long start = System.nanoTime();
+      int rows = 0;
+      boolean failed = true;
+      ConnectionPool.PooledConnection conn = this._pool.acquire();
+      try {
+         // reuses the cached statement for this query shape
+         PreparedStatement stmt = conn.prepare(sql);
+         bind(stmt, params);
+         Metrics.capture(sql, params);
+
+         // issues the update instruction
+         rows = stmt.executeUpdate ();
+         failed = false;
+         return rows;
+      } finally {
+         this._pool.release(conn);
+         Metrics.record(sql, start, rows, 0, failed);
+      }
    }//end executeUpdate
 
    /**
@@ -96,42 +220,53 @@ public class GameRental {
     * method issues the query to the DBMS and outputs the results to
     * standard out.
     *
-    * @param query the input query string
+    * @param query the input query string with ? placeholders
+    * @param params the values bound to the placeholders
     * @return the number of rows returned
     * @throws java.sql.SQLException when failed to execute the query
     */
-   public int executeQueryAndPrintResult (String query) throws SQLException {
-      // creates a statement object
-      Statement stmt = this._connection.createStatement ();
-
-      // issues the query instruction
-      ResultSet rs = stmt.executeQuery (query);
-
-      /*
-       ** obtains the metadata object for the returned result set.  The metadata
-       ** contains row and column info.
-       */
-      ResultSetMetaData rsmd = rs.getMetaData ();
-      int numCol = rsmd.getColumnCount ();
+   public int executeQueryAndPrintResult (String query, Object... params) throws SQLException {
+      long start = System.nanoTime();
       int rowCount = 0;
-
-      // iterates through the result set and output them to standard out.
-      boolean outputHeader = true;
-      while (rs.next()){
-		 if(outputHeader){
-			for(int i = 1; i <= numCol; i++){
-			System.out.print(rsmd.getColumnName(i) + "\t");
-			}
-			System.out.println();
-			outputHeader = false;
-		 }
-         for (int i=1; i<=numCol; ++i)
-            System.out.print (rs.getString (i) + "\t");
-         System.out.println ();
-         ++rowCount;
-      }//end while
-      stmt.close();
-      return rowCount;
+      boolean failed = true;
+      ConnectionPool.PooledConnection conn = this._pool.acquire();
+      try {
+         PreparedStatement stmt = conn.prepare(query);
+         bind(stmt, params);
+         Metrics.capture(query, params);
+
+         // issues the query instruction
+         ResultSet rs = stmt.executeQuery ();
+
+         /*
+          ** obtains the metadata object for the returned result set.  The metadata
+          ** contains row and column info.
+          */
+         ResultSetMetaData rsmd = rs.getMetaData ();
+         int numCol = rsmd.getColumnCount ();
+
+         // iterates through the result set and output them to standard out.
+         boolean outputHeader = true;
+         while (rs.next()){
+            if(outputHeader){
+               for(int i = 1; i <= numCol; i++){
+               System.out.print(rsmd.getColumnName(i) + "\t");
+               }
+               System.out.println();
+               outputHeader = false;
+            }
+            for (int i=1; i<=numCol; ++i)
+               System.out.print (rs.getString (i) + "\t");
+            System.out.println ();
+            ++rowCount;
+         }//end while
+         rs.close();
+         failed = false;
+         return rowCount;
+      } finally {
+         this._pool.release(conn);
+         Metrics.record(query, start, rowCount, 0, failed);
+      }
    }//end executeQuery
 
    /**
@@ -139,92 +274,238 @@ public class GameRental {
     * method issues the query to the DBMS and returns the results as
     * a list of records. Each record in turn is a list of attribute values
     *
-    * @param query the input query string
+    * @param query the input query string with ? placeholders
+    * @param params the values bound to the placeholders
     * @return the query result as a list of records
     * @throws java.sql.SQLException when failed to execute the query
     */
-   public List<List<String>> executeQueryAndReturnResult (String query) throws SQLException {
-      // creates a statement object
-      Statement stmt = this._connection.createStatement ();
-
-      // issues the query instruction
-      ResultSet rs = stmt.executeQuery (query);
-
-      /*
-       ** obtains the metadata object for the returned result set.  The metadata
-       ** contains row and column info.
-       */
-      ResultSetMetaData rsmd = rs.getMetaData ();
-      int numCol = rsmd.getColumnCount ();
-      int rowCount = 0;
-
-      // iterates through the result set and saves the data returned by the query.
-      boolean outputHeader = false;
-      List<List<String>> result  = new ArrayList<List<String>>();
-      while (rs.next()){
-        List<String> record = new ArrayList<String>();
-		for (int i=1; i<=numCol; ++i)
-			record.add(rs.getString (i));
-        result.add(record);
-      }//end while
-      stmt.close ();
-      return result;
+   public List<List<String>> executeQueryAndReturnResult (String query, Object... params) throws SQLException {
+      long start = System.nanoTime();
+      long rows = 0, chars = 0;
+      boolean failed = true;
+      ConnectionPool.PooledConnection conn = this._pool.acquire();
+      try {
+         PreparedStatement stmt = conn.prepare(query);
+         bind(stmt, params);
+         Metrics.capture(query, params);
+
+         // issues the query instruction
+         ResultSet rs = stmt.executeQuery ();
+
+         /*
+          ** obtains the metadata object for the returned result set.  The metadata
+          ** contains row and column info.
+          */
+         ResultSetMetaData rsmd = rs.getMetaData ();
+         int numCol = rsmd.getColumnCount ();
+
+         // iterates through the result set and saves the data returned by the query.
+         List<List<String>> result  = new ArrayList<List<String>>();
+         while (rs.next()){
+            List<String> record = new ArrayList<String>(numCol);
+            for (int i=1; i<=numCol; ++i) {
+               String value = rs.getString (i);
+               if (value != null) chars += value.length();
+               record.add(value);
+            }
+            result.add(record);
+         }//end while
+         rs.close();
+         rows = result.size();
+         failed = false;
+         return result;
+      } finally {
+         this._pool.release(conn);
+         Metrics.record(query, start, rows, chars, failed);
+      }
    }//end executeQueryAndReturnResult
 
+   /**
+    * Method to execute a bounded query SQL instruction (i.e. a SELECT with a
+    * LIMIT or a key lookup) and hand its rows to a handler.  It runs on the
+    * cached prepared statement with a plain result set, so it costs a single
+    * round trip; results that can grow without bound go through
+    * executeQueryAndStream instead.
+    *
+    * @param query the input query string with ? placeholders
+    * @param handler receives every row, may stop early by returning false
+    * @param params the values bound to the placeholders
+    * @return the number of rows handled
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public long executeQueryAndHandle (String query, RowHandler handler, Object... params) throws SQLException {
+      long start = System.nanoTime();
+      boolean failed = true;
+      Row row = new Row();
+      ConnectionPool.PooledConnection conn = this._pool.acquire();
+      try {
+         PreparedStatement stmt = conn.prepare(query);
+         bind(stmt, params);
+         Metrics.capture(query, params);
+
+         // issues the query instruction
+         ResultSet rs = stmt.executeQuery ();
+         try {
+            row.reset(rs);
+            while (row.advance() && handler.handle(row)) {
+               // the handler consumed the row
+            }
+         } finally {
+            rs.close();
+         }
+         failed = false;
+         return row.getRowNumber();
+      } finally {
+         this._pool.release(conn);
+         Metrics.record(query, start, row.getRowNumber(), 0, failed);
+      }
+   }//end executeQueryAndHandle
+
+   /**
+    * Method to execute an input query SQL instruction (i.e. SELECT) through
+    * a server side cursor.  The rows are fetched in batches of
+    * gamerental.fetchSize and handed to the handler as they arrive, so
+    * memory does not grow with the size of the result and the first row is
+    * available as soon as the first batch is.  The query must not end with
+    * a semicolon.  Meant for scans without an upper bound on their rows,
+    * bounded queries are cheaper through executeQueryAndHandle.
+    *
+    * @param query the input query string with ? placeholders
+    * @param handler receives every row, may stop early by returning false
+    * @param params the values bound to the placeholders
+    * @return the number of rows handled
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public long executeQueryAndStream (String query, RowHandler handler, Object... params) throws SQLException {
+      long start = System.nanoTime();
+      boolean failed = true;
+      Row row = new Row();
+      ConnectionPool.PooledConnection conn = this._pool.acquire();
+      Connection c = conn.getConnection();
+      try {
+         // cursors only live inside a transaction
+         c.setAutoCommit(false);
+
+         // DECLARE cannot be server prepared, so it bypasses the statement cache
+         PreparedStatement declare = c.prepareStatement("DECLARE gamerental_cursor NO SCROLL CURSOR FOR " + query);
+         try {
+            bind(declare, params);
+            Metrics.capture(query, params);
+            declare.execute();
+         } finally {
+            declare.close();
+         }
+
+         String fetch = "FETCH FORWARD " + this._fetchSize + " FROM gamerental_cursor";
+         Statement stmt = c.createStatement();
+         try {
+            boolean more = true;
+            while (more) {
+               ResultSet rs = stmt.executeQuery(fetch);
+               row.reset(rs);
+               long before = row.getRowNumber();
+               while (more && row.advance())
+                  more = handler.handle(row);
+               // a short batch means the cursor is exhausted
+               if (row.getRowNumber() - before < this._fetchSize)
+                  more = false;
+               rs.close();
+            }//end while
+         } finally {
+            stmt.close();
+         }
+         failed = false;
+         return row.getRowNumber();
+      } finally {
+         try {
+            // ends the read only transaction and with it the cursor, no CLOSE or COMMIT needed
+            c.setAutoCommit(true);
+         } catch (SQLException e) {
+            // release() finds the transaction still open and rolls it back
+         }
+         this._pool.release(conn);
+         // time to the last row, including the time the handler spent on each row
+         Metrics.record(query, start, row.getRowNumber(), 0, failed);
+      }
+   }//end executeQueryAndStream
+
    /**
     * Method to execute an input query SQL instruction (i.e. SELECT).  This
     * method issues the query to the DBMS and returns the number of results
     *
-    * @param query the input query string
+    * @param query the input query string with ? placeholders
+    * @param params the values bound to the placeholders
     * @return the number of rows returned
     * @throws java.sql.SQLException when failed to execute the query
     */
-   public int executeQuery (String query) throws SQLException {
-       // creates a statement object
-       Statement stmt = this._connection.createStatement ();
-
-       // issues the query instruction
-       ResultSet rs = stmt.executeQuery (query);
+   public int executeQuery (String query, Object... params) throws SQLException {
+      long start = System.nanoTime();
+      int rowCount = 0;
+      boolean failed = true;
+      ConnectionPool.PooledConnection conn = this._pool.acquire();
+      try {
+         PreparedStatement stmt = conn.prepare(query);
+         bind(stmt, params);
+         Metrics.capture(query, params);
 
-       int rowCount = 0;
+         // issues the query instruction
+         ResultSet rs = stmt.executeQuery ();
 
-       // iterates through the result set and count nuber of results.
-       while (rs.next()){
-          rowCount++;
-       }//end while
-       stmt.close ();
-       return rowCount;
+         // iterates through the result set and count nuber of results.
+         while (rs.next()){
+            rowCount++;
+         }//end while
+         rs.close();
+         failed = false;
+         return rowCount;
+      } finally {
+         this._pool.release(conn);
+         Metrics.record(query, start, rowCount, 0, failed);
+      }
    }
 
    /**
     * Method to fetch the last value from sequence. This
     * method issues the query to the DBMS and returns the current
-    * value of sequence used for autogenerated keys
+    * value of sequence used for autogenerated keys. Note that currval is
+    * session local, so with pooled connections the value is only meaningful
+    * on the connection that called nextval.
     *
     * @param sequence name of the DB sequence
     * @return current value of a sequence
     * @throws java.sql.SQLException when failed to execute the query
     */
    public int getCurrSeqVal(String sequence) throws SQLException {
-	Statement stmt = this._connection.createStatement ();
+      List<List<String>> result = executeQueryAndReturnResult("Select currval(?)", sequence);
+      if (!result.isEmpty())
+         return Integer.parseInt(result.get(0).get(0));
+      return -1;
+   }
 
-	ResultSet rs = stmt.executeQuery (String.format("Select currval('%s')", sequence));
-	if (rs.next())
-		return rs.getInt(1);
-	return -1;
+   /**
+    * Method to advance a sequence and fetch the new value. Unlike currval
+    * the result does not depend on the pooled connection the query runs on.
+    *
+    * @param sequence name of the DB sequence
+    * @return next value of a sequence
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public long getNextSeqVal(String sequence) throws SQLException {
+      List<List<String>> result = executeQueryAndReturnResult("SELECT nextval(?)", sequence);
+      return Long.parseLong(result.get(0).get(0));
    }
 
    /**
-    * Method to close the physical connection if it is open.
+    * Method to close the physical connections if they are open.
     */
    public void cleanup(){
-      try{
-         if (this._connection != null){
-            this._connection.close ();
-         }//end if
-      }catch (SQLException e){
-         // ignored.
-      }//end try
+      if (this._pool != null){
+         this._overdue.stop();
+         System.out.println(this._pool);
+         System.out.println(this._catalog);
+         System.out.println(this._overdue);
+         this._pool.close ();
+      }//end if
    }//end cleanup
 
    /**
@@ -253,6 +534,8 @@ public class GameRental {
          String dbport = args[1];
          String user = args[2];
          esql = new GameRental (dbname, dbport, user, "");
+         esql.getOverdueTracker().start();
+         Metrics.startDumper();
 
          boolean keepon = true;
          while(keepon) {
@@ -262,7 +545,7 @@ public class GameRental {
             System.out.println("1. Create user");
             System.out.println("2. Log in");
             System.out.println("9. < EXIT");
-            String authorizedUser = null;
+            Session authorizedUser = null;
             switch (readChoice()){
                case 1: CreateUser(esql); break;
                case 2: authorizedUser = LogIn(esql); break;
@@ -289,10 +572,19 @@ public class GameRental {
                 //the following functionalities basically used by managers
                 System.out.println("10. Update Catalog");
                 System.out.println("11. Update User");
+                System.out.println("12. Revenue per Day");
+                System.out.println("13. Top Rented Games");
+                System.out.println("14. Rentals by Genre");
+                System.out.println("15. Query Metrics");
+                System.out.println("16. Browse Catalog with Filters");
+                System.out.println("17. Recommended for You");
 
                 System.out.println(".........................");
                 System.out.println("20. Log out");
-                switch (readChoice()){
+                int choice = readChoice();
+                // tags every query of the action for the metrics registry
+                Metrics.Scope action = Metrics.begin(menuAction(choice));
+                switch (choice){
                    case 1: viewProfile(esql, authorizedUser); break;
                    case 2: authorizedUser = updateProfile(esql, authorizedUser); break;
                    case 3: viewCatalog(esql); break;
@@ -304,12 +596,22 @@ public class GameRental {
                    case 9: updateTrackingInfo(esql, authorizedUser); break;
                    case 10: updateCatalog(esql, authorizedUser); break;
                    case 11: updateUser(esql, authorizedUser); break;
+                   case 12: Reports.viewDailyRevenue(esql, authorizedUser); break;
+                   case 13: Reports.viewTopGames(esql, authorizedUser); break;
+                   case 14: Reports.viewRentalsByGenre(esql, authorizedUser); break;
+                   case 15: System.out.println(Metrics.dump()); break;
+                   case 16: browseCatalog(esql); break;
+                   case 17: viewRecommendations(esql, authorizedUser); break;
 
 
 
-                   case 20: usermenu = false; break;
+                   case 20: usermenu = false;
+                            System.out.println("Session cache saved " + Session.getRoundTripsSaved() + " round-trips");
+                            System.out.println(esql.getAuthenticator());
+                            break;
                    default : System.out.println("Unrecognized choice!"); break;
                 }
+                action.end();
               }
             }
          }//end while
@@ -336,6 +638,33 @@ public class GameRental {
          "*******************************************************\n");
    }//end Greeting
 
+   /**
+    * @return the name the metrics registry records a menu choice under
+    */
+   static String menuAction(int choice) {
+      switch (choice) {
+         case 1: return "viewProfile";
+         case 2: return "updateProfile";
+         case 3: return "viewCatalog";
+         case 4: return "placeOrder";
+         case 5: return "viewAllOrders";
+         case 6: return "viewRecentOrders";
+         case 7: return "viewOrderInfo";
+         case 8: return "viewTrackingInfo";
+         case 9: return "updateTrackingInfo";
+         case 10: return "updateCatalog";
+         case 11: return "updateUser";
+         case 12: return "viewDailyRevenue";
+         case 13: return "viewTopGames";
+         case 14: return "viewRentalsByGenre";
+         case 15: return "viewMetrics";
+         case 16: return "browseCatalog";
+         case 17: return "viewRecommendations";
+         case 20: return "logOut";
+         default: return "other";
+      }
+   }//end menuAction
+
    /*
     * Reads the users choice given from the keyboard
     * @int
@@ -372,9 +701,7 @@ public class GameRental {
          System.out.println("\tEnter phone number ");
          String num = in.readLine();
 
-         String query = String.format("INSERT INTO Users (login, password, role, favGames, phoneNum, numOverDueGames) VALUES ('%s', '%s', '%s', '%s', '%s', 0)", name, pwd, role, favGames, num);
-
-         esql.executeUpdate(query);
+         createUser(esql, name, pwd, role, favGames, num);
          System.out.println("✅User successfully created!");
 
       }catch (Exception e){
@@ -382,47 +709,72 @@ public class GameRental {
       }
    }//end CreateUser
 
+   /**
+    * Inserts a new user with no overdue games. A login the filter has
+    * never seen is free without a query.
+    *
+    * @throws SQLException with SQLState 23505 when the login is taken
+    */
+   public static void createUser(GameRental esql, String login, String pwd, String role, String favGames, String phoneNum) throws SQLException {
+      Authenticator auth = esql.getAuthenticator();
+      if (auth.mightExist(login)
+          && !esql.executeQueryAndReturnResult("SELECT 1 FROM Users WHERE login = ?", login).isEmpty())
+         throw new SQLException("The login " + login + " is already taken", "23505");
+      auth.added(login);
+      String query = "INSERT INTO Users (login, password, role, favGames, phoneNum, numOverDueGames) VALUES (?, ?, ?, ?, ?, 0)";
+      esql.executeUpdate(query, login, pwd, role, favGames, phoneNum);
+   }//end createUser
+
 
    /*
     * Check log in credentials for an existing user
-    * @return User login or null is the user does not exist
+    * @return User session or null is the user does not exist
     **/
-   public static String LogIn(GameRental esql){
+   public static Session LogIn(GameRental esql){
       try{
          System.out.println("\tEnter name: ");
          String login = in.readLine();
          System.out.println("\tEnter password: ");
          String pwd = in.readLine(); 
 
-         String query = String.format("SELECT login FROM USERS WHERE login = '%s' AND password = '%s'", login, pwd);
-         List<List<String>> userID = esql.executeQueryAndReturnResult(query);
+         Session session = authenticate(esql, login, pwd);
          System.out.println("\n✅Login Sucess\n");
-	         if (userID.size() > 0)
-		         return userID.get(0).get(0);
-            return null;
+            return session;
       }catch(Exception e){
          System.err.println ("❌"+e.getMessage ());
          return null;
       }
    }//end
 
+   /**
+    * Checks credentials and opens a session. Unknown logins and logins with
+    * a cached credential are answered without a query.
+    *
+    * @return the session or null when the login or password is wrong
+    */
+   public static Session authenticate(GameRental esql, String login, String pwd) throws SQLException {
+      // the whole profile is kept so the session can answer role checks without a query
+      return esql.getAuthenticator().authenticate(login, pwd);
+   }//end authenticate
+
 // Rest of the functions definition go in here
 
-   public static void viewProfile(GameRental esql, String authorizedUser) {
+   public static void viewProfile(GameRental esql, Session authorizedUser) {
       try {
-         String roleQuery = String.format("SELECT role FROM Users WHERE login = '%s'", authorizedUser);
-         List<List<String>> roleResult = esql.executeQueryAndReturnResult(roleQuery);
-         if (roleResult.isEmpty()) {
+         // counts orders that came due since the last sweep, the counters below are then current
+         esql.getOverdueTracker().catchUp();
+         String role = authorizedUser.getRole(esql);
+         if (role == null) {
                System.out.println("❌User not found.");
                return;
          }
 
-         if (roleResult.get(0).get(0).trim().equalsIgnoreCase("manager")) {
+         if (role.equalsIgnoreCase("manager")) {
                System.out.println("Enter the login of the user:");
                String userLogin = in.readLine();
 
-               String query = String.format("SELECT login, password, role, favGames, phoneNum, numOverDueGames FROM Users WHERE login = '%s'", userLogin);
-               List<List<String>> profile = esql.executeQueryAndReturnResult(query);
+               String query = "SELECT login, password, role, favGames, phoneNum, numOverDueGames FROM Users WHERE login = ?";
+               List<List<String>> profile = esql.executeQueryAndReturnResult(query, userLogin);
 
                if (!profile.isEmpty()) {
                   System.out.println("===========================");
@@ -440,8 +792,9 @@ public class GameRental {
                   System.out.println("❌No user found with the login: " + userLogin);
                }
          } else {
-               String query = String.format("SELECT login, password, role, favGames, phoneNum, numOverDueGames FROM Users WHERE login = '%s'", authorizedUser);
-               List<List<String>> profile = esql.executeQueryAndReturnResult(query);
+               // the session snapshot was refreshed by getRole above, no query needed
+               List<List<String>> profile = new ArrayList<List<String>>();
+               profile.add(authorizedUser.toRow());
 
                if (!profile.isEmpty()) {
                   System.out.println("===========================");
@@ -456,7 +809,7 @@ public class GameRental {
                      System.out.println("Overdue Games: " + row.get(5));
                   }
                } else {
-                  System.out.println("❌No user found with the login: " + authorizedUser);
+                  System.out.println("❌No user found with the login: " + authorizedUser.getLogin());
                }
          }
       } catch (Exception e) {
@@ -465,13 +818,15 @@ public class GameRental {
    }
 
 
-   public static String updateProfile(GameRental esql, String authorizedUser) {
+   public static Session updateProfile(GameRental esql, Session authorizedUser) {
      BufferedReader reader = new BufferedReader(new InputStreamReader(System.in));
 
         try {
 
-            String query = String.format("SELECT login, password, role, favGames, phoneNum, numOverDueGames FROM USERS WHERE login = '%s'", authorizedUser);
-            List<List<String>> profile = esql.executeQueryAndReturnResult(query);
+            String query;
+            List<List<String>> profile = new ArrayList<List<String>>();
+            if (authorizedUser.refresh(esql))
+                profile.add(authorizedUser.toRow());
 
             if (!profile.isEmpty()) {
 
@@ -502,22 +857,26 @@ public class GameRental {
                         case 1:
                             System.out.println("Enter new favorite games list:");
                             String newFavGames = reader.readLine();
-                            query = String.format("UPDATE USERS SET favGames = '%s' WHERE login = '%s'", newFavGames, authorizedUser);
-                            esql.executeUpdate(query);
+                            query = "UPDATE USERS SET favGames = ? WHERE login = ?";
+                            esql.executeUpdate(query, newFavGames, authorizedUser.getLogin());
+                            Session.invalidate(authorizedUser.getLogin());
                             System.out.println("✅Favorite games updated successfully.");
                             break;
                         case 2:
                             System.out.println("Enter new phone number:");
                             String newPhoneNum = reader.readLine();
-                            query = String.format("UPDATE USERS SET phoneNum = '%s' WHERE login = '%s'", newPhoneNum, authorizedUser);
-                            esql.executeUpdate(query);
+                            query = "UPDATE USERS SET phoneNum = ? WHERE login = ?";
+                            esql.executeUpdate(query, newPhoneNum, authorizedUser.getLogin());
+                            Session.invalidate(authorizedUser.getLogin());
                             System.out.println("✅Phone number updated successfully.");
                             break;
                         case 3:
                             System.out.println("Enter new password:");
                             String newPassword = reader.readLine();
-                            query = String.format("UPDATE USERS SET password = '%s' WHERE login = '%s'", newPassword, authorizedUser);
-                            esql.executeUpdate(query);
+                            query = "UPDATE USERS SET password = ? WHERE login = ?";
+                            esql.executeUpdate(query, newPassword, authorizedUser.getLogin());
+                            Session.invalidate(authorizedUser.getLogin());
+                            esql.getAuthenticator().forget(authorizedUser.getLogin());
                             System.out.println("✅Password changed successfully.");
                             break;
                         default:
@@ -525,7 +884,7 @@ public class GameRental {
                     }
                 }
             } else {
-                System.out.println("❌No user found with the login: " + authorizedUser);
+                System.out.println("❌No user found with the login: " + authorizedUser.getLogin());
             }
         } catch (Exception e) {
             System.err.println(e.getMessage());
@@ -538,28 +897,29 @@ public class GameRental {
 
    public static void viewCatalog(GameRental esql) {  
       try{
-         System.out.println("Enter the criteria to search by (1. gameID, 2. genre, or 3. price):");
+         System.out.println("Enter the criteria to search by (1. gameID, 2. genre, 3. price, or 4. name/keywords):");
          int criteria = readChoice();
-         String query = "";
+         String value;
          
          switch (criteria) {
             case 1:
                   System.out.println("Enter the GameID:");
-                  String gameId = in.readLine();
-                  query = String.format("SELECT gameName, genre, price FROM Catalog WHERE gameID = '%s'", gameId);
+                  value = in.readLine();
                   break;
             case 2:
                   System.out.println("Enter the Genre:");
-                  String genre = in.readLine();
-                  query = String.format("SELECT gameName, genre, price FROM Catalog WHERE genre = '%s'", genre);
+                  value = in.readLine();
                   break;
             case 3:
-                  System.out.println("Enter the Price:");
-                  String price = in.readLine();
-                  query = String.format("SELECT gameName, genre, price FROM Catalog WHERE price = '%s'", price);
+                  System.out.println("Enter the Price or a range (e.g. 10-20):");
+                  value = in.readLine();
+                  break;
+            case 4:
+                  System.out.println("Enter a name or keywords (e.g. mario kart):");
+                  value = in.readLine();
                   break;
             default:
-                  System.out.println("Invalid criteria. Please enter 'gameID', 'genre', or 'price'.");
+                  System.out.println("Invalid criteria. Please enter 'gameID', 'genre', 'price' or 'name'.");
                   return; // Exit the method if the criteria is invalid
          }
          System.out.println("Do you want to sort the results? Enter\n 1. for View Highest Price\n 2. View Lowest Price \n 3. for no sorting:");
@@ -577,14 +937,14 @@ public class GameRental {
                break;
          } 
 
+         int sort = CatalogCache.UNSORTED;
          if (sortChoice.equals("ASC") || sortChoice.equals("DESC")) {
-            query += String.format(" ORDER BY price %s;", sortChoice.toUpperCase()); 
-            //System.out.println(query);// Specify sorting by price in the correct syntax
+            sort = sortChoice.equals("ASC") ? CatalogCache.PRICE_ASC : CatalogCache.PRICE_DESC;
          } else if (!sortChoice.equals("none")) {
             System.out.println("Results will be displayed without sorting.");
          }
     
-         List<List<String>> catalogView = esql.executeQueryAndReturnResult(query);
+         List<CatalogCache.Game> catalogView = searchCatalog(esql, criteria, value, sort);
          if (catalogView.size() == 0) {
             System.out.println("❌ No games found for the given filter.");
          } else {
@@ -613,19 +973,99 @@ public class GameRental {
          System.err.println (e.getMessage());
       }
    }
-   public static void displayCatalog(List<List<String>> results) {
+
+   // the number of games a name search returns
+   static final int SEARCH_LIMIT = Integer.getInteger("gamerental.search.limit", 20);
+
+   /**
+    * Looks games up by 1. gameID, 2. genre, 3. price or price range "min-max", 4. words of the name
+    * and description, ranked and typo tolerant. Answered from the catalog
+    * cache, whose indexes cover every criteria and sort.
+    *
+    * @param sort one of the CatalogCache sort orders
+    * @return the matching games, a view over the cache that is not copied
+    */
+   public static List<CatalogCache.Game> searchCatalog(GameRental esql, int criteria, String value, int sort) throws SQLException {
+      if (criteria == 4) {
+         return esql.getCatalog().search(esql, value, SEARCH_LIMIT, sort);
+      } else if (criteria == 1) {
+         CatalogCache.Game game = esql.getCatalog().findById(esql, value);
+         return game == null ? Collections.<CatalogCache.Game>emptyList() : Collections.singletonList(game);
+      } else if (criteria == 2) {
+         return esql.getCatalog().findByGenre(esql, value, sort);
+      } else {
+         String[] range = value.trim().split("\\s*-\\s*");
+         if (range.length == 2)
+            return esql.getCatalog().findByPriceRange(esql, new BigDecimal(range[0]), new BigDecimal(range[1]), sort);
+         return esql.getCatalog().findByPrice(esql, new BigDecimal(value.trim()), sort);
+      }
+   }//end searchCatalog
+
+   public static void displayCatalog(List<CatalogCache.Game> results) {
         System.out.println("⭐️⭐️⭐️⭐️⭐️⭐️⭐️⭐️⭐️⭐️⭐️⭐️⭐️⭐️⭐️⭐️⭐️⭐️⭐️⭐️⭐️⭐️⭐️⭐️⭐️⭐️⭐️⭐️⭐️⭐️⭐️⭐️⭐️⭐️⭐️⭐️⭐️⭐️⭐️⭐️⭐️⭐️⭐️⭐️⭐️");
-        for (List<String> catalog : results) {
-            System.out.println("Game Name: " + catalog.get(0) + " catalog: " + catalog.get(1) + " catalog: " + catalog.get(2));
+        for (CatalogCache.Game game : results) {
+            System.out.println("Game Name: " + game.gameName + " catalog: " + game.genre + " catalog: " + game.price.toPlainString());
         }
         System.out.println("⭐️⭐️⭐️⭐️⭐️⭐️⭐️⭐️⭐️⭐️⭐️⭐️⭐️⭐️⭐️⭐️⭐️⭐️⭐️⭐️⭐️⭐️⭐️⭐️⭐️⭐️⭐️⭐️⭐️⭐️⭐️⭐️⭐️⭐️⭐️⭐️⭐️⭐️⭐️⭐️⭐️⭐️⭐️⭐️⭐️");
     }
 
-public static void placeOrder(GameRental esql, String authorizedUser) {
+   private static String prompt(String message) throws java.io.IOException {
+      System.out.println(message);
+      return in.readLine().trim();
+   }
+
+   /**
+    * Browses the catalog by any combination of genres, platforms,
+    * publishers and a price range, one page at a time.
+    */
+   public static void browseCatalog(GameRental esql) {
+      try {
+         CatalogQuery query = new CatalogQuery()
+            .genre(prompt("Genres, comma separated (Enter for all):").split(","))
+            .platform(prompt("Platforms, comma separated (Enter for all):").split(","))
+            .publisher(prompt("Publishers, comma separated (Enter for all):").split(","));
+         String min = prompt("Lowest price (Enter for none):");
+         String max = prompt("Highest price (Enter for none):");
+         query.price(min.isEmpty() ? null : new BigDecimal(min), max.isEmpty() ? null : new BigDecimal(max));
+         System.out.println("Sort by 1. lowest price, 2. highest price, 3. name A-Z, 4. name Z-A:");
+         int choice = readChoice();
+         query.sort(choice == 2 ? CatalogCache.PRICE_DESC : choice == 3 ? CatalogCache.NAME_ASC
+                    : choice == 4 ? CatalogCache.NAME_DESC : CatalogCache.PRICE_ASC);
+         query.limit(Integer.getInteger("gamerental.catalog.pageSize", 10));
+
+         int page = 0;
+         do {
+            CatalogQuery.Page result = browseCatalog(esql, query);
+            if (result.games.isEmpty() && page == 0) {
+               System.out.println("❌ No games found for the given filters.");
+               return;
+            }
+            System.out.println("Page " + ++page + ":");
+            for (CatalogCache.Game game : result.games)
+               System.out.println(game.gameName + " | " + game.genre + " | " + game.platform + " | " +
+                                  game.publisher + " | $" + game.price.toPlainString());
+            if (result.next == null)
+               return;
+            query.after(result.next);
+         } while (!prompt("Press Enter for the next page or type 'q' to stop:").equalsIgnoreCase("q"));
+      } catch (Exception e) {
+         System.err.println(e.getMessage());
+      }
+   }//end browseCatalog
+
+   /**
+    * Runs a faceted catalog query against the catalog cache.
+    *
+    * @return one page of games and the token of the next page
+    */
+   public static CatalogQuery.Page browseCatalog(GameRental esql, CatalogQuery query) throws SQLException {
+      return esql.getCatalog().query(esql, query);
+   }//end browseCatalog
+
+public static void placeOrder(GameRental esql, Session authorizedUser) {
     try {
-        List<String> gameIDs = new ArrayList<>();
-        List<Integer> unitsOrdered = new ArrayList<>();
-        double totalPrice = 0.0;
+        // keeps the entry order and merges repeated game IDs into one line item
+        Map<String, Integer> items = new LinkedHashMap<>();
 
         while (true) {
             System.out.println("Enter the game ID to rent (or type 'done' to finish):");
@@ -638,198 +1078,344 @@ public static void placeOrder(GameRental esql, String authorizedUser) {
             System.out.println("Enter the number of units for game ID " + gameID + ":");
             int units = Integer.parseInt(in.readLine());
 
-            String priceQuery = String.format("SELECT price FROM Catalog WHERE gameID = '%s'", gameID);
-            List<List<String>> result = esql.executeQueryAndReturnResult(priceQuery);
-            if (result.isEmpty()) {
+            CatalogCache.Game game = esql.getCatalog().findById(esql, gameID);
+            if (game == null) {
                 System.out.println("Game ID " + gameID + " not found in catalog.");
                 continue;
             }
-            double price = Double.parseDouble(result.get(0).get(0));
-            totalPrice += price * units;
 
-            gameIDs.add(gameID);
-            unitsOrdered.add(units);
+            Integer previous = items.get(gameID);
+            items.put(gameID, previous == null ? units : previous + units);
         }
 
-        if (gameIDs.isEmpty()) {
+        if (items.isEmpty()) {
             System.out.println("❌No games selected for rental. Order cancelled.");
             return;
         }
+
+        PlacedOrder order = submitOrder(esql, authorizedUser.getLogin(), items);
+        if (order == null) {
+            // a game was removed from the catalog after it was priced above
+            esql.getCatalog().invalidate();
+            System.out.println("❌Some games are no longer in the catalog. Order cancelled.");
+            return;
+        }
+
       //   System.out.println("⭐️⭐️⭐️⭐️⭐️⭐️⭐️⭐️⭐️⭐️⭐️⭐️⭐️⭐️⭐️⭐️⭐️⭐️⭐️⭐️⭐️⭐️⭐️⭐️⭐️⭐️⭐️⭐️⭐️⭐️⭐️⭐️⭐️⭐️⭐️⭐️⭐️⭐️⭐️⭐️⭐️⭐️⭐️⭐️⭐️");
         System.out.println("✅✅✅✅✅✅✅✅✅✅✅✅✅✅✅✅✅✅✅✅✅✅");
         System.out.println("Order has been placed\t");
         System.out.println("✅✅✅✅✅✅✅✅✅✅✅✅✅✅✅✅✅✅✅✅✅✅");
-        System.out.println("Total price of rental order: $" + totalPrice);
+        System.out.println("Total price of rental order: $" + order.totalPrice);
 
-        
-        String rentalOrderID = UUID.randomUUID().toString();
-
-        Timestamp orderTimestamp = new Timestamp(System.currentTimeMillis());
-        Calendar cal = Calendar.getInstance();
-        cal.setTime(orderTimestamp);
-        cal.add(Calendar.DATE, 7);
-        Timestamp dueDate = new Timestamp(cal.getTimeInMillis());
-
-        String insertOrderQuery = "INSERT INTO RentalOrder (rentalOrderID, login, noOfGames, totalPrice, orderTimestamp, dueDate) VALUES (?, ?, ?, ?, ?, ?)";
-        PreparedStatement insertOrderStmt = esql._connection.prepareStatement(insertOrderQuery);
-        insertOrderStmt.setString(1, rentalOrderID);
-        insertOrderStmt.setString(2, authorizedUser);
-        insertOrderStmt.setInt(3, gameIDs.size());
-        insertOrderStmt.setDouble(4, totalPrice);
-        insertOrderStmt.setTimestamp(5, orderTimestamp);
-        insertOrderStmt.setTimestamp(6, dueDate);
-        insertOrderStmt.executeUpdate();
-        insertOrderStmt.close();
-
-        
-        String insertGameQuery = "INSERT INTO GamesInOrder (rentalOrderID, gameID, unitsOrdered) VALUES (?, ?, ?)";
-        PreparedStatement insertGameStmt = esql._connection.prepareStatement(insertGameQuery);
-        for (int i = 0; i < gameIDs.size(); i++) {
-            insertGameStmt.setString(1, rentalOrderID);
-            insertGameStmt.setString(2, gameIDs.get(i));
-            insertGameStmt.setInt(3, unitsOrdered.get(i));
-            insertGameStmt.addBatch();
-        }
-        insertGameStmt.executeBatch();
-        insertGameStmt.close();
-
-
-        String trackingID = UUID.randomUUID().toString();
-
-        
-        String insertTrackingQuery = "INSERT INTO TrackingInfo (trackingID, rentalOrderID, status, currentLocation, courierName, lastUpdateDate) VALUES (?, ?, ?, ?, ?, ?)";
-        PreparedStatement insertTrackingStmt = esql._connection.prepareStatement(insertTrackingQuery);
-        insertTrackingStmt.setString(1, trackingID);
-        insertTrackingStmt.setString(2, rentalOrderID);
-        insertTrackingStmt.setString(3, "Ordered");
-        insertTrackingStmt.setString(4, "Warehouse");
-        insertTrackingStmt.setString(5, "Riverside, CA");
-        insertTrackingStmt.setTimestamp(6, orderTimestamp);
-      
-        insertTrackingStmt.executeUpdate();
-        insertTrackingStmt.close();
-
-        System.out.println("Rental order placed successfully with Order ID: " + rentalOrderID);
-        System.out.println("Tracking ID: " + trackingID);
+        System.out.println("Rental order placed successfully with Order ID: " + order.rentalOrderID);
+        System.out.println("Tracking ID: " + order.trackingID);
 
     } catch (Exception e) {
         System.err.println("❌Error: " + e.getMessage());
     }
 }
 
+   /**
+    * Lists the games the recommender suggests for the logged in customer,
+    * from what they rented and the favourite games of their profile.
+    */
+   public static void viewRecommendations(GameRental esql, Session authorizedUser) {
+      try {
+         authorizedUser.refresh(esql);
+         List<Recommender.Recommendation> result = recommend(esql, authorizedUser.getLogin(),
+                                                             authorizedUser.getFavGames(), RECOMMEND_LIMIT);
+         if (result.isEmpty()) {
+            System.out.println("❌No recommendations yet, rent a game or add favourite games to your profile.");
+            return;
+         }
+         System.out.println("Recommended for you:");
+         System.out.println("==================");
+         for (Recommender.Recommendation r : result) {
+            CatalogCache.Game g = r.game;
+            System.out.println(g.gameID + "\t" + g.gameName + "\t" + g.genre + "\t$" + g.price +
+                               (r.because == null ? "" : "\tbecause of " + r.because));
+         }
+      } catch (Exception e) {
+         System.err.println("❌Error: " + e.getMessage());
+      }
+   }//end viewRecommendations
 
+   // the number of games viewRecommendations lists
+   static final int RECOMMEND_LIMIT = Integer.getInteger("gamerental.recommend.limit", 10);
 
+   /**
+    * @return at most limit games for the customer, best first
+    */
+   public static List<Recommender.Recommendation> recommend(GameRental esql, String login, String favGames, int limit) throws SQLException {
+      return esql.getRecommender().recommend(esql, login, favGames, limit);
+   }//end recommend
 
-   public static void viewAllOrders(GameRental esql, String authorizedUser) {
+   /**
+    * The identifiers and the server computed total of a placed order.
+    */
+   public static class PlacedOrder {
+      public final String rentalOrderID;
+      public final String trackingID;
+      public final String totalPrice;
+      public final Timestamp orderTimestamp;
+
+      PlacedOrder(String rentalOrderID, String trackingID, String totalPrice, Timestamp orderTimestamp) {
+         this.rentalOrderID = rentalOrderID;
+         this.trackingID = trackingID;
+         this.totalPrice = totalPrice;
+         this.orderTimestamp = orderTimestamp;
+      }
+   }//end PlacedOrder
+
+   /**
+    * Places a rental order in a single statement. The games are priced with
+    * one join against Catalog, and the RentalOrder row, its GamesInOrder rows
+    * and the initial TrackingInfo row are written by data-modifying CTEs, so
+    * the order costs one round-trip no matter how many games it holds and is
+    * either written completely or not at all.
+    *
+    * @param login the customer placing the order
+    * @param items units ordered per game ID, each game ID at most once
+    * @return the placed order, or null if a game ID is not in the catalog
+    * @throws java.sql.SQLException when the order could not be written
+    */
+   public static PlacedOrder submitOrder(GameRental esql, String login, Map<String, Integer> items) throws SQLException {
+      StringBuilder values = new StringBuilder();
+      List<Object> params = new ArrayList<>();
+      for (Map.Entry<String, Integer> item : items.entrySet()) {
+         if (values.length() > 0) values.append(", ");
+         values.append("(?, ?)");
+         params.add(item.getKey());
+         params.add(item.getValue());
+      }
+
+      String rentalOrderID = esql.getIds().next();
+      String trackingID = esql.getIds().next();
+      // a compact ID carries the order time, so a lookup by ID finds its partition
+      long idTime = IdGenerator.timestampOf(rentalOrderID);
+      Timestamp orderTimestamp = new Timestamp(idTime >= 0 ? idTime : System.currentTimeMillis());
+      Calendar cal = Calendar.getInstance();
+      cal.setTime(orderTimestamp);
+      cal.add(Calendar.DATE, 7);
+      Timestamp dueDate = new Timestamp(cal.getTimeInMillis());
+
+      // HAVING skips the whole order when one of the games is unknown
+      String query =
+         "WITH items (gameID, unitsOrdered) AS (VALUES " + values + "), " +
+         "priced AS (" +
+            "SELECT I.gameID, I.unitsOrdered, C.price FROM items I JOIN Catalog C ON C.gameID = I.gameID), " +
+         "ord AS (" +
+            "INSERT INTO RentalOrder (rentalOrderID, login, noOfGames, totalPrice, orderTimestamp, dueDate) " +
+            "SELECT ?, ?, COUNT(*), SUM(price * unitsOrdered), ?, ? FROM priced HAVING COUNT(*) = ? " +
+            "RETURNING rentalOrderID, totalPrice, orderTimestamp), " +
+         "games AS (" +
+            "INSERT INTO GamesInOrder (rentalOrderID, gameID, unitsOrdered, orderTimestamp) " +
+            "SELECT O.rentalOrderID, P.gameID, P.unitsOrdered, O.orderTimestamp FROM ord O, priced P), " +
+         "tracking AS (" +
+            "INSERT INTO TrackingInfo (trackingID, rentalOrderID, status, currentLocation, courierName, lastUpdateDate, orderTimestamp) " +
+            "SELECT ?, rentalOrderID, 'Ordered', 'Warehouse', 'Riverside, CA', ?, orderTimestamp FROM ord) " +
+         "SELECT totalPrice FROM ord";
+      params.add(rentalOrderID);
+      params.add(login);
+      params.add(orderTimestamp);
+      params.add(dueDate);
+      params.add(items.size());
+      params.add(trackingID);
+      params.add(orderTimestamp);
+
+      List<List<String>> result = esql.executeQueryAndReturnResult(query, params.toArray());
+      if (result.isEmpty())
+         return null;
+      esql.getOverdueTracker().track(dueDate.getTime());
+      esql.getRecommender().recordOrder(login, items.keySet());
+      return new PlacedOrder(rentalOrderID, trackingID, result.get(0).get(0), orderTimestamp);
+   }//end submitOrder
+
+
+   public static void viewAllOrders(GameRental esql, Session authorizedUser) {
       try {
          
-         String roleQuery = String.format("SELECT role FROM Users WHERE login = '%s'", authorizedUser);
-         List<List<String>> roleResult = esql.executeQueryAndReturnResult(roleQuery);
-         if (roleResult.isEmpty()) {
+         String role = authorizedUser.getRole(esql);
+         if (role == null) {
                System.out.println("❌User not found.");
                return;
          }
 
         
-         String query;
-         if (roleResult.get(0).get(0).trim().equalsIgnoreCase("manager")) {
+         String login = authorizedUser.getLogin();
+         if (role.equalsIgnoreCase("manager")) {
                System.out.println("Enter the login of the user:");
-               String userLogin = in.readLine();
-               query = "SELECT R.orderTimestamp, R.dueDate, R.totalPrice, T.trackingID, G.gameID, G.unitsOrdered " +
-                        "FROM RentalOrder R " +
-                        "JOIN TrackingInfo T ON R.rentalOrderID = T.rentalOrderID " +
-                        "JOIN GamesInOrder G ON R.rentalOrderID = G.rentalOrderID " +
-                        "WHERE R.login = '" + userLogin + "'";
-         } else {
-               query = String.format(
-                     "SELECT R.orderTimestamp, R.dueDate, R.totalPrice, T.trackingID, G.gameID, G.unitsOrdered " +
-                              "FROM RentalOrder R " +
-                              "JOIN TrackingInfo T ON R.rentalOrderID = T.rentalOrderID " +
-                              "JOIN GamesInOrder G ON R.rentalOrderID = G.rentalOrderID " +
-                              "WHERE R.login = '%s'",
-                     authorizedUser
-               );
+               login = in.readLine();
          }
 
          
-         List<List<String>> result = esql.executeQueryAndReturnResult(query);
+         // one page of orders at a time, each page is a single index range scan
+         int pageSize = Integer.getInteger("gamerental.history.pageSize", 10);
+         String token = null;
+         int page = 0;
+         do {
+            final int pageNo = ++page;
+            final long[] rows = {0};
+            token = findOrderHistory(esql, login, pageSize, token, new Order.Handler() {
+               public boolean handle(Order order) {
+                  if (rows[0]++ == 0) {
+                     System.out.println("Order History (page " + pageNo + "):");
+                     System.out.println("==================");
+                  }
+                  printOrder(order);
+                  System.out.println("------------------------------------");
+                  return true;
+               }
+            });
 
-        
-         if (result.isEmpty()) {
+            if (rows[0] == 0 && pageNo == 1) {
                System.out.println("❌No rental history orders found.");
                return;
-         }
-
-         
-         System.out.println("Order History:");
-         System.out.println("==================");
-
-         
-         for (List<String> row : result) {
-               System.out.println("Order Timestamp: " + row.get(0));
-               System.out.println("Due Date: " + row.get(1));
-               System.out.println("Total Price: $" + row.get(2));
-               System.out.println("Tracking ID: " + row.get(3));
-               System.out.println("Game ID: " + row.get(4));
-               System.out.println("Units Ordered: " + row.get(5));
-               System.out.println("------------------------------------");
-         }
+            }
+            if (token != null) {
+               System.out.println("Press Enter for the next page or type 'q' to stop:");
+               if (in.readLine().trim().equalsIgnoreCase("q"))
+                  return;
+            }
+         } while (token != null);
       } catch (Exception e) {
          System.err.println(e.getMessage());
       }
    }
 
-   public static void viewRecentOrders(GameRental esql, String authorizedUser) {
+   // the games of order %1$s as [[gameID, unitsOrdered], ...], aggregated before they cross the wire
+   private static final String ORDER_ITEMS =
+      "(SELECT json_agg(json_build_array(G.gameID, G.unitsOrdered) ORDER BY G.gameID) " +
+      "FROM GamesInOrder G WHERE G.rentalOrderID = %1$s.rentalOrderID AND G.orderTimestamp = %1$s.orderTimestamp)";
+
+   // the page query is a range scan of idx_rentalorder_login_orderTimestamp starting at the key
+   private static final String HISTORY_PAGE_QUERY =
+      "WITH page AS (" +
+         "SELECT rentalOrderID, orderTimestamp, dueDate, totalPrice " +
+         "FROM RentalOrder " +
+         "WHERE login = ? AND (orderTimestamp, rentalOrderID) < (CAST(? AS timestamp), ?) " +
+         "ORDER BY orderTimestamp DESC, rentalOrderID DESC " +
+         "LIMIT ?) " +
+      "SELECT P.rentalOrderID, P.orderTimestamp, P.dueDate, P.totalPrice, T.trackingID, " +
+         String.format(ORDER_ITEMS, "P") + " " +
+      "FROM page P " +
+      "JOIN TrackingInfo T ON P.rentalOrderID = T.rentalOrderID AND P.orderTimestamp = T.orderTimestamp " +
+      "ORDER BY P.orderTimestamp DESC, P.rentalOrderID DESC";
+
+   // the archive keeps one row per game, an Order.Grouper folds these columns into orders
+   private static final String[] ORDER_ARCHIVE_COLUMNS =
+      {"orderTimestamp", "dueDate", "totalPrice", "trackingID", "gameID", "unitsOrdered", "rentalOrderID"};
+
+   /**
+    * Streams one page of a user's order history, newest first, using keyset
+    * pagination on (orderTimestamp, rentalOrderID): every page is an index
+    * range scan that starts right after the last order of the previous page,
+    * so its cost does not depend on how deep the user has paged. Each order
+    * comes as one row with its games nested. Once the database runs out of
+    * orders the pages continue into the archived months.
+    *
+    * @param pageSize the number of orders per page
+    * @param pageToken null for the first page, otherwise the token returned for the previous page
+    * @return the token of the next page, null when this was the last one
+    * @throws IllegalArgumentException when the token is malformed
+    */
+   public static String findOrderHistory(GameRental esql, String login, final int pageSize, String pageToken,
+                                         final Order.Handler handler) throws SQLException {
+      String[] key = pageToken == null ? new String[] {"infinity", ""} : decodePageToken(pageToken);
+      // one order past the page tells whether there is a next page
+      final String[] last = new String[2];
+      final String[] next = new String[1];
+      final int[] orders = {0};
+      final Order.Handler paging = new Order.Handler() {
+         public boolean handle(Order order) throws SQLException {
+            if (++orders[0] > pageSize) {
+               next[0] = encodePageToken(last[0], last[1]);
+               return false;
+            }
+            last[0] = order.orderTimestamp;
+            last[1] = order.rentalOrderID;
+            return handler.handle(order);
+         }
+      };
+      esql.executeQueryAndHandle(HISTORY_PAGE_QUERY, new RowHandler() {
+         public boolean handle(Row row) throws SQLException {
+            return paging.handle(Order.fromRow(row));
+         }
+      }, login, key[0], key[1], pageSize + 1);
+      if (next[0] == null && orders[0] <= pageSize) {
+         Order.Grouper grouper = new Order.Grouper(paging);
+         esql.getPartitions().findArchivedOrders(login, null, last[1] == null ? key : last, false,
+                                                 ORDER_ARCHIVE_COLUMNS, orders[0], grouper);
+         grouper.finish();
+      }
+      return next[0];
+   }//end findOrderHistory
+
+   static void printOrder(Order order) {
+      System.out.println("Rental Order ID: " + order.rentalOrderID);
+      System.out.println("Order Timestamp: " + order.orderTimestamp);
+      System.out.println("Due Date: " + order.dueDate);
+      System.out.println("Total Price: $" + order.totalPrice);
+      System.out.println("Tracking ID: " + order.trackingID);
+      for (Order.Item item : order.items)
+         System.out.println("   Game ID: " + item.gameID + ", Units Ordered: " + item.unitsOrdered);
+   }//end printOrder
+
+   /**
+    * Builds the opaque token for the page that starts after the given order.
+    */
+   public static String encodePageToken(String orderTimestamp, String rentalOrderID) {
+      String key = orderTimestamp + "|" + rentalOrderID;
+      return java.util.Base64.getUrlEncoder().withoutPadding()
+         .encodeToString(key.getBytes(java.nio.charset.StandardCharsets.UTF_8));
+   }//end encodePageToken
+
+   static String[] decodePageToken(String pageToken) {
+      String key;
+      try {
+         key = new String(java.util.Base64.getUrlDecoder().decode(pageToken), java.nio.charset.StandardCharsets.UTF_8);
+      } catch (IllegalArgumentException e) {
+         throw new IllegalArgumentException("Invalid page token");
+      }
+      int bar = key.indexOf('|');
+      if (bar <= 0)
+         throw new IllegalArgumentException("Invalid page token");
+      return new String[] {key.substring(0, bar), key.substring(bar + 1)};
+   }//end decodePageToken
+
+   public static void viewRecentOrders(GameRental esql, Session authorizedUser) {
       try {
-         String roleQuery = String.format("SELECT role FROM Users WHERE login = '%s'", authorizedUser);
-         List<List<String>> roleResult = esql.executeQueryAndReturnResult(roleQuery);
-         if (roleResult.isEmpty()) {
+         String role = authorizedUser.getRole(esql);
+         if (role == null) {
                System.out.println("❌User not found.");
                return;
          }
 
-         String query;
-         if (roleResult.get(0).get(0).trim().equalsIgnoreCase("manager")) {
+         String login = authorizedUser.getLogin();
+         if (role.equalsIgnoreCase("manager")) {
                System.out.println("Enter the login of the user to view their recent 5 orders:");
-               String userLogin = in.readLine();
-               query = String.format(
-                  "SELECT R.rentalOrderID, R.orderTimestamp, R.dueDate, R.totalPrice, R.noOfGames, T.trackingID " +
-                  "FROM RentalOrder R " +
-                  "LEFT JOIN TrackingInfo T ON R.rentalOrderID = T.rentalOrderID " +
-                  "WHERE R.login = '%s' " +
-                  "ORDER BY R.orderTimestamp DESC " +
-                  "LIMIT 5",
-                  userLogin
-               );
-         } else {
-               query = String.format(
-                  "SELECT R.rentalOrderID, R.orderTimestamp, R.dueDate, R.totalPrice, R.noOfGames, T.trackingID " +
-                  "FROM RentalOrder R " +
-                  "LEFT JOIN TrackingInfo T ON R.rentalOrderID = T.rentalOrderID " +
-                  "WHERE R.login = '%s' " +
-                  "ORDER BY R.orderTimestamp DESC " +
-                  "LIMIT 5",
-                  authorizedUser
-               );
+               login = in.readLine();
          }
+         long rows = findRecentOrders(esql, login, new RowHandler() {
+            public boolean handle(Row row) throws SQLException {
+               if (row.getRowNumber() == 1) {
+                  System.out.println("===========================");
+                  System.out.println("Recent Orders");
+                  System.out.println("===========================");
+               }
+               System.out.println("Rental Order ID: " + row.getString(1));
+               System.out.println("Order Timestamp: " + row.getString(2));
+               System.out.println("Due Date: " + row.getString(3));
+               System.out.println("Total Price: $" + row.getString(4));
+               System.out.println("Number of Games: " + row.getString(5));
+               System.out.println("Tracking ID: " + row.getString(6));
+               System.out.println("---------------------------");
+               return true;
+            }
+         });
 
-         List<List<String>> result = esql.executeQueryAndReturnResult(query);
-
-         if (result.isEmpty()) {
+         if (rows == 0) {
                System.out.println("❌No recent orders found.");
-         } else {
-               System.out.println("===========================");
-               System.out.println("Recent Orders");
-               System.out.println("===========================");
-               for (List<String> row : result) {
-                  System.out.println("Rental Order ID: " + row.get(0));
-                  System.out.println("Order Timestamp: " + row.get(1));
-                  System.out.println("Due Date: " + row.get(2));
-                  System.out.println("Total Price: $" + row.get(3));
-                  System.out.println("Number of Games: " + row.get(4));
-                  System.out.println("Tracking ID: " + row.get(5));
-                  System.out.println("---------------------------");
-               }
          }
       } catch (Exception e) {
          System.err.println(e.getMessage());
@@ -838,12 +1424,44 @@ public static void placeOrder(GameRental esql, String authorizedUser) {
 
 
 
-   public static void viewOrderInfo(GameRental esql, String authorizedUser) {
+   /**
+    * @return rentalOrderID, orderTimestamp, dueDate, totalPrice, noOfGames, trackingID of the 5 latest orders,
+    *         taken from the archive when the database has fewer
+    */
+   public static long findRecentOrders(GameRental esql, String login, final RowHandler handler) throws SQLException {
+      String query =
+               "SELECT R.rentalOrderID, R.orderTimestamp, R.dueDate, R.totalPrice, R.noOfGames, T.trackingID " +
+               "FROM RentalOrder R " +
+               "LEFT JOIN TrackingInfo T ON R.rentalOrderID = T.rentalOrderID AND R.orderTimestamp = T.orderTimestamp " +
+               "WHERE R.login = ? " +
+               "ORDER BY R.orderTimestamp DESC, R.rentalOrderID DESC " +
+               "LIMIT 5";
+      final String[] last = new String[2];
+      long rows = esql.executeQueryAndHandle(query, new RowHandler() {
+         public boolean handle(Row row) throws SQLException {
+            last[0] = row.getString(2);
+            last[1] = row.getString(1);
+            return handler.handle(row);
+         }
+      }, login);
+      if (rows < 5) {
+         final long[] more = {5 - rows};
+         rows += esql.getPartitions().findArchivedOrders(login, null, last[1] == null ? null : last, true,
+            new String[] {"rentalOrderID", "orderTimestamp", "dueDate", "totalPrice", "noOfGames", "trackingID"},
+            rows, new RowHandler() {
+               public boolean handle(Row row) throws SQLException {
+                  return handler.handle(row) && --more[0] > 0;
+               }
+            });
+      }
+      return rows;
+   }//end findRecentOrders
+
+   public static void viewOrderInfo(GameRental esql, Session authorizedUser) {
       try {
          
-         String roleQuery = String.format("SELECT role FROM Users WHERE login = '%s'", authorizedUser);
-         List<List<String>> roleResult = esql.executeQueryAndReturnResult(roleQuery);
-         if (roleResult.isEmpty()) {
+         String role = authorizedUser.getRole(esql);
+         if (role == null) {
                System.out.println("❌User not found.");
                return;
          }
@@ -851,48 +1469,22 @@ public static void placeOrder(GameRental esql, String authorizedUser) {
          System.out.println("Enter the rental order ID:");
          String rentalOrderID = in.readLine();
 
-         String query;
-         if (roleResult.get(0).get(0).trim().equalsIgnoreCase("manager")) {
+         String login = authorizedUser.getLogin();
+         if (role.equalsIgnoreCase("manager")) {
                System.out.println("Enter the login of the user:");
-               String userLogin = in.readLine();
-               query = String.format(
-                  "SELECT R.orderTimestamp, R.dueDate, R.totalPrice, T.trackingID, G.gameID, G.unitsOrdered " +
-                  "FROM RentalOrder R " +
-                  "JOIN TrackingInfo T ON R.rentalOrderID = T.rentalOrderID " +
-                  "JOIN GamesInOrder G ON R.rentalOrderID = G.rentalOrderID " +
-                  "WHERE R.rentalOrderID = '%s' AND R.login = '%s'",
-                  rentalOrderID, userLogin
-               );
-         } else {
-               query = String.format(
-                  "SELECT R.orderTimestamp, R.dueDate, R.totalPrice, T.trackingID, G.gameID, G.unitsOrdered " +
-                  "FROM RentalOrder R " +
-                  "JOIN TrackingInfo T ON R.rentalOrderID = T.rentalOrderID " +
-                  "JOIN GamesInOrder G ON R.rentalOrderID = G.rentalOrderID " +
-                  "WHERE R.rentalOrderID = '%s' AND R.login = '%s'",
-                  rentalOrderID, authorizedUser
-               );
+               login = in.readLine();
          }
+         Order order = findOrder(esql, rentalOrderID, login);
 
-         List<List<String>> result = esql.executeQueryAndReturnResult(query);
-
-         if (result.isEmpty()) {
+         if (order == null) {
                System.out.println("❌No rental orders found.");
                return;
          }
 
          System.out.println("Order Information:");
          System.out.println("==================");
-
-         for (List<String> row : result) {
-               System.out.println("Order Timestamp: " + row.get(0));
-               System.out.println("Due Date: " + row.get(1));
-               System.out.println("Total Price: $" + row.get(2));
-               System.out.println("Tracking ID: " + row.get(3));
-               System.out.println("Game ID: " + row.get(4));
-               System.out.println("Units Ordered: " + row.get(5));
-               System.out.println("------------------");
-         }
+         printOrder(order);
+         System.out.println("------------------");
       } catch (Exception e) {
          System.err.println(e.getMessage());
       }
@@ -902,11 +1494,51 @@ public static void placeOrder(GameRental esql, String authorizedUser) {
 
 
 
-   public static void viewTrackingInfo(GameRental esql, String authorizedUser) {
+   /**
+    * A time ordered rentalOrderID narrows the lookup to the partition of its
+    * month; an order that is no longer in the database is looked up in the
+    * archive.
+    *
+    * @return the order with its games, null when the user has no such order
+    */
+   public static Order findOrder(GameRental esql, String rentalOrderID, String login) throws SQLException {
+      String query =
+               "SELECT R.rentalOrderID, R.orderTimestamp, R.dueDate, R.totalPrice, T.trackingID, " +
+               String.format(ORDER_ITEMS, "R") + " " +
+               "FROM RentalOrder R " +
+               "JOIN TrackingInfo T ON R.rentalOrderID = T.rentalOrderID AND R.orderTimestamp = T.orderTimestamp " +
+               "WHERE R.rentalOrderID = ? AND R.login = ?";
+      List<List<String>> result;
+      long idTime = IdGenerator.timestampOf(rentalOrderID);
+      if (idTime >= 0) {
+         // the ID is stamped when the order is placed, so its orderTimestamp is within a day of it and only
+         // the partition of that month is scanned, or the two around a month boundary
+         Timestamp t = new Timestamp(idTime);
+         result = esql.executeQueryAndReturnResult(
+            query + " AND R.orderTimestamp BETWEEN CAST(? AS timestamp) - interval '1 day' " +
+            "AND CAST(? AS timestamp) + interval '1 day'", rentalOrderID, login, t, t);
+      } else {
+         result = esql.executeQueryAndReturnResult(query, rentalOrderID, login);
+      }
+      if (!result.isEmpty())
+         return Order.fromRow(result.get(0));
+
+      final Order[] archived = new Order[1];
+      Order.Grouper grouper = new Order.Grouper(new Order.Handler() {
+         public boolean handle(Order order) {
+            archived[0] = order;
+            return false;
+         }
+      });
+      esql.getPartitions().findArchivedOrders(login, rentalOrderID, null, false, ORDER_ARCHIVE_COLUMNS, 0, grouper);
+      grouper.finish();
+      return archived[0];
+   }//end findOrder
+
+   public static void viewTrackingInfo(GameRental esql, Session authorizedUser) {
       try {
-         String roleQuery = String.format("SELECT role FROM Users WHERE login = '%s'", authorizedUser);
-         List<List<String>> roleResult = esql.executeQueryAndReturnResult(roleQuery);
-         if (roleResult.isEmpty()) {
+         String role = authorizedUser.getRole(esql);
+         if (role == null) {
                System.out.println("❌User not found.");
                return;
          }
@@ -914,27 +1546,12 @@ public static void placeOrder(GameRental esql, String authorizedUser) {
          System.out.println("Enter the Tracking ID:");
          String trackingID = in.readLine();
 
-         String query;
-         if (roleResult.get(0).get(0).trim().equalsIgnoreCase("manager") || roleResult.get(0).get(0).trim().equalsIgnoreCase("employee")) {
+         String login = authorizedUser.getLogin();
+         if (role.equalsIgnoreCase("manager") || role.equalsIgnoreCase("employee")) {
                System.out.println("Enter the login of the user:");
-               String userLogin = in.readLine();
-
-               query = String.format(
-                  "SELECT T.trackingID, T.courierName, T.rentalOrderID, T.currentLocation, T.status, T.lastUpdateDate, T.additionalComments " +
-                  "FROM TrackingInfo T, RentalOrder R " +
-                  "WHERE T.trackingID = '%s' AND T.rentalOrderID = R.rentalOrderID AND R.login = '%s'",
-                  trackingID, userLogin
-               );
-         } else {
-               query = String.format(
-                  "SELECT T.trackingID, T.courierName, T.rentalOrderID, T.currentLocation, T.status, T.lastUpdateDate, T.additionalComments " +
-                  "FROM TrackingInfo T, RentalOrder R " +
-                  "WHERE T.trackingID = '%s' AND T.rentalOrderID = R.rentalOrderID AND R.login = '%s'",
-                  trackingID, authorizedUser
-               );
+               login = in.readLine();
          }
-
-         List<List<String>> result = esql.executeQueryAndReturnResult(query);
+         List<List<String>> result = findTrackingInfo(esql, trackingID, login);
 
          if (result.isEmpty()) {
                System.out.println("No tracking information found.");
@@ -951,27 +1568,72 @@ public static void placeOrder(GameRental esql, String authorizedUser) {
                   System.out.println("Last Updated Date: " + row.get(5));
                   System.out.println("Additional Comments: " + row.get(6));
                }
+
+               System.out.println("Show the shipment history? (1. yes/2. no)");
+               if (readChoice() == 1) {
+                  System.out.println("===========================");
+                  System.out.println("Shipment History");
+                  System.out.println("===========================");
+                  findTrackingHistory(esql, trackingID, login, new RowHandler() {
+                     public boolean handle(Row row) throws SQLException {
+                        System.out.println(row.getString(1) + "  " + row.getString(2) + " - " + row.getString(3) +
+                                           " (" + row.getString(4) + ")" +
+                                           (row.isNull(5) ? "" : "  " + row.getString(5)));
+                        return true;
+                     }
+                  });
+               }
          }
       } catch (Exception e) {
          System.err.println(e.getMessage());
       }
    }
 
+   /**
+    * Streams every recorded scan of a shipment, oldest first. The shipment
+    * must belong to the given user.
+    *
+    * @param handler receives eventTime, status, currentLocation, courierName, additionalComments
+    * @return the number of events
+    */
+   public static long findTrackingHistory(GameRental esql, String trackingID, String login, RowHandler handler) throws SQLException {
+      String query =
+               "SELECT E.eventTime, E.status, E.currentLocation, E.courierName, E.additionalComments " +
+               "FROM TrackingEvent E " +
+               "WHERE E.trackingID = ? " +
+               "AND EXISTS (SELECT 1 FROM TrackingInfo T JOIN RentalOrder R " +
+                           "ON T.rentalOrderID = R.rentalOrderID AND T.orderTimestamp = R.orderTimestamp " +
+                           "WHERE T.trackingID = E.trackingID AND R.login = ?) " +
+               "ORDER BY E.eventTime";
+      return esql.executeQueryAndHandle(query, handler, trackingID, login);
+   }//end findTrackingHistory
+
 
-   public static void updateTrackingInfo(GameRental esql, String authorizedUser) {
+   /**
+    * @return trackingID, courierName, rentalOrderID, currentLocation, status, lastUpdateDate, additionalComments
+    */
+   public static List<List<String>> findTrackingInfo(GameRental esql, String trackingID, String login) throws SQLException {
+      String query =
+               "SELECT T.trackingID, T.courierName, T.rentalOrderID, T.currentLocation, T.status, T.lastUpdateDate, T.additionalComments " +
+               "FROM TrackingInfo T, RentalOrder R " +
+               "WHERE T.trackingID = ? AND T.rentalOrderID = R.rentalOrderID AND T.orderTimestamp = R.orderTimestamp " +
+               "AND R.login = ?";
+      return esql.executeQueryAndReturnResult(query, trackingID, login);
+   }//end findTrackingInfo
+
+   public static void updateTrackingInfo(GameRental esql, Session authorizedUser) {
       try {
-         String roleQuery = String.format("SELECT role FROM users WHERE login = '%s'", authorizedUser);
-         List<List<String>> userRole = esql.executeQueryAndReturnResult(roleQuery);
+         String role = authorizedUser.getRole(esql);
 
-         if (userRole.isEmpty()) {
-               System.out.println("❌No user found with the login: " + authorizedUser);
+         if (role == null) {
+               System.out.println("❌No user found with the login: " + authorizedUser.getLogin());
                return;
          } else {
-               System.out.println("User role: " + userRole.get(0).get(0).trim());
+               System.out.println("User role: " + role);
          }
 
-         if (!userRole.get(0).get(0).trim().equalsIgnoreCase("employee") &&
-               !userRole.get(0).get(0).trim().equalsIgnoreCase("manager")) {
+         if (!role.equalsIgnoreCase("employee") &&
+               !role.equalsIgnoreCase("manager")) {
                   System.out.println("❌❌❌❌❌❌❌❌❌❌❌❌❌❌❌❌❌❌❌❌❌❌❌❌❌❌❌❌❌❌❌❌❌❌❌❌");
                   System.out.println("Only employees and managers are allowed to update tracking information.");
                   System.out.println("❌❌❌❌❌❌❌❌❌❌❌❌❌❌❌❌❌❌❌❌❌❌❌❌❌❌❌❌❌❌❌❌❌❌❌❌");
@@ -982,12 +1644,8 @@ public static void placeOrder(GameRental esql, String authorizedUser) {
          String trackingID = in.readLine();
 
          String checkTrackingQuery = "SELECT COUNT(*) FROM TrackingInfo WHERE trackingID = ?";
-         PreparedStatement checkTrackingStmt = esql._connection.prepareStatement(checkTrackingQuery);
-         checkTrackingStmt.setString(1, trackingID);
-         ResultSet rs = checkTrackingStmt.executeQuery();
-         rs.next();
-         int trackingCount = rs.getInt(1);
-         checkTrackingStmt.close();
+         List<List<String>> countResult = esql.executeQueryAndReturnResult(checkTrackingQuery, trackingID);
+         int trackingCount = Integer.parseInt(countResult.get(0).get(0));
 
          if (trackingCount == 0) {
                System.out.println("No tracking information found with the Tracking ID: " + trackingID);
@@ -1006,29 +1664,17 @@ public static void placeOrder(GameRental esql, String authorizedUser) {
          System.out.println("Enter additional comments:");
          String additionalComments = in.readLine();
 
-         List<String> updates = new ArrayList<>();
-         if (!status.isEmpty()) updates.add("status = '" + status + "'");
-         if (!currentLocation.isEmpty()) updates.add("currentLocation = '" + currentLocation + "'");
-         if (!courierName.isEmpty()) updates.add("courierName = '" + courierName + "'");
-         if (!additionalComments.isEmpty()) updates.add("additionalComments = '" + additionalComments + "'");
-
-         if (updates.isEmpty()) {
+         if (status.isEmpty() && currentLocation.isEmpty() && courierName.isEmpty() && additionalComments.isEmpty()) {
                System.out.println("❌No updates were provided.");
                return;
          }
 
-         String updateQuery = "UPDATE TrackingInfo SET " + String.join(", ", updates) + ", lastUpdateDate = CURRENT_TIMESTAMP WHERE trackingID = ?";
-         PreparedStatement pstmt = esql._connection.prepareStatement(updateQuery);
-         pstmt.setString(1, trackingID);
-
-         int rowsUpdated = pstmt.executeUpdate();
+         int rowsUpdated = applyTrackingUpdate(esql, trackingID, status, currentLocation, courierName, additionalComments);
          if (rowsUpdated > 0) {
                System.out.println("✅✔️Tracking information updated successfully.");
          } else {
                System.out.println("❌Tracking information update failed.");
          }
-
-         pstmt.close();
       } catch (Exception e) {
          System.err.println(e.getMessage());
       }
@@ -1036,13 +1682,29 @@ public static void placeOrder(GameRental esql, String authorizedUser) {
 
 
    
-   public static void updateCatalog(GameRental esql, String authorizedUser) {
+   /**
+    * Updates the non-empty fields of a tracking record and stamps lastUpdateDate.
+    *
+    * @return the number of rows updated
+    */
+   public static int applyTrackingUpdate(GameRental esql, String trackingID, String status, String currentLocation,
+                                         String courierName, String additionalComments) throws SQLException {
+      List<String> updates = new ArrayList<>();
+      List<Object> params = new ArrayList<>();
+      if (!status.isEmpty()) { updates.add("status = ?"); params.add(status); }
+      if (!currentLocation.isEmpty()) { updates.add("currentLocation = ?"); params.add(currentLocation); }
+      if (!courierName.isEmpty()) { updates.add("courierName = ?"); params.add(courierName); }
+      if (!additionalComments.isEmpty()) { updates.add("additionalComments = ?"); params.add(additionalComments); }
+
+      String updateQuery = "UPDATE TrackingInfo SET " + String.join(", ", updates) + ", lastUpdateDate = CURRENT_TIMESTAMP WHERE trackingID = ?";
+      params.add(trackingID);
+      return esql.executeUpdate(updateQuery, params.toArray());
+   }//end applyTrackingUpdate
+
+   public static void updateCatalog(GameRental esql, Session authorizedUser) {
     try {
         
-        String roleQuery = String.format("SELECT role FROM users WHERE login = '%s'", authorizedUser);
-        List<List<String>> userRole = esql.executeQueryAndReturnResult(roleQuery);
-
-        if (!userRole.get(0).get(0).trim().equalsIgnoreCase("manager")) {
+        if (!authorizedUser.isManager(esql)) {
                System.out.println("❌❌❌❌❌❌❌❌❌❌❌❌❌❌❌❌❌❌❌❌❌❌❌❌❌❌");
                System.out.println("Only managers are allowed to update user information.");
                System.out.println("❌❌❌❌❌❌❌❌❌❌❌❌❌❌❌❌❌❌❌❌❌❌❌❌❌❌");
@@ -1056,27 +1718,18 @@ public static void placeOrder(GameRental esql, String authorizedUser) {
         String gameID = in.readLine();
 
         
-        ArrayList<String> updates = new ArrayList<>();
-
-        
         System.out.println("Enter the new game name:");
         String gameName = in.readLine();
-        if (!gameName.isEmpty()) {
-            updates.add(String.format("gameName = '%s'", gameName));
-        }
 
         System.out.println("Enter the new genre:");
         String genre = in.readLine();
-        if (!genre.isEmpty()) {
-            updates.add(String.format("genre = '%s'", genre));
-        }
 
         System.out.println("Enter the new price:");
         String priceInput = in.readLine();
+        BigDecimal price = null;
         if (!priceInput.isEmpty()) {
             try {
-                Double price = Double.parseDouble(priceInput);
-                updates.add(String.format("price = %s", price));
+                price = new BigDecimal(priceInput.trim());
             } catch (NumberFormatException e) {
                 System.out.println("❌Invalid price format.");
                 return;
@@ -1084,15 +1737,13 @@ public static void placeOrder(GameRental esql, String authorizedUser) {
         }
 
         
-        if (updates.isEmpty()) {
+        if (gameName.isEmpty() && genre.isEmpty() && price == null) {
             System.out.println("❌No updates were provided.");
             return;
         }
 
-        String query = "UPDATE Catalog SET " + String.join(", ", updates) + String.format(" WHERE gameID = '%s'", gameID);
-
         
-        esql.executeUpdate(query);
+        applyCatalogUpdate(esql, gameID, gameName, genre, price);
         System.out.println("✅Catalog updated successfully.");
 
       } catch (Exception e) {
@@ -1100,21 +1751,41 @@ public static void placeOrder(GameRental esql, String authorizedUser) {
       }
    }
 
+   /**
+    * Updates the non-empty fields of a game and drops the cached catalog.
+    *
+    * @param price the new price or null to keep it
+    * @return the number of rows updated
+    */
+   public static int applyCatalogUpdate(GameRental esql, String gameID, String gameName, String genre, BigDecimal price) throws SQLException {
+      List<String> updates = new ArrayList<>();
+      List<Object> params = new ArrayList<>();
+      if (!gameName.isEmpty()) { updates.add("gameName = ?"); params.add(gameName); }
+      if (!genre.isEmpty()) { updates.add("genre = ?"); params.add(genre); }
+      if (price != null) { updates.add("price = ?"); params.add(price); }
+
+      String query = "UPDATE Catalog SET " + String.join(", ", updates) + " WHERE gameID = ?";
+      params.add(gameID);
+
+      int rows = esql.executeUpdate(query, params.toArray());
+      esql.getCatalog().invalidate();
+      return rows;
+   }//end applyCatalogUpdate
 
-   public static void updateUser(GameRental esql, String authorizedUser) {
+
+   public static void updateUser(GameRental esql, Session authorizedUser) {
       try {
         
-         String roleQuery = String.format("SELECT role FROM users WHERE login = '%s'", authorizedUser);
-         List<List<String>> userRole = esql.executeQueryAndReturnResult(roleQuery);
+         String role = authorizedUser.getRole(esql);
 
-         if (userRole.isEmpty()) {
-               System.out.println("❌No user found with the login: " + authorizedUser);
+         if (role == null) {
+               System.out.println("❌No user found with the login: " + authorizedUser.getLogin());
                return;
          } else {
-               System.out.println("User role: " + userRole.get(0).get(0).trim());
+               System.out.println("User role: " + role);
          }
 
-         if (!userRole.get(0).get(0).trim().equalsIgnoreCase("manager")) {
+         if (!role.equalsIgnoreCase("manager")) {
                System.out.println("❌❌❌❌❌❌❌❌❌❌❌❌❌❌❌❌❌❌❌❌❌❌❌❌❌❌❌");
                System.out.println("Only managers are allowed to update user information.");
                System.out.println("❌❌❌❌❌❌❌❌❌❌❌❌❌❌❌❌❌❌❌❌❌❌❌❌❌❌❌");
@@ -1126,12 +1797,8 @@ public static void placeOrder(GameRental esql, String authorizedUser) {
          String userLogin = in.readLine();
 
          String checkUserQuery = "SELECT COUNT(*) FROM users WHERE login = ?";
-         PreparedStatement checkUserStmt = esql._connection.prepareStatement(checkUserQuery);
-         checkUserStmt.setString(1, userLogin);
-         ResultSet rs = checkUserStmt.executeQuery();
-         rs.next();
-         int userCount = rs.getInt(1);
-         checkUserStmt.close();
+         List<List<String>> countResult = esql.executeQueryAndReturnResult(checkUserQuery, userLogin);
+         int userCount = Integer.parseInt(countResult.get(0).get(0));
 
          if (userCount == 0) {
                System.out.println("❌No user found with the login: " + userLogin);
@@ -1148,33 +1815,54 @@ public static void placeOrder(GameRental esql, String authorizedUser) {
          System.out.println("Enter the new number of overdue games:");
          String newNumOverdueGames = in.readLine();
 
-         List<String> updates = new ArrayList<>();
-         if (!newLogin.isEmpty()) updates.add("login = '" + newLogin + "'");
-         if (!newRole.isEmpty()) updates.add("role = '" + newRole + "'");
-         if (!newNumOverdueGames.isEmpty()) updates.add("numOverDueGames = " + Integer.parseInt(newNumOverdueGames));
-
-         if (updates.isEmpty()) {
+         if (newLogin.isEmpty() && newRole.isEmpty() && newNumOverdueGames.isEmpty()) {
                System.out.println("❌No updates were provided.");
                return;
          }
 
-         String updateQuery = "UPDATE users SET " + String.join(", ", updates) + " WHERE login = ?";
-         PreparedStatement pstmt = esql._connection.prepareStatement(updateQuery);
-         pstmt.setString(1, userLogin);
-
-         int rowsUpdated = pstmt.executeUpdate();
+         Integer overdue = newNumOverdueGames.isEmpty() ? null : Integer.parseInt(newNumOverdueGames);
+         int rowsUpdated = applyUserUpdate(esql, userLogin, newLogin, newRole, overdue);
          if (rowsUpdated > 0) {
                System.out.println("✅User updated successfully.");
          } else {
                System.out.println("❌User update failed.");
          }
-
-         pstmt.close();
       } catch (Exception e) {
          System.err.println(e.getMessage());
       }
    }
 
+   /**
+    * Updates the non-empty fields of a user and invalidates the sessions
+    * that cached the old login or role.
+    *
+    * @param numOverDueGames the new count or null to keep it
+    * @return the number of rows updated
+    */
+   public static int applyUserUpdate(GameRental esql, String userLogin, String newLogin, String newRole, Integer numOverDueGames) throws SQLException {
+      List<String> updates = new ArrayList<>();
+      List<Object> params = new ArrayList<>();
+      if (!newLogin.isEmpty()) { updates.add("login = ?"); params.add(newLogin); }
+      if (!newRole.isEmpty()) { updates.add("role = ?"); params.add(newRole); }
+      if (numOverDueGames != null) { updates.add("numOverDueGames = ?"); params.add(numOverDueGames); }
+
+      String updateQuery = "UPDATE users SET " + String.join(", ", updates) + " WHERE login = ?";
+      params.add(userLogin);
+
+      boolean renamed = !newLogin.isEmpty() && !newLogin.equals(userLogin);
+      if (renamed)
+         esql.getAuthenticator().added(newLogin);
+      int rowsUpdated = esql.executeUpdate(updateQuery, params.toArray());
+      if (rowsUpdated > 0) {
+         // open sessions and cached credentials of this user must pick up the new login or role
+         esql.getAuthenticator().forget(userLogin);
+         if (renamed)
+            Session.rename(userLogin, newLogin);
+         else
+            Session.invalidate(userLogin);
+      }
+      return rowsUpdated;
+   }//end applyUserUpdate
 
 }//end GameRental
 
@@ -0,0 +1,491 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * This class benchmarks the SQL and Java paths behind every menu action
+ * against a loaded database, in the spirit of a JMH suite: each benchmark is
+ * warmed up, then measured for a fixed time on one or more threads, and the
+ * throughput, latency percentiles, allocation rate and GC activity are
+ * printed and exported as JSON. A previous JSON report can be passed as a
+ * baseline to flag regressions between builds.
+ *
+ */
+public class GameRentalBenchmark {
+
+   /**
+    * One benchmarked operation. Implementations pick their inputs from the
+    * sampled keys with the given random source.
+    */
+   interface Operation {
+      void run(ThreadLocalRandom rnd) throws Exception;
+   }
+
+   private final GameRental esql;
+   final Map<String, Operation> benchmarks = new LinkedHashMap<String, Operation>();
+
+   // consumes streamed rows without keeping them
+   static final RowHandler DISCARD = new RowHandler() {
+      public boolean handle(Row row) {
+         return true;
+      }
+   };
+
+   // consumes streamed orders without keeping them
+   static final Order.Handler DISCARD_ORDERS = new Order.Handler() {
+      public boolean handle(Order order) {
+         return true;
+      }
+   };
+
+   // keys sampled once from the loaded dataset
+   private List<List<String>> users;      // login, password, role
+   private List<List<String>> orders;     // rentalOrderID, login, orderTimestamp
+   private List<List<String>> tracking;   // trackingID, login, status
+   private List<CatalogCache.Game> games;
+   private List<String> genres;
+
+   GameRentalBenchmark(GameRental esql) {
+      this.esql = esql;
+   }
+
+   private static <T> T pick(List<T> list, ThreadLocalRandom rnd) {
+      return list.get(rnd.nextInt(list.size()));
+   }
+
+   /**
+    * Samples the keys the benchmarks draw their inputs from.
+    */
+   void sample(int size) throws Exception {
+      users = esql.executeQueryAndReturnResult(
+         "SELECT login, password, role FROM Users ORDER BY random() LIMIT ?", size);
+      orders = esql.executeQueryAndReturnResult(
+         "SELECT rentalOrderID, login, orderTimestamp FROM RentalOrder ORDER BY random() LIMIT ?", size);
+      tracking = esql.executeQueryAndReturnResult(
+         "SELECT T.trackingID, R.login, T.status FROM TrackingInfo T JOIN RentalOrder R ON T.rentalOrderID = R.rentalOrderID " +
+         "ORDER BY random() LIMIT ?", size);
+      games = esql.getCatalog().findAll(esql, CatalogCache.UNSORTED);
+      genres = new ArrayList<String>();
+      for (CatalogCache.Game g : games)
+         if (!genres.contains(g.genre)) genres.add(g.genre);
+      if (users.isEmpty() || orders.isEmpty() || tracking.isEmpty() || games.size() < 20)
+         throw new IllegalStateException("The database needs users, orders, tracking rows and at least 20 games");
+   }//end sample
+
+   /**
+    * Registers one benchmark per menu operation and parameter combination.
+    */
+   void register() {
+      benchmarks.put("login", new Operation() {
+         public void run(ThreadLocalRandom rnd) throws Exception {
+            List<String> u = pick(users, rnd);
+            if (GameRental.authenticate(esql, u.get(0), u.get(1)) == null)
+               throw new IllegalStateException("login failed for " + u.get(0));
+         }
+      });
+
+      String[] sorts = {"none", "asc", "desc"};
+      for (int s = 0; s < sorts.length; ++s) {
+         final int sort = s == 0 ? CatalogCache.UNSORTED : s == 1 ? CatalogCache.PRICE_ASC : CatalogCache.PRICE_DESC;
+         benchmarks.put("viewCatalog.gameID." + sorts[s], new Operation() {
+            public void run(ThreadLocalRandom rnd) throws Exception {
+               GameRental.searchCatalog(esql, 1, pick(games, rnd).gameID, sort);
+            }
+         });
+         benchmarks.put("viewCatalog.genre." + sorts[s], new Operation() {
+            public void run(ThreadLocalRandom rnd) throws Exception {
+               GameRental.searchCatalog(esql, 2, pick(genres, rnd), sort);
+            }
+         });
+         benchmarks.put("viewCatalog.price." + sorts[s], new Operation() {
+            public void run(ThreadLocalRandom rnd) throws Exception {
+               GameRental.searchCatalog(esql, 3, pick(games, rnd).price.toPlainString(), sort);
+            }
+         });
+      }
+
+      benchmarks.put("viewCatalog.search.words", new Operation() {
+         public void run(ThreadLocalRandom rnd) throws Exception {
+            GameRental.searchCatalog(esql, 4, pick(games, rnd).gameName + " ", CatalogCache.UNSORTED);
+         }
+      });
+      benchmarks.put("viewCatalog.search.prefix", new Operation() {
+         public void run(ThreadLocalRandom rnd) throws Exception {
+            // what a user has typed half way through a name
+            String name = pick(games, rnd).gameName;
+            GameRental.searchCatalog(esql, 4, name.substring(0, Math.max(2, name.length() / 2)), CatalogCache.UNSORTED);
+         }
+      });
+      benchmarks.put("viewCatalog.search.typo", new Operation() {
+         public void run(ThreadLocalRandom rnd) throws Exception {
+            // swaps two letters of the name
+            char[] name = pick(games, rnd).gameName.toCharArray();
+            int i = rnd.nextInt(Math.max(1, name.length - 1));
+            if (i + 1 < name.length) { char c = name[i]; name[i] = name[i + 1]; name[i + 1] = c; }
+            GameRental.searchCatalog(esql, 4, new String(name) + " ", CatalogCache.UNSORTED);
+         }
+      });
+
+      benchmarks.put("browseCatalog.genrePrice", new Operation() {
+         public void run(ThreadLocalRandom rnd) throws Exception {
+            CatalogCache.Game g = pick(games, rnd);
+            GameRental.browseCatalog(esql, new CatalogQuery().genre(g.genre)
+               .price(g.price, g.price.add(java.math.BigDecimal.TEN)).sort(CatalogCache.PRICE_ASC));
+         }
+      });
+      benchmarks.put("browseCatalog.platformPublisherName", new Operation() {
+         public void run(ThreadLocalRandom rnd) throws Exception {
+            CatalogCache.Game g = pick(games, rnd);
+            GameRental.browseCatalog(esql, new CatalogQuery().platform(g.platform).publisher(g.publisher)
+               .sort(CatalogCache.NAME_ASC));
+         }
+      });
+      benchmarks.put("browseCatalog.allFacetsNextPage", new Operation() {
+         public void run(ThreadLocalRandom rnd) throws Exception {
+            // resumes after a random game, as a later page would
+            CatalogCache.Game g = pick(games, rnd);
+            GameRental.browseCatalog(esql, new CatalogQuery().genre(g.genre).platform(g.platform)
+               .publisher(g.publisher).price(null, g.price.add(java.math.BigDecimal.TEN)).sort(CatalogCache.PRICE_DESC)
+               .after(CatalogQuery.token(g, false)));
+         }
+      });
+
+      benchmarks.put("recommend", new Operation() {
+         public void run(ThreadLocalRandom rnd) throws Exception {
+            GameRental.recommend(esql, pick(orders, rnd).get(1), pick(games, rnd).gameName, 10);
+         }
+      });
+
+      for (final int size : new int[] {1, 5, 20}) {
+         benchmarks.put("placeOrder." + size, new Operation() {
+            public void run(ThreadLocalRandom rnd) throws Exception {
+               Map<String, Integer> items = new LinkedHashMap<String, Integer>();
+               while (items.size() < size)
+                  items.put(pick(games, rnd).gameID, 1 + rnd.nextInt(3));
+               if (GameRental.submitOrder(esql, pick(users, rnd).get(0), items) == null)
+                  throw new IllegalStateException("order was not placed");
+            }
+         });
+      }
+
+      benchmarks.put("viewAllOrders.firstPage", new Operation() {
+         public void run(ThreadLocalRandom rnd) throws Exception {
+            GameRental.findOrderHistory(esql, pick(orders, rnd).get(1), 10, null, DISCARD_ORDERS);
+         }
+      });
+      benchmarks.put("viewAllOrders.deepPage", new Operation() {
+         public void run(ThreadLocalRandom rnd) throws Exception {
+            // resumes after a random order of the user, as a later page would
+            List<String> o = pick(orders, rnd);
+            GameRental.findOrderHistory(esql, o.get(1), 10, GameRental.encodePageToken(o.get(2), o.get(0)), DISCARD_ORDERS);
+         }
+      });
+      benchmarks.put("viewRecentOrders", new Operation() {
+         public void run(ThreadLocalRandom rnd) throws Exception {
+            GameRental.findRecentOrders(esql, pick(orders, rnd).get(1), DISCARD);
+         }
+      });
+      benchmarks.put("viewOrderInfo", new Operation() {
+         public void run(ThreadLocalRandom rnd) throws Exception {
+            List<String> o = pick(orders, rnd);
+            GameRental.findOrder(esql, o.get(0), o.get(1));
+         }
+      });
+      benchmarks.put("viewTrackingInfo", new Operation() {
+         public void run(ThreadLocalRandom rnd) throws Exception {
+            List<String> t = pick(tracking, rnd);
+            GameRental.findTrackingInfo(esql, t.get(0), t.get(1));
+         }
+      });
+      benchmarks.put("updateTrackingInfo", new Operation() {
+         public void run(ThreadLocalRandom rnd) throws Exception {
+            // rewrites the sampled status so the dataset keeps its distribution
+            List<String> t = pick(tracking, rnd);
+            GameRental.applyTrackingUpdate(esql, t.get(0), t.get(2), "", "", "");
+         }
+      });
+      benchmarks.put("updateCatalog", new Operation() {
+         public void run(ThreadLocalRandom rnd) throws Exception {
+            CatalogCache.Game g = pick(games, rnd);
+            GameRental.applyCatalogUpdate(esql, g.gameID, "", "", g.price);
+         }
+      });
+      benchmarks.put("updateUser", new Operation() {
+         public void run(ThreadLocalRandom rnd) throws Exception {
+            List<String> u = pick(users, rnd);
+            GameRental.applyUserUpdate(esql, u.get(0), "", u.get(2).trim(), null);
+         }
+      });
+   }//end register
+
+   /**
+    * The outcome of one measured benchmark.
+    */
+   static class Result {
+      String name;
+      int threads;
+      long ops;
+      long errors;
+      double seconds;
+      LatencyHistogram latency = new LatencyHistogram();
+      long allocatedBytes;
+      long gcCount;
+      long gcMillis;
+
+      double opsPerSecond() {
+         return ops / Math.max(1e-9, seconds);
+      }
+
+      Map<String, Object> toMap() {
+         Map<String, Object> m = new LinkedHashMap<String, Object>();
+         m.put("name", name);
+         m.put("threads", threads);
+         m.put("ops", ops);
+         m.put("errors", errors);
+         m.put("ops_per_sec", round(opsPerSecond()));
+         m.put("latency", Json.parse(latency.toJson()));
+         m.put("alloc_bytes_per_op", ops == 0 ? 0 : allocatedBytes / ops);
+         m.put("alloc_mb_per_sec", round(allocatedBytes / 1048576.0 / Math.max(1e-9, seconds)));
+         m.put("gc_count", gcCount);
+         m.put("gc_time_ms", gcMillis);
+         return m;
+      }
+   }//end Result
+
+   static double round(double value) {
+      return Math.round(value * 1000.0) / 1000.0;
+   }
+
+   private static long gcCount() {
+      long n = 0;
+      for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+         n += Math.max(0, gc.getCollectionCount());
+      return n;
+   }
+
+   private static long gcMillis() {
+      long n = 0;
+      for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+         n += Math.max(0, gc.getCollectionTime());
+      return n;
+   }
+
+   private static long allocatedBytes(Thread thread) {
+      java.lang.management.ThreadMXBean mx = ManagementFactory.getThreadMXBean();
+      if (mx instanceof com.sun.management.ThreadMXBean)
+         return ((com.sun.management.ThreadMXBean) mx).getThreadAllocatedBytes(thread.getId());
+      return 0;
+   }
+
+   /**
+    * Runs an operation on the given number of threads for a fixed time.
+    */
+   Result measure(String name, final Operation op, int threads, final long millis, final boolean record) throws InterruptedException {
+      final Result result = new Result();
+      result.name = name;
+      result.threads = threads;
+      final AtomicLong ops = new AtomicLong();
+      final AtomicLong errors = new AtomicLong();
+      final AtomicLong allocated = new AtomicLong();
+      final long deadline = System.nanoTime() + millis * 1000000L;
+
+      long gcCountBefore = gcCount();
+      long gcMillisBefore = gcMillis();
+      long start = System.nanoTime();
+      Thread[] workers = new Thread[threads];
+      for (int t = 0; t < threads; ++t) {
+         workers[t] = new Thread(new Runnable() {
+            public void run() {
+               ThreadLocalRandom rnd = ThreadLocalRandom.current();
+               Metrics.Scope action = Metrics.begin(result.name);
+               long before = allocatedBytes(Thread.currentThread());
+               while (System.nanoTime() < deadline) {
+                  long t0 = System.nanoTime();
+                  try {
+                     op.run(rnd);
+                     if (record) result.latency.record(System.nanoTime() - t0);
+                     ops.incrementAndGet();
+                  } catch (Exception e) {
+                     if (errors.incrementAndGet() == 1)
+                        System.err.println(result.name + ": " + e.getMessage());
+                  }
+               }
+               allocated.addAndGet(allocatedBytes(Thread.currentThread()) - before);
+               action.end();
+            }
+         }, "bench-" + name + "-" + t);
+         workers[t].start();
+      }
+      for (Thread w : workers)
+         w.join();
+      result.seconds = (System.nanoTime() - start) / 1e9;
+      result.ops = ops.get();
+      result.errors = errors.get();
+      result.allocatedBytes = allocated.get();
+      result.gcCount = gcCount() - gcCountBefore;
+      result.gcMillis = gcMillis() - gcMillisBefore;
+      return result;
+   }//end measure
+
+   /**
+    * Compares a run with a baseline report and prints every benchmark whose
+    * throughput dropped or whose p99 grew by more than the threshold.
+    *
+    * @return the number of regressions found
+    */
+   @SuppressWarnings("unchecked")
+   static int compare(List<Result> results, File baselineFile, double threshold) throws IOException {
+      Map<String, Object> baseline = Json.parseObject(
+         new String(Files.readAllBytes(baselineFile.toPath()), StandardCharsets.UTF_8));
+      Map<String, Map<String, Object>> previous = new LinkedHashMap<String, Map<String, Object>>();
+      for (Object b : (List<Object>) baseline.get("benchmarks")) {
+         Map<String, Object> m = (Map<String, Object>) b;
+         previous.put((String) m.get("name"), m);
+      }
+
+      int regressions = 0;
+      System.out.println("\nComparison with " + baselineFile + " (threshold " + Math.round(threshold * 100) + "%)");
+      for (Result r : results) {
+         Map<String, Object> old = previous.get(r.name);
+         if (old == null) continue;
+         double oldOps = ((Number) old.get("ops_per_sec")).doubleValue();
+         double oldP99 = ((Number) ((Map<String, Object>) old.get("latency")).get("p99_us")).doubleValue();
+         double newP99 = r.latency.getPercentile(99) / 1e3;
+         double opsChange = oldOps == 0 ? 0 : (r.opsPerSecond() - oldOps) / oldOps;
+         double p99Change = oldP99 == 0 ? 0 : (newP99 - oldP99) / oldP99;
+         boolean regressed = opsChange < -threshold || p99Change > threshold;
+         if (regressed) regressions++;
+         System.out.println(String.format(Locale.ROOT, "%-28s ops/s %+7.1f%%  p99 %+7.1f%%  %s",
+                                          r.name, opsChange * 100, p99Change * 100, regressed ? "REGRESSION" : "ok"));
+      }
+      return regressions;
+   }//end compare
+
+   static void usage() {
+      System.err.println(
+         "Usage: java [-classpath <classpath>] " + GameRentalBenchmark.class.getName() +
+         " <dbname> <port> <user> [options]\n" +
+         "  --warmup <seconds>      warmup time per benchmark (default 5)\n" +
+         "  --time <seconds>        measurement time per benchmark (default 10)\n" +
+         "  --threads <n>           concurrent callers (default 1)\n" +
+         "  --only <regex>          run the benchmarks whose name matches\n" +
+         "  --json <file>           write the report as JSON (default bench-results.json)\n" +
+         "  --baseline <file>       compare with an earlier JSON report\n" +
+         "  --threshold <fraction>  allowed slowdown before flagging a regression (default 0.10)\n" +
+         "  --list                  print the benchmark names and exit");
+   }
+
+   /**
+    * The benchmark command
+    *
+    * @param args <dbname> <port> <user> followed by the options in usage()
+    */
+   public static void main(String[] args) {
+      if (args.length < 3) {
+         usage();
+         return;
+      }
+      long warmup = 5, time = 10;
+      int threads = 1;
+      Pattern only = null;
+      File json = new File("bench-results.json");
+      File baseline = null;
+      double threshold = 0.10;
+      boolean list = false;
+      try {
+         for (int i = 3; i < args.length; ++i) {
+            String a = args[i];
+            if (a.equals("--warmup")) warmup = Long.parseLong(args[++i]);
+            else if (a.equals("--time")) time = Long.parseLong(args[++i]);
+            else if (a.equals("--threads")) threads = Integer.parseInt(args[++i]);
+            else if (a.equals("--only")) only = Pattern.compile(args[++i]);
+            else if (a.equals("--json")) json = new File(args[++i]);
+            else if (a.equals("--baseline")) baseline = new File(args[++i]);
+            else if (a.equals("--threshold")) threshold = Double.parseDouble(args[++i]);
+            else if (a.equals("--list")) list = true;
+            else { usage(); return; }
+         }
+      } catch (RuntimeException e) {
+         usage();
+         return;
+      }
+
+      // every caller thread needs its own connection
+      System.setProperty("gamerental.pool.size", String.valueOf(Math.max(threads, Integer.getInteger("gamerental.pool.size", 4))));
+      GameRental esql = null;
+      int regressions = 0;
+      try {
+         Class.forName ("org.postgresql.Driver").newInstance ();
+         esql = new GameRental(args[0], args[1], args[2], "");
+         GameRentalBenchmark bench = new GameRentalBenchmark(esql);
+         bench.register();
+         if (list) {
+            for (String name : bench.benchmarks.keySet())
+               System.out.println(name);
+            return;
+         }
+         bench.sample(1000);
+
+         List<Result> results = new ArrayList<Result>();
+         System.out.println(String.format("%-28s %12s %10s %10s %10s %12s %6s",
+                                          "benchmark", "ops/s", "p50 us", "p99 us", "errors", "alloc B/op", "gc"));
+         for (Map.Entry<String, Operation> e : bench.benchmarks.entrySet()) {
+            if (only != null && !only.matcher(e.getKey()).find()) continue;
+            bench.measure(e.getKey(), e.getValue(), threads, warmup * 1000, false);
+            Result r = bench.measure(e.getKey(), e.getValue(), threads, time * 1000, true);
+            results.add(r);
+            System.out.println(String.format(Locale.ROOT, "%-28s %12.1f %10.1f %10.1f %10d %12d %6d",
+                                             r.name, r.opsPerSecond(), r.latency.getPercentile(50) / 1e3,
+                                             r.latency.getPercentile(99) / 1e3, r.errors,
+                                             r.ops == 0 ? 0 : r.allocatedBytes / r.ops, r.gcCount));
+         }
+
+         Map<String, Object> report = new LinkedHashMap<String, Object>();
+         report.put("timestamp", new java.sql.Timestamp(System.currentTimeMillis()).toString());
+         report.put("java", System.getProperty("java.version"));
+         report.put("threads", threads);
+         report.put("warmup_s", warmup);
+         report.put("time_s", time);
+         report.put("pool", esql.getPool().toString());
+         List<Object> list2 = new ArrayList<Object>();
+         for (Result r : results)
+            list2.add(r.toMap());
+         report.put("benchmarks", list2);
+         Files.write(json.toPath(), Json.write(report).getBytes(StandardCharsets.UTF_8));
+         System.out.println("Report written to " + json);
+
+         if (baseline != null)
+            regressions = compare(results, baseline, threshold);
+      } catch (Exception e) {
+         System.err.println("❌Benchmark failed: " + e.getMessage());
+         regressions = -1;
+      } finally {
+         if (esql != null) esql.cleanup();
+      }
+      if (regressions != 0)
+         System.exit(regressions < 0 ? 1 : 2);
+   }//end main
+
+}//end GameRentalBenchmark
@@ -0,0 +1,610 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class serves the GameRental operations over HTTP/JSON with the JDK's
+ * built-in HTTP server, so one JVM can serve many users at once. Requests
+ * run on virtual threads when the JDK has them and on a fixed pool
+ * otherwise; either way the database work is bounded by the connection
+ * pool. Clients log in once and send the returned token as
+ * "Authorization: Bearer token". Every endpoint keeps a latency histogram,
+ * served at GET /metrics to managers.
+ *
+ */
+public class GameRentalServer {
+
+   /**
+    * An error answered with a status code and a JSON message.
+    */
+   static class HttpError extends RuntimeException {
+      private static final long serialVersionUID = 1L;
+
+      final int status;
+
+      HttpError(int status, String message) {
+         super(message);
+         this.status = status;
+      }
+   }//end HttpError
+
+   /**
+    * A logged in client.
+    */
+   static class Client {
+      final Session session;
+      volatile long lastSeen = System.currentTimeMillis();
+
+      Client(Session session) {
+         this.session = session;
+      }
+   }//end Client
+
+   // the first path segments route() answers
+   private static final java.util.Set<String> RESOURCES = new java.util.HashSet<String>(java.util.Arrays.asList(
+      "users", "login", "logout", "metrics", "catalog", "profile", "orders", "tracking", "reports",
+      "recommendations"));
+
+   // second path segments that name an endpoint rather than an ID
+   private static final java.util.Set<String> NAMED = new java.util.HashSet<String>(java.util.Arrays.asList(
+      "recent", "revenue", "top-games", "genres", "browse"));
+
+   private final GameRental esql;
+   private final Map<String, Client> clients = new ConcurrentHashMap<String, Client>();
+   private final ConcurrentHashMap<String, LatencyHistogram> latencies = new ConcurrentHashMap<String, LatencyHistogram>();
+   private final SecureRandom random = new SecureRandom();
+   private final long idleMillis = Long.getLong("gamerental.http.idleSeconds", 1800L) * 1000L;
+   private HttpServer server;
+   private ExecutorService executor;
+   private ScheduledExecutorService sweeper;
+
+   public GameRentalServer(GameRental esql) {
+      this.esql = esql;
+   }
+
+   /**
+    * Creates the request executor: one virtual thread per request on JDKs
+    * that have them, otherwise a fixed pool of platform threads.
+    */
+   static ExecutorService newExecutor() {
+      try {
+         return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+      } catch (Exception e) {
+         return Executors.newFixedThreadPool(Integer.getInteger("gamerental.http.threads", 64));
+      }
+   }//end newExecutor
+
+   /**
+    * Binds the server and starts accepting requests.
+    */
+   public void start(int port) throws IOException {
+      server = HttpServer.create(new InetSocketAddress(port), Integer.getInteger("gamerental.http.backlog", 1024));
+      server.createContext("/", new HttpHandler() {
+         public void handle(HttpExchange exchange) throws IOException {
+            dispatch(exchange);
+         }
+      });
+      executor = newExecutor();
+      server.setExecutor(executor);
+      server.start();
+
+      // forgets clients that stopped sending requests without logging out
+      sweeper = Executors.newSingleThreadScheduledExecutor();
+      sweeper.scheduleAtFixedRate(new Runnable() {
+         public void run() {
+            long cutoff = System.currentTimeMillis() - idleMillis;
+            for (Iterator<Client> it = clients.values().iterator(); it.hasNext(); )
+               if (it.next().lastSeen < cutoff) it.remove();
+         }
+      }, 1, 1, TimeUnit.MINUTES);
+   }//end start
+
+   public void stop() {
+      server.stop(1);
+      sweeper.shutdownNow();
+      executor.shutdown();
+   }//end stop
+
+   /**
+    * Routes one request, answers it and records its latency under the
+    * route name.
+    */
+   void dispatch(HttpExchange exchange) throws IOException {
+      long start = System.nanoTime();
+      String method = exchange.getRequestMethod();
+      String[] path = exchange.getRequestURI().getPath().replaceAll("^/+|/+$", "").split("/");
+      String route = method + " /" + path[0] +
+         (path.length < 2 ? "" : NAMED.contains(path[1]) ? "/" + path[1] : "/{id}") +
+         (path.length < 3 ? "" : "/" + path[2]);
+      int status = 200;
+      Object response;
+      Metrics.Scope action = Metrics.begin(route);
+      try {
+         Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+         response = route(exchange, method, path, query);
+         if (method.equals("POST") && !path[0].equals("login") && !path[0].equals("logout"))
+            status = 201;
+      } catch (HttpError e) {
+         status = e.status;
+         response = error(e.getMessage());
+      } catch (SQLException e) {
+         // unique violations are duplicate logins or IDs
+         status = "23505".equals(e.getSQLState()) ? 409 : 500;
+         response = error(e.getMessage());
+      } catch (IllegalArgumentException e) {
+         // malformed JSON, numbers or page tokens
+         status = 400;
+         response = error(e.getMessage());
+      } catch (Exception e) {
+         status = 500;
+         response = error(String.valueOf(e.getMessage()));
+      } finally {
+         action.end();
+      }
+
+      byte[] body = Json.write(response).getBytes(StandardCharsets.UTF_8);
+      exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+      exchange.sendResponseHeaders(status, body.length);
+      OutputStream out = exchange.getResponseBody();
+      out.write(body);
+      out.close();
+      // unknown paths share one histogram so clients cannot grow the map
+      histogram(RESOURCES.contains(path[0]) ? route : "unrouted").record(System.nanoTime() - start);
+   }//end dispatch
+
+   private LatencyHistogram histogram(String route) {
+      LatencyHistogram h = latencies.get(route);
+      if (h == null) {
+         LatencyHistogram created = new LatencyHistogram();
+         h = latencies.putIfAbsent(route, created);
+         if (h == null) h = created;
+      }
+      return h;
+   }
+
+   private static Map<String, Object> error(String message) {
+      Map<String, Object> m = new LinkedHashMap<String, Object>();
+      m.put("error", message);
+      return m;
+   }
+
+   private Object route(HttpExchange exchange, String method, String[] path, Map<String, String> query) throws Exception {
+      String resource = path[0];
+      String id = path.length > 1 ? URLDecoder.decode(path[1], "UTF-8") : null;
+      if (path.length > 3 || (path.length == 3 && !(resource.equals("tracking") && path[2].equals("history"))))
+         throw new HttpError(404, "Not found");
+
+      if (resource.equals("users") && method.equals("POST") && id == null) return createUser(body(exchange));
+      if (resource.equals("login") && method.equals("POST")) return login(body(exchange));
+      if (resource.equals("catalog") && method.equals("GET") && id == null) return catalog(query);
+      if (resource.equals("catalog") && method.equals("GET") && id.equals("browse")) return browseCatalog(query);
+
+      Client client = client(exchange);
+      if (resource.equals("logout") && method.equals("POST")) return logout(exchange);
+      if (resource.equals("profile") && method.equals("GET")) return profile(client);
+      if (resource.equals("metrics") && method.equals("GET")) return metrics(client);
+      if (resource.equals("orders") && method.equals("POST") && id == null) return placeOrder(client, body(exchange));
+      if (resource.equals("orders") && method.equals("GET") && id == null) return orderHistory(client, query);
+      if (resource.equals("orders") && method.equals("GET") && id.equals("recent")) return recentOrders(client, query);
+      if (resource.equals("orders") && method.equals("GET")) return orderInfo(client, id, query);
+      if (resource.equals("tracking") && method.equals("GET") && path.length == 3) return trackingHistory(client, id, query);
+      if (resource.equals("tracking") && method.equals("GET") && id != null) return trackingInfo(client, id, query);
+      if (resource.equals("tracking") && method.equals("PUT") && id != null) return updateTracking(client, id, body(exchange));
+      if (resource.equals("catalog") && method.equals("PUT") && id != null) return updateCatalog(client, id, body(exchange));
+      if (resource.equals("users") && method.equals("PUT") && id != null) return updateUser(client, id, body(exchange));
+      if (resource.equals("reports") && method.equals("GET") && id != null) return report(client, id, query);
+      if (resource.equals("recommendations") && method.equals("GET") && id == null) return recommendations(client, query);
+      throw new HttpError(404, "No endpoint for " + method + " /" + String.join("/", path));
+   }//end route
+
+   // ---------------------------------------------------------------- endpoints
+
+   private Object createUser(Map<String, Object> body) throws SQLException {
+      String login = required(body, "login");
+      GameRental.createUser(esql, login, required(body, "password"), "customer",
+                            optional(body, "favGames"), required(body, "phoneNum"));
+      Map<String, Object> m = new LinkedHashMap<String, Object>();
+      m.put("login", login);
+      return m;
+   }
+
+   private Object login(Map<String, Object> body) throws SQLException {
+      Session session = GameRental.authenticate(esql, required(body, "login"), required(body, "password"));
+      if (session == null)
+         throw new HttpError(401, "Wrong login or password");
+      byte[] bytes = new byte[18];
+      random.nextBytes(bytes);
+      String token = Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+      clients.put(token, new Client(session));
+      Map<String, Object> m = new LinkedHashMap<String, Object>();
+      m.put("token", token);
+      m.put("login", session.getLogin());
+      m.put("role", session.getRole().trim());
+      return m;
+   }
+
+   private Object logout(HttpExchange exchange) {
+      clients.remove(token(exchange));
+      return new LinkedHashMap<String, Object>();
+   }
+
+   private Object profile(Client client) throws SQLException {
+      esql.getOverdueTracker().catchUp();
+      client.session.refresh(esql);
+      return client.session.toRow();
+   }
+
+   private Object catalog(Map<String, String> query) throws SQLException {
+      int sort = CatalogCache.UNSORTED;
+      String s = query.get("sort");
+      if ("asc".equalsIgnoreCase(s)) sort = CatalogCache.PRICE_ASC;
+      else if ("desc".equalsIgnoreCase(s)) sort = CatalogCache.PRICE_DESC;
+
+      List<CatalogCache.Game> games;
+      if (query.containsKey("gameID")) games = GameRental.searchCatalog(esql, 1, query.get("gameID"), sort);
+      else if (query.containsKey("genre")) games = GameRental.searchCatalog(esql, 2, query.get("genre"), sort);
+      else if (query.containsKey("price")) games = GameRental.searchCatalog(esql, 3, query.get("price"), sort);
+      else if (query.containsKey("q")) games = GameRental.searchCatalog(esql, 4, query.get("q"), sort);
+      else throw new HttpError(400, "Search by gameID, genre, price or q");
+
+      return games(games);
+   }
+
+   private static List<Object> games(List<CatalogCache.Game> games) {
+      List<Object> result = new ArrayList<Object>(games.size());
+      for (CatalogCache.Game g : games)
+         result.add(game(g));
+      return result;
+   }
+
+   private static Map<String, Object> game(CatalogCache.Game g) {
+      Map<String, Object> m = new LinkedHashMap<String, Object>();
+      m.put("gameID", g.gameID);
+      m.put("gameName", g.gameName);
+      m.put("genre", g.genre);
+      m.put("platform", g.platform);
+      m.put("publisher", g.publisher);
+      m.put("price", g.price);
+      return m;
+   }
+
+   private Object browseCatalog(Map<String, String> query) throws SQLException {
+      CatalogQuery q;
+      try {
+         q = CatalogQuery.fromParams(query);
+      } catch (IllegalArgumentException e) {
+         throw new HttpError(400, e.getMessage());
+      }
+      q.limit(intParam(query, "limit", 20));
+      CatalogQuery.Page page;
+      try {
+         page = GameRental.browseCatalog(esql, q);
+      } catch (IllegalArgumentException e) {
+         throw new HttpError(400, e.getMessage());
+      }
+      Map<String, Object> m = new LinkedHashMap<String, Object>();
+      m.put("games", games(page.games));
+      m.put("next", page.next);
+      return m;
+   }
+
+   private Object recommendations(Client client, Map<String, String> query) throws SQLException {
+      client.session.refresh(esql);
+      List<Object> result = new ArrayList<Object>();
+      for (Recommender.Recommendation r : GameRental.recommend(esql, client.session.getLogin(),
+                                                               client.session.getFavGames(),
+                                                               intParam(query, "limit", 10))) {
+         Map<String, Object> m = game(r.game);
+         m.put("score", GameRentalBenchmark.round(r.score));
+         m.put("because", r.because);
+         result.add(m);
+      }
+      return result;
+   }
+
+   @SuppressWarnings("unchecked")
+   private Object placeOrder(Client client, Map<String, Object> body) throws SQLException {
+      Object items = body.get("items");
+      if (!(items instanceof Map) || ((Map<String, Object>) items).isEmpty())
+         throw new HttpError(400, "items must map game IDs to units");
+      Map<String, Integer> units = new LinkedHashMap<String, Integer>();
+      for (Map.Entry<String, Object> e : ((Map<String, Object>) items).entrySet()) {
+         if (!(e.getValue() instanceof Number) || ((Number) e.getValue()).intValue() <= 0)
+            throw new HttpError(400, "units of " + e.getKey() + " must be a positive number");
+         units.put(e.getKey(), ((Number) e.getValue()).intValue());
+      }
+      GameRental.PlacedOrder order = GameRental.submitOrder(esql, client.session.getLogin(), units);
+      if (order == null)
+         throw new HttpError(400, "Unknown game ID in order");
+      Map<String, Object> m = new LinkedHashMap<String, Object>();
+      m.put("rentalOrderID", order.rentalOrderID);
+      m.put("trackingID", order.trackingID);
+      m.put("totalPrice", new BigDecimal(order.totalPrice));
+      m.put("orderTimestamp", order.orderTimestamp.toString());
+      return m;
+   }
+
+   private Object orderHistory(Client client, Map<String, String> query) throws SQLException {
+      String login = subject(client, query, false);
+      int pageSize = query.containsKey("pageSize") ? Integer.parseInt(query.get("pageSize"))
+                                                   : Integer.getInteger("gamerental.history.pageSize", 10);
+      if (pageSize < 1 || pageSize > 100)
+         throw new HttpError(400, "pageSize must be between 1 and 100");
+      final List<Object> orders = new ArrayList<Object>();
+      String next = GameRental.findOrderHistory(esql, login, pageSize, query.get("pageToken"), new Order.Handler() {
+         public boolean handle(Order order) {
+            orders.add(order.toMap());
+            return true;
+         }
+      });
+      Map<String, Object> m = new LinkedHashMap<String, Object>();
+      m.put("orders", orders);
+      m.put("nextPageToken", next);
+      return m;
+   }
+
+   private Object recentOrders(Client client, Map<String, String> query) throws SQLException {
+      List<Object> rows = new ArrayList<Object>();
+      GameRental.findRecentOrders(esql, subject(client, query, false), collect(rows,
+         "rentalOrderID", "orderTimestamp", "dueDate", "totalPrice", "noOfGames", "trackingID"));
+      return rows;
+   }
+
+   private Object orderInfo(Client client, String rentalOrderID, Map<String, String> query) throws SQLException {
+      Order order = GameRental.findOrder(esql, rentalOrderID, subject(client, query, false));
+      if (order == null)
+         throw new HttpError(404, "No order " + rentalOrderID);
+      return order.toMap();
+   }
+
+   private Object trackingInfo(Client client, String trackingID, Map<String, String> query) throws SQLException {
+      List<List<String>> rows = GameRental.findTrackingInfo(esql, trackingID, subject(client, query, true));
+      if (rows.isEmpty())
+         throw new HttpError(404, "No tracking information for " + trackingID);
+      return records(rows, "trackingID", "courierName", "rentalOrderID", "currentLocation", "status",
+                     "lastUpdateDate", "additionalComments").get(0);
+   }
+
+   private Object trackingHistory(Client client, String trackingID, Map<String, String> query) throws SQLException {
+      List<Object> events = new ArrayList<Object>();
+      GameRental.findTrackingHistory(esql, trackingID, subject(client, query, true), collect(events,
+         "eventTime", "status", "currentLocation", "courierName", "additionalComments"));
+      if (events.isEmpty())
+         throw new HttpError(404, "No tracking history for " + trackingID);
+      return events;
+   }
+
+   private Object updateTracking(Client client, String trackingID, Map<String, Object> body) throws SQLException {
+      if (!client.session.isEmployee(esql) && !client.session.isManager(esql))
+         throw new HttpError(403, "Only employees and managers are allowed to update tracking information.");
+      String status = optional(body, "status"), location = optional(body, "currentLocation");
+      String courier = optional(body, "courierName"), comments = optional(body, "additionalComments");
+      if (status.isEmpty() && location.isEmpty() && courier.isEmpty() && comments.isEmpty())
+         throw new HttpError(400, "No updates were provided.");
+      return updated(GameRental.applyTrackingUpdate(esql, trackingID, status, location, courier, comments), trackingID);
+   }
+
+   private Object updateCatalog(Client client, String gameID, Map<String, Object> body) throws SQLException {
+      if (!client.session.isManager(esql))
+         throw new HttpError(403, "Only managers are allowed to update the catalog.");
+      String name = optional(body, "gameName"), genre = optional(body, "genre");
+      BigDecimal price = body.get("price") == null ? null : new BigDecimal(String.valueOf(body.get("price")));
+      if (name.isEmpty() && genre.isEmpty() && price == null)
+         throw new HttpError(400, "No updates were provided.");
+      return updated(GameRental.applyCatalogUpdate(esql, gameID, name, genre, price), gameID);
+   }
+
+   private Object updateUser(Client client, String login, Map<String, Object> body) throws SQLException {
+      if (!client.session.isManager(esql))
+         throw new HttpError(403, "Only managers are allowed to update user information.");
+      String newLogin = optional(body, "login"), newRole = optional(body, "role");
+      Object overdue = body.get("numOverDueGames");
+      if (newLogin.isEmpty() && newRole.isEmpty() && overdue == null)
+         throw new HttpError(400, "No updates were provided.");
+      Integer count = overdue == null ? null : ((Number) overdue).intValue();
+      return updated(GameRental.applyUserUpdate(esql, login, newLogin, newRole, count), login);
+   }
+
+   private Object report(Client client, String name, Map<String, String> query) throws SQLException {
+      if (!client.session.isManager(esql))
+         throw new HttpError(403, "Only managers are allowed to view the reports.");
+      List<Object> rows = new ArrayList<Object>();
+      if (name.equals("revenue"))
+         Reports.dailyRevenue(esql, intParam(query, "days", 30), collect(rows, "day", "orders", "revenue"));
+      else if (name.equals("top-games"))
+         Reports.topGames(esql, intParam(query, "limit", 10), collect(rows, "gameID", "gameName", "units", "orders"));
+      else if (name.equals("genres"))
+         Reports.rentalsByGenre(esql, collect(rows, "genre", "units", "orders"));
+      else
+         throw new HttpError(404, "No report " + name);
+      return rows;
+   }
+
+   // pool and login counters and the SQL of every query are for operators only
+   private Object metrics(Client client) throws SQLException {
+      if (!client.session.isManager(esql))
+         throw new HttpError(403, "Only managers are allowed to view the metrics.");
+      Map<String, Object> m = new LinkedHashMap<String, Object>();
+      Map<String, Object> endpoints = new LinkedHashMap<String, Object>();
+      for (Map.Entry<String, LatencyHistogram> e : new java.util.TreeMap<String, LatencyHistogram>(latencies).entrySet())
+         endpoints.put(e.getKey(), Json.parse(e.getValue().toJson()));
+      m.put("endpoints", endpoints);
+      m.put("clients", clients.size());
+      m.put("pool", esql.getPool().toString());
+      m.put("catalog", esql.getCatalog().toString());
+      m.put("overdue", esql.getOverdueTracker().toString());
+      m.put("auth", esql.getAuthenticator().toString());
+      m.put("queries", Metrics.snapshot());
+      return m;
+   }
+
+   // ---------------------------------------------------------------- helpers
+
+   private static String token(HttpExchange exchange) {
+      String auth = exchange.getRequestHeaders().getFirst("Authorization");
+      if (auth == null || !auth.startsWith("Bearer "))
+         return null;
+      return auth.substring(7).trim();
+   }
+
+   private Client client(HttpExchange exchange) {
+      String token = token(exchange);
+      Client client = token == null ? null : clients.get(token);
+      if (client == null)
+         throw new HttpError(401, "Log in first");
+      client.lastSeen = System.currentTimeMillis();
+      return client;
+   }
+
+   /**
+    * The login a request is about: the caller's own, or the login query
+    * parameter for managers, and for employees too where the menu allows it.
+    */
+   private String subject(Client client, Map<String, String> query, boolean employeesToo) throws SQLException {
+      String login = query.get("login");
+      if (login == null || login.equals(client.session.getLogin()))
+         return client.session.getLogin();
+      if (client.session.isManager(esql) || (employeesToo && client.session.isEmployee(esql)))
+         return login;
+      throw new HttpError(403, "Only managers can look at other users");
+   }
+
+   private static RowHandler collect(final List<Object> rows, final String... columns) {
+      return new RowHandler() {
+         public boolean handle(Row row) throws SQLException {
+            Map<String, Object> m = new LinkedHashMap<String, Object>();
+            for (int i = 0; i < columns.length; ++i)
+               m.put(columns[i], row.getString(i + 1));
+            rows.add(m);
+            return true;
+         }
+      };
+   }
+
+   private static List<Object> records(List<List<String>> rows, String... columns) {
+      List<Object> result = new ArrayList<Object>(rows.size());
+      for (List<String> row : rows) {
+         Map<String, Object> m = new LinkedHashMap<String, Object>();
+         for (int i = 0; i < columns.length; ++i)
+            m.put(columns[i], row.get(i));
+         result.add(m);
+      }
+      return result;
+   }
+
+   private static int intParam(Map<String, String> query, String name, int fallback) {
+      String v = query.get(name);
+      int n = v == null ? fallback : Integer.parseInt(v);
+      if (n < 1 || n > 10000)
+         throw new HttpError(400, name + " must be between 1 and 10000");
+      return n;
+   }
+
+   private static Object updated(int rows, String id) {
+      if (rows == 0)
+         throw new HttpError(404, "Nothing found for " + id);
+      Map<String, Object> m = new LinkedHashMap<String, Object>();
+      m.put("updated", rows);
+      return m;
+   }
+
+   private static Map<String, Object> body(HttpExchange exchange) throws IOException {
+      InputStream in = exchange.getRequestBody();
+      byte[] bytes = in.readAllBytes();
+      in.close();
+      if (bytes.length == 0)
+         return new LinkedHashMap<String, Object>();
+      return Json.parseObject(new String(bytes, StandardCharsets.UTF_8));
+   }
+
+   private static String required(Map<String, Object> body, String field) {
+      Object v = body.get(field);
+      if (v == null || String.valueOf(v).isEmpty())
+         throw new HttpError(400, field + " is required");
+      return String.valueOf(v);
+   }
+
+   private static String optional(Map<String, Object> body, String field) {
+      Object v = body.get(field);
+      return v == null ? "" : String.valueOf(v);
+   }
+
+   static Map<String, String> parseQuery(String raw) throws IOException {
+      Map<String, String> query = new LinkedHashMap<String, String>();
+      if (raw == null || raw.isEmpty())
+         return query;
+      for (String pair : raw.split("&")) {
+         int eq = pair.indexOf('=');
+         String key = URLDecoder.decode(eq < 0 ? pair : pair.substring(0, eq), "UTF-8");
+         String value = eq < 0 ? "" : URLDecoder.decode(pair.substring(eq + 1), "UTF-8");
+         query.put(key, value);
+      }
+      return query;
+   }//end parseQuery
+
+   /**
+    * The service mode
+    *
+    * @param args <dbname> <port> <user> [httpPort]
+    */
+   public static void main(String[] args) {
+      if (args.length < 3 || args.length > 4) {
+         System.err.println(
+            "Usage: java [-classpath <classpath>] " + GameRentalServer.class.getName() +
+            " <dbname> <port> <user> [httpPort]");
+         return;
+      }
+      try {
+         Class.forName ("org.postgresql.Driver").newInstance ();
+         final GameRental esql = new GameRental(args[0], args[1], args[2], "");
+         esql.getOverdueTracker().start();
+         Metrics.startDumper();
+         final GameRentalServer server = new GameRentalServer(esql);
+         int port = args.length == 4 ? Integer.parseInt(args[3]) : Integer.getInteger("gamerental.http.port", 8080);
+         server.start(port);
+         System.out.println("✅Serving GameRental on http://localhost:" + port + "/");
+
+         Runtime.getRuntime().addShutdownHook(new Thread() {
+            public void run() {
+               server.stop();
+               esql.cleanup();
+            }
+         });
+      } catch (Exception e) {
+         System.err.println("❌" + e.getMessage());
+      }
+   }//end main
+
+}//end GameRentalServer
@@ -0,0 +1,128 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+import java.sql.SQLException;
+import java.util.UUID;
+
+/**
+ * This class hands out the rentalOrderID and trackingID of new orders.
+ * An ID is a 64 bit number laid out like a Snowflake ID: 41 bits of
+ * milliseconds since 2010-01-01 UTC, 10 bits of worker number and a 12 bit
+ * counter. The worker number is leased once per process from the IdWorker
+ * sequence, which gives each running process its own block of 4096 IDs per
+ * millisecond, so no ID costs a round trip.
+ *
+ * IDs are written as 13 characters of Crockford base32, fixed width, so
+ * they sort as strings in the order they were generated and new keys land
+ * at the right edge of the varchar primary key and foreign key indexes
+ * instead of at random pages. They are a third of the length of a UUID and
+ * cannot collide with the UUIDs or the gamerentalorder1000 style IDs of
+ * existing rows, which keep working unchanged. Without the IdWorker
+ * sequence, e.g. on a database created before it existed, the generator
+ * falls back to random UUIDs.
+ *
+ */
+public class IdGenerator {
+
+   // 2010-01-01 00:00:00 UTC, early enough for the timestamps of imported history
+   static final long EPOCH = 1262304000000L;
+   static final int WORKER_BITS = 10;
+   static final int COUNTER_BITS = 12;
+   static final int LENGTH = 13;
+   static final char[] ALPHABET = "0123456789ABCDEFGHJKMNPQRSTVWXYZ".toCharArray();
+
+   static final String WORKER_SEQUENCE = "IdWorker";
+
+   private final GameRental esql;
+   private final boolean compact;
+   private int worker = -1;
+   private long lastMillis = 0;
+   private int counter = 0;
+
+   public IdGenerator(GameRental esql) {
+      this(esql, !"uuid".equalsIgnoreCase(System.getProperty("gamerental.ids", "compact")));
+   }
+
+   /**
+    * @param compact false to keep generating random UUIDs
+    */
+   public IdGenerator(GameRental esql, boolean compact) {
+      this.esql = esql;
+      this.compact = compact;
+   }
+
+   /**
+    * Packs a timestamp, a worker number and a counter into an ID value.
+    */
+   static long compose(long millis, int worker, int counter) {
+      return (millis - EPOCH) << (WORKER_BITS + COUNTER_BITS) | (long) worker << COUNTER_BITS | counter;
+   }
+
+   /**
+    * @return the ID value as 13 base32 characters, most significant first
+    */
+   static String encode(long value) {
+      char[] c = new char[LENGTH];
+      for (int i = LENGTH - 1; i >= 0; --i) {
+         c[i] = ALPHABET[(int) (value & 31)];
+         value >>>= 5;
+      }
+      return new String(c);
+   }
+
+   /**
+    * @return the generation time of an ID from this class, -1 for a legacy ID
+    */
+   public static long timestampOf(String id) {
+      if (id == null || id.length() != LENGTH) return -1;
+      long value = 0;
+      for (int i = 0; i < LENGTH; ++i) {
+         char ch = id.charAt(i);
+         int digit = -1;
+         for (int d = 0; d < ALPHABET.length; ++d)
+            if (ALPHABET[d] == ch) digit = d;
+         if (digit < 0) return -1;
+         value = value << 5 | digit;
+      }
+      return (value >>> (WORKER_BITS + COUNTER_BITS)) + EPOCH;
+   }//end timestampOf
+
+   // leases the worker number on first use
+   private void lease() throws SQLException {
+      if (worker >= 0 || !compact) return;
+      try {
+         worker = (int) (esql.getNextSeqVal(WORKER_SEQUENCE) & ((1 << WORKER_BITS) - 1));
+      } catch (SQLException e) {
+         System.err.println("IdWorker sequence not available, generating UUIDs: " + e.getMessage());
+         worker = Integer.MAX_VALUE;
+      }
+   }//end lease
+
+   /**
+    * @return a new ID, unique across every process that leased a worker number
+    */
+   public synchronized String next() throws SQLException {
+      lease();
+      if (!compact || worker == Integer.MAX_VALUE)
+         return UUID.randomUUID().toString();
+      // the clock is never allowed to run backwards, and a full millisecond borrows from the next one
+      long now = System.currentTimeMillis();
+      if (now > lastMillis) {
+         lastMillis = now;
+         counter = 0;
+      } else if (++counter == 1 << COUNTER_BITS) {
+         lastMillis++;
+         counter = 0;
+      }
+      return encode(compose(lastMillis, worker, counter));
+   }//end next
+
+}//end IdGenerator
@@ -0,0 +1,217 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class is a minimal JSON reader and writer, enough for the benchmark
+ * reports, the service front-end and the JSON Postgres returns. Objects are
+ * read into LinkedHashMap, arrays into ArrayList, numbers into Double and
+ * the literals into Boolean or null.
+ *
+ */
+public class Json {
+
+   private final String text;
+   private int pos = 0;
+
+   private Json(String text) {
+      this.text = text;
+   }
+
+   /**
+    * Parses one JSON value.
+    *
+    * @throws IllegalArgumentException when the text is not valid JSON
+    */
+   public static Object parse(String text) {
+      Json p = new Json(text);
+      Object value = p.value();
+      p.skipSpace();
+      if (p.pos != text.length())
+         throw p.error("trailing characters");
+      return value;
+   }//end parse
+
+   /**
+    * Parses a JSON object.
+    */
+   @SuppressWarnings("unchecked")
+   public static Map<String, Object> parseObject(String text) {
+      Object value = parse(text);
+      if (!(value instanceof Map))
+         throw new IllegalArgumentException("Expected a JSON object");
+      return (Map<String, Object>) value;
+   }//end parseObject
+
+   private IllegalArgumentException error(String message) {
+      return new IllegalArgumentException("Invalid JSON at offset " + pos + ": " + message);
+   }
+
+   private void skipSpace() {
+      while (pos < text.length() && Character.isWhitespace(text.charAt(pos))) pos++;
+   }
+
+   private Object value() {
+      skipSpace();
+      if (pos >= text.length())
+         throw error("unexpected end");
+      char c = text.charAt(pos);
+      if (c == '{') return object();
+      if (c == '[') return array();
+      if (c == '"') return string();
+      if (text.startsWith("true", pos)) { pos += 4; return Boolean.TRUE; }
+      if (text.startsWith("false", pos)) { pos += 5; return Boolean.FALSE; }
+      if (text.startsWith("null", pos)) { pos += 4; return null; }
+      return number();
+   }
+
+   private Map<String, Object> object() {
+      Map<String, Object> map = new LinkedHashMap<String, Object>();
+      pos++;
+      skipSpace();
+      if (pos < text.length() && text.charAt(pos) == '}') { pos++; return map; }
+      while (true) {
+         skipSpace();
+         if (pos >= text.length() || text.charAt(pos) != '"')
+            throw error("expected a key");
+         String key = string();
+         skipSpace();
+         if (pos >= text.length() || text.charAt(pos++) != ':')
+            throw error("expected ':'");
+         map.put(key, value());
+         skipSpace();
+         if (pos >= text.length()) throw error("unterminated object");
+         char c = text.charAt(pos++);
+         if (c == '}') return map;
+         if (c != ',') throw error("expected ',' or '}'");
+      }
+   }
+
+   private List<Object> array() {
+      List<Object> list = new ArrayList<Object>();
+      pos++;
+      skipSpace();
+      if (pos < text.length() && text.charAt(pos) == ']') { pos++; return list; }
+      while (true) {
+         list.add(value());
+         skipSpace();
+         if (pos >= text.length()) throw error("unterminated array");
+         char c = text.charAt(pos++);
+         if (c == ']') return list;
+         if (c != ',') throw error("expected ',' or ']'");
+      }
+   }
+
+   private String string() {
+      StringBuilder sb = new StringBuilder();
+      pos++;
+      while (pos < text.length()) {
+         char c = text.charAt(pos++);
+         if (c == '"') return sb.toString();
+         if (c != '\\') { sb.append(c); continue; }
+         if (pos >= text.length()) break;
+         char e = text.charAt(pos++);
+         switch (e) {
+            case 'n': sb.append('\n'); break;
+            case 't': sb.append('\t'); break;
+            case 'r': sb.append('\r'); break;
+            case 'b': sb.append('\b'); break;
+            case 'f': sb.append('\f'); break;
+            case 'u':
+               if (pos + 4 > text.length()) throw error("bad unicode escape");
+               sb.append((char) Integer.parseInt(text.substring(pos, pos + 4), 16));
+               pos += 4;
+               break;
+            default: sb.append(e);
+         }
+      }
+      throw error("unterminated string");
+   }
+
+   private Double number() {
+      int start = pos;
+      while (pos < text.length() && "+-0123456789.eE".indexOf(text.charAt(pos)) >= 0) pos++;
+      if (start == pos)
+         throw error("unexpected character '" + text.charAt(pos) + "'");
+      try {
+         return Double.valueOf(text.substring(start, pos));
+      } catch (NumberFormatException e) {
+         throw error("bad number");
+      }
+   }
+
+   /**
+    * Quotes a string as a JSON string literal, null becomes null.
+    */
+   public static String quote(String value) {
+      if (value == null)
+         return "null";
+      StringBuilder sb = new StringBuilder(value.length() + 2);
+      sb.append('"');
+      for (int i = 0; i < value.length(); ++i) {
+         char c = value.charAt(i);
+         switch (c) {
+            case '"': sb.append("\\\""); break;
+            case '\\': sb.append("\\\\"); break;
+            case '\n': sb.append("\\n"); break;
+            case '\r': sb.append("\\r"); break;
+            case '\t': sb.append("\\t"); break;
+            default:
+               if (c < 0x20) sb.append(String.format("\\u%04x", (int) c));
+               else sb.append(c);
+         }
+      }
+      return sb.append('"').toString();
+   }//end quote
+
+   /**
+    * Writes maps, lists, strings, numbers, booleans and null as JSON.
+    */
+   public static String write(Object value) {
+      StringBuilder sb = new StringBuilder();
+      write(sb, value);
+      return sb.toString();
+   }//end write
+
+   public static void write(StringBuilder sb, Object value) {
+      if (value == null || value instanceof String) {
+         sb.append(quote((String) value));
+      } else if (value instanceof Number || value instanceof Boolean) {
+         sb.append(value);
+      } else if (value instanceof Map) {
+         sb.append('{');
+         boolean first = true;
+         for (Map.Entry<?, ?> e : ((Map<?, ?>) value).entrySet()) {
+            if (!first) sb.append(',');
+            first = false;
+            sb.append(quote(String.valueOf(e.getKey()))).append(':');
+            write(sb, e.getValue());
+         }
+         sb.append('}');
+      } else if (value instanceof Iterable) {
+         sb.append('[');
+         boolean first = true;
+         for (Object o : (Iterable<?>) value) {
+            if (!first) sb.append(',');
+            first = false;
+            write(sb, o);
+         }
+         sb.append(']');
+      } else {
+         sb.append(quote(value.toString()));
+      }
+   }//end write
+
+}//end Json
@@ -0,0 +1,143 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * This class records latencies in log-linear buckets in the style of an HDR
+ * histogram: every power of two is split into 32 sub-buckets, so any
+ * percentile is reported within about 3% of the true value while recording
+ * stays a couple of atomic increments. Values are nanoseconds.
+ *
+ */
+public class LatencyHistogram {
+
+   // 2^5 sub-buckets per power of two
+   private static final int SUB_BITS = 5;
+   private static final int SUB_COUNT = 1 << SUB_BITS;
+   private static final int BUCKETS = (64 - SUB_BITS + 1) * SUB_COUNT;
+
+   private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+   private final AtomicLong total = new AtomicLong(0);
+   private final AtomicLong sum = new AtomicLong(0);
+   private final AtomicLong max = new AtomicLong(0);
+
+   static int bucket(long value) {
+      if (value < SUB_COUNT)
+         return (int) Math.max(0, value);
+      int exponent = 63 - Long.numberOfLeadingZeros(value);
+      int shift = exponent - SUB_BITS;
+      int sub = (int) (value >>> shift) - SUB_COUNT;
+      return (shift + 1) * SUB_COUNT + sub;
+   }
+
+   // the highest value that falls into a bucket
+   static long upperBound(int bucket) {
+      if (bucket < SUB_COUNT)
+         return bucket;
+      int shift = bucket / SUB_COUNT - 1;
+      long sub = bucket % SUB_COUNT + SUB_COUNT;
+      return ((sub + 1) << shift) - 1;
+   }
+
+   /**
+    * Records one value.
+    */
+   public void record(long nanos) {
+      counts.incrementAndGet(bucket(nanos));
+      total.incrementAndGet();
+      sum.addAndGet(nanos);
+      long m;
+      while (nanos > (m = max.get()) && !max.compareAndSet(m, nanos)) { }
+   }//end record
+
+   /**
+    * Adds every value of another histogram to this one.
+    */
+   public void add(LatencyHistogram other) {
+      for (int i = 0; i < BUCKETS; ++i) {
+         long c = other.counts.get(i);
+         if (c != 0) counts.addAndGet(i, c);
+      }
+      total.addAndGet(other.total.get());
+      sum.addAndGet(other.sum.get());
+      long m, o = other.max.get();
+      while (o > (m = max.get()) && !max.compareAndSet(m, o)) { }
+   }//end add
+
+   /**
+    * Moves the recorded values into a new histogram and clears this one, so
+    * interval reports can be taken while recording continues.
+    */
+   public LatencyHistogram drain() {
+      LatencyHistogram copy = new LatencyHistogram();
+      for (int i = 0; i < BUCKETS; ++i) {
+         long c = counts.getAndSet(i, 0);
+         if (c != 0) copy.counts.set(i, c);
+      }
+      copy.total.set(total.getAndSet(0));
+      copy.sum.set(sum.getAndSet(0));
+      copy.max.set(max.getAndSet(0));
+      return copy;
+   }//end drain
+
+   public long getCount() {
+      return total.get();
+   }
+
+   public long getMax() {
+      return max.get();
+   }
+
+   public double getMean() {
+      long n = total.get();
+      return n == 0 ? 0 : (double) sum.get() / n;
+   }
+
+   /**
+    * @param percentile between 0 and 100
+    * @return the value at the percentile in nanoseconds, 0 when empty
+    */
+   public long getPercentile(double percentile) {
+      long n = total.get();
+      if (n == 0)
+         return 0;
+      long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * n));
+      long seen = 0;
+      for (int i = 0; i < BUCKETS; ++i) {
+         seen += counts.get(i);
+         if (seen >= rank)
+            return Math.min(upperBound(i), max.get());
+      }
+      return max.get();
+   }//end getPercentile
+
+   /**
+    * Summarises the histogram in microseconds.
+    */
+   public String toString() {
+      return String.format("count=%d mean=%.1fus p50=%.1fus p90=%.1fus p99=%.1fus max=%.1fus",
+                           getCount(), getMean() / 1e3, getPercentile(50) / 1e3, getPercentile(90) / 1e3,
+                           getPercentile(99) / 1e3, getMax() / 1e3);
+   }//end toString
+
+   /**
+    * Writes the summary as a JSON object, latencies in microseconds.
+    */
+   public String toJson() {
+      return String.format(java.util.Locale.ROOT,
+                           "{\"count\":%d,\"mean_us\":%.3f,\"p50_us\":%.3f,\"p90_us\":%.3f,\"p99_us\":%.3f,\"p999_us\":%.3f,\"max_us\":%.3f}",
+                           getCount(), getMean() / 1e3, getPercentile(50) / 1e3, getPercentile(90) / 1e3,
+                           getPercentile(99) / 1e3, getPercentile(99.9) / 1e3, getMax() / 1e3);
+   }//end toJson
+
+}//end LatencyHistogram
@@ -0,0 +1,693 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class replays customer, employee and manager sessions against a
+ * loaded database, calling the same operations as the menu: log in, browse
+ * the catalog, place orders, list recent orders and history, look up and
+ * update tracking, update the catalog and read the reports.
+ *
+ * In the closed loop every simulated session logs in, then picks operations
+ * from its role's mix with an exponential think time in between, so the
+ * offered load falls as the database slows down. In the open loop
+ * operations arrive at a fixed Poisson rate whatever the response time, and
+ * latency is measured from the scheduled arrival so queueing is not hidden.
+ * Throughput, latency percentiles, error rate and the rate of serialization
+ * failures and deadlocks are printed every interval and per operation at
+ * the end.
+ *
+ */
+public class LoadDriver {
+
+   /**
+    * One operation of the mix, run on behalf of a logged in client.
+    */
+   interface Action {
+      void run(Client client, ThreadLocalRandom rnd) throws Exception;
+   }
+
+   /**
+    * The counters of one operation.
+    */
+   static class Op {
+      final String name;
+      final Action action;
+      final LatencyHistogram latency = new LatencyHistogram();
+      final AtomicLong ok = new AtomicLong(0);
+      final AtomicLong errors = new AtomicLong(0);
+      final AtomicLong conflicts = new AtomicLong(0);
+
+      Op(String name, Action action) {
+         this.name = name;
+         this.action = action;
+      }
+
+      Map<String, Object> toMap(double seconds) {
+         Map<String, Object> m = new LinkedHashMap<String, Object>();
+         m.put("name", name);
+         m.put("ok", ok.get());
+         m.put("errors", errors.get());
+         m.put("conflicts", conflicts.get());
+         m.put("ops_per_sec", GameRentalBenchmark.round(ok.get() / Math.max(1e-9, seconds)));
+         m.put("latency", Json.parse(latency.toJson()));
+         return m;
+      }
+   }//end Op
+
+   /**
+    * The operation weights of one role.
+    */
+   static class Mix {
+      final List<Op> ops = new ArrayList<Op>();
+      final List<Integer> cumulative = new ArrayList<Integer>();
+      int total = 0;
+
+      void add(Op op, int weight) {
+         if (weight <= 0) return;
+         total += weight;
+         ops.add(op);
+         cumulative.add(total);
+      }
+
+      Op pick(ThreadLocalRandom rnd) {
+         int r = rnd.nextInt(total);
+         for (int i = 0; i < ops.size(); ++i)
+            if (r < cumulative.get(i)) return ops.get(i);
+         return ops.get(ops.size() - 1);
+      }
+   }//end Mix
+
+   /**
+    * A simulated user. The orders it placed are remembered so that its
+    * later lookups hit its own rows, as a real customer's would.
+    */
+   static class Client {
+      final String role;
+      Session session;
+      int opsLeft;
+      final List<GameRental.PlacedOrder> placed = new ArrayList<GameRental.PlacedOrder>();
+
+      Client(String role) {
+         this.role = role;
+      }
+
+      synchronized void remember(GameRental.PlacedOrder order) {
+         // keeps the most recent orders only
+         if (placed.size() == 32) placed.remove(0);
+         placed.add(order);
+      }
+
+      synchronized GameRental.PlacedOrder anyPlaced(ThreadLocalRandom rnd) {
+         return placed.isEmpty() ? null : placed.get(rnd.nextInt(placed.size()));
+      }
+   }//end Client
+
+   static final String[] ROLES = {"customer", "employee", "manager"};
+
+   static final String DEFAULT_MIX =
+      "customer=browseCatalog:40,placeOrder:10,recentOrders:15,orderHistory:10,orderInfo:10,trackingLookup:15;" +
+      "employee=browseCatalog:10,trackingLookup:40,trackingUpdate:50;" +
+      "manager=browseCatalog:20,trackingUpdate:20,updateCatalog:10,reports:30,trackingLookup:20";
+
+   static final String[] STATUSES = {"Ordered", "In Transit", "Out for Delivery", "Attempted Delivery", "Delivered"};
+
+   private final GameRental esql;
+   private final Map<String, Op> ops = new LinkedHashMap<String, Op>();
+   private final Map<String, Mix> mixes = new LinkedHashMap<String, Mix>();
+   private final Op login;
+
+   // whole-run totals per interval, drained by the reporter
+   private final LatencyHistogram interval = new LatencyHistogram();
+   private final AtomicLong intervalErrors = new AtomicLong(0);
+   private final AtomicLong intervalConflicts = new AtomicLong(0);
+   private final AtomicInteger inFlight = new AtomicInteger(0);
+   private final AtomicLong dropped = new AtomicLong(0);
+   private final List<Object> timeline = new ArrayList<Object>();
+
+   // keys sampled once from the loaded dataset
+   private final Map<String, List<List<String>>> users = new LinkedHashMap<String, List<List<String>>>();
+   private List<List<String>> orders;     // rentalOrderID, login, orderTimestamp
+   private List<List<String>> tracking;   // trackingID, login, status
+   private List<CatalogCache.Game> games;
+   private List<String> genres;
+   private double skew = 1.0;
+
+   LoadDriver(GameRental esql) {
+      this.esql = esql;
+      this.login = new Op("login", null);
+      ops.put(login.name, login);
+   }
+
+   /**
+    * Picks an element, biased towards the front of the list when skew is
+    * above 1 so that a few hot rows take most of the writes.
+    */
+   <T> T pick(List<T> list, ThreadLocalRandom rnd) {
+      double u = rnd.nextDouble();
+      int i = skew == 1.0 ? (int) (u * list.size()) : (int) (Math.pow(u, skew) * list.size());
+      return list.get(Math.min(i, list.size() - 1));
+   }
+
+   /**
+    * Samples the keys the sessions draw their inputs from.
+    */
+   void sample(int size) throws SQLException {
+      for (String role : ROLES)
+         users.put(role, esql.executeQueryAndReturnResult(
+            "SELECT login, password, role FROM Users WHERE trim(role) = ? ORDER BY random() LIMIT ?", role, size));
+      orders = esql.executeQueryAndReturnResult(
+         "SELECT rentalOrderID, login, orderTimestamp FROM RentalOrder ORDER BY random() LIMIT ?", size);
+      tracking = esql.executeQueryAndReturnResult(
+         "SELECT T.trackingID, R.login, T.status FROM TrackingInfo T JOIN RentalOrder R ON T.rentalOrderID = R.rentalOrderID " +
+         "ORDER BY random() LIMIT ?", size);
+      games = esql.getCatalog().findAll(esql, CatalogCache.UNSORTED);
+      genres = new ArrayList<String>();
+      for (CatalogCache.Game g : games)
+         if (!genres.contains(g.genre)) genres.add(g.genre);
+      if (users.get("customer").isEmpty() || orders.isEmpty() || tracking.isEmpty() || games.size() < 20)
+         throw new IllegalStateException("The database needs customers, orders, tracking rows and at least 20 games");
+   }//end sample
+
+   private void register(String name, Action action) {
+      ops.put(name, new Op(name, action));
+   }
+
+   /**
+    * Registers the operations a mix can name.
+    */
+   void register() {
+      register("browseCatalog", new Action() {
+         public void run(Client client, ThreadLocalRandom rnd) throws Exception {
+            int sort = rnd.nextInt(3);
+            if (rnd.nextInt(4) == 0)
+               GameRental.searchCatalog(esql, 1, pick(games, rnd).gameID, sort);
+            else
+               GameRental.searchCatalog(esql, 2, genres.get(rnd.nextInt(genres.size())), sort);
+         }
+      });
+      register("placeOrder", new Action() {
+         public void run(Client client, ThreadLocalRandom rnd) throws Exception {
+            Map<String, Integer> items = new LinkedHashMap<String, Integer>();
+            int size = 1 + rnd.nextInt(5);
+            while (items.size() < size)
+               items.put(pick(games, rnd).gameID, 1 + rnd.nextInt(3));
+            GameRental.PlacedOrder order = GameRental.submitOrder(esql, client.session.getLogin(), items);
+            if (order == null)
+               throw new IllegalStateException("order was not placed");
+            client.remember(order);
+         }
+      });
+      register("recentOrders", new Action() {
+         public void run(Client client, ThreadLocalRandom rnd) throws Exception {
+            GameRental.findRecentOrders(esql, client.session.getLogin(), GameRentalBenchmark.DISCARD);
+         }
+      });
+      register("orderHistory", new Action() {
+         public void run(Client client, ThreadLocalRandom rnd) throws Exception {
+            // reads the first page and, half of the time, the next one
+            String token = GameRental.findOrderHistory(esql, client.session.getLogin(), 10, null, GameRentalBenchmark.DISCARD_ORDERS);
+            if (token != null && rnd.nextBoolean())
+               GameRental.findOrderHistory(esql, client.session.getLogin(), 10, token, GameRentalBenchmark.DISCARD_ORDERS);
+         }
+      });
+      register("orderInfo", new Action() {
+         public void run(Client client, ThreadLocalRandom rnd) throws Exception {
+            GameRental.PlacedOrder own = client.anyPlaced(rnd);
+            if (own != null) {
+               GameRental.findOrder(esql, own.rentalOrderID, client.session.getLogin());
+            } else {
+               List<String> o = pick(orders, rnd);
+               GameRental.findOrder(esql, o.get(0), o.get(1));
+            }
+         }
+      });
+      register("trackingLookup", new Action() {
+         public void run(Client client, ThreadLocalRandom rnd) throws Exception {
+            GameRental.PlacedOrder own = client.role.equals("customer") ? client.anyPlaced(rnd) : null;
+            if (own != null) {
+               GameRental.findTrackingInfo(esql, own.trackingID, client.session.getLogin());
+            } else {
+               List<String> t = pick(tracking, rnd);
+               GameRental.findTrackingInfo(esql, t.get(0), t.get(1));
+            }
+         }
+      });
+      register("trackingUpdate", new Action() {
+         public void run(Client client, ThreadLocalRandom rnd) throws Exception {
+            List<String> t = pick(tracking, rnd);
+            GameRental.applyTrackingUpdate(esql, t.get(0), STATUSES[rnd.nextInt(STATUSES.length)],
+               DataGenerator.CITIES[rnd.nextInt(DataGenerator.CITIES.length)], "", "");
+         }
+      });
+      register("updateCatalog", new Action() {
+         public void run(Client client, ThreadLocalRandom rnd) throws Exception {
+            // rewrites the current price so the catalog keeps its values
+            CatalogCache.Game g = pick(games, rnd);
+            GameRental.applyCatalogUpdate(esql, g.gameID, "", "", g.price);
+         }
+      });
+      register("reports", new Action() {
+         public void run(Client client, ThreadLocalRandom rnd) throws Exception {
+            switch (rnd.nextInt(3)) {
+               case 0: Reports.dailyRevenue(esql, 30, GameRentalBenchmark.DISCARD); break;
+               case 1: Reports.topGames(esql, 10, GameRentalBenchmark.DISCARD); break;
+               default: Reports.rentalsByGenre(esql, GameRentalBenchmark.DISCARD); break;
+            }
+         }
+      });
+   }//end register
+
+   /**
+    * Parses role=op:weight,op:weight;role=... into the per-role mixes.
+    */
+   void parseMix(String spec) {
+      for (String part : spec.split(";")) {
+         if (part.trim().isEmpty()) continue;
+         String[] roleOps = part.split("=", 2);
+         String role = roleOps[0].trim();
+         Mix mix = new Mix();
+         for (String entry : roleOps[1].split(",")) {
+            String[] kv = entry.split(":");
+            Op op = ops.get(kv[0].trim());
+            if (op == null || op == login)
+               throw new IllegalArgumentException("Unknown operation in mix: " + kv[0]);
+            mix.add(op, Integer.parseInt(kv[1].trim()));
+         }
+         if (mix.total > 0)
+            mixes.put(role, mix);
+         else
+            mixes.remove(role);
+      }
+   }//end parseMix
+
+   /**
+    * Serialization failures and deadlocks are what contention looks like
+    * from the client. The bundled driver does not always fill in the
+    * SQLState, so the server message is checked as well.
+    */
+   static boolean isConflict(Throwable e) {
+      for (; e != null; e = e.getCause()) {
+         if (e instanceof SQLException) {
+            String state = ((SQLException) e).getSQLState();
+            if ("40001".equals(state) || "40P01".equals(state)) return true;
+         }
+         String msg = e.getMessage();
+         if (msg != null && (msg.contains("could not serialize access") || msg.contains("deadlock detected")))
+            return true;
+      }
+      return false;
+   }//end isConflict
+
+   /**
+    * Runs one operation and records its outcome.
+    *
+    * @param scheduled System.nanoTime() the operation was due, latency is measured from it
+    */
+   void execute(Op op, Client client, ThreadLocalRandom rnd, long scheduled) {
+      Metrics.Scope scope = Metrics.begin("load." + op.name);
+      try {
+         if (op == login) {
+            List<String> u = pick(users.get(client.role), rnd);
+            Session session = GameRental.authenticate(esql, u.get(0), u.get(1));
+            if (session == null)
+               throw new IllegalStateException("login failed for " + u.get(0));
+            client.session = session;
+         } else {
+            op.action.run(client, rnd);
+         }
+         long nanos = System.nanoTime() - scheduled;
+         op.latency.record(nanos);
+         interval.record(nanos);
+         op.ok.incrementAndGet();
+      } catch (Exception e) {
+         if (isConflict(e)) {
+            op.conflicts.incrementAndGet();
+            intervalConflicts.incrementAndGet();
+         } else if (op.errors.incrementAndGet() == 1) {
+            System.err.println(op.name + ": " + e.getMessage());
+         }
+         intervalErrors.incrementAndGet();
+      } finally {
+         scope.end();
+      }
+   }//end execute
+
+   /**
+    * Logs a client in when it starts, and again as a different user after
+    * sessionLength operations, then runs the next operation of its mix.
+    */
+   void step(Client client, int sessionLength, ThreadLocalRandom rnd, long scheduled) {
+      if (client.session == null || client.opsLeft <= 0) {
+         client.opsLeft = sessionLength;
+         execute(login, client, rnd, scheduled);
+         return;
+      }
+      client.opsLeft--;
+      execute(mixes.get(client.role).pick(rnd), client, rnd, scheduled);
+   }//end step
+
+   /**
+    * Assigns roles to n clients in proportion to the given shares.
+    */
+   List<Client> clients(int n, Map<String, Integer> shares) {
+      Mix roles = new Mix();
+      List<Client> clients = new ArrayList<Client>(n);
+      int total = 0;
+      for (Map.Entry<String, Integer> e : shares.entrySet())
+         if (mixes.containsKey(e.getKey()) && !users.get(e.getKey()).isEmpty()) total += e.getValue();
+      if (total == 0)
+         throw new IllegalArgumentException("No role has both a mix and sampled users");
+      ThreadLocalRandom rnd = ThreadLocalRandom.current();
+      while (clients.size() < n) {
+         int r = rnd.nextInt(total);
+         for (Map.Entry<String, Integer> e : shares.entrySet()) {
+            if (!mixes.containsKey(e.getKey()) || users.get(e.getKey()).isEmpty()) continue;
+            if (r < e.getValue()) { clients.add(new Client(e.getKey())); break; }
+            r -= e.getValue();
+         }
+      }
+      return clients;
+   }//end clients
+
+   /**
+    * Creates the session executor: one virtual thread per task on JDKs that
+    * have them, otherwise a fixed pool of platform threads.
+    */
+   static ExecutorService newExecutor(int platformThreads) {
+      try {
+         return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+      } catch (Exception e) {
+         return Executors.newFixedThreadPool(platformThreads);
+      }
+   }//end newExecutor
+
+   private static long think(ThreadLocalRandom rnd, long meanMillis) {
+      return meanMillis <= 0 ? 0 : (long) (-Math.log(1.0 - rnd.nextDouble()) * meanMillis);
+   }
+
+   /**
+    * Runs every client as its own session until the deadline.
+    */
+   void closedLoop(List<Client> clients, final int sessionLength, final long thinkMillis, final long deadline)
+         throws InterruptedException {
+      ExecutorService executor = newExecutor(clients.size());
+      for (final Client client : clients) {
+         executor.execute(new Runnable() {
+            public void run() {
+               ThreadLocalRandom rnd = ThreadLocalRandom.current();
+               try {
+                  // spreads the first logins over one think time
+                  Thread.sleep(think(rnd, thinkMillis));
+                  while (System.nanoTime() < deadline) {
+                     inFlight.incrementAndGet();
+                     step(client, sessionLength, rnd, System.nanoTime());
+                     inFlight.decrementAndGet();
+                     Thread.sleep(think(rnd, thinkMillis));
+                  }
+               } catch (InterruptedException e) {
+                  Thread.currentThread().interrupt();
+               }
+            }
+         });
+      }
+      executor.shutdown();
+      executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+   }//end closedLoop
+
+   /**
+    * Issues operations at a Poisson rate until the deadline, each on behalf
+    * of a random client. Arrivals beyond maxInFlight are dropped and
+    * counted rather than queued without bound.
+    */
+   void openLoop(final List<Client> clients, final int sessionLength, double rate, int maxInFlight, long deadline)
+         throws InterruptedException {
+      ExecutorService executor = newExecutor(maxInFlight);
+      ThreadLocalRandom rnd = ThreadLocalRandom.current();
+      long next = System.nanoTime();
+      while (next < deadline) {
+         long wait = next - System.nanoTime();
+         if (wait > 0)
+            TimeUnit.NANOSECONDS.sleep(wait);
+         final long scheduled = next;
+         next += (long) (-Math.log(1.0 - rnd.nextDouble()) / rate * 1e9);
+         if (inFlight.get() >= maxInFlight) {
+            dropped.incrementAndGet();
+            continue;
+         }
+         inFlight.incrementAndGet();
+         final Client client = clients.get(rnd.nextInt(clients.size()));
+         executor.execute(new Runnable() {
+            public void run() {
+               try {
+                  // a client runs one operation at a time, later arrivals for it queue here
+                  synchronized (client) {
+                     step(client, sessionLength, ThreadLocalRandom.current(), scheduled);
+                  }
+               } finally {
+                  inFlight.decrementAndGet();
+               }
+            }
+         });
+      }
+      executor.shutdown();
+      executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+   }//end openLoop
+
+   /**
+    * Prints and keeps one line of the timeline.
+    */
+   void report(double elapsed, double seconds) {
+      LatencyHistogram h = interval.drain();
+      long errors = intervalErrors.getAndSet(0);
+      long conflicts = intervalConflicts.getAndSet(0);
+      long attempts = h.getCount() + errors;
+      double errorRate = attempts == 0 ? 0 : 100.0 * errors / attempts;
+      double conflictRate = attempts == 0 ? 0 : 100.0 * conflicts / attempts;
+      ConnectionPool pool = esql.getPool();
+      System.out.println(String.format(Locale.ROOT, "%7.0f %10.1f %10.2f %10.2f %10.2f %7.2f%% %9.2f%% %8d %8d %10d",
+                                       elapsed, h.getCount() / seconds, h.getPercentile(50) / 1e6,
+                                       h.getPercentile(99) / 1e6, h.getMax() / 1e6, errorRate, conflictRate,
+                                       inFlight.get(), dropped.get(), pool.getWaits()));
+      Map<String, Object> m = new LinkedHashMap<String, Object>();
+      m.put("t", GameRentalBenchmark.round(elapsed));
+      m.put("ops_per_sec", GameRentalBenchmark.round(h.getCount() / seconds));
+      m.put("latency", Json.parse(h.toJson()));
+      m.put("errors", errors);
+      m.put("conflicts", conflicts);
+      m.put("in_flight", inFlight.get());
+      m.put("dropped", dropped.get());
+      m.put("pool_waits", pool.getWaits());
+      synchronized (timeline) {
+         timeline.add(m);
+      }
+   }//end report
+
+   static void usage() {
+      System.err.println(
+         "Usage: java [-classpath <classpath>] " + LoadDriver.class.getName() +
+         " <dbname> <port> <user> [options]\n" +
+         "  --sessions <n>          simulated sessions (default 50)\n" +
+         "  --rate <ops/s>          open loop at this arrival rate instead of the closed loop\n" +
+         "  --max-inflight <n>      open loop: operations in flight before arrivals are dropped (default 10000)\n" +
+         "  --think <ms>            closed loop: mean think time between operations (default 500)\n" +
+         "  --session-length <n>    operations before a session logs in again as another user (default 50)\n" +
+         "  --time <seconds>        run time (default 60)\n" +
+         "  --interval <seconds>    reporting interval (default 5)\n" +
+         "  --connections <n>       connection pool size (default 20)\n" +
+         "  --roles <spec>          session shares, e.g. customer=90,employee=8,manager=2 (the default)\n" +
+         "  --mix <spec>            role=op:weight,...;role=... replacing the default mix of those roles\n" +
+         "  --skew <s>              > 1 concentrates writes on a few hot rows (default 1, uniform)\n" +
+         "  --json <file>           write the report as JSON (default load-results.json)\n" +
+         "  --list                  print the operations and the default mix and exit");
+   }
+
+   static Map<String, Integer> parseShares(String spec) {
+      Map<String, Integer> shares = new LinkedHashMap<String, Integer>();
+      for (String entry : spec.split(",")) {
+         String[] kv = entry.split("=");
+         shares.put(kv[0].trim(), Integer.parseInt(kv[1].trim()));
+      }
+      return shares;
+   }
+
+   /**
+    * The load driver command
+    *
+    * @param args <dbname> <port> <user> followed by the options in usage()
+    */
+   public static void main(String[] args) {
+      if (args.length < 3) {
+         usage();
+         return;
+      }
+      int sessions = 50, sessionLength = 50, connections = 20, maxInFlight = 10000;
+      long think = 500, time = 60, intervalSeconds = 5;
+      double rate = 0, skew = 1.0;
+      String roles = "customer=90,employee=8,manager=2";
+      List<String> mixSpecs = new ArrayList<String>();
+      File json = new File("load-results.json");
+      boolean list = false;
+      try {
+         for (int i = 3; i < args.length; ++i) {
+            String a = args[i];
+            if (a.equals("--sessions")) sessions = Integer.parseInt(args[++i]);
+            else if (a.equals("--rate")) rate = Double.parseDouble(args[++i]);
+            else if (a.equals("--max-inflight")) maxInFlight = Integer.parseInt(args[++i]);
+            else if (a.equals("--think")) think = Long.parseLong(args[++i]);
+            else if (a.equals("--session-length")) sessionLength = Integer.parseInt(args[++i]);
+            else if (a.equals("--time")) time = Long.parseLong(args[++i]);
+            else if (a.equals("--interval")) intervalSeconds = Long.parseLong(args[++i]);
+            else if (a.equals("--connections")) connections = Integer.parseInt(args[++i]);
+            else if (a.equals("--roles")) roles = args[++i];
+            else if (a.equals("--mix")) mixSpecs.add(args[++i]);
+            else if (a.equals("--skew")) skew = Double.parseDouble(args[++i]);
+            else if (a.equals("--json")) json = new File(args[++i]);
+            else if (a.equals("--list")) list = true;
+            else { usage(); return; }
+         }
+      } catch (RuntimeException e) {
+         usage();
+         return;
+      }
+
+      System.setProperty("gamerental.pool.size", String.valueOf(connections));
+      GameRental esql = null;
+      try {
+         Class.forName ("org.postgresql.Driver").newInstance ();
+         esql = new GameRental(args[0], args[1], args[2], "");
+         final LoadDriver driver = new LoadDriver(esql);
+         driver.skew = skew;
+         driver.register();
+         driver.parseMix(DEFAULT_MIX);
+         for (String spec : mixSpecs)
+            driver.parseMix(spec);
+         if (list) {
+            for (String name : driver.ops.keySet())
+               System.out.println(name);
+            System.out.println("default mix: " + DEFAULT_MIX);
+            return;
+         }
+         Map<String, Integer> shares = parseShares(roles);
+         driver.sample(1000);
+         List<Client> clients = driver.clients(sessions, shares);
+
+         System.out.println(rate > 0
+            ? String.format(Locale.ROOT, "Open loop: %.1f ops/s over %d sessions for %d s, %d connections", rate, sessions, time, connections)
+            : String.format(Locale.ROOT, "Closed loop: %d sessions, %d ms think time for %d s, %d connections", sessions, think, time, connections));
+         System.out.println(String.format("%7s %10s %10s %10s %10s %8s %10s %8s %8s %10s",
+                                          "t (s)", "ops/s", "p50 ms", "p99 ms", "max ms", "errors", "conflicts",
+                                          "inflight", "dropped", "pool waits"));
+
+         final long start = System.nanoTime();
+         final long intervalNanos = intervalSeconds * 1000000000L;
+         Thread reporter = new Thread(new Runnable() {
+            public void run() {
+               long last = start;
+               try {
+                  while (true) {
+                     Thread.sleep(intervalNanos / 1000000L);
+                     long now = System.nanoTime();
+                     driver.report((now - start) / 1e9, (now - last) / 1e9);
+                     last = now;
+                  }
+               } catch (InterruptedException e) {
+                  // finished
+               }
+            }
+         }, "load-report");
+         reporter.setDaemon(true);
+         reporter.start();
+
+         long deadline = start + time * 1000000000L;
+         if (rate > 0)
+            driver.openLoop(clients, sessionLength, rate, maxInFlight, deadline);
+         else
+            driver.closedLoop(clients, sessionLength, think, deadline);
+         reporter.interrupt();
+         double seconds = (System.nanoTime() - start) / 1e9;
+
+         System.out.println();
+         System.out.println(String.format("%-16s %10s %10s %10s %10s %10s %8s %10s",
+                                          "operation", "ops", "ops/s", "p50 ms", "p95 ms", "p99 ms", "errors", "conflicts"));
+         List<Object> perOp = new ArrayList<Object>();
+         for (Op op : driver.ops.values()) {
+            if (op.ok.get() + op.errors.get() + op.conflicts.get() == 0) continue;
+            System.out.println(String.format(Locale.ROOT, "%-16s %10d %10.1f %10.2f %10.2f %10.2f %8d %10d",
+                                             op.name, op.ok.get(), op.ok.get() / seconds,
+                                             op.latency.getPercentile(50) / 1e6, op.latency.getPercentile(95) / 1e6,
+                                             op.latency.getPercentile(99) / 1e6, op.errors.get(), op.conflicts.get()));
+            perOp.add(op.toMap(seconds));
+         }
+         if (driver.dropped.get() > 0)
+            System.out.println("❌" + driver.dropped.get() + " arrivals dropped, the database did not keep up with the rate");
+         System.out.println(esql.getPool());
+
+         Map<String, Object> report = new LinkedHashMap<String, Object>();
+         report.put("timestamp", new java.sql.Timestamp(System.currentTimeMillis()).toString());
+         report.put("mode", rate > 0 ? "open" : "closed");
+         report.put("sessions", sessions);
+         report.put("rate", rate);
+         report.put("think_ms", think);
+         report.put("connections", connections);
+         report.put("time_s", GameRentalBenchmark.round(seconds));
+         report.put("roles", roles);
+         report.put("mix", driver.mixSpec());
+         report.put("skew", skew);
+         report.put("dropped", driver.dropped.get());
+         report.put("operations", perOp);
+         synchronized (driver.timeline) {
+            report.put("timeline", new ArrayList<Object>(driver.timeline));
+         }
+         Files.write(json.toPath(), Json.write(report).getBytes(StandardCharsets.UTF_8));
+         System.out.println("Report written to " + json);
+      } catch (Exception e) {
+         System.err.println("❌Load run failed: " + e.getMessage());
+      } finally {
+         if (esql != null) esql.cleanup();
+      }
+   }//end main
+
+   /**
+    * @return the effective mix in the --mix syntax
+    */
+   String mixSpec() {
+      StringBuilder sb = new StringBuilder();
+      for (Map.Entry<String, Mix> e : mixes.entrySet()) {
+         if (sb.length() > 0) sb.append(';');
+         sb.append(e.getKey()).append('=');
+         Mix mix = e.getValue();
+         int previous = 0;
+         for (int i = 0; i < mix.ops.size(); ++i) {
+            if (i > 0) sb.append(',');
+            sb.append(mix.ops.get(i).name).append(':').append(mix.cumulative.get(i) - previous);
+            previous = mix.cumulative.get(i);
+         }
+      }
+      return sb.toString();
+   }//end mixSpec
+
+}//end LoadDriver
@@ -0,0 +1,338 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * This class is the process wide registry of query and action metrics. The
+ * query helpers of GameRental record every statement under the menu action
+ * running on the current thread and the normalized shape of its SQL, with a
+ * call count, errors, rows, materialised bytes and a latency histogram.
+ * Recording is a few atomic increments and two map lookups, cheap enough to
+ * stay on all the time. Statements slower than gamerental.metrics.slowMillis
+ * are logged with their normalized SQL, and the registry can be dumped to a
+ * file every gamerental.metrics.dumpSeconds. While a capture is running the
+ * first statement of every action and shape is also kept with its
+ * parameters, for QueryPlanAdvisor to explain.
+ *
+ */
+public class Metrics {
+
+   /**
+    * The counters of one action and SQL shape.
+    */
+   static class Stats {
+      final String action;
+      final String shape;
+      final AtomicLong calls = new AtomicLong(0);
+      final AtomicLong errors = new AtomicLong(0);
+      final AtomicLong rows = new AtomicLong(0);
+      final AtomicLong bytes = new AtomicLong(0);
+      final LatencyHistogram latency = new LatencyHistogram();
+
+      Stats(String action, String shape) {
+         this.action = action;
+         this.shape = shape;
+      }
+
+      Map<String, Object> toMap() {
+         Map<String, Object> m = new LinkedHashMap<String, Object>();
+         m.put("action", action);
+         m.put("sql", shape);
+         m.put("calls", calls.get());
+         m.put("errors", errors.get());
+         m.put("rows", rows.get());
+         m.put("bytes", bytes.get());
+         m.put("latency", Json.parse(latency.toJson()));
+         return m;
+      }
+   }//end Stats
+
+   /**
+    * A running menu action, ended with end().
+    */
+   public static class Scope {
+      private final String previous;
+      private final String action;
+      private final long start = System.nanoTime();
+
+      Scope(String action, String previous) {
+         this.action = action;
+         this.previous = previous;
+      }
+
+      /**
+       * Records the action's own latency and restores the enclosing action.
+       */
+      public void end() {
+         Stats s = stats(action, ACTION_TOTAL);
+         s.calls.incrementAndGet();
+         s.latency.record(System.nanoTime() - start);
+         CURRENT.set(previous);
+      }
+   }//end Scope
+
+   /**
+    * One statement kept by a capture, with the values it was bound to.
+    */
+   static class Captured {
+      final String action;
+      final String shape;
+      final String sql;
+      final Object[] params;
+
+      Captured(String action, String shape, String sql, Object[] params) {
+         this.action = action;
+         this.shape = shape;
+         this.sql = sql;
+         this.params = params;
+      }
+   }//end Captured
+
+   // the shape under which whole actions are recorded
+   static final String ACTION_TOTAL = "*";
+
+   private static final ThreadLocal<String> CURRENT = new ThreadLocal<String>();
+   private static final ConcurrentHashMap<String, Stats> STATS = new ConcurrentHashMap<String, Stats>();
+   private static final ConcurrentHashMap<String, String> SHAPES = new ConcurrentHashMap<String, String>();
+   private static final int MAX_SHAPES = 4096;
+
+   private static final long SLOW_NANOS = Long.getLong("gamerental.metrics.slowMillis", 200L) * 1000000L;
+   private static final String SLOW_LOG = System.getProperty("gamerental.metrics.slowLog");
+   private static final AtomicLong SLOW = new AtomicLong(0);
+   private static Thread dumper;
+   // the running capture, null when none
+   private static volatile Map<String, Captured> captured;
+
+   private static final Pattern STRING_LITERAL = Pattern.compile("'(?:[^']|'')*'");
+   private static final Pattern NUMBER_LITERAL = Pattern.compile("\\b\\d+(\\.\\d+)?\\b");
+   // a parenthesized group nested up to three deep, repeated
+   private static final Pattern VALUES_LIST = Pattern.compile(
+      "(\\((?:[^()]|\\((?:[^()]|\\([^()]*\\))*\\))*\\))(?:, \\1)+");
+   private static final Pattern IN_LIST = Pattern.compile("\\(\\s*\\?(\\s*,\\s*\\?)+\\s*\\)");
+   private static final Pattern SPACE = Pattern.compile("\\s+");
+
+   /**
+    * Marks the current thread as running an action until the returned
+    * scope ends. Actions nest.
+    */
+   public static Scope begin(String action) {
+      String previous = CURRENT.get();
+      CURRENT.set(action);
+      return new Scope(action, previous);
+   }//end begin
+
+   /**
+    * @return the action running on this thread, "other" outside of any
+    */
+   public static String currentAction() {
+      String action = CURRENT.get();
+      return action == null ? "other" : action;
+   }
+
+   /**
+    * Reduces a statement to its shape: literals become ?, repeated VALUES
+    * rows and IN lists collapse to one, whitespace is folded. Shapes are
+    * memoized per distinct SQL text.
+    */
+   public static String normalize(String sql) {
+      String shape = SHAPES.get(sql);
+      if (shape != null)
+         return shape;
+      shape = STRING_LITERAL.matcher(sql).replaceAll("?");
+      shape = NUMBER_LITERAL.matcher(shape).replaceAll("?");
+      shape = SPACE.matcher(shape).replaceAll(" ").trim();
+      shape = VALUES_LIST.matcher(shape).replaceAll("$1, ...");
+      shape = IN_LIST.matcher(shape).replaceAll("(?, ...)");
+      if (SHAPES.size() < MAX_SHAPES)
+         SHAPES.put(sql, shape);
+      return shape;
+   }//end normalize
+
+   static Stats stats(String action, String shape) {
+      String key = action + '\u0000' + shape;
+      Stats s = STATS.get(key);
+      if (s == null) {
+         Stats created = new Stats(action, shape);
+         s = STATS.putIfAbsent(key, created);
+         if (s == null) s = created;
+      }
+      return s;
+   }
+
+   /**
+    * Records one statement under the current action.
+    *
+    * @param startNanos System.nanoTime() before the statement ran
+    * @param rows rows returned or affected
+    * @param bytes characters materialised into Java strings, 0 when streamed
+    */
+   public static void record(String sql, long startNanos, long rows, long bytes, boolean error) {
+      long nanos = System.nanoTime() - startNanos;
+      String action = currentAction();
+      String shape = normalize(sql);
+      Stats s = stats(action, shape);
+      s.calls.incrementAndGet();
+      if (error) s.errors.incrementAndGet();
+      s.rows.addAndGet(rows);
+      s.bytes.addAndGet(bytes);
+      s.latency.record(nanos);
+      if (nanos >= SLOW_NANOS)
+         logSlow(action, shape, nanos, rows, error);
+   }//end record
+
+   /**
+    * Keeps a statement if a capture is running and its action and shape
+    * were not seen yet. Costs one volatile read otherwise.
+    */
+   public static void capture(String sql, Object[] params) {
+      Map<String, Captured> c = captured;
+      if (c == null)
+         return;
+      String action = currentAction();
+      String shape = normalize(sql);
+      String key = action + '\u0000' + shape;
+      synchronized (c) {
+         if (!c.containsKey(key))
+            c.put(key, new Captured(action, shape, sql, params.clone()));
+      }
+   }//end capture
+
+   /**
+    * Starts keeping the first statement of every action and shape.
+    */
+   static void startCapture() {
+      captured = new LinkedHashMap<String, Captured>();
+   }
+
+   /**
+    * @return the statements kept since startCapture, in the order first seen
+    */
+   static List<Captured> stopCapture() {
+      Map<String, Captured> c = captured;
+      captured = null;
+      if (c == null)
+         return new ArrayList<Captured>();
+      synchronized (c) {
+         return new ArrayList<Captured>(c.values());
+      }
+   }
+
+   private static void logSlow(String action, String shape, long nanos, long rows, boolean error) {
+      SLOW.incrementAndGet();
+      String line = String.format("%s slow query %.1f ms action=%s rows=%d%s sql=%s",
+                                  new java.sql.Timestamp(System.currentTimeMillis()), nanos / 1e6,
+                                  action, rows, error ? " failed" : "", shape);
+      if (SLOW_LOG == null) {
+         System.err.println(line);
+         return;
+      }
+      synchronized (Metrics.class) {
+         try {
+            PrintWriter out = new PrintWriter(new FileWriter(SLOW_LOG, true));
+            out.println(line);
+            out.close();
+         } catch (IOException e) {
+            System.err.println(line);
+         }
+      }
+   }//end logSlow
+
+   private static List<Stats> sorted() {
+      List<Stats> all = new ArrayList<Stats>(STATS.values());
+      Collections.sort(all, new Comparator<Stats>() {
+         public int compare(Stats a, Stats b) {
+            int c = a.action.compareTo(b.action);
+            if (c != 0) return c;
+            // the action total first, then the statements by time spent
+            if (a.shape.equals(ACTION_TOTAL) != b.shape.equals(ACTION_TOTAL))
+               return a.shape.equals(ACTION_TOTAL) ? -1 : 1;
+            return Double.compare(b.latency.getMean() * b.calls.get(), a.latency.getMean() * a.calls.get());
+         }
+      });
+      return all;
+   }
+
+   /**
+    * @return every counter as JSON friendly maps
+    */
+   public static Map<String, Object> snapshot() {
+      Map<String, Object> m = new LinkedHashMap<String, Object>();
+      m.put("timestamp", new java.sql.Timestamp(System.currentTimeMillis()).toString());
+      m.put("slowQueries", SLOW.get());
+      List<Object> stats = new ArrayList<Object>();
+      for (Stats s : sorted())
+         stats.add(s.toMap());
+      m.put("stats", stats);
+      return m;
+   }//end snapshot
+
+   /**
+    * Formats the registry as a table, one line per action and SQL shape.
+    */
+   public static String dump() {
+      StringBuilder sb = new StringBuilder();
+      sb.append(String.format("%-22s %8s %6s %10s %10s %10s %10s  %s%n",
+                              "action", "calls", "errors", "rows", "p50 ms", "p99 ms", "max ms", "sql"));
+      for (Stats s : sorted()) {
+         String sql = s.shape.length() > 100 ? s.shape.substring(0, 97) + "..." : s.shape;
+         sb.append(String.format("%-22s %8d %6d %10d %10.2f %10.2f %10.2f  %s%n",
+                                 s.action, s.calls.get(), s.errors.get(), s.rows.get(),
+                                 s.latency.getPercentile(50) / 1e6, s.latency.getPercentile(99) / 1e6,
+                                 s.latency.getMax() / 1e6, sql));
+      }
+      sb.append(SLOW.get()).append(" slow queries");
+      return sb.toString();
+   }//end dump
+
+   /**
+    * Writes the registry as JSON to gamerental.metrics.file every
+    * gamerental.metrics.dumpSeconds, if both are set.
+    */
+   public static synchronized void startDumper() {
+      final String file = System.getProperty("gamerental.metrics.file");
+      final long seconds = Long.getLong("gamerental.metrics.dumpSeconds", 0L);
+      if (dumper != null || file == null || seconds <= 0)
+         return;
+      dumper = new Thread(new Runnable() {
+         public void run() {
+            try {
+               while (true) {
+                  Thread.sleep(seconds * 1000L);
+                  try {
+                     PrintWriter out = new PrintWriter(new FileWriter(file));
+                     out.println(Json.write(snapshot()));
+                     out.close();
+                  } catch (IOException e) {
+                     System.err.println("Metrics dump failed: " + e.getMessage());
+                  }
+               }
+            } catch (InterruptedException e) {
+               // stopped
+            }
+         }
+      }, "metrics-dump");
+      dumper.setDaemon(true);
+      dumper.start();
+   }//end startDumper
+
+}//end Metrics
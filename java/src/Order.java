@@ -0,0 +1,167 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class is one rental order with its games nested inside, the shape
+ * of the order history and order info. The database aggregates the games
+ * of an order with json_agg, so an order crosses the wire and lands on the
+ * heap once instead of once per game. Rows that still come one per game,
+ * like those of the archive, are folded into orders by a Grouper.
+ *
+ */
+public class Order {
+
+   /**
+    * One game of an order.
+    */
+   public static class Item {
+      public final String gameID;
+      public final int unitsOrdered;
+
+      public Item(String gameID, int unitsOrdered) {
+         this.gameID = gameID;
+         this.unitsOrdered = unitsOrdered;
+      }
+   }//end Item
+
+   /**
+    * Receives orders one at a time, like RowHandler receives rows.
+    */
+   public interface Handler {
+      /**
+       * @return false to stop early
+       */
+      boolean handle(Order order) throws SQLException;
+   }//end Handler
+
+   public final String rentalOrderID;
+   public final String orderTimestamp;
+   public final String dueDate;
+   public final String totalPrice;
+   public final String trackingID;
+   public final List<Item> items;
+
+   public Order(String rentalOrderID, String orderTimestamp, String dueDate, String totalPrice,
+                String trackingID, List<Item> items) {
+      this.rentalOrderID = rentalOrderID;
+      this.orderTimestamp = orderTimestamp;
+      this.dueDate = dueDate;
+      this.totalPrice = totalPrice;
+      this.trackingID = trackingID;
+      this.items = items;
+   }
+
+   /**
+    * Builds an order from rentalOrderID, orderTimestamp, dueDate,
+    * totalPrice, trackingID and the items as aggregated by the query.
+    */
+   static Order fromRow(Row row) throws SQLException {
+      return new Order(row.getString(1), row.getString(2), row.getString(3), row.getString(4),
+                       row.getString(5), parseItems(row.getString(6)));
+   }
+
+   static Order fromRow(List<String> row) {
+      return new Order(row.get(0), row.get(1), row.get(2), row.get(3), row.get(4), parseItems(row.get(5)));
+   }
+
+   /**
+    * Parses json_agg(json_build_array(gameID, unitsOrdered)), NULL for an
+    * order without games.
+    */
+   @SuppressWarnings("unchecked")
+   static List<Item> parseItems(String json) {
+      if (json == null)
+         return Collections.emptyList();
+      List<Object> pairs = (List<Object>) Json.parse(json);
+      List<Item> items = new ArrayList<Item>(pairs.size());
+      for (Object p : pairs) {
+         List<Object> pair = (List<Object>) p;
+         items.add(new Item((String) pair.get(0), ((Number) pair.get(1)).intValue()));
+      }
+      return items;
+   }//end parseItems
+
+   /**
+    * @return the order as JSON friendly maps, its games under "items"
+    */
+   public Map<String, Object> toMap() {
+      Map<String, Object> m = new LinkedHashMap<String, Object>();
+      m.put("rentalOrderID", rentalOrderID);
+      m.put("orderTimestamp", orderTimestamp);
+      m.put("dueDate", dueDate);
+      m.put("totalPrice", totalPrice);
+      m.put("trackingID", trackingID);
+      List<Object> list = new ArrayList<Object>(items.size());
+      for (Item item : items) {
+         Map<String, Object> i = new LinkedHashMap<String, Object>();
+         i.put("gameID", item.gameID);
+         i.put("unitsOrdered", item.unitsOrdered);
+         list.add(i);
+      }
+      m.put("items", list);
+      return m;
+   }//end toMap
+
+   /**
+    * Folds rows of orderTimestamp, dueDate, totalPrice, trackingID, gameID,
+    * unitsOrdered, rentalOrderID, one per game and grouped by order, into
+    * orders. finish() hands over the last one.
+    */
+   static class Grouper implements RowHandler {
+      private final Handler handler;
+      private String[] order;
+      private List<Item> items;
+      private boolean stopped;
+
+      Grouper(Handler handler) {
+         this.handler = handler;
+      }
+
+      public boolean handle(Row row) throws SQLException {
+         if (order != null && !order[0].equals(row.getString(7)) && !emit())
+            return false;
+         if (order == null) {
+            order = new String[] {row.getString(7), row.getString(1), row.getString(2), row.getString(3),
+                                  row.getString(4)};
+            items = new ArrayList<Item>();
+         }
+         if (row.getString(5) != null)
+            items.add(new Item(row.getString(5), row.getInt(6)));
+         return true;
+      }
+
+      private boolean emit() throws SQLException {
+         Order o = new Order(order[0], order[1], order[2], order[3], order[4], items);
+         order = null;
+         items = null;
+         stopped = !handler.handle(o);
+         return !stopped;
+      }
+
+      /**
+       * Hands over the order still being grouped.
+       *
+       * @return false if the handler stopped
+       */
+      boolean finish() throws SQLException {
+         if (order != null) emit();
+         return !stopped;
+      }
+   }//end Grouper
+
+}//end Order
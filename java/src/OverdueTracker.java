@@ -0,0 +1,293 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class keeps Users.numOverDueGames up to date as orders pass their due
+ * date. Every order is counted exactly once: a sweep flips
+ * RentalOrder.overdueCounted for the orders that are due and adds them to
+ * their users' counters in the same statement, so repeating a sweep, or
+ * running one from two processes at once, never counts an order twice.
+ *
+ * A sweep only reads the orders that are due and not counted yet, through a
+ * partial index, so its cost depends on the newly overdue orders and not on
+ * the size of RentalOrder. A min-heap of the due dates that fall inside the
+ * next horizon tells the background thread when the next sweep is needed,
+ * so nothing is polled while no order comes due. The heap is guarded by the
+ * tracker's monitor, which is only held to read or publish it and never
+ * while a query runs, so catchUp() from a reader does not wait for a sweep.
+ *
+ */
+public class OverdueTracker implements Runnable {
+
+   // flips at most one batch of due orders and bumps their users' counters
+   static final String SWEEP_QUERY =
+      "WITH due AS (" +
+         "UPDATE RentalOrder SET overdueCounted = true " +
+         "WHERE (rentalOrderID, orderTimestamp) IN (" +
+            "SELECT rentalOrderID, orderTimestamp FROM RentalOrder " +
+            "WHERE NOT overdueCounted AND dueDate <= ? " +
+            "ORDER BY dueDate LIMIT ? FOR UPDATE SKIP LOCKED) " +
+         "AND NOT overdueCounted " +
+         "RETURNING login), " +
+      "per_user AS (SELECT login, COUNT(*) AS n FROM due GROUP BY login), " +
+      "bumped AS (" +
+         "UPDATE Users U SET numOverDueGames = U.numOverDueGames + P.n " +
+         "FROM per_user P WHERE U.login = P.login) " +
+      "SELECT login, n FROM per_user";
+
+   // the due dates the heap has to know about until the next reload
+   static final String HORIZON_QUERY =
+      "SELECT dueDate FROM RentalOrder " +
+      "WHERE NOT overdueCounted AND dueDate > ? AND dueDate <= ?";
+
+   /**
+    * Recounts every user from scratch, for data that was loaded with the
+    * triggers off. Only rows that change are written.
+    */
+   static final String RECONCILE_SCRIPT =
+      "UPDATE RentalOrder SET overdueCounted = (dueDate <= now()) " +
+      "WHERE overdueCounted IS DISTINCT FROM (dueDate <= now());\n" +
+      "UPDATE Users U SET numOverDueGames = O.n " +
+      "FROM (SELECT U2.login, COUNT(R.rentalOrderID) AS n " +
+            "FROM Users U2 LEFT JOIN RentalOrder R ON R.login = U2.login AND R.overdueCounted " +
+            "GROUP BY U2.login) O " +
+      "WHERE U.login = O.login AND U.numOverDueGames IS DISTINCT FROM O.n;";
+
+   private final GameRental esql;
+   private final long horizonMillis;
+   private final int batchSize;
+
+   // min-heap of due dates in epoch milliseconds, guarded by this
+   private long[] heap = new long[64];
+   private int size = 0;
+   private long windowEnd = 0;
+   private boolean running = false;
+   // due dates tracked while a reload reads the horizon, null when no reload runs
+   private List<Long> pending;
+   private Thread thread;
+
+   private final AtomicLong sweeps = new AtomicLong(0);
+   private final AtomicLong counted = new AtomicLong(0);
+
+   public OverdueTracker(GameRental esql) {
+      this(esql, Long.getLong("gamerental.overdue.horizonSeconds", 3600L) * 1000L,
+           Integer.getInteger("gamerental.overdue.batchSize", 1000));
+   }
+
+   public OverdueTracker(GameRental esql, long horizonMillis, int batchSize) {
+      this.esql = esql;
+      this.horizonMillis = horizonMillis;
+      this.batchSize = batchSize;
+   }
+
+   // ---------------------------------------------------------------- heap
+
+   private void push(long due) {
+      if (size == heap.length)
+         heap = Arrays.copyOf(heap, size * 2);
+      int i = size++;
+      while (i > 0) {
+         int parent = (i - 1) >>> 1;
+         if (heap[parent] <= due) break;
+         heap[i] = heap[parent];
+         i = parent;
+      }
+      heap[i] = due;
+   }
+
+   private long pop() {
+      long top = heap[0];
+      long last = heap[--size];
+      int i = 0;
+      while (true) {
+         int child = 2 * i + 1;
+         if (child >= size) break;
+         if (child + 1 < size && heap[child + 1] < heap[child]) child++;
+         if (heap[child] >= last) break;
+         heap[i] = heap[child];
+         i = child;
+      }
+      heap[i] = last;
+      return top;
+   }
+
+   // ---------------------------------------------------------------- tracking
+
+   /**
+    * Tells the tracker about a new order. Orders due after the current
+    * horizon are picked up by the next reload.
+    */
+   public synchronized void track(long dueMillis) {
+      if (pending != null)
+         pending.add(dueMillis);
+      if (dueMillis <= windowEnd) {
+         push(dueMillis);
+         notifyAll();
+      }
+   }//end track
+
+   /**
+    * Sweeps now if an order known to the heap came due since the last sweep.
+    * Lets a reader see an up to date counter without waiting for the thread.
+    *
+    * @return the number of orders counted
+    */
+   public long catchUp() throws SQLException {
+      long now = System.currentTimeMillis();
+      synchronized (this) {
+         if (size == 0 || heap[0] > now)
+            return 0;
+         while (size > 0 && heap[0] <= now) pop();
+      }
+      return sweep(now);
+   }//end catchUp
+
+   /**
+    * Counts every order due by the given time that is not counted yet, in
+    * batches, and drops the cached sessions of the users whose counters
+    * changed.
+    *
+    * @return the number of orders counted
+    */
+   public long sweep(long nowMillis) throws SQLException {
+      sweeps.incrementAndGet();
+      Timestamp now = new Timestamp(nowMillis);
+      long total = 0;
+      while (true) {
+         List<List<String>> users = esql.executeQueryAndReturnResult(SWEEP_QUERY, now, batchSize);
+         long batch = 0;
+         for (List<String> user : users) {
+            batch += Long.parseLong(user.get(1));
+            Session.invalidate(user.get(0));
+         }
+         total += batch;
+         if (batch < batchSize) break;
+      }
+      counted.addAndGet(total);
+      return total;
+   }//end sweep
+
+   /**
+    * Catches up with everything already due and refills the heap with the
+    * due dates of the next horizon.
+    */
+   private void reload() throws SQLException {
+      long now = System.currentTimeMillis();
+      long end = now + horizonMillis;
+      synchronized (this) {
+         // orders placed while the horizon is read may be missing from it
+         pending = new ArrayList<Long>();
+      }
+      try {
+         sweep(now);
+         List<List<String>> due = esql.executeQueryAndReturnResult(HORIZON_QUERY,
+            new Timestamp(now), new Timestamp(end));
+         synchronized (this) {
+            size = 0;
+            for (List<String> row : due)
+               push(Timestamp.valueOf(row.get(0)).getTime());
+            // a date read by the query as well only costs an extra sweep
+            for (long d : pending)
+               if (d <= end) push(d);
+            windowEnd = end;
+         }
+      } finally {
+         synchronized (this) {
+            pending = null;
+         }
+      }
+   }//end reload
+
+   /**
+    * Starts the background thread.
+    */
+   public synchronized void start() {
+      if (running) return;
+      running = true;
+      thread = new Thread(this, "overdue-tracker");
+      thread.setDaemon(true);
+      thread.start();
+   }//end start
+
+   public void stop() {
+      Thread t;
+      synchronized (this) {
+         running = false;
+         notifyAll();
+         t = thread;
+      }
+      if (t != null) {
+         try {
+            t.join(5000);
+         } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+         }
+      }
+   }//end stop
+
+   public void run() {
+      Metrics.begin("overdueSweep");
+      while (true) {
+         try {
+            boolean reload = false, due = false;
+            long now = System.currentTimeMillis();
+            synchronized (this) {
+               if (!running) return;
+               // reloads half way through the horizon so orders from other processes are not missed for long
+               if (now >= windowEnd - horizonMillis / 2) {
+                  reload = true;
+               } else if (size > 0 && heap[0] <= now) {
+                  while (size > 0 && heap[0] <= now) pop();
+                  due = true;
+               }
+            }
+            if (reload)
+               reload();
+            else if (due)
+               sweep(now);
+            synchronized (this) {
+               if (!running) return;
+               long wake = windowEnd - horizonMillis / 2;
+               if (size > 0) wake = Math.min(wake, heap[0]);
+               long sleep = wake - System.currentTimeMillis();
+               if (sleep > 0) wait(sleep);
+            }
+         } catch (InterruptedException e) {
+            return;
+         } catch (SQLException e) {
+            System.err.println("Overdue sweep failed: " + e.getMessage());
+            synchronized (this) {
+               try {
+                  wait(10000);
+               } catch (InterruptedException ie) {
+                  return;
+               }
+            }
+         }
+      }
+   }//end run
+
+   public long getSweeps() { return sweeps.get(); }
+   public long getCounted() { return counted.get(); }
+
+   public synchronized String toString() {
+      return String.format("overdue tracker: %d sweeps, %d orders counted, %d due dates pending",
+                           getSweeps(), getCounted(), size);
+   }//end toString
+
+}//end OverdueTracker
@@ -0,0 +1,404 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.Deflater;
+
+/**
+ * This class looks after the monthly partitions of RentalOrder and
+ * GamesInOrder. Its command, run from cron, creates the months ahead of the
+ * writes; an order of a month without a partition waits in the default
+ * partition until the month is created. The command also moves the months
+ * older than the retention out of the database: each month becomes
+ * one ColumnarFile in the archive directory, sorted by login and newest
+ * order first, and its partitions are detached and dropped. Dropping a
+ * partition is a catalog change, so old orders leave without the delete
+ * and vacuum work a DELETE of millions of rows would cost, and the hot
+ * indexes only ever cover the retained months.
+ *
+ * Archived orders stay visible: the order history, recent orders and order
+ * info fall through to the archive when the database has nothing more for
+ * the user. ArchivedLogin lists the months holding orders of each login, so
+ * a lookup opens only those files, and the login min/max of every row group
+ * lets it read only the groups holding that user. The rollups keep counting
+ * archived orders, since dropping a partition fires no delete triggers. The
+ * tracking history of archived shipments is deleted with them; the archive
+ * keeps their last state.
+ *
+ */
+public class PartitionManager {
+
+   // the games of a month are dropped before the orders they refer to
+   static final String[] PARENTS = {"GamesInOrder", "RentalOrder"};
+
+   static final List<ColumnarFile.Column> COLUMNS = Arrays.asList(
+      new ColumnarFile.Column("login", ColumnarFile.STRING),
+      new ColumnarFile.Column("rentalOrderID", ColumnarFile.STRING),
+      new ColumnarFile.Column("orderTimestamp", ColumnarFile.TIMESTAMP),
+      new ColumnarFile.Column("dueDate", ColumnarFile.TIMESTAMP),
+      new ColumnarFile.Column("totalPrice", ColumnarFile.DECIMAL, 2),
+      new ColumnarFile.Column("noOfGames", ColumnarFile.LONG),
+      new ColumnarFile.Column("trackingID", ColumnarFile.STRING),
+      new ColumnarFile.Column("status", ColumnarFile.STRING),
+      new ColumnarFile.Column("currentLocation", ColumnarFile.STRING),
+      new ColumnarFile.Column("courierName", ColumnarFile.STRING),
+      new ColumnarFile.Column("lastUpdateDate", ColumnarFile.TIMESTAMP),
+      new ColumnarFile.Column("additionalComments", ColumnarFile.STRING),
+      new ColumnarFile.Column("gameID", ColumnarFile.STRING),
+      new ColumnarFile.Column("unitsOrdered", ColumnarFile.LONG));
+
+   // %1$s is the month suffix, e.g. 2023_04
+   static final String EXPORT_QUERY =
+      "SELECT R.login, R.rentalOrderID, R.orderTimestamp, R.dueDate, R.totalPrice, R.noOfGames, " +
+      "T.trackingID, T.status, T.currentLocation, T.courierName, T.lastUpdateDate, T.additionalComments, " +
+      "G.gameID, G.unitsOrdered " +
+      "FROM rentalorder_%1$s R " +
+      "LEFT JOIN TrackingInfo T ON T.rentalOrderID = R.rentalOrderID AND T.orderTimestamp = R.orderTimestamp " +
+      "LEFT JOIN gamesinorder_%1$s G ON G.rentalOrderID = R.rentalOrderID AND G.orderTimestamp = R.orderTimestamp " +
+      "ORDER BY R.login, R.orderTimestamp DESC, R.rentalOrderID DESC, G.gameID";
+
+   static final String MONTHS_QUERY =
+      "SELECT substr(C.relname, length('rentalorder_') + 1) FROM pg_inherits I " +
+      "JOIN pg_class C ON C.oid = I.inhrelid JOIN pg_class P ON P.oid = I.inhparent " +
+      "WHERE P.relname = 'rentalorder' AND C.relname ~ '^rentalorder_[0-9]{4}_[0-9]{2}$' ORDER BY 1";
+
+   // newest first, bounded by the month of the page key
+   static final String ARCHIVED_MONTHS_QUERY =
+      "SELECT to_char(month, 'YYYY_MM') FROM ArchivedLogin " +
+      "WHERE login = ? AND month <= CAST(? AS timestamp) ORDER BY month DESC";
+
+   private final GameRental esql;
+   private final int aheadMonths;
+   private final int keepMonths;
+   private final File dir;
+
+   public PartitionManager(GameRental esql) {
+      this(esql, Integer.getInteger("gamerental.partitions.aheadMonths", 2),
+           Integer.getInteger("gamerental.partitions.keepMonths", 24),
+           new File(System.getProperty("gamerental.archive.dir", "archive")));
+   }
+
+   public PartitionManager(GameRental esql, int aheadMonths, int keepMonths, File dir) {
+      this.esql = esql;
+      this.aheadMonths = aheadMonths;
+      this.keepMonths = keepMonths;
+      this.dir = dir;
+   }
+
+   public File getArchiveDir() {
+      return dir;
+   }
+
+   /**
+    * Creates the partitions of the orders and the tracking history up to
+    * aheadMonths from now, moving rows out of the default partitions.
+    */
+   public void ensureAhead() throws SQLException {
+      String range = "now()::timestamp, (now() + " + aheadMonths + " * interval '1 month')::timestamp)";
+      esql.executeQuery("SELECT ensure_monthly_partitions('TrackingEvent', 'eventTime', " + range);
+      esql.executeQuery("SELECT ensure_order_partitions(" + range);
+   }//end ensureAhead
+
+   /**
+    * @return the months with a RentalOrder partition, oldest first, as yyyy_MM
+    */
+   public List<String> listMonths() throws SQLException {
+      List<String> months = new ArrayList<String>();
+      for (List<String> row : esql.executeQueryAndReturnResult(MONTHS_QUERY))
+         months.add(row.get(0));
+      return months;
+   }//end listMonths
+
+   /**
+    * @return the months older than the retention, as yyyy_MM
+    */
+   public List<String> listExpired() throws SQLException {
+      String cutoff = esql.executeQueryAndReturnResult(
+         "SELECT to_char(date_trunc('month', now()) - ? * interval '1 month', 'YYYY_MM')", keepMonths).get(0).get(0);
+      List<String> expired = new ArrayList<String>();
+      for (String month : listMonths())
+         if (month.compareTo(cutoff) < 0) expired.add(month);
+      return expired;
+   }//end listExpired
+
+   static File archiveFile(File dir, String month) {
+      return new File(dir, "orders-" + month + ".grc");
+   }
+
+   /**
+    * Moves one month to the archive: the file is written and renamed first,
+    * then the OrderArchive and ArchivedLogin rows, the tracking rows with
+    * their history and both partitions go in one transaction. A month whose orders the OverdueTracker has not
+    * counted yet stays until it has.
+    *
+    * @param month yyyy_MM
+    * @return the number of archived orders, -1 when the month was kept
+    */
+   public long archive(final String month) throws SQLException, IOException {
+      if (!month.matches("[0-9]{4}_[0-9]{2}"))
+         throw new IllegalArgumentException("Expected yyyy_MM, got " + month);
+      List<List<String>> pending = esql.executeQueryAndReturnResult(
+         "SELECT COUNT(*) FROM rentalorder_" + month + " WHERE NOT overdueCounted");
+      if (!pending.get(0).get(0).equals("0"))
+         return -1;
+
+      if (!dir.isDirectory() && !dir.mkdirs())
+         throw new IOException("Cannot create " + dir);
+      File file = archiveFile(dir, month);
+      File tmp = new File(dir, file.getName() + ".tmp");
+      final ColumnarFile.Writer writer = new ColumnarFile.Writer(tmp, COLUMNS, 16384, Deflater.DEFAULT_COMPRESSION);
+      writer.putMeta("month", month);
+      final long[] orders = {0};
+      boolean done = false;
+      try {
+         esql.executeQueryAndStream(String.format(EXPORT_QUERY, month), new RowHandler() {
+            private String last;
+            public boolean handle(Row row) throws SQLException {
+               if (!row.getString(2).equals(last)) {
+                  last = row.getString(2);
+                  orders[0]++;
+               }
+               try {
+                  writer.add(row);
+               } catch (IOException e) {
+                  throw new SQLException("Writing the archive failed: " + e.getMessage());
+               }
+               return true;
+            }
+         });
+         writer.putMeta("orders", orders[0]);
+         writer.close();
+         done = true;
+      } finally {
+         if (!done) {
+            try {
+               writer.close();
+            } catch (IOException e) {
+               // the archive already failed
+            }
+            tmp.delete();
+         }
+      }
+      Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+      ConnectionPool.PooledConnection conn = esql.getPool().acquire();
+      try {
+         Connection c = conn.getConnection();
+         c.setAutoCommit(false);
+         PreparedStatement record = conn.prepare(
+            "INSERT INTO OrderArchive (month, file, orders, lines, archivedAt) " +
+            "VALUES (to_date(?, 'YYYY_MM'), ?, ?, ?, now())");
+         GameRental.bind(record, month, file.getPath(), orders[0], writer.getRows());
+         record.executeUpdate();
+         PreparedStatement logins = conn.prepare(
+            "INSERT INTO ArchivedLogin (login, month, orders) " +
+            "SELECT login, to_date(?, 'YYYY_MM'), COUNT(*) FROM rentalorder_" + month + " GROUP BY login");
+         GameRental.bind(logins, month);
+         logins.executeUpdate();
+         Statement stmt = c.createStatement();
+         try {
+            // no event of a shipment is older than its order
+            stmt.executeUpdate("DELETE FROM TrackingEvent E USING TrackingInfo T, rentalorder_" + month + " R " +
+                               "WHERE E.trackingID = T.trackingID AND T.rentalOrderID = R.rentalOrderID " +
+                               "AND T.orderTimestamp = R.orderTimestamp " +
+                               "AND E.eventTime >= to_date('" + month + "', 'YYYY_MM')");
+            stmt.executeUpdate("DELETE FROM TrackingInfo T USING rentalorder_" + month + " R " +
+                               "WHERE T.rentalOrderID = R.rentalOrderID AND T.orderTimestamp = R.orderTimestamp");
+            for (String parent : PARENTS) {
+               String part = parent.toLowerCase() + "_" + month;
+               stmt.executeUpdate("ALTER TABLE " + parent + " DETACH PARTITION " + part);
+               stmt.executeUpdate("DROP TABLE " + part);
+            }
+         } finally {
+            stmt.close();
+         }
+         c.commit();
+      } finally {
+         esql.getPool().release(conn);
+      }
+      return orders[0];
+   }//end archive
+
+   /**
+    * Archives every expired month.
+    *
+    * @return the number of archived orders
+    */
+   public long archiveExpired() throws SQLException, IOException {
+      long total = 0;
+      for (String month : listExpired()) {
+         long orders = archive(month);
+         System.out.println(orders < 0 ? "❌" + month + " kept, it has orders not yet counted overdue"
+                                       : "✅" + month + " archived, " + orders + " orders");
+         if (orders > 0) total += orders;
+      }
+      return total;
+   }//end archiveExpired
+
+   // Postgres prints timestamps without a zero fraction
+   static String format(ColumnarFile.Chunk chunk, int r) {
+      String s = chunk.getString(r);
+      if (s != null && chunk.column.type == ColumnarFile.TIMESTAMP && s.endsWith(".0"))
+         s = s.substring(0, s.length() - 2);
+      return s;
+   }
+
+   /**
+    * Streams archived orders of a user, newest first by (orderTimestamp,
+    * rentalOrderID) like the order history, with the games of an order in
+    * gameID order, until the handler returns false.
+    *
+    * @param rentalOrderID only this order, null for all
+    * @param beforeKey only orders before this (orderTimestamp, rentalOrderID), null or "infinity" for no bound
+    * @param perOrder one row per order instead of one per game
+    * @param columns names of COLUMNS to deliver, in order
+    * @param rowsBefore rows the handler already received from the database
+    * @return the number of rows delivered
+    */
+   public long findArchivedOrders(String login, String rentalOrderID, String[] beforeKey, boolean perOrder,
+                                  String[] columns, long rowsBefore, RowHandler handler) throws SQLException {
+      long keyTime = Long.MAX_VALUE;
+      String keyID = "";
+      if (beforeKey != null && !beforeKey[0].equals("infinity")) {
+         keyTime = Timestamp.valueOf(beforeKey[0]).getTime();
+         keyID = beforeKey[1];
+      }
+      Row row = new Row(columns, rowsBefore);
+      long delivered = 0;
+      for (List<String> month : esql.executeQueryAndReturnResult(ARCHIVED_MONTHS_QUERY, login,
+              beforeKey == null ? "infinity" : beforeKey[0])) {
+         File file = archiveFile(dir, month.get(0));
+         if (!file.isFile()) continue;
+         ColumnarFile.Reader reader = null;
+         try {
+            reader = new ColumnarFile.Reader(file);
+            int[] index = new int[columns.length];
+            for (int i = 0; i < columns.length; ++i) index[i] = reader.indexOf(columns[i]);
+            int loginColumn = reader.indexOf("login");
+            int idColumn = reader.indexOf("rentalOrderID");
+            int timeColumn = reader.indexOf("orderTimestamp");
+            ColumnarFile.Filter byLogin = new ColumnarFile.Filter(loginColumn, login, 0, 0);
+            // the games of one order can span two row groups
+            String last = null;
+            for (int g = 0; g < reader.getGroupCount(); ++g) {
+               if (byLogin.skips(reader.stats(g, loginColumn))) continue;
+               ColumnarFile.Chunk logins = reader.read(g, loginColumn);
+               ColumnarFile.Chunk ids = reader.read(g, idColumn);
+               ColumnarFile.Chunk times = reader.read(g, timeColumn);
+               ColumnarFile.Chunk[] chunks = new ColumnarFile.Chunk[columns.length];
+               for (int r = 0; r < logins.rows; ++r) {
+                  if (!login.equals(logins.getString(r))) continue;
+                  String id = ids.getString(r);
+                  if (rentalOrderID != null && !rentalOrderID.equals(id)) continue;
+                  long time = times.getLong(r);
+                  if (time > keyTime || time == keyTime && id.compareTo(keyID) >= 0) continue;
+                  if (perOrder && id.equals(last)) continue;
+                  last = id;
+                  String[] values = new String[columns.length];
+                  for (int i = 0; i < columns.length; ++i) {
+                     if (chunks[i] == null) chunks[i] = reader.read(g, index[i]);
+                     values[i] = format(chunks[i], r);
+                  }
+                  row.set(values);
+                  delivered++;
+                  if (!handler.handle(row)) return delivered;
+               }
+            }
+         } catch (IOException e) {
+            throw new SQLException("Reading the archive " + file + " failed: " + e.getMessage());
+         } finally {
+            if (reader != null) {
+               try {
+                  reader.close();
+               } catch (IOException e) {
+                  // nothing was written
+               }
+            }
+         }
+      }
+      return delivered;
+   }//end findArchivedOrders
+
+   static void usage() {
+      System.err.println(
+         "Usage: java [-classpath <classpath>] " + PartitionManager.class.getName() +
+         " <dbname> <port> <user> [options]\n" +
+         "  --ahead <months>      create partitions this far ahead (default 2)\n" +
+         "  --keep <months>       archive the months older than this (default 24)\n" +
+         "  --archive-dir <dir>   where archived months are written (default archive)\n" +
+         "  --list                only list the partitions and archived months");
+   }
+
+   /**
+    * The partition maintenance command, meant to run from cron once a day
+    *
+    * @param args <dbname> <port> <user> followed by the options in usage()
+    */
+   public static void main(String[] args) {
+      if (args.length < 3) {
+         usage();
+         return;
+      }
+      int ahead = Integer.getInteger("gamerental.partitions.aheadMonths", 2);
+      int keep = Integer.getInteger("gamerental.partitions.keepMonths", 24);
+      File dir = new File(System.getProperty("gamerental.archive.dir", "archive"));
+      boolean list = false;
+      for (int i = 3; i < args.length; ++i) {
+         String a = args[i];
+         if (a.equals("--ahead") && i + 1 < args.length) {
+            ahead = Integer.parseInt(args[++i]);
+         } else if (a.equals("--keep") && i + 1 < args.length) {
+            keep = Integer.parseInt(args[++i]);
+         } else if (a.equals("--archive-dir") && i + 1 < args.length) {
+            dir = new File(args[++i]);
+         } else if (a.equals("--list")) {
+            list = true;
+         } else {
+            usage();
+            return;
+         }
+      }
+
+      GameRental esql = null;
+      try {
+         Class.forName ("org.postgresql.Driver").newInstance ();
+         esql = new GameRental(args[0], args[1], args[2], "");
+         PartitionManager manager = new PartitionManager(esql, ahead, keep, dir);
+         if (list) {
+            System.out.println("partitions " + manager.listMonths());
+            System.out.println("expired    " + manager.listExpired());
+            for (List<String> row : esql.executeQueryAndReturnResult(
+                    "SELECT to_char(month, 'YYYY_MM'), orders, lines, file FROM OrderArchive ORDER BY month"))
+               System.out.println("archived   " + String.join(" ", row));
+            return;
+         }
+         manager.ensureAhead();
+         long orders = manager.archiveExpired();
+         System.out.println("✅Partitions ensured " + ahead + " months ahead, " + orders + " orders archived");
+      } catch (Exception e) {
+         System.err.println("❌Partition maintenance failed: " + e.getMessage());
+      } finally {
+         if (esql != null) esql.cleanup();
+      }
+   }//end main
+
+}//end PartitionManager
@@ -0,0 +1,603 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * This class checks the query plans of the application against a loaded
+ * database. It runs every GameRentalBenchmark operation with a
+ * Metrics capture, so it sees each statement shape the application really
+ * issues together with real parameters, and runs EXPLAIN (ANALYZE, BUFFERS)
+ * on each inside a transaction that is rolled back. The plans, timings and
+ * buffer counts are written as JSON, and an earlier report can be passed as
+ * a baseline to flag the shapes that got slower, read more pages or changed
+ * plan.
+ *
+ * From the same plans it advises on create_indexes.sql. A scan that throws
+ * most of its rows away suggests an index on the columns of its filter; an
+ * index no plan used, with no scans in pg_stat_user_indexes, with a leading
+ * column of a handful of values, or whose columns lead another index, is
+ * proposed for dropping together with what it costs on every write to its
+ * table. Indexes behind primary keys, unique constraints and foreign keys
+ * are never proposed. The advice only covers what the captured workload
+ * does, so it is a starting point for review, not a script to run blindly.
+ *
+ */
+public class QueryPlanAdvisor {
+
+   static final String EXPLAIN = "EXPLAIN (ANALYZE, BUFFERS, FORMAT JSON) ";
+   static final Pattern EXPLAINABLE = Pattern.compile("^\\s*(SELECT|WITH|INSERT|UPDATE|DELETE)\\b", Pattern.CASE_INSENSITIVE);
+   // a column compared in a plan condition, e.g. ((login)::text = 'x'::text) or (duedate <= $1)
+   static final Pattern COMPARISON = Pattern.compile("(\\w+)\\)?(?:::[\\w ]+?)?\\)?\\s(=|<=|>=|<|>)\\s");
+   static final Pattern INDEX_DEF = Pattern.compile("USING \\w+ \\((.*?)\\)(?: INCLUDE \\(.*?\\))?(?: WHERE (.*))?$");
+   static final Pattern FOREIGN_KEY = Pattern.compile("FOREIGN KEY \\((.*?)\\)");
+
+   // a scan is wasteful when it removes this many rows and ten times what it returns
+   static final long WASTED_ROWS = 1000;
+   // a leading column with at most this many values barely narrows a table of LARGE_TABLE rows
+   static final long FEW_VALUES = 10;
+   static final long LARGE_TABLE = 10000;
+
+   static final String PARENTS_QUERY =
+      "SELECT C.relname, P.relname FROM pg_inherits I " +
+      "JOIN pg_class C ON C.oid = I.inhrelid JOIN pg_class P ON P.oid = I.inhparent";
+
+   // partitioned indexes add up the size and scans of their partitions
+   static final String INDEXES_QUERY =
+      "SELECT I.relname, T.relname, pg_get_indexdef(X.indexrelid), X.indisunique OR X.indisprimary, " +
+      "pg_relation_size(X.indexrelid) + COALESCE((SELECT SUM(pg_relation_size(H.inhrelid)) FROM pg_inherits H " +
+      "WHERE H.inhparent = X.indexrelid), 0), " +
+      "COALESCE(S.idx_scan, 0) + COALESCE((SELECT SUM(S2.idx_scan) FROM pg_inherits H " +
+      "JOIN pg_stat_user_indexes S2 ON S2.indexrelid = H.inhrelid WHERE H.inhparent = X.indexrelid), 0) " +
+      "FROM pg_index X JOIN pg_class I ON I.oid = X.indexrelid JOIN pg_class T ON T.oid = X.indrelid " +
+      "JOIN pg_namespace N ON N.oid = T.relnamespace " +
+      "LEFT JOIN pg_stat_user_indexes S ON S.indexrelid = X.indexrelid " +
+      "WHERE N.nspname = current_schema() AND NOT T.relispartition ORDER BY 2, 1";
+
+   static final String TABLES_QUERY =
+      "SELECT relname, n_live_tup, n_tup_ins + n_tup_del + n_tup_upd - n_tup_hot_upd " +
+      "FROM pg_stat_user_tables WHERE schemaname = current_schema()";
+
+   static final String DISTINCT_QUERY =
+      "SELECT tablename, attname, n_distinct FROM pg_stats WHERE schemaname = current_schema()";
+
+   static final String COLUMNS_QUERY =
+      "SELECT lower(table_name), lower(column_name) FROM information_schema.columns WHERE table_schema = current_schema()";
+
+   static final String FOREIGN_KEYS_QUERY =
+      "SELECT T.relname, pg_get_constraintdef(C.oid) FROM pg_constraint C JOIN pg_class T ON T.oid = C.conrelid " +
+      "JOIN pg_namespace N ON N.oid = T.relnamespace WHERE C.contype = 'f' AND N.nspname = current_schema()";
+
+   /**
+    * The explained plan of one captured statement.
+    */
+   static class Plan {
+      String action;
+      String shape;
+      double ms;
+      double planningMs;
+      long sharedHit;
+      long sharedRead;
+      long rows;
+      String signature;
+      List<Map<String, Object>> nodes = new ArrayList<Map<String, Object>>();
+
+      long buffers() {
+         return sharedHit + sharedRead;
+      }
+
+      String key() {
+         return action + "\u0000" + shape;
+      }
+
+      Map<String, Object> toMap() {
+         Map<String, Object> m = new LinkedHashMap<String, Object>();
+         m.put("action", action);
+         m.put("sql", shape);
+         m.put("ms", GameRentalBenchmark.round(ms));
+         m.put("planning_ms", GameRentalBenchmark.round(planningMs));
+         m.put("shared_hit", sharedHit);
+         m.put("shared_read", sharedRead);
+         m.put("rows", rows);
+         m.put("plan", signature);
+         return m;
+      }
+   }//end Plan
+
+   /**
+    * An index of the schema as the catalog describes it.
+    */
+   static class Index {
+      String name;
+      String table;
+      List<String> columns = new ArrayList<String>();   // as written, with DESC
+      String predicate;
+      boolean unique;
+      long bytes;
+      long scans;
+
+      String leading(int i) {
+         return columns.get(i).split(" ")[0].replace("\"", "");
+      }
+   }//end Index
+
+   private final GameRental esql;
+   private final Map<String, String> parents = new HashMap<String, String>();
+   private final Map<String, List<Index>> indexes = new LinkedHashMap<String, List<Index>>();
+   private final Map<String, long[]> tables = new HashMap<String, long[]>();     // rows, writes
+   private final Map<String, Long> distinct = new HashMap<String, Long>();       // table.column
+   private final Map<String, Set<String>> columns = new HashMap<String, Set<String>>();
+   private final Set<String> foreignKeys = new HashSet<String>();               // table.first column
+
+   public QueryPlanAdvisor(GameRental esql) {
+      this.esql = esql;
+   }
+
+   // the partitioned table or index a partition belongs to
+   String parent(String name) {
+      if (name == null) return null;
+      String p;
+      while ((p = parents.get(name)) != null) name = p;
+      return name;
+   }
+
+   /**
+    * Reads the indexes, table statistics and foreign keys the advice is
+    * based on.
+    */
+   void loadCatalog() throws SQLException {
+      for (List<String> r : esql.executeQueryAndReturnResult(PARENTS_QUERY))
+         parents.put(r.get(0), r.get(1));
+      for (List<String> r : esql.executeQueryAndReturnResult(INDEXES_QUERY)) {
+         Index idx = new Index();
+         idx.name = r.get(0);
+         idx.table = r.get(1);
+         Matcher m = INDEX_DEF.matcher(r.get(2));
+         if (m.find()) {
+            idx.columns.addAll(Arrays.asList(m.group(1).split(", ")));
+            idx.predicate = m.group(2);
+         }
+         idx.unique = "t".equals(r.get(3));
+         idx.bytes = Long.parseLong(r.get(4));
+         idx.scans = Long.parseLong(r.get(5));
+         if (!indexes.containsKey(idx.table)) indexes.put(idx.table, new ArrayList<Index>());
+         indexes.get(idx.table).add(idx);
+      }
+      Map<String, Long> partRows = new HashMap<String, Long>();
+      for (List<String> r : esql.executeQueryAndReturnResult(TABLES_QUERY)) {
+         partRows.put(r.get(0), Long.parseLong(r.get(1)));
+         String t = parent(r.get(0));
+         long[] s = tables.get(t);
+         if (s == null) tables.put(t, s = new long[2]);
+         s[0] += Long.parseLong(r.get(1));
+         s[1] += Long.parseLong(r.get(2));
+      }
+      for (List<String> r : esql.executeQueryAndReturnResult(DISTINCT_QUERY)) {
+         double nd = Double.parseDouble(r.get(2));
+         Long rows = partRows.containsKey(r.get(0)) ? partRows.get(r.get(0)) : rows(parent(r.get(0)));
+         long values = nd < 0 ? Math.round(-nd * rows) : Math.round(nd);
+         String key = parent(r.get(0)) + "." + r.get(1);
+         if (!distinct.containsKey(key) || distinct.get(key) < values) distinct.put(key, values);
+      }
+      for (List<String> r : esql.executeQueryAndReturnResult(COLUMNS_QUERY)) {
+         if (!columns.containsKey(r.get(0))) columns.put(r.get(0), new HashSet<String>());
+         columns.get(r.get(0)).add(r.get(1));
+      }
+      for (List<String> r : esql.executeQueryAndReturnResult(FOREIGN_KEYS_QUERY)) {
+         Matcher m = FOREIGN_KEY.matcher(r.get(1));
+         if (m.find()) foreignKeys.add(parent(r.get(0)) + "." + m.group(1).split(", ")[0].replace("\"", ""));
+      }
+   }//end loadCatalog
+
+   private long rows(String table) {
+      long[] s = tables.get(table);
+      return s == null ? 0 : s[0];
+   }
+
+   /**
+    * Runs every benchmark operation with a capture, each inside a metrics
+    * scope named after it, so statements are grouped by operation.
+    */
+   static List<Metrics.Captured> capture(GameRentalBenchmark bench, Pattern only, int runs) {
+      Metrics.startCapture();
+      try {
+         for (Map.Entry<String, GameRentalBenchmark.Operation> e : bench.benchmarks.entrySet()) {
+            if (only != null && !only.matcher(e.getKey()).find()) continue;
+            // the first run fills the caches, later runs see the statements behind them
+            for (int i = 0; i < runs; ++i) {
+               Metrics.Scope scope = Metrics.begin(e.getKey());
+               try {
+                  e.getValue().run(ThreadLocalRandom.current());
+               } catch (Exception ex) {
+                  System.err.println(e.getKey() + " failed: " + ex.getMessage());
+               } finally {
+                  scope.end();
+               }
+            }
+         }
+      } catch (RuntimeException e) {
+         Metrics.stopCapture();
+         throw e;
+      }
+      return Metrics.stopCapture();
+   }//end capture
+
+   /**
+    * Explains one statement repeat times and keeps the run with the median
+    * execution time. Every run is rolled back.
+    *
+    * @return the plan, null when the statement cannot be explained
+    */
+   @SuppressWarnings("unchecked")
+   Plan explain(Metrics.Captured c, int repeat) throws SQLException {
+      if (!EXPLAINABLE.matcher(c.sql).find())
+         return null;
+      List<Plan> runs = new ArrayList<Plan>();
+      ConnectionPool.PooledConnection conn = esql.getPool().acquire();
+      try {
+         Connection con = conn.getConnection();
+         con.setAutoCommit(false);
+         for (int i = 0; i < repeat; ++i) {
+            StringBuilder json = new StringBuilder();
+            PreparedStatement stmt = con.prepareStatement(EXPLAIN + c.sql);
+            try {
+               GameRental.bind(stmt, c.params);
+               ResultSet rs = stmt.executeQuery();
+               while (rs.next()) json.append(rs.getString(1));
+               rs.close();
+            } finally {
+               stmt.close();
+               con.rollback();
+            }
+            Map<String, Object> root = (Map<String, Object>) ((List<Object>) Json.parse(json.toString().trim())).get(0);
+            Map<String, Object> top = (Map<String, Object>) root.get("Plan");
+            Plan p = new Plan();
+            p.action = c.action;
+            p.shape = c.shape;
+            p.ms = number(root, "Execution Time");
+            p.planningMs = number(root, "Planning Time");
+            p.sharedHit = (long) number(top, "Shared Hit Blocks");
+            p.sharedRead = (long) number(top, "Shared Read Blocks");
+            p.rows = (long) number(top, "Actual Rows");
+            p.signature = signature(top, p.nodes);
+            runs.add(p);
+         }
+      } finally {
+         esql.getPool().release(conn);
+      }
+      Collections.sort(runs, new Comparator<Plan>() {
+         public int compare(Plan a, Plan b) {
+            return Double.compare(a.ms, b.ms);
+         }
+      });
+      return runs.get(runs.size() / 2);
+   }//end explain
+
+   static double number(Map<String, Object> node, String key) {
+      Object v = node.get(key);
+      return v instanceof Number ? ((Number) v).doubleValue() : 0;
+   }
+
+   /**
+    * Flattens a plan tree into nodes and a signature like
+    * "Nested Loop(Index Scan using idx on t, ...)". Partitions are named by
+    * their parent, so plans over different months compare equal.
+    */
+   @SuppressWarnings("unchecked")
+   String signature(Map<String, Object> node, List<Map<String, Object>> flat) {
+      flat.add(node);
+      StringBuilder sb = new StringBuilder((String) node.get("Node Type"));
+      String index = parent((String) node.get("Index Name"));
+      String relation = parent((String) node.get("Relation Name"));
+      if (index != null) sb.append(" using ").append(index);
+      if (relation != null) sb.append(" on ").append(relation);
+      List<Object> children = (List<Object>) node.get("Plans");
+      if (children != null) {
+         Set<String> kids = new LinkedHashSet<String>();
+         for (Object child : children)
+            kids.add(signature((Map<String, Object>) child, flat));
+         sb.append('(').append(String.join(", ", kids)).append(')');
+      }
+      return sb.toString();
+   }//end signature
+
+   /**
+    * @return the columns of a table compared in a plan condition, the
+    *         equalities first
+    */
+   List<String> compared(String table, String... conditions) {
+      Set<String> known = columns.get(table);
+      List<String> equal = new ArrayList<String>(), range = new ArrayList<String>();
+      for (String condition : conditions) {
+         if (condition == null) continue;
+         Matcher m = COMPARISON.matcher(condition);
+         while (m.find()) {
+            String column = m.group(1).toLowerCase(Locale.ROOT);
+            if (known == null || !known.contains(column)) continue;
+            List<String> to = m.group(2).equals("=") ? equal : range;
+            if (!equal.contains(column) && !range.contains(column)) to.add(column);
+         }
+      }
+      equal.addAll(range);
+      return equal;
+   }//end compared
+
+   /**
+    * @return CREATE and DROP INDEX statements, each followed by its reasons
+    *         as SQL comments
+    */
+   List<String> advise(List<Plan> plans) {
+      Set<String> used = new HashSet<String>();
+      // per suggested index and operation: rows removed, rows kept, ms
+      Map<String, Map<String, double[]>> create = new LinkedHashMap<String, Map<String, double[]>>();
+      for (Plan p : plans) {
+         for (Map<String, Object> n : p.nodes) {
+            String index = parent((String) n.get("Index Name"));
+            if (index != null) used.add(index);
+            String table = parent((String) n.get("Relation Name"));
+            if (table == null) continue;
+            double loops = Math.max(1, number(n, "Actual Loops"));
+            long removed = Math.round(number(n, "Rows Removed by Filter") * loops);
+            long kept = Math.round(number(n, "Actual Rows") * loops);
+            if (removed < WASTED_ROWS || removed < 10 * kept) continue;
+            String type = (String) n.get("Node Type");
+            List<String> cols = type.equals("Seq Scan")
+               ? compared(table, (String) n.get("Filter"))
+               : compared(table, (String) n.get("Index Cond"), (String) n.get("Recheck Cond"), (String) n.get("Filter"));
+            if (cols.isEmpty() || covered(table, cols)) continue;
+            String ddl = "CREATE INDEX idx_" + table + "_" + String.join("_", cols) + " ON " + table
+                         + "(" + String.join(", ", cols) + ");";
+            if (!create.containsKey(ddl)) create.put(ddl, new LinkedHashMap<String, double[]>());
+            // partitions of one scan add up
+            String scan = p.action + ": " + type + " on " + table;
+            double[] seen = create.get(ddl).get(scan);
+            if (seen == null) create.get(ddl).put(scan, seen = new double[] {0, 0, p.ms});
+            seen[0] += removed;
+            seen[1] += kept;
+         }
+      }
+
+      List<String> advice = new ArrayList<String>();
+      for (Map.Entry<String, Map<String, double[]>> e : create.entrySet()) {
+         for (Map.Entry<String, double[]> scan : e.getValue().entrySet())
+            advice.add(String.format(Locale.ROOT, "-- %s removed %,.0f rows to return %,.0f (%.2f ms)",
+                                     scan.getKey(), scan.getValue()[0], scan.getValue()[1], scan.getValue()[2]));
+         advice.add(e.getKey());
+      }
+      for (List<Index> list : indexes.values()) {
+         for (Index idx : list) {
+            if (idx.unique || idx.columns.isEmpty()) continue;
+            List<String> reasons = new ArrayList<String>();
+            Index wider = leads(idx, list);
+            if (wider != null)
+               reasons.add("its columns lead " + wider.name + " (" + String.join(", ", wider.columns) + ")");
+            boolean unused = !used.contains(idx.name);
+            if (unused && idx.scans == 0)
+               reasons.add("no captured plan used it and it has no scans since the statistics were reset");
+            Long values = distinct.get(idx.table + "." + idx.leading(0));
+            if (unused && values != null && values > 0 && values <= FEW_VALUES && rows(idx.table) >= LARGE_TABLE)
+               reasons.add("no captured plan used it and " + idx.leading(0) + " has only ~" + values + " values");
+            if (reasons.isEmpty()) continue;
+            if (wider == null && foreignKeys.contains(idx.table + "." + idx.leading(0))) {
+               advice.add("-- keep " + idx.name + ": " + String.join("; ", reasons)
+                          + ", but it serves the foreign key on " + idx.leading(0));
+               continue;
+            }
+            long[] t = tables.get(idx.table);
+            for (String reason : reasons) advice.add("-- " + reason);
+            advice.add(String.format(Locale.ROOT, "-- it takes %,d kB and is written by each insert, delete and " +
+                                     "non-HOT update of %s (%,d so far)",
+                                     idx.bytes / 1024, idx.table, t == null ? 0 : t[1]));
+            advice.add("DROP INDEX " + idx.name + ";");
+         }
+      }
+      return advice;
+   }//end advise
+
+   // an existing index already starts with these columns
+   private boolean covered(String table, List<String> cols) {
+      List<Index> list = indexes.get(table);
+      if (list == null) return false;
+      for (Index idx : list) {
+         if (idx.predicate != null || idx.columns.size() < cols.size()) continue;
+         boolean match = true;
+         for (int i = 0; i < cols.size() && match; ++i)
+            match = idx.leading(i).equalsIgnoreCase(cols.get(i));
+         if (match) return true;
+      }
+      return false;
+   }
+
+   // another index whose columns start with all of idx's, in the same order and direction
+   private static Index leads(Index idx, List<Index> list) {
+      if (idx.predicate != null) return null;
+      for (Index other : list) {
+         if (other == idx || other.predicate != null || other.columns.size() < idx.columns.size()) continue;
+         if (!other.columns.subList(0, idx.columns.size()).equals(idx.columns)) continue;
+         // of two identical indexes only the second by name goes, unless the other is unique
+         if (other.columns.size() == idx.columns.size() && !other.unique && other.name.compareTo(idx.name) > 0) continue;
+         return other;
+      }
+      return null;
+   }
+
+   /**
+    * Compares plans with an earlier report. A shape regressed when it got
+    * slower or read more pages than the threshold allows; a changed plan is
+    * reported either way.
+    *
+    * @return the number of regressions
+    */
+   @SuppressWarnings("unchecked")
+   static int compare(List<Plan> plans, File baselineFile, double threshold, double minMillis) throws IOException {
+      Map<String, Object> baseline = Json.parseObject(
+         new String(Files.readAllBytes(baselineFile.toPath()), StandardCharsets.UTF_8));
+      Map<String, Map<String, Object>> previous = new HashMap<String, Map<String, Object>>();
+      for (Object o : (List<Object>) baseline.get("plans")) {
+         Map<String, Object> m = (Map<String, Object>) o;
+         previous.put(m.get("action") + "\u0000" + m.get("sql"), m);
+      }
+
+      int regressions = 0;
+      System.out.println("\nComparison with " + baselineFile + " (threshold " + Math.round(threshold * 100) + "%)");
+      for (Plan p : plans) {
+         Map<String, Object> old = previous.get(p.key());
+         if (old == null) {
+            System.out.println(String.format("%-28s new shape", p.action));
+            continue;
+         }
+         double oldMs = ((Number) old.get("ms")).doubleValue();
+         long oldBuffers = ((Number) old.get("shared_hit")).longValue() + ((Number) old.get("shared_read")).longValue();
+         double msChange = oldMs == 0 ? 0 : (p.ms - oldMs) / oldMs;
+         double bufferChange = oldBuffers == 0 ? 0 : (double) (p.buffers() - oldBuffers) / oldBuffers;
+         boolean changed = !p.signature.equals(old.get("plan"));
+         boolean regressed = msChange > threshold && p.ms - oldMs > minMillis
+                             || bufferChange > threshold && p.buffers() - oldBuffers > 100;
+         if (regressed) regressions++;
+         System.out.println(String.format(Locale.ROOT, "%-28s ms %+7.1f%%  buffers %+7.1f%%  %s%s",
+                                          p.action, msChange * 100, bufferChange * 100,
+                                          regressed ? "REGRESSION" : "ok", changed ? "  plan changed" : ""));
+         if (changed) {
+            System.out.println("   was " + old.get("plan"));
+            System.out.println("   now " + p.signature);
+         }
+      }
+      return regressions;
+   }//end compare
+
+   static void usage() {
+      System.err.println(
+         "Usage: java [-classpath <classpath>] " + QueryPlanAdvisor.class.getName() +
+         " <dbname> <port> <user> [options]\n" +
+         "  --only <regex>          capture the benchmark operations whose name matches\n" +
+         "  --runs <n>              times each operation runs during the capture (default 2)\n" +
+         "  --repeat <n>            EXPLAIN ANALYZE runs per statement, the median is kept (default 3)\n" +
+         "  --json <file>           write plans and advice as JSON (default plans.json)\n" +
+         "  --baseline <file>       compare with an earlier JSON report\n" +
+         "  --threshold <fraction>  allowed growth in time or buffers (default 0.25)\n" +
+         "  --min-ms <ms>           ignore slowdowns smaller than this (default 0.5)\n" +
+         "  --advice <file>         also write the index advice as SQL\n" +
+         "  the operations run for real, use a generated database (see DataGenerator)");
+   }
+
+   /**
+    * The plan check command
+    *
+    * @param args <dbname> <port> <user> followed by the options in usage()
+    */
+   public static void main(String[] args) {
+      if (args.length < 3) {
+         usage();
+         return;
+      }
+      Pattern only = null;
+      int runs = 2, repeat = 3;
+      File json = new File("plans.json");
+      File baseline = null, adviceFile = null;
+      double threshold = 0.25, minMillis = 0.5;
+      try {
+         for (int i = 3; i < args.length; ++i) {
+            String a = args[i];
+            if (a.equals("--only")) only = Pattern.compile(args[++i]);
+            else if (a.equals("--runs")) runs = Integer.parseInt(args[++i]);
+            else if (a.equals("--repeat")) repeat = Integer.parseInt(args[++i]);
+            else if (a.equals("--json")) json = new File(args[++i]);
+            else if (a.equals("--baseline")) baseline = new File(args[++i]);
+            else if (a.equals("--threshold")) threshold = Double.parseDouble(args[++i]);
+            else if (a.equals("--min-ms")) minMillis = Double.parseDouble(args[++i]);
+            else if (a.equals("--advice")) adviceFile = new File(args[++i]);
+            else { usage(); return; }
+         }
+      } catch (RuntimeException e) {
+         usage();
+         return;
+      }
+
+      GameRental esql = null;
+      int regressions = 0;
+      try {
+         Class.forName ("org.postgresql.Driver").newInstance ();
+         esql = new GameRental(args[0], args[1], args[2], "");
+         GameRentalBenchmark bench = new GameRentalBenchmark(esql);
+         bench.register();
+         bench.sample(1000);
+         List<Metrics.Captured> captured = capture(bench, only, runs);
+
+         QueryPlanAdvisor advisor = new QueryPlanAdvisor(esql);
+         advisor.loadCatalog();
+         List<Plan> plans = new ArrayList<Plan>();
+         System.out.println(String.format("%-28s %9s %9s %9s  %s", "operation", "ms", "buffers", "rows", "plan"));
+         for (Metrics.Captured c : captured) {
+            Plan p;
+            try {
+               p = advisor.explain(c, repeat);
+            } catch (SQLException e) {
+               System.err.println(c.action + " not explained: " + e.getMessage());
+               continue;
+            }
+            if (p == null) continue;
+            plans.add(p);
+            String plan = p.signature.length() > 120 ? p.signature.substring(0, 117) + "..." : p.signature;
+            System.out.println(String.format(Locale.ROOT, "%-28s %9.2f %9d %9d  %s",
+                                             p.action, p.ms, p.buffers(), p.rows, plan));
+         }
+
+         List<String> advice = advisor.advise(plans);
+         System.out.println("\nIndex advice" + (advice.isEmpty() ? ": none" : ""));
+         for (String line : advice) System.out.println(line);
+         if (adviceFile != null)
+            Files.write(adviceFile.toPath(), (String.join("\n", advice) + "\n").getBytes(StandardCharsets.UTF_8));
+
+         Map<String, Object> report = new LinkedHashMap<String, Object>();
+         report.put("timestamp", new java.sql.Timestamp(System.currentTimeMillis()).toString());
+         report.put("repeat", repeat);
+         List<Object> list = new ArrayList<Object>();
+         for (Plan p : plans) list.add(p.toMap());
+         report.put("plans", list);
+         report.put("advice", new ArrayList<Object>(advice));
+         Files.write(json.toPath(), Json.write(report).getBytes(StandardCharsets.UTF_8));
+         System.out.println("Report written to " + json);
+
+         if (baseline != null)
+            regressions = compare(plans, baseline, threshold, minMillis);
+      } catch (Exception e) {
+         System.err.println("❌Plan check failed: " + e.getMessage());
+         regressions = -1;
+      } finally {
+         if (esql != null) esql.cleanup();
+      }
+      if (regressions != 0)
+         System.exit(regressions < 0 ? 1 : 2);
+   }//end main
+
+}//end QueryPlanAdvisor
@@ -0,0 +1,535 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * This class recommends games from who rented what. Two games are
+ * co-rented when the same customer rented both, and each pair is counted
+ * once per customer, so the counts only grow and applying the same rental
+ * twice changes nothing. The counts live in one primitive open addressing
+ * row per game; a customer's history is an int array of game numbers.
+ *
+ * A customer is scored against the games they rented most recently and the
+ * games named in Users.favGames: every neighbour of such a seed gains the
+ * cosine similarity of the pair, times the weight of the seed. Each game
+ * keeps its strongest neighbours sorted, rebuilt lazily after its counts
+ * changed, so a lookup touches a few hundred candidates and no database
+ * row.
+ *
+ * The rentals are loaded with one streamed query on first use. After that,
+ * orders placed by this process are applied when they commit, and orders
+ * from other processes by a catch-up query that re-reads a short overlap
+ * behind the newest order seen. Replaying the overlap is harmless because
+ * a rental is applied at most once per customer.
+ *
+ */
+public class Recommender {
+
+   static final String HISTORY_QUERY =
+      "SELECT R.login, G.gameID, R.orderTimestamp FROM RentalOrder R " +
+      "JOIN GamesInOrder G ON G.rentalOrderID = R.rentalOrderID AND G.orderTimestamp = R.orderTimestamp";
+
+   // spreads consecutive game numbers over the table
+   static int hash(int key) {
+      int h = key * 0x9E3779B9;
+      return h ^ (h >>> 16);
+   }
+
+   /**
+    * Counts per neighbour game, an open addressing hash from int to int.
+    */
+   static class IntCounts {
+      int[] keys = new int[4];
+      int[] counts = new int[4];
+      int size = 0;
+
+      IntCounts() {
+         Arrays.fill(keys, -1);
+      }
+
+      void add(int key, int delta) {
+         if ((size + 1) * 4 > keys.length * 3) grow();
+         int mask = keys.length - 1;
+         int i = hash(key) & mask;
+         while (keys[i] != -1 && keys[i] != key)
+            i = (i + 1) & mask;
+         if (keys[i] == -1) {
+            keys[i] = key;
+            size++;
+         }
+         counts[i] += delta;
+      }
+
+      private void grow() {
+         int[] oldKeys = keys, oldCounts = counts;
+         keys = new int[oldKeys.length * 2];
+         counts = new int[oldKeys.length * 2];
+         Arrays.fill(keys, -1);
+         size = 0;
+         for (int i = 0; i < oldKeys.length; ++i)
+            if (oldKeys[i] != -1) add(oldKeys[i], oldCounts[i]);
+      }
+   }//end IntCounts
+
+   /**
+    * The strongest neighbours of one game, by cosine similarity.
+    */
+   static class Neighbours {
+      final int[] items;
+      final float[] similarity;
+      final long builtAt = System.currentTimeMillis();
+
+      Neighbours(int[] items, float[] similarity) {
+         this.items = items;
+         this.similarity = similarity;
+      }
+   }//end Neighbours
+
+   /**
+    * The distinct games one customer rented, oldest first.
+    */
+   static class History {
+      int[] items = new int[4];
+      int size = 0;
+
+      boolean contains(int item) {
+         for (int i = 0; i < size; ++i)
+            if (items[i] == item) return true;
+         return false;
+      }
+   }//end History
+
+   /**
+    * One recommended game and the seed that contributed most to it.
+    */
+   public static class Recommendation {
+      public final CatalogCache.Game game;
+      public final double score;
+      public final String because;
+
+      Recommendation(CatalogCache.Game game, double score, String because) {
+         this.game = game;
+         this.score = score;
+         this.because = because;
+      }
+   }//end Recommendation
+
+   private final int historyLimit;
+   private final int seedLimit;
+   private final int neighbourLimit;
+   private final double favWeight;
+   private final long refreshMillis;
+   private final long overlapMillis;
+   private final long staleMillis;
+
+   // guards everything below, lookups share it and rentals take it exclusively
+   private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+   private final Map<String, Integer> itemIndex = new HashMap<String, Integer>();
+   private String[] gameIDs = new String[1024];
+   private int[] popularity = new int[1024];
+   private IntCounts[] rows = new IntCounts[1024];
+   private Neighbours[] neighbours = new Neighbours[1024];
+   private boolean[] changed = new boolean[1024];
+   private int itemCount = 0;
+   private final Map<String, History> users = new HashMap<String, History>();
+
+   private volatile boolean loaded = false;
+   private volatile long refreshedAt = 0;
+   private long newestOrder = 0;        // guarded by this
+
+   private final AtomicLong lookups = new AtomicLong(0);
+   private final AtomicLong rentals = new AtomicLong(0);
+
+   public Recommender() {
+      this(Integer.getInteger("gamerental.recommend.historyLimit", 200),
+           Integer.getInteger("gamerental.recommend.seeds", 20),
+           Integer.getInteger("gamerental.recommend.neighbours", 50),
+           Double.parseDouble(System.getProperty("gamerental.recommend.favWeight", "2.0")),
+           Long.getLong("gamerental.recommend.refreshSeconds", 60L) * 1000L,
+           Long.getLong("gamerental.recommend.overlapSeconds", 120L) * 1000L,
+           Long.getLong("gamerental.recommend.staleMillis", 5000L));
+   }
+
+   /**
+    * @param historyLimit the most recent games of a customer a new rental is paired with
+    * @param seedLimit the most recent games of a customer a lookup starts from
+    * @param neighbourLimit the neighbours kept per game
+    * @param favWeight the weight of a favourite game against a rented one
+    * @param refreshMillis how often other processes' orders are caught up
+    * @param overlapMillis how far behind the newest order a catch-up starts
+    * @param staleMillis how long a game's neighbours are used after its counts changed
+    */
+   public Recommender(int historyLimit, int seedLimit, int neighbourLimit, double favWeight,
+                      long refreshMillis, long overlapMillis, long staleMillis) {
+      this.historyLimit = historyLimit;
+      this.seedLimit = seedLimit;
+      this.neighbourLimit = neighbourLimit;
+      this.favWeight = favWeight;
+      this.refreshMillis = refreshMillis;
+      this.overlapMillis = overlapMillis;
+      this.staleMillis = staleMillis;
+   }
+
+   // ---------------------------------------------------------------- updates
+
+   // callers hold the write lock
+   private int item(String gameID) {
+      Integer i = itemIndex.get(gameID);
+      if (i != null) return i;
+      if (itemCount == gameIDs.length) {
+         int n = itemCount * 2;
+         gameIDs = Arrays.copyOf(gameIDs, n);
+         popularity = Arrays.copyOf(popularity, n);
+         rows = Arrays.copyOf(rows, n);
+         neighbours = Arrays.copyOf(neighbours, n);
+         changed = Arrays.copyOf(changed, n);
+      }
+      gameIDs[itemCount] = gameID;
+      rows[itemCount] = new IntCounts();
+      itemIndex.put(gameID, itemCount);
+      return itemCount++;
+   }
+
+   // callers hold the write lock
+   private void rent(String login, String gameID) {
+      History h = users.get(login);
+      if (h == null) {
+         h = new History();
+         users.put(login, h);
+      }
+      int item = item(gameID);
+      if (h.contains(item)) return;
+      for (int i = Math.max(0, h.size - historyLimit); i < h.size; ++i) {
+         int other = h.items[i];
+         rows[item].add(other, 1);
+         rows[other].add(item, 1);
+         changed[other] = true;
+      }
+      changed[item] = true;
+      popularity[item]++;
+      if (h.size == h.items.length) h.items = Arrays.copyOf(h.items, h.size * 2);
+      h.items[h.size++] = item;
+      rentals.incrementAndGet();
+   }//end rent
+
+   /**
+    * Applies an order placed by this process once it committed. Does
+    * nothing before the first lookup, the load reads the order then.
+    */
+   public void recordOrder(String login, Collection<String> gameIDs) {
+      if (!loaded) return;
+      lock.writeLock().lock();
+      try {
+         for (String gameID : gameIDs)
+            rent(login, gameID);
+      } finally {
+         lock.writeLock().unlock();
+      }
+   }//end recordOrder
+
+   /**
+    * Loads every rental on first use and later catches up with the orders
+    * other processes placed, at most once per refresh interval.
+    */
+   public void refresh(GameRental esql) throws SQLException {
+      if (loaded && System.currentTimeMillis() - refreshedAt < refreshMillis)
+         return;
+      synchronized (this) {
+         if (loaded && System.currentTimeMillis() - refreshedAt < refreshMillis)
+            return;
+         long started = System.currentTimeMillis();
+         if (!loaded) {
+            // nobody reads before loaded is set, so the rows go straight in
+            lock.writeLock().lock();
+            try {
+               esql.executeQueryAndStream(HISTORY_QUERY + " ORDER BY R.orderTimestamp", new RowHandler() {
+                  public boolean handle(Row row) throws SQLException {
+                     rent(row.getString(1), row.getString(2));
+                     newestOrder = Math.max(newestOrder, row.getTimestamp(3).getTime());
+                     return true;
+                  }
+               });
+            } finally {
+               lock.writeLock().unlock();
+            }
+            loaded = true;
+         } else {
+            // the new rows are gathered first so lookups only wait for applying them
+            final List<String[]> batch = new ArrayList<String[]>();
+            esql.executeQueryAndStream(HISTORY_QUERY + " WHERE R.orderTimestamp > ? ORDER BY R.orderTimestamp",
+                                       new RowHandler() {
+               public boolean handle(Row row) throws SQLException {
+                  batch.add(new String[] {row.getString(1), row.getString(2)});
+                  newestOrder = Math.max(newestOrder, row.getTimestamp(3).getTime());
+                  return true;
+               }
+            }, new Timestamp(newestOrder - overlapMillis));
+            lock.writeLock().lock();
+            try {
+               for (String[] r : batch)
+                  rent(r[0], r[1]);
+            } finally {
+               lock.writeLock().unlock();
+            }
+         }
+         refreshedAt = started;
+      }
+   }//end refresh
+
+   // ---------------------------------------------------------------- lookups
+
+   // callers hold the read lock; a racing reader computes the same list
+   private Neighbours neighbours(int item) {
+      Neighbours n = neighbours[item];
+      // a popular game changes with most orders, its list is rebuilt at most once per staleMillis
+      if (n != null && (!changed[item] || System.currentTimeMillis() - n.builtAt < staleMillis))
+         return n;
+      changed[item] = false;
+      IntCounts row = rows[item];
+      int[] candidates = new int[row.size];
+      float[] similarity = new float[row.size];
+      int c = 0;
+      for (int i = 0; i < row.keys.length; ++i) {
+         if (row.keys[i] == -1) continue;
+         candidates[c] = row.keys[i];
+         similarity[c++] = (float) (row.counts[i] / Math.sqrt((double) popularity[item] * popularity[row.keys[i]]));
+      }
+      int keep = Math.min(neighbourLimit, c);
+      int[] top = new int[keep];
+      float[] topSimilarity = new float[keep];
+      TopK heap = new TopK(keep);
+      for (int i = 0; i < c; ++i)
+         heap.offer(candidates[i], similarity[i]);
+      for (int i = keep - 1; i >= 0; --i) {
+         topSimilarity[i] = (float) heap.scores[0];
+         top[i] = heap.pop();
+      }
+      n = new Neighbours(top, topSimilarity);
+      neighbours[item] = n;
+      return n;
+   }//end neighbours
+
+   /**
+    * A min-heap holding the k best items offered to it.
+    */
+   static class TopK {
+      final int[] items;
+      final double[] scores;
+      int size = 0;
+
+      TopK(int k) {
+         items = new int[k];
+         scores = new double[k];
+      }
+
+      void offer(int item, double score) {
+         if (items.length == 0) return;
+         if (size < items.length) {
+            int i = size++;
+            while (i > 0 && scores[(i - 1) >>> 1] > score) {
+               items[i] = items[(i - 1) >>> 1];
+               scores[i] = scores[(i - 1) >>> 1];
+               i = (i - 1) >>> 1;
+            }
+            items[i] = item;
+            scores[i] = score;
+         } else if (score > scores[0]) {
+            siftDown(item, score);
+         }
+      }
+
+      int pop() {
+         int top = items[0];
+         --size;
+         if (size > 0) {
+            int lastItem = items[size];
+            double lastScore = scores[size];
+            siftDown(lastItem, lastScore);
+         }
+         return top;
+      }
+
+      private void siftDown(int item, double score) {
+         int i = 0;
+         while (true) {
+            int child = 2 * i + 1;
+            if (child >= size) break;
+            if (child + 1 < size && scores[child + 1] < scores[child]) child++;
+            if (scores[child] >= score) break;
+            items[i] = items[child];
+            scores[i] = scores[child];
+            i = child;
+         }
+         items[i] = item;
+         scores[i] = score;
+      }
+   }//end TopK
+
+   /**
+    * Recommends games a customer has not rented yet. Customers without
+    * rentals or favourites get the most rented games.
+    *
+    * @param login the customer
+    * @param favGames the comma separated game names of Users.favGames, may be null
+    * @param limit the number of games to return at most
+    * @return the games, best first
+    */
+   public List<Recommendation> recommend(GameRental esql, String login, String favGames, int limit) throws SQLException {
+      refresh(esql);
+      lookups.incrementAndGet();
+      List<String> favourites = new ArrayList<String>();
+      if (favGames != null)
+         for (String name : favGames.split(",")) {
+            CatalogCache.Game g = name.trim().isEmpty() ? null : esql.getCatalog().findByName(esql, name.trim());
+            if (g != null) favourites.add(g.gameID);
+         }
+
+      String[] ids = new String[limit];
+      double[] scores = new double[limit];
+      String[] reasons = new String[limit];
+      int found = 0;
+      lock.readLock().lock();
+      try {
+         History h = users.get(login);
+         int[] seeds = new int[seedLimit + favourites.size()];
+         double[] weights = new double[seeds.length];
+         int seedCount = 0;
+         if (h != null)
+            for (int i = h.size - 1; i >= Math.max(0, h.size - seedLimit); --i) {
+               seeds[seedCount] = h.items[i];
+               weights[seedCount++] = 1.0;
+            }
+         for (String gameID : favourites) {
+            Integer item = itemIndex.get(gameID);
+            if (item == null) continue;
+            seeds[seedCount] = item;
+            weights[seedCount++] = favWeight;
+         }
+
+         // candidates are summed in a small open addressing table
+         Candidates candidates = new Candidates(favourites.size() + seedCount * neighbourLimit);
+         for (String gameID : favourites) {
+            // a favourite not rented yet is a candidate of its own
+            Integer item = itemIndex.get(gameID);
+            if (item != null && (h == null || !h.contains(item)))
+               candidates.add(item, favWeight, -1);
+         }
+         for (int s = 0; s < seedCount; ++s) {
+            Neighbours n = neighbours(seeds[s]);
+            for (int k = 0; k < n.items.length; ++k)
+               if (h == null || !h.contains(n.items[k]))
+                  candidates.add(n.items[k], weights[s] * n.similarity[k], seeds[s]);
+         }
+
+         TopK top = new TopK(limit);
+         for (int i = 0; i < candidates.keys.length; ++i)
+            if (candidates.keys[i] != -1) top.offer(i, candidates.sums[i]);
+         found = top.size;
+         for (int r = found - 1; r >= 0; --r) {
+            int slot = top.pop();
+            ids[r] = gameIDs[candidates.keys[slot]];
+            scores[r] = candidates.sums[slot];
+            reasons[r] = candidates.best[slot] < 0 ? null : gameIDs[candidates.best[slot]];
+         }
+
+         // tops the list up with the most rented games the customer does not have
+         if (found < limit) {
+            TopK popular = new TopK(limit - found);
+            for (int item = 0; item < itemCount; ++item)
+               if ((h == null || !h.contains(item)) && !candidates.contains(item))
+                  popular.offer(item, popularity[item]);
+            int first = found;
+            found += popular.size;
+            for (int r = found - 1; r >= first; --r) {
+               ids[r] = gameIDs[popular.pop()];
+               scores[r] = 0;
+            }
+         }
+      } finally {
+         lock.readLock().unlock();
+      }
+
+      List<Recommendation> result = new ArrayList<Recommendation>(found);
+      for (int r = 0; r < found; ++r) {
+         CatalogCache.Game g = esql.getCatalog().findById(esql, ids[r]);
+         if (g == null) continue;
+         CatalogCache.Game seed = reasons[r] == null ? null : esql.getCatalog().findById(esql, reasons[r]);
+         result.add(new Recommendation(g, scores[r], seed == null ? null : seed.gameName));
+      }
+      return result;
+   }//end recommend
+
+   /**
+    * The scores summed per candidate game of one lookup, with the seed that
+    * added the most to each.
+    */
+   static class Candidates {
+      final int[] keys;
+      final double[] sums;
+      final int[] best;
+      final double[] bestScore;
+
+      Candidates(int expected) {
+         int capacity = Integer.highestOneBit(Math.max(8, expected) * 2) * 2;
+         keys = new int[capacity];
+         sums = new double[capacity];
+         best = new int[capacity];
+         bestScore = new double[capacity];
+         Arrays.fill(keys, -1);
+      }
+
+      private int slot(int item) {
+         int mask = keys.length - 1;
+         int i = hash(item) & mask;
+         while (keys[i] != -1 && keys[i] != item)
+            i = (i + 1) & mask;
+         return i;
+      }
+
+      void add(int item, double score, int seed) {
+         int i = slot(item);
+         if (keys[i] == -1) {
+            keys[i] = item;
+            best[i] = seed;
+            bestScore[i] = score;
+         } else if (score > bestScore[i]) {
+            best[i] = seed;
+            bestScore[i] = score;
+         }
+         sums[i] += score;
+      }
+
+      boolean contains(int item) {
+         return keys[slot(item)] == item;
+      }
+   }//end Candidates
+
+   public String report() {
+      lock.readLock().lock();
+      try {
+         return String.format("recommender: %d games, %d customers, %d rentals, %d lookups",
+                              itemCount, users.size(), rentals.get(), lookups.get());
+      } finally {
+         lock.readLock().unlock();
+      }
+   }
+
+}//end Recommender
@@ -0,0 +1,145 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+import java.sql.SQLException;
+
+/**
+ * This class holds the manager dashboards. They read the DailyRevenue,
+ * GameRentals and GenreRentals rollups, which the triggers keep current as
+ * orders are written, so every dashboard is a short index scan no matter
+ * how much order history exists.
+ *
+ */
+public class Reports {
+
+   /**
+    * Recomputes every rollup from the order tables, for data loaded with
+    * the triggers off.
+    */
+   static final String REBUILD_SCRIPT =
+      "TRUNCATE DailyRevenue, GameRentals, GenreRentals;\n" +
+      "INSERT INTO DailyRevenue (day, orders, revenue) " +
+      "SELECT orderTimestamp::date, COUNT(*), SUM(totalPrice) FROM RentalOrder GROUP BY 1;\n" +
+      "INSERT INTO GameRentals (gameID, units, orders) " +
+      "SELECT gameID, SUM(unitsOrdered), COUNT(*) FROM GamesInOrder GROUP BY gameID;\n" +
+      "INSERT INTO GenreRentals (genre, units, orders) " +
+      "SELECT C.genre, SUM(R.units), SUM(R.orders) FROM GameRentals R JOIN Catalog C ON C.gameID = R.gameID GROUP BY C.genre;";
+
+   /**
+    * @param handler receives day, orders, revenue for the last days, newest first
+    * @return the number of days with orders
+    */
+   public static long dailyRevenue(GameRental esql, int days, RowHandler handler) throws SQLException {
+      String query =
+               "SELECT day, orders, revenue FROM DailyRevenue " +
+               "WHERE day > current_date - ? AND orders > 0 " +
+               "ORDER BY day DESC";
+      return esql.executeQueryAndHandle(query, handler, days);
+   }//end dailyRevenue
+
+   /**
+    * @param handler receives gameID, gameName, units, orders of the most rented games
+    * @return the number of games
+    */
+   public static long topGames(GameRental esql, int limit, RowHandler handler) throws SQLException {
+      String query =
+               "SELECT R.gameID, C.gameName, R.units, R.orders " +
+               "FROM (SELECT gameID, units, orders FROM GameRentals ORDER BY units DESC LIMIT ?) R " +
+               "JOIN Catalog C ON C.gameID = R.gameID " +
+               "ORDER BY R.units DESC";
+      return esql.executeQueryAndHandle(query, handler, limit);
+   }//end topGames
+
+   /**
+    * @param handler receives genre, units, orders, most rented genre first
+    * @return the number of genres
+    */
+   public static long rentalsByGenre(GameRental esql, RowHandler handler) throws SQLException {
+      String query = "SELECT genre, units, orders FROM GenreRentals WHERE units > 0 ORDER BY units DESC";
+      return esql.executeQueryAndHandle(query, handler);
+   }//end rentalsByGenre
+
+   private static boolean managerOnly(GameRental esql, Session authorizedUser) throws SQLException {
+      if (authorizedUser.isManager(esql))
+         return true;
+      System.out.println("❌❌❌❌❌❌❌❌❌❌❌❌❌❌❌❌❌❌❌❌❌❌❌❌❌❌❌");
+      System.out.println("Only managers are allowed to view the reports.");
+      System.out.println("❌❌❌❌❌❌❌❌❌❌❌❌❌❌❌❌❌❌❌❌❌❌❌❌❌❌❌");
+      return false;
+   }
+
+   private static int readNumber(String prompt, int fallback) throws java.io.IOException {
+      System.out.println(prompt + " (default " + fallback + "):");
+      String line = GameRental.in.readLine().trim();
+      return line.isEmpty() ? fallback : Integer.parseInt(line);
+   }
+
+   public static void viewDailyRevenue(GameRental esql, Session authorizedUser) {
+      try {
+         if (!managerOnly(esql, authorizedUser)) return;
+         int days = readNumber("Enter the number of days", 30);
+         System.out.println("===========================");
+         System.out.println(String.format("%-12s %8s %14s", "Day", "Orders", "Revenue"));
+         System.out.println("===========================");
+         long rows = dailyRevenue(esql, days, new RowHandler() {
+            public boolean handle(Row row) throws SQLException {
+               System.out.println(String.format("%-12s %8d %14s", row.getString(1), row.getLong(2), "$" + row.getString(3)));
+               return true;
+            }
+         });
+         if (rows == 0)
+            System.out.println("❌No orders in the last " + days + " days.");
+      } catch (Exception e) {
+         System.err.println(e.getMessage());
+      }
+   }//end viewDailyRevenue
+
+   public static void viewTopGames(GameRental esql, Session authorizedUser) {
+      try {
+         if (!managerOnly(esql, authorizedUser)) return;
+         int limit = readNumber("Enter the number of games", 10);
+         System.out.println("===========================");
+         System.out.println("Most Rented Games");
+         System.out.println("===========================");
+         long rows = topGames(esql, limit, new RowHandler() {
+            public boolean handle(Row row) throws SQLException {
+               System.out.println(row.getRowNumber() + ". " + row.getString(2) + " (" + row.getString(1) + "): " +
+                                  row.getLong(3) + " units in " + row.getLong(4) + " orders");
+               return true;
+            }
+         });
+         if (rows == 0)
+            System.out.println("❌No rentals yet.");
+      } catch (Exception e) {
+         System.err.println(e.getMessage());
+      }
+   }//end viewTopGames
+
+   public static void viewRentalsByGenre(GameRental esql, Session authorizedUser) {
+      try {
+         if (!managerOnly(esql, authorizedUser)) return;
+         System.out.println("===========================");
+         System.out.println("Rentals by Genre");
+         System.out.println("===========================");
+         long rows = rentalsByGenre(esql, new RowHandler() {
+            public boolean handle(Row row) throws SQLException {
+               System.out.println(String.format("%-20s %10d units %10d orders", row.getString(1), row.getLong(2), row.getLong(3)));
+               return true;
+            }
+         });
+         if (rows == 0)
+            System.out.println("❌No rentals yet.");
+      } catch (Exception e) {
+         System.err.println(e.getMessage());
+      }
+   }//end viewRentalsByGenre
+
+}//end Reports
@@ -0,0 +1,155 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+import java.math.BigDecimal;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class is the current row of a streamed query, handed to a
+ * RowHandler. Values are read straight from the underlying ResultSet with
+ * typed accessors, so nothing is copied or boxed unless the caller asks for
+ * it. A Row is only valid inside the handler call; the same instance is
+ * reused for every row of the query. Rows that do not come from a query,
+ * like the archived orders of PartitionManager, wrap an array of strings
+ * in the same shape instead.
+ *
+ */
+public class Row {
+
+   private ResultSet rs;
+   private ResultSetMetaData meta;
+   private long number = 0;
+   // set instead of rs for rows that do not come from a query
+   private String[] names;
+   private String[] values;
+
+   Row() {
+   }
+
+   /**
+    * Creates a row over string values, numbered after the rows a query
+    * already delivered.
+    */
+   Row(String[] names, long rowsBefore) {
+      this.names = names;
+      this.number = rowsBefore;
+   }
+
+   /**
+    * Moves to the next row of string values.
+    */
+   void set(String[] values) {
+      this.values = values;
+      number++;
+   }
+
+   /**
+    * Points the row at the next batch of the cursor.
+    */
+   void reset(ResultSet rs) throws SQLException {
+      this.rs = rs;
+      if (this.meta == null)
+         this.meta = rs.getMetaData();
+   }
+
+   /**
+    * Moves to the next row of the current batch.
+    */
+   boolean advance() throws SQLException {
+      if (!rs.next())
+         return false;
+      number++;
+      return true;
+   }
+
+   /**
+    * @return the 1-based position of the row in the whole result
+    */
+   public long getRowNumber() {
+      return number;
+   }
+
+   public int getColumnCount() throws SQLException {
+      return values != null ? names.length : meta.getColumnCount();
+   }
+
+   public String getColumnName(int column) throws SQLException {
+      return values != null ? names[column - 1] : meta.getColumnName(column);
+   }
+
+   public String getString(int column) throws SQLException {
+      return values != null ? values[column - 1] : rs.getString(column);
+   }
+
+   public String getString(String column) throws SQLException {
+      if (values != null) {
+         for (int i = 0; i < names.length; ++i)
+            if (names[i].equalsIgnoreCase(column)) return values[i];
+         throw new SQLException("No column " + column);
+      }
+      return rs.getString(column);
+   }
+
+   /**
+    * @return the value, 0 for SQL NULL
+    */
+   public int getInt(int column) throws SQLException {
+      if (values != null) return isNull(column) ? 0 : Integer.parseInt(values[column - 1]);
+      return rs.getInt(column);
+   }
+
+   /**
+    * @return the value, 0 for SQL NULL
+    */
+   public long getLong(int column) throws SQLException {
+      if (values != null) return isNull(column) ? 0 : Long.parseLong(values[column - 1]);
+      return rs.getLong(column);
+   }
+
+   public BigDecimal getBigDecimal(int column) throws SQLException {
+      if (values != null) return isNull(column) ? null : new BigDecimal(values[column - 1]);
+      return rs.getBigDecimal(column);
+   }
+
+   public Timestamp getTimestamp(int column) throws SQLException {
+      if (values != null) return isNull(column) ? null : Timestamp.valueOf(values[column - 1]);
+      return rs.getTimestamp(column);
+   }
+
+   public boolean getBoolean(int column) throws SQLException {
+      if (values != null) return "t".equals(values[column - 1]) || "true".equals(values[column - 1]);
+      return rs.getBoolean(column);
+   }
+
+   /**
+    * @return true when the column is SQL NULL
+    */
+   public boolean isNull(int column) throws SQLException {
+      return getString(column) == null;
+   }
+
+   /**
+    * Copies the row out as strings, for callers that keep rows around.
+    */
+   public List<String> toList() throws SQLException {
+      int numCol = getColumnCount();
+      List<String> record = new ArrayList<String>(numCol);
+      for (int i = 1; i <= numCol; ++i)
+         record.add(getString(i));
+      return record;
+   }//end toList
+
+}//end Row
@@ -0,0 +1,30 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+import java.sql.SQLException;
+
+/**
+ * This interface receives the rows of a streamed query one at a time, as
+ * the cursor fetches them.
+ *
+ */
+public interface RowHandler {
+
+   /**
+    * Called once per row.
+    *
+    * @param row the current row, only valid during this call
+    * @return false to stop reading, the rest of the result is discarded
+    * @throws java.sql.SQLException when a column cannot be read
+    */
+   boolean handle(Row row) throws SQLException;
+
+}//end RowHandler
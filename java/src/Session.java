@@ -0,0 +1,247 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class holds the logged in user together with a snapshot of their
+ * Users row, so the role checks at the top of every menu action are a field
+ * read instead of a query. A snapshot is reloaded once it is older than the
+ * configured TTL or after the user was changed through updateProfile or
+ * updateUser.
+ *
+ * The HTTP server shares one Session between the concurrent requests of a
+ * client, so a snapshot is immutable and replaced as a whole. Invalidations
+ * and renames are remembered for one TTL, after which every snapshot taken
+ * before them has expired anyway; a session left idle for longer than that
+ * no longer follows a rename.
+ *
+ */
+public class Session {
+
+   static final String PROFILE_QUERY =
+      "SELECT login, password, role, favGames, phoneNum, numOverDueGames FROM Users WHERE login = ?";
+
+   // how long a snapshot is trusted, set with -Dgamerental.session.ttlSeconds=<n>
+   private static final long TTL_MILLIS =
+      Long.getLong("gamerental.session.ttlSeconds", 300L) * 1000L;
+
+   /**
+    * An invalidation or rename of a login and when it happened.
+    */
+   private static final class Mark<T> {
+      final T value;
+      final long at = System.currentTimeMillis();
+
+      Mark(T value) {
+         this.value = value;
+      }
+   }//end Mark
+
+   // bumped on every invalidation, snapshots older than a login's entry are stale
+   private static final AtomicLong VERSION = new AtomicLong(0);
+   private static final ConcurrentHashMap<String, Mark<Long>> INVALIDATED = new ConcurrentHashMap<String, Mark<Long>>();
+
+   // logins renamed through updateUser, so open sessions can follow the rename
+   private static final ConcurrentHashMap<String, Mark<String>> RENAMED = new ConcurrentHashMap<String, Mark<String>>();
+   private static final AtomicLong PRUNED_AT = new AtomicLong(System.currentTimeMillis());
+
+   // number of role/profile queries answered from a snapshot
+   private static final AtomicLong ROUND_TRIPS_SAVED = new AtomicLong(0);
+
+   /**
+    * One Users row and the version and time it was read at.
+    */
+   private static final class Snapshot {
+      final String login;
+      final String password;
+      final String role;
+      final String favGames;
+      final String phoneNum;
+      final String numOverDueGames;
+      final long version;
+      final long loadedAt;
+
+      Snapshot(List<String> row, long version, long loadedAt) {
+         this.login = row.get(0);
+         this.password = row.get(1);
+         this.role = row.get(2) == null ? null : row.get(2).trim();
+         this.favGames = row.get(3);
+         this.phoneNum = row.get(4);
+         this.numOverDueGames = row.get(5);
+         this.version = version;
+         this.loadedAt = loadedAt;
+      }
+   }//end Snapshot
+
+   private volatile Snapshot snapshot;
+
+   private Session(List<String> row, long version, long loadedAt) {
+      this.snapshot = new Snapshot(row, version, loadedAt);
+   }
+
+   /**
+    * Builds a session from a row shaped like PROFILE_QUERY.
+    *
+    * @param row login, password, role, favGames, phoneNum, numOverDueGames
+    * @return the new session
+    */
+   public static Session fromRow(List<String> row) {
+      return new Session(row, VERSION.get(), System.currentTimeMillis());
+   }//end fromRow
+
+   /**
+    * Builds a session from a row read earlier, e.g. one cached by the
+    * Authenticator, keeping the version and time it was read at.
+    */
+   static Session fromRow(List<String> row, long version, long loadedAt) {
+      return new Session(row, version, loadedAt);
+   }//end fromRow
+
+   /**
+    * @return the invalidation version, to be read before a profile is queried
+    */
+   static long currentVersion() {
+      return VERSION.get();
+   }//end currentVersion
+
+   /**
+    * @return true while a profile read at the given version and time can
+    *         be used without a query
+    */
+   static boolean isCurrent(String login, long version, long loadedAt) {
+      if (System.currentTimeMillis() - loadedAt >= TTL_MILLIS)
+         return false;
+      Mark<Long> invalidated = INVALIDATED.get(login);
+      return invalidated == null || invalidated.value <= version;
+   }//end isCurrent
+
+   /**
+    * Loads the profile of a user and wraps it in a session.
+    *
+    * @return the session or null if the login does not exist
+    */
+   public static Session load(GameRental esql, String login) throws SQLException {
+      long version = VERSION.get();
+      long loadedAt = System.currentTimeMillis();
+      List<List<String>> profile = esql.executeQueryAndReturnResult(PROFILE_QUERY, login);
+      if (profile.isEmpty())
+         return null;
+      return new Session(profile.get(0), version, loadedAt);
+   }//end load
+
+   // drops the marks older than the TTL, at most once per TTL
+   private static void prune() {
+      long now = System.currentTimeMillis();
+      long last = PRUNED_AT.get();
+      if (now - last < TTL_MILLIS || !PRUNED_AT.compareAndSet(last, now))
+         return;
+      for (Iterator<Mark<Long>> i = INVALIDATED.values().iterator(); i.hasNext(); )
+         if (now - i.next().at >= TTL_MILLIS) i.remove();
+      for (Iterator<Mark<String>> i = RENAMED.values().iterator(); i.hasNext(); )
+         if (now - i.next().at >= TTL_MILLIS) i.remove();
+   }//end prune
+
+   /**
+    * Marks every snapshot of the given login as stale.
+    */
+   public static void invalidate(String login) {
+      if (login == null)
+         return;
+      INVALIDATED.put(login, new Mark<Long>(VERSION.incrementAndGet()));
+      prune();
+   }//end invalidate
+
+   /**
+    * Records that a login was renamed and invalidates its snapshots.
+    */
+   public static void rename(String oldLogin, String newLogin) {
+      RENAMED.put(oldLogin, new Mark<String>(newLogin));
+      invalidate(oldLogin);
+      invalidate(newLogin);
+   }//end rename
+
+   /**
+    * @return true while the snapshot can be used without a query
+    */
+   public boolean isFresh() {
+      Snapshot s = snapshot;
+      return isCurrent(s.login, s.version, s.loadedAt);
+   }//end isFresh
+
+   /**
+    * Reloads the snapshot if it is stale, following login renames.
+    *
+    * @return false if the user no longer exists
+    */
+   public boolean refresh(GameRental esql) throws SQLException {
+      if (isFresh()) {
+         ROUND_TRIPS_SAVED.incrementAndGet();
+         return true;
+      }
+      String login = snapshot.login;
+      Mark<String> renamed = RENAMED.get(login);
+      String renamedTo = renamed == null ? null : renamed.value;
+      // read before the query, an invalidation racing with it leaves the snapshot stale
+      long version = VERSION.get();
+      long loadedAt = System.currentTimeMillis();
+      List<List<String>> profile = esql.executeQueryAndReturnResult(PROFILE_QUERY, renamedTo != null ? renamedTo : login);
+      if (profile.isEmpty() && renamedTo != null)
+         profile = esql.executeQueryAndReturnResult(PROFILE_QUERY, login);
+      if (profile.isEmpty())
+         return false;
+      snapshot = new Snapshot(profile.get(0), version, loadedAt);
+      return true;
+   }//end refresh
+
+   /**
+    * @return the role of the user, or null if the user no longer exists
+    */
+   public String getRole(GameRental esql) throws SQLException {
+      return refresh(esql) ? snapshot.role : null;
+   }//end getRole
+
+   public boolean isManager(GameRental esql) throws SQLException {
+      return "manager".equalsIgnoreCase(getRole(esql));
+   }
+
+   public boolean isEmployee(GameRental esql) throws SQLException {
+      return "employee".equalsIgnoreCase(getRole(esql));
+   }
+
+   /**
+    * @return the snapshot shaped like a PROFILE_QUERY row
+    */
+   public List<String> toRow() {
+      Snapshot s = snapshot;
+      return Arrays.asList(s.login, s.password, s.role, s.favGames, s.phoneNum, s.numOverDueGames);
+   }//end toRow
+
+   public String getLogin() { return snapshot.login; }
+   public String getPassword() { return snapshot.password; }
+   public String getRole() { return snapshot.role; }
+   public String getFavGames() { return snapshot.favGames; }
+   public String getPhoneNum() { return snapshot.phoneNum; }
+   public String getNumOverDueGames() { return snapshot.numOverDueGames; }
+
+   /**
+    * @return how many round-trips were answered from session snapshots
+    */
+   public static long getRoundTripsSaved() {
+      return ROUND_TRIPS_SAVED.get();
+   }//end getRoundTripsSaved
+
+}//end Session
@@ -0,0 +1,268 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.zip.Deflater;
+
+/**
+ * This class exports RentalOrder, GamesInOrder and TrackingInfo into
+ * ColumnarFile snapshots for offline analysis. Each table is streamed
+ * through a server side cursor in timestamp order straight into the file
+ * writer, so neither side ever holds more than one fetch and one row group.
+ *
+ * A table is cut at the database clock minus a lag, and the cut is saved as
+ * the table's watermark once its file is complete. An incremental export
+ * takes only the rows stamped after the watermark: new orders, their games,
+ * and tracking rows updated since the last run. The lag leaves room for
+ * transactions that stamped a row before the cut but commit after it.
+ *
+ */
+public class SnapshotExport {
+
+   /**
+    * One exported table: its columns, the query that streams them and the
+    * timestamp column the export is cut on.
+    */
+   static class Table {
+      final String name;
+      final String select;
+      final String stamp;
+      final List<ColumnarFile.Column> columns;
+
+      Table(String name, String select, String stamp, ColumnarFile.Column... columns) {
+         this.name = name;
+         this.select = select;
+         this.stamp = stamp;
+         this.columns = Arrays.asList(columns);
+      }
+
+      String query(boolean incremental) {
+         return select + " WHERE " + (incremental ? stamp + " > ? AND " : "") + stamp + " <= ? ORDER BY " + stamp;
+      }
+   }//end Table
+
+   static final Table[] TABLES = {
+      new Table("RentalOrder",
+                "SELECT rentalOrderID, login, noOfGames, totalPrice, orderTimestamp, dueDate FROM RentalOrder",
+                "orderTimestamp",
+                new ColumnarFile.Column("rentalOrderID", ColumnarFile.STRING),
+                new ColumnarFile.Column("login", ColumnarFile.STRING),
+                new ColumnarFile.Column("noOfGames", ColumnarFile.LONG),
+                new ColumnarFile.Column("totalPrice", ColumnarFile.DECIMAL, 2),
+                new ColumnarFile.Column("orderTimestamp", ColumnarFile.TIMESTAMP),
+                new ColumnarFile.Column("dueDate", ColumnarFile.TIMESTAMP)),
+      // order lines carry the time of their order, they are never written later
+      new Table("GamesInOrder",
+                "SELECT rentalOrderID, gameID, unitsOrdered, orderTimestamp FROM GamesInOrder",
+                "orderTimestamp",
+                new ColumnarFile.Column("rentalOrderID", ColumnarFile.STRING),
+                new ColumnarFile.Column("gameID", ColumnarFile.STRING),
+                new ColumnarFile.Column("unitsOrdered", ColumnarFile.LONG),
+                new ColumnarFile.Column("orderTimestamp", ColumnarFile.TIMESTAMP)),
+      new Table("TrackingInfo",
+                "SELECT trackingID, rentalOrderID, status, currentLocation, courierName, lastUpdateDate, " +
+                "additionalComments FROM TrackingInfo",
+                "lastUpdateDate",
+                new ColumnarFile.Column("trackingID", ColumnarFile.STRING),
+                new ColumnarFile.Column("rentalOrderID", ColumnarFile.STRING),
+                new ColumnarFile.Column("status", ColumnarFile.STRING),
+                new ColumnarFile.Column("currentLocation", ColumnarFile.STRING),
+                new ColumnarFile.Column("courierName", ColumnarFile.STRING),
+                new ColumnarFile.Column("lastUpdateDate", ColumnarFile.TIMESTAMP),
+                new ColumnarFile.Column("additionalComments", ColumnarFile.STRING))
+   };
+
+   private final GameRental esql;
+   private final File dir;
+   private final int groupRows;
+   private final int level;
+
+   public SnapshotExport(GameRental esql, File dir) {
+      this(esql, dir, Integer.getInteger("gamerental.export.groupRows", 65536),
+           Integer.getInteger("gamerental.export.level", Deflater.BEST_SPEED));
+   }
+
+   public SnapshotExport(GameRental esql, File dir, int groupRows, int level) {
+      this.esql = esql;
+      this.dir = dir;
+      this.groupRows = groupRows;
+      this.level = level;
+   }
+
+   private File watermarkFile(Table table) {
+      return new File(dir, table.name + ".watermark");
+   }
+
+   /**
+    * @return the cut of the last complete export of a table, null if none
+    */
+   public Timestamp getWatermark(Table table) throws IOException {
+      File f = watermarkFile(table);
+      if (!f.exists()) return null;
+      return Timestamp.valueOf(new String(Files.readAllBytes(f.toPath()), StandardCharsets.UTF_8).trim());
+   }
+
+   private void setWatermark(Table table, Timestamp cut) throws IOException {
+      File tmp = new File(dir, table.name + ".watermark.tmp");
+      Files.write(tmp.toPath(), (cut.toString() + "\n").getBytes(StandardCharsets.UTF_8));
+      Files.move(tmp.toPath(), watermarkFile(table).toPath(), StandardCopyOption.REPLACE_EXISTING,
+                 StandardCopyOption.ATOMIC_MOVE);
+   }
+
+   /**
+    * Exports one table up to the cut. The file is written under a temporary
+    * name and renamed when complete, and only then does the watermark move.
+    *
+    * @param incremental export only the rows after the current watermark,
+    *                    falls back to a full export when there is none
+    * @return the finished writer, for its row and byte counts
+    */
+   public ColumnarFile.Writer export(Table table, Timestamp cut, boolean incremental) throws SQLException, IOException {
+      Timestamp from = incremental ? getWatermark(table) : null;
+      String stamp = new SimpleDateFormat("yyyyMMdd-HHmmss").format(cut);
+      File file = new File(dir, table.name + "-" + (from == null ? "full-" : "delta-") + stamp + ".grc");
+      File tmp = new File(dir, file.getName() + ".tmp");
+
+      final ColumnarFile.Writer writer = new ColumnarFile.Writer(tmp, table.columns, groupRows, level);
+      writer.putMeta("table", table.name);
+      writer.putMeta("from", from == null ? null : from.toString());
+      writer.putMeta("to", cut.toString());
+      boolean done = false;
+      try {
+         RowHandler handler = new RowHandler() {
+            public boolean handle(Row row) throws SQLException {
+               try {
+                  writer.add(row);
+               } catch (IOException e) {
+                  throw new SQLException("Writing the snapshot failed: " + e.getMessage());
+               }
+               return true;
+            }
+         };
+         if (from == null)
+            esql.executeQueryAndStream(table.query(false), handler, cut);
+         else
+            esql.executeQueryAndStream(table.query(true), handler, from, cut);
+         writer.close();
+         done = true;
+      } finally {
+         if (!done) {
+            try {
+               writer.close();
+            } catch (IOException e) {
+               // the export already failed
+            }
+            tmp.delete();
+         }
+      }
+      Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+      setWatermark(table, cut);
+      return writer;
+   }//end export
+
+   /**
+    * @return the database clock minus the lag, the cut of this export
+    */
+   public Timestamp cut(int lagSeconds) throws SQLException {
+      List<List<String>> r = esql.executeQueryAndReturnResult(
+         "SELECT CAST(LOCALTIMESTAMP - ? * interval '1 second' AS timestamp(3))", lagSeconds);
+      return Timestamp.valueOf(r.get(0).get(0));
+   }
+
+   static void usage() {
+      System.err.println(
+         "Usage: java [-classpath <classpath>] " + SnapshotExport.class.getName() +
+         " <dbname> <port> <user> <dir> [options]\n" +
+         "  --incremental        export only the rows after each table's watermark\n" +
+         "  --tables <a,b,...>   tables to export (default RentalOrder,GamesInOrder,TrackingInfo)\n" +
+         "  --lag <seconds>      cut this far behind the database clock (default 60)\n" +
+         "  --group-rows <n>     rows per row group (default 65536)\n" +
+         "  read the files with ColumnarFile <file> --info");
+   }
+
+   /**
+    * The export command
+    *
+    * @param args <dbname> <port> <user> <dir> followed by the options in usage()
+    */
+   public static void main(String[] args) {
+      if (args.length < 4) {
+         usage();
+         return;
+      }
+      boolean incremental = false;
+      int lag = 60;
+      int groupRows = Integer.getInteger("gamerental.export.groupRows", 65536);
+      List<Table> tables = new ArrayList<Table>(Arrays.asList(TABLES));
+      for (int i = 4; i < args.length; ++i) {
+         String a = args[i];
+         if (a.equals("--incremental")) {
+            incremental = true;
+         } else if (a.equals("--lag") && i + 1 < args.length) {
+            lag = Integer.parseInt(args[++i]);
+         } else if (a.equals("--group-rows") && i + 1 < args.length) {
+            groupRows = Integer.parseInt(args[++i]);
+         } else if (a.equals("--tables") && i + 1 < args.length) {
+            tables.clear();
+            for (String name : args[++i].split(",")) {
+               Table found = null;
+               for (Table t : TABLES)
+                  if (t.name.equalsIgnoreCase(name.trim())) found = t;
+               if (found == null) {
+                  System.err.println("❌Unknown table " + name);
+                  return;
+               }
+               tables.add(found);
+            }
+         } else {
+            usage();
+            return;
+         }
+      }
+
+      GameRental esql = null;
+      try {
+         Class.forName ("org.postgresql.Driver").newInstance ();
+         esql = new GameRental(args[0], args[1], args[2], "");
+         File dir = new File(args[3]);
+         if (!dir.isDirectory() && !dir.mkdirs())
+            throw new IOException("Cannot create " + dir);
+         SnapshotExport export = new SnapshotExport(esql, dir, groupRows,
+                                                    Integer.getInteger("gamerental.export.level", Deflater.BEST_SPEED));
+         Timestamp cut = export.cut(lag);
+         for (Table table : tables) {
+            long start = System.nanoTime();
+            ColumnarFile.Writer w = export.export(table, cut, incremental);
+            double seconds = Math.max(1e-9, (System.nanoTime() - start) / 1e9);
+            System.out.println(String.format("✅%-13s %,12d rows %,14d bytes in %.2f s (%,.0f rows/s, %.1f MB/s)",
+                                             table.name, w.getRows(), w.getBytes(), seconds,
+                                             w.getRows() / seconds, w.getBytes() / seconds / 1e6));
+         }
+         System.out.println("watermark " + cut);
+      } catch (Exception e) {
+         System.err.println("❌Export failed: " + e.getMessage());
+      } finally {
+         if (esql != null) esql.cleanup();
+      }
+   }//end main
+
+}//end SnapshotExport
@@ -0,0 +1,413 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+import java.io.File;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class applies courier scan events to TrackingInfo in batches instead
+ * of one updateTrackingInfo call per event. Producers hand events to a
+ * bounded queue and block when it is full, so a burst slows the feed down
+ * rather than growing the heap. A single writer drains the queue for up to
+ * one window, merges the events of each trackingID into one update (later
+ * non-empty fields win) and writes the batch as multi-row UPDATE ... FROM
+ * (VALUES ...) statements in one transaction. The states a merge skips over
+ * are written to TrackingEvent first, one statement per step, so the
+ * history still holds every event of the batch in order.
+ *
+ */
+public class TrackingIngestor {
+
+   /**
+    * One scan event, empty fields leave the column unchanged.
+    */
+   public static class Event {
+      final String trackingID;
+      String status;
+      String currentLocation;
+      String courierName;
+      String additionalComments;
+      // the comments of the latest event merged in, what the history records for it
+      String comments;
+      // the state before each merge, oldest first
+      List<Event> steps;
+
+      public Event(String trackingID, String status, String currentLocation, String courierName, String additionalComments) {
+         this.trackingID = trackingID;
+         this.status = status;
+         this.currentLocation = currentLocation;
+         this.courierName = courierName;
+         this.additionalComments = additionalComments;
+         this.comments = additionalComments;
+      }
+
+      // folds a later event for the same trackingID into this one
+      void merge(Event later) {
+         if (steps == null) steps = new ArrayList<Event>();
+         steps.add(new Event(trackingID, status, currentLocation, courierName, comments));
+         if (!later.status.isEmpty()) status = later.status;
+         if (!later.currentLocation.isEmpty()) currentLocation = later.currentLocation;
+         if (!later.courierName.isEmpty()) courierName = later.courierName;
+         if (!later.additionalComments.isEmpty()) additionalComments = later.additionalComments;
+         comments = later.additionalComments;
+      }
+   }//end Event
+
+   // marks the end of the feed in the queue
+   private static final Event END = new Event("", "", "", "", "");
+
+   private final GameRental esql;
+   private final BlockingQueue<Event> queue;
+   private final int batchSize;
+   private final int rowsPerStatement;
+   private final long windowMillis;
+   // the statements of a full chunk, built once
+   private final String fullStatement;
+   private final String fullHistory;
+   private Thread writer;
+   private volatile SQLException failure;
+
+   private final LatencyHistogram batchLatency = new LatencyHistogram();
+   private final AtomicLong received = new AtomicLong(0);
+   private final AtomicLong coalesced = new AtomicLong(0);
+   private final AtomicLong updated = new AtomicLong(0);
+   private final AtomicLong unknown = new AtomicLong(0);
+   private final AtomicLong batches = new AtomicLong(0);
+   private final AtomicLong dropped = new AtomicLong(0);
+   private final AtomicLong blockedPuts = new AtomicLong(0);
+   private final AtomicLong blockedNanos = new AtomicLong(0);
+
+   public TrackingIngestor(GameRental esql) {
+      this(esql, Integer.getInteger("gamerental.ingest.queue", 65536),
+           Integer.getInteger("gamerental.ingest.batchSize", 5000),
+           Integer.getInteger("gamerental.ingest.rowsPerStatement", 1000),
+           Long.getLong("gamerental.ingest.windowMillis", 50L));
+   }
+
+   public TrackingIngestor(GameRental esql, int queueSize, int batchSize, int rowsPerStatement, long windowMillis) {
+      this.esql = esql;
+      this.queue = new ArrayBlockingQueue<Event>(queueSize);
+      this.batchSize = batchSize;
+      this.rowsPerStatement = rowsPerStatement;
+      this.windowMillis = windowMillis;
+      this.fullStatement = statement(rowsPerStatement);
+      this.fullHistory = history(rowsPerStatement);
+   }
+
+   /**
+    * Starts the writer thread.
+    */
+   public void start() {
+      writer = new Thread(new Runnable() {
+         public void run() {
+            Metrics.begin("trackingIngest");
+            try {
+               drain();
+            } catch (SQLException e) {
+               failure = e;
+               // unblocks producers, their next submit reports the failure
+               int queued = queue.size();
+               queue.clear();
+               dropped.addAndGet(queued);
+               System.err.println("Tracking ingest stopped: " + e.getMessage() + "; " + dropped.get()
+                                  + " events dropped, " + queued + " of them still queued");
+            } catch (InterruptedException e) {
+               Thread.currentThread().interrupt();
+            }
+         }
+      }, "tracking-ingestor");
+      writer.start();
+   }//end start
+
+   /**
+    * Queues one event, blocking while the queue is full.
+    *
+    * @throws java.sql.SQLException when the writer has failed
+    */
+   public void submit(Event event) throws SQLException, InterruptedException {
+      if (failure != null)
+         throw failure;
+      received.incrementAndGet();
+      if (!queue.offer(event)) {
+         long start = System.nanoTime();
+         blockedPuts.incrementAndGet();
+         while (!queue.offer(event, 100, TimeUnit.MILLISECONDS))
+            if (failure != null) throw failure;
+         blockedNanos.addAndGet(System.nanoTime() - start);
+      }
+   }//end submit
+
+   /**
+    * Flushes every queued event and stops the writer.
+    *
+    * @throws java.sql.SQLException when a batch failed
+    */
+   public void finish() throws SQLException, InterruptedException {
+      if (failure == null)
+         queue.put(END);
+      writer.join();
+      if (failure != null)
+         throw failure;
+   }//end finish
+
+   private void drain() throws SQLException, InterruptedException {
+      Map<String, Event> batch = new LinkedHashMap<String, Event>();
+      boolean done = false;
+      while (!done) {
+         Event first = queue.take();
+         if (first == END) break;
+         add(batch, first);
+         long deadline = System.nanoTime() + windowMillis * 1000000L;
+         while (batch.size() < batchSize) {
+            long wait = deadline - System.nanoTime();
+            Event e = wait > 0 ? queue.poll(wait, TimeUnit.NANOSECONDS) : queue.poll();
+            if (e == null) break;
+            if (e == END) { done = true; break; }
+            add(batch, e);
+         }
+         try {
+            write(batch);
+         } catch (SQLException e) {
+            // the failed transaction rolled the whole batch back
+            dropped.addAndGet(batch.size());
+            throw e;
+         }
+         batch.clear();
+      }
+   }//end drain
+
+   private void add(Map<String, Event> batch, Event e) {
+      Event pending = batch.get(e.trackingID);
+      if (pending == null) {
+         batch.put(e.trackingID, e);
+      } else {
+         pending.merge(e);
+         coalesced.incrementAndGet();
+      }
+   }
+
+   // NULLIF turns the empty fields into NULL so COALESCE keeps the stored value
+   private static String values(int rows) {
+      StringBuilder sb = new StringBuilder("(VALUES ");
+      for (int i = 0; i < rows; ++i) {
+         if (i > 0) sb.append(", ");
+         sb.append("(CAST(? AS varchar), NULLIF(CAST(? AS varchar), ''), NULLIF(CAST(? AS varchar), ''), " +
+                   "NULLIF(CAST(? AS varchar), ''), NULLIF(CAST(? AS text), ''))");
+      }
+      sb.append(") AS V (trackingID, status, currentLocation, courierName, additionalComments)");
+      return sb.toString();
+   }//end values
+
+   // clock_timestamp() keeps the final state after the steps written before it in the transaction
+   private static String statement(int rows) {
+      return "UPDATE TrackingInfo T SET " +
+             "status = COALESCE(V.status, T.status), " +
+             "currentLocation = COALESCE(V.currentLocation, T.currentLocation), " +
+             "courierName = COALESCE(V.courierName, T.courierName), " +
+             "additionalComments = COALESCE(V.additionalComments, T.additionalComments), " +
+             "lastUpdateDate = clock_timestamp() " +
+             "FROM " + values(rows) + " WHERE T.trackingID = V.trackingID";
+   }//end statement
+
+   // the history row log_tracking_events would have written for a merged step
+   private static String history(int rows) {
+      return "INSERT INTO TrackingEvent (trackingID, eventTime, status, currentLocation, courierName, additionalComments) " +
+             "SELECT T.trackingID, clock_timestamp(), COALESCE(V.status, T.status), " +
+             "COALESCE(V.currentLocation, T.currentLocation), COALESCE(V.courierName, T.courierName), " +
+             "V.additionalComments " +
+             "FROM " + values(rows) + " JOIN TrackingInfo T ON T.trackingID = V.trackingID";
+   }//end history
+
+   /**
+    * Writes one coalesced batch in a single transaction: the merged steps of
+    * each trackingID, the n-th steps of the batch in one pass, then the final
+    * states.
+    */
+   void write(Map<String, Event> batch) throws SQLException {
+      long start = System.nanoTime();
+      long rows = 0;
+      ConnectionPool.PooledConnection conn = esql.getPool().acquire();
+      try {
+         Connection c = conn.getConnection();
+         c.setAutoCommit(false);
+         for (int step = 0; ; ++step) {
+            List<Event> events = new ArrayList<Event>();
+            for (Event e : batch.values())
+               if (e.steps != null && e.steps.size() > step)
+                  events.add(e.steps.get(step));
+            if (events.isEmpty()) break;
+            execute(conn, events, true);
+         }
+         rows = execute(conn, batch.values(), false);
+         c.commit();
+      } finally {
+         esql.getPool().release(conn);
+      }
+      updated.addAndGet(rows);
+      unknown.addAndGet(batch.size() - rows);
+      batches.incrementAndGet();
+      batchLatency.record(System.nanoTime() - start);
+   }//end write
+
+   /**
+    * Writes events as history rows or as updates of TrackingInfo, a chunk
+    * of rowsPerStatement at a time.
+    *
+    * @return the number of rows written
+    */
+   private long execute(ConnectionPool.PooledConnection conn, Collection<Event> events, boolean asHistory)
+      throws SQLException {
+      long rows = 0;
+      Iterator<Event> it = events.iterator();
+      int remaining = events.size();
+      while (remaining > 0) {
+         // full chunks share one cached statement, only the tail has its own shape
+         int n = Math.min(remaining, rowsPerStatement);
+         String sql = n == rowsPerStatement ? (asHistory ? fullHistory : fullStatement)
+                                            : (asHistory ? history(n) : statement(n));
+         PreparedStatement stmt = conn.prepare(sql);
+         List<Object> params = new ArrayList<Object>(n * 5);
+         for (int i = 0; i < n; ++i) {
+            Event e = it.next();
+            params.add(e.trackingID);
+            params.add(e.status);
+            params.add(e.currentLocation);
+            params.add(e.courierName);
+            params.add(asHistory ? e.comments : e.additionalComments);
+         }
+         GameRental.bind(stmt, params.toArray());
+         long t0 = System.nanoTime();
+         int chunk = stmt.executeUpdate();
+         Metrics.record(sql, t0, chunk, 0, false);
+         rows += chunk;
+         remaining -= n;
+      }
+      return rows;
+   }//end execute
+
+   /**
+    * Reads events from a CSV feed with the columns trackingID, status,
+    * currentLocation, courierName, additionalComments. A header row is
+    * skipped.
+    *
+    * @return the number of events read
+    */
+   public long feed(Reader source) throws Exception {
+      CsvReader csv = new CsvReader(source);
+      long n = 0;
+      String[] r;
+      while ((r = csv.next()) != null) {
+         if (r.length == 0 || (n == 0 && r[0].equalsIgnoreCase("trackingID")))
+            continue;
+         if (r.length < 5)
+            r = java.util.Arrays.copyOf(r, 5);
+         submit(new Event(r[0], value(r[1]), value(r[2]), value(r[3]), value(r[4])));
+         n++;
+      }
+      return n;
+   }//end feed
+
+   private static String value(String field) {
+      return field == null ? "" : field;
+   }
+
+   /**
+    * Summarises the counters, and the batch latency since the last call.
+    */
+   public String report() {
+      return String.format("received=%d coalesced=%d updated=%d unknown=%d batches=%d queued=%d dropped=%d " +
+                           "blocked=%d (%.1f ms) batch %s",
+                           received.get(), coalesced.get(), updated.get(), unknown.get(), batches.get(),
+                           queue.size(), dropped.get(), blockedPuts.get(), blockedNanos.get() / 1e6,
+                           batchLatency.drain());
+   }//end report
+
+   public long getReceived() { return received.get(); }
+   public long getUpdated() { return updated.get(); }
+
+   /**
+    * The ingestion command
+    *
+    * @param args <dbname> <port> <user> [file|-]
+    */
+   public static void main(String[] args) {
+      if (args.length < 3 || args.length > 4) {
+         System.err.println(
+            "Usage: java [-classpath <classpath>] " + TrackingIngestor.class.getName() +
+            " <dbname> <port> <user> [file|-]\n" +
+            "  reads trackingID,status,currentLocation,courierName,additionalComments rows, stdin by default");
+         return;
+      }
+      GameRental esql = null;
+      try {
+         Class.forName ("org.postgresql.Driver").newInstance ();
+         esql = new GameRental(args[0], args[1], args[2], "");
+         final TrackingIngestor ingestor = new TrackingIngestor(esql);
+         Reader source = args.length == 4 && !args[3].equals("-")
+            ? BulkLoader.open(new File(args[3]))
+            : new InputStreamReader(System.in, StandardCharsets.UTF_8);
+
+         // prints throughput and batch latency once a second
+         final long start = System.nanoTime();
+         Thread reporter = new Thread(new Runnable() {
+            public void run() {
+               long last = 0;
+               try {
+                  while (true) {
+                     Thread.sleep(1000);
+                     long now = ingestor.getReceived();
+                     System.err.println(String.format("%,10d events/s  %s", now - last, ingestor.report()));
+                     last = now;
+                  }
+               } catch (InterruptedException e) {
+                  // finished
+               }
+            }
+         }, "tracking-ingestor-report");
+         reporter.setDaemon(true);
+
+         ingestor.start();
+         reporter.start();
+         long events;
+         try {
+            events = ingestor.feed(source);
+         } finally {
+            source.close();
+         }
+         ingestor.finish();
+         reporter.interrupt();
+
+         double seconds = Math.max(1e-9, (System.nanoTime() - start) / 1e9);
+         System.out.println(String.format("✅%,d events applied in %.2f s (%,.0f events/s)", events, seconds, events / seconds));
+         System.out.println(ingestor.report());
+      } catch (Exception e) {
+         System.err.println("❌Ingestion failed: " + e.getMessage());
+      } finally {
+         if (esql != null) esql.cleanup();
+      }
+   }//end main
+
+}//end TrackingIngestor
@@ -2,9 +2,12 @@
 DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
 #cs166_createdb $USER"_project_phase_3_DB"
 cs166_psql -p $PGPORT $USER"_project_phase_3_DB" < $DIR/../src/create_tables.sql
-cs166_psql -p $PGPORT $USER"_project_phase_3_DB" < $DIR/../src/create_indexes.sql
-cs166_psql -p $PGPORT $USER"_project_phase_3_DB" < $DIR/../src/create_triggers.sql
-cs166_psql -p $PGPORT $USER"_project_phase_3_DB" < $DIR/../src/load_data.sql
+
+# stream data/*.csv into the tables; the loader creates the indexes from
+# create_indexes.sql and the triggers from create_triggers.sql after the load
+JAVA=$DIR/../../java
+javac -d $JAVA/classes -cp $JAVA/lib/pg73jdbc3.jar $JAVA/src/*.java
+java -cp $JAVA/classes:$JAVA/lib/pg73jdbc3.jar BulkLoader $USER"_project_phase_3_DB" $PGPORT $USER $DIR/../../data $DIR/../src
 
 # cs166_psql $USER'_project_phase_3_DB' < $DIR/../src/create_tables.sql
 # # psql -h localhost -p $PGPORT $DB_NAME < $DIR/../src/create_tables.sql > /dev/null
@@ -3,6 +3,16 @@ DROP TABLE IF EXISTS Catalog CASCADE;
 DROP TABLE IF EXISTS RentalOrder CASCADE;
 DROP TABLE IF EXISTS TrackingInfo CASCADE;
 DROP TABLE IF EXISTS GamesInOrder CASCADE;
+DROP TABLE IF EXISTS TrackingEvent CASCADE;
+DROP TABLE IF EXISTS DailyRevenue CASCADE;
+DROP TABLE IF EXISTS GameRentals CASCADE;
+DROP TABLE IF EXISTS GenreRentals CASCADE;
+DROP TABLE IF EXISTS OrderArchive CASCADE;
+DROP TABLE IF EXISTS ArchivedLogin CASCADE;
+DROP SEQUENCE IF EXISTS IdWorker;
+
+-- leases a worker number to each process generating IDs, see IdGenerator
+CREATE SEQUENCE IdWorker MINVALUE 0 MAXVALUE 1023 START 0 CYCLE;
 
 CREATE TABLE Users ( login varchar(50) NOT NULL,
                      password varchar(30) NOT NULL,
@@ -28,10 +38,18 @@ CREATE TABLE RentalOrder ( rentalOrderID varchar(50) NOT NULL,
                            totalPrice decimal(10,2) NOT NULL,
                            orderTimestamp timestamp NOT NULL,
                            dueDate timestamp NOT NULL,
-                           PRIMARY KEY(rentalOrderID),
+                           overdueCounted boolean NOT NULL DEFAULT false,
+                           PRIMARY KEY(rentalOrderID, orderTimestamp),
                            FOREIGN KEY(login) REFERENCES Users(login)
                            ON DELETE CASCADE
-);
+) PARTITION BY RANGE (orderTimestamp);
+
+-- Orders are partitioned by month, and so are their GamesInOrder rows,
+-- which carry the orderTimestamp of their order. A partitioned key must
+-- include the partition column, so GamesInOrder and TrackingInfo refer to
+-- their order through (rentalOrderID, orderTimestamp). PartitionManager
+-- creates the months ahead of time and moves old months to the archive.
+CREATE TABLE RentalOrder_default PARTITION OF RentalOrder DEFAULT;
 
 CREATE TABLE TrackingInfo ( trackingID varchar(50) NOT NULL,
                            rentalOrderID varchar(50) NOT NULL,
@@ -40,16 +58,163 @@ CREATE TABLE TrackingInfo ( trackingID varchar(50) NOT NULL,
                            courierName varchar(60) NOT NULL,
                            lastUpdateDate timestamp NOT NULL,
                            additionalComments text,
+                           orderTimestamp timestamp NOT NULL,
                            PRIMARY KEY(trackingID),
-                           FOREIGN KEY(rentalOrderID) REFERENCES RentalOrder(rentalOrderID)
+                           FOREIGN KEY(rentalOrderID, orderTimestamp) REFERENCES RentalOrder(rentalOrderID, orderTimestamp)
                            ON DELETE CASCADE
-);
+) WITH (fillfactor = 80);
 
 CREATE TABLE GamesInOrder ( rentalOrderID varchar(50) NOT NULL,
                            gameID varchar(50) NOT NULL,
                            unitsOrdered integer NOT NULL,
-                           PRIMARY KEY(rentalOrderID, gameID),
-                           FOREIGN KEY(rentalOrderID) REFERENCES RentalOrder(rentalOrderID) ON DELETE CASCADE,
+                           orderTimestamp timestamp NOT NULL,
+                           PRIMARY KEY(rentalOrderID, gameID, orderTimestamp),
+                           FOREIGN KEY(rentalOrderID, orderTimestamp) REFERENCES RentalOrder(rentalOrderID, orderTimestamp)
+                           ON DELETE CASCADE,
                            FOREIGN KEY(gameID) REFERENCES Catalog(gameID)
                            ON DELETE CASCADE
+) PARTITION BY RANGE (orderTimestamp);
+
+CREATE TABLE GamesInOrder_default PARTITION OF GamesInOrder DEFAULT;
+
+-- One row per month of orders PartitionManager moved out of RentalOrder,
+-- GamesInOrder and TrackingInfo into a compressed file of the local archive.
+CREATE TABLE OrderArchive ( month date NOT NULL,
+                            file varchar(300) NOT NULL,
+                            orders bigint NOT NULL,
+                            lines bigint NOT NULL,
+                            archivedAt timestamp NOT NULL,
+                            PRIMARY KEY(month)
 );
+
+-- The archived months holding orders of each login, so a lookup that falls
+-- through to the archive opens only the files of that user's months.
+CREATE TABLE ArchivedLogin ( login varchar(50) NOT NULL,
+                             month date NOT NULL,
+                             orders bigint NOT NULL,
+                             PRIMARY KEY(login, month)
+);
+
+-- Rollups behind the manager dashboards, maintained by the triggers in
+-- create_triggers.sql in the same transaction as the orders themselves.
+CREATE TABLE DailyRevenue ( day date NOT NULL,
+                            orders bigint NOT NULL DEFAULT 0,
+                            revenue decimal(14,2) NOT NULL DEFAULT 0,
+                            PRIMARY KEY(day)
+);
+
+CREATE TABLE GameRentals ( gameID varchar(50) NOT NULL,
+                           units bigint NOT NULL DEFAULT 0,
+                           orders bigint NOT NULL DEFAULT 0,
+                           PRIMARY KEY(gameID)
+);
+
+-- counted under the genre the game had when it was rented
+CREATE TABLE GenreRentals ( genre varchar(30) NOT NULL,
+                            units bigint NOT NULL DEFAULT 0,
+                            orders bigint NOT NULL DEFAULT 0,
+                            PRIMARY KEY(genre)
+);
+
+-- Append-only history of every scan. TrackingInfo keeps the latest state of
+-- each shipment; this log keeps one compact row per change, comments only
+-- when they changed. Partitioned by month so old history can be dropped or
+-- archived a partition at a time.
+CREATE TABLE TrackingEvent ( trackingID varchar(50) NOT NULL,
+                             eventTime timestamp NOT NULL,
+                             status varchar(50) NOT NULL,
+                             currentLocation varchar(60) NOT NULL,
+                             courierName varchar(60) NOT NULL,
+                             additionalComments text
+) PARTITION BY RANGE (eventTime);
+
+CREATE TABLE TrackingEvent_default PARTITION OF TrackingEvent DEFAULT;
+
+-- Creates the monthly partitions of parent covering from_ts to to_ts. Rows
+-- that already landed in the default partition move into their month, and
+-- are written to the new partition itself so the statement triggers of the
+-- parent do not count them a second time.
+CREATE OR REPLACE FUNCTION ensure_monthly_partitions(parent text, key text, from_ts timestamp, to_ts timestamp)
+RETURNS integer AS $$
+DECLARE
+    month_start timestamp := date_trunc('month', from_ts);
+    part text;
+    created integer := 0;
+BEGIN
+    IF from_ts IS NULL OR to_ts IS NULL THEN
+        RETURN 0;
+    END IF;
+    WHILE month_start <= to_ts LOOP
+        part := lower(parent) || '_' || to_char(month_start, 'YYYY_MM');
+        IF to_regclass(part) IS NULL THEN
+            EXECUTE format('CREATE TEMP TABLE moved_rows AS SELECT * FROM %I WHERE %I >= %L AND %I < %L',
+                           lower(parent) || '_default', lower(key), month_start, lower(key), month_start + interval '1 month');
+            EXECUTE format('DELETE FROM %I WHERE %I >= %L AND %I < %L',
+                           lower(parent) || '_default', lower(key), month_start, lower(key), month_start + interval '1 month');
+            EXECUTE format('CREATE TABLE %I PARTITION OF %I FOR VALUES FROM (%L) TO (%L)',
+                           part, lower(parent), month_start, month_start + interval '1 month');
+            EXECUTE format('INSERT INTO %I SELECT * FROM moved_rows', part);
+            DROP TABLE moved_rows;
+            created := created + 1;
+        END IF;
+        month_start := month_start + interval '1 month';
+    END LOOP;
+    RETURN created;
+END;
+$$ LANGUAGE plpgsql;
+
+-- Creates the monthly RentalOrder and GamesInOrder partitions covering
+-- from_ts to to_ts. Deleting an order from the default partition would
+-- cascade to its games and shipment, so those leave first and come back
+-- after the order; the shipments come back without a second history row.
+CREATE OR REPLACE FUNCTION ensure_order_partitions(from_ts timestamp, to_ts timestamp)
+RETURNS integer AS $$
+DECLARE
+    month_start timestamp := date_trunc('month', from_ts);
+    month_end timestamp;
+    suffix text;
+    created integer := 0;
+BEGIN
+    IF from_ts IS NULL OR to_ts IS NULL THEN
+        RETURN 0;
+    END IF;
+    WHILE month_start <= to_ts LOOP
+        month_end := month_start + interval '1 month';
+        suffix := to_char(month_start, 'YYYY_MM');
+        IF to_regclass('rentalorder_' || suffix) IS NULL THEN
+            CREATE TEMP TABLE moved_orders AS
+                SELECT * FROM RentalOrder_default WHERE orderTimestamp >= month_start AND orderTimestamp < month_end;
+            CREATE TEMP TABLE moved_games AS
+                SELECT * FROM GamesInOrder_default WHERE orderTimestamp >= month_start AND orderTimestamp < month_end;
+            CREATE TEMP TABLE moved_tracking AS
+                SELECT T.* FROM TrackingInfo T JOIN moved_orders O
+                ON T.rentalOrderID = O.rentalOrderID AND T.orderTimestamp = O.orderTimestamp;
+            DELETE FROM TrackingInfo T USING moved_tracking M WHERE T.trackingID = M.trackingID;
+            DELETE FROM GamesInOrder_default WHERE orderTimestamp >= month_start AND orderTimestamp < month_end;
+            DELETE FROM RentalOrder_default WHERE orderTimestamp >= month_start AND orderTimestamp < month_end;
+            EXECUTE format('CREATE TABLE %I PARTITION OF RentalOrder FOR VALUES FROM (%L) TO (%L)',
+                           'rentalorder_' || suffix, month_start, month_end);
+            IF to_regclass('gamesinorder_' || suffix) IS NULL THEN
+                EXECUTE format('CREATE TABLE %I PARTITION OF GamesInOrder FOR VALUES FROM (%L) TO (%L)',
+                               'gamesinorder_' || suffix, month_start, month_end);
+            END IF;
+            EXECUTE format('INSERT INTO %I SELECT * FROM moved_orders', 'rentalorder_' || suffix);
+            EXECUTE format('INSERT INTO %I SELECT * FROM moved_games', 'gamesinorder_' || suffix);
+            PERFORM set_config('gamerental.moving_orders', 'on', true);
+            INSERT INTO TrackingInfo SELECT * FROM moved_tracking;
+            PERFORM set_config('gamerental.moving_orders', 'off', true);
+            DROP TABLE moved_orders;
+            DROP TABLE moved_games;
+            DROP TABLE moved_tracking;
+            created := created + 1;
+        END IF;
+        month_start := month_end;
+    END LOOP;
+    -- games of a month whose orders already had their partition
+    PERFORM ensure_monthly_partitions('GamesInOrder', 'orderTimestamp', from_ts, to_ts);
+    RETURN created;
+END;
+$$ LANGUAGE plpgsql;
+
+SELECT ensure_monthly_partitions('TrackingEvent', 'eventTime', now()::timestamp, (now() + interval '2 months')::timestamp);
+SELECT ensure_order_partitions(now()::timestamp, (now() + interval '2 months')::timestamp);
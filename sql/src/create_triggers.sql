@@ -1,40 +1,183 @@
-CREATE OR REPLACE FUNCTION update_overdue_games() 
+-- Users.numOverDueGames is maintained by OverdueTracker, which counts each
+-- order once when it passes its due date. The old row trigger counted at
+-- insert/update time only and recounted every update of an overdue order.
+DROP TRIGGER IF EXISTS check_overdue_games ON RentalOrder;
+DROP FUNCTION IF EXISTS update_overdue_games();
+
+-- Recomputes the totals of every order touched by one INSERT or UPDATE
+-- statement on GamesInOrder in a single set-based pass. Orders whose total
+-- is already correct (e.g. computed by placeOrder) are not rewritten.
+CREATE OR REPLACE FUNCTION update_total_price()
+RETURNS TRIGGER AS $$
+BEGIN
+    UPDATE RentalOrder R
+    SET totalPrice = T.total
+    FROM (SELECT G.rentalOrderID, G.orderTimestamp, SUM(C.price * G.unitsOrdered) AS total
+          FROM GamesInOrder G JOIN Catalog C ON G.gameID = C.gameID
+          WHERE (G.rentalOrderID, G.orderTimestamp) IN
+                (SELECT DISTINCT rentalOrderID, orderTimestamp FROM changed_games)
+          GROUP BY G.rentalOrderID, G.orderTimestamp) T
+    WHERE R.rentalOrderID = T.rentalOrderID
+      AND R.orderTimestamp = T.orderTimestamp
+      AND R.totalPrice IS DISTINCT FROM T.total;
+    RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+-- transition tables allow a single event per trigger, hence two triggers
+CREATE TRIGGER recalculate_total_price
+AFTER INSERT ON GamesInOrder
+REFERENCING NEW TABLE AS changed_games
+FOR EACH STATEMENT
+EXECUTE PROCEDURE update_total_price();
+
+CREATE TRIGGER recalculate_total_price_on_update
+AFTER UPDATE ON GamesInOrder
+REFERENCING NEW TABLE AS changed_games
+FOR EACH STATEMENT
+EXECUTE PROCEDURE update_total_price();
+
+
+-- Appends one TrackingEvent row per TrackingInfo row written by the
+-- statement, so the history is kept in a single set-based insert even for
+-- the batched courier feed. Comments are only copied when they changed.
+-- Shipments ensure_order_partitions moves along with their order already
+-- have their history.
+CREATE OR REPLACE FUNCTION log_tracking_events()
 RETURNS TRIGGER AS $$
 BEGIN
-    IF NEW.dueDate < NOW() THEN
-        UPDATE Users SET numOverDueGames = numOverDueGames + 1 WHERE login = NEW.login;
+    IF current_setting('gamerental.moving_orders', true) = 'on' THEN
+        RETURN NULL;
+    END IF;
+    IF TG_OP = 'INSERT' THEN
+        INSERT INTO TrackingEvent (trackingID, eventTime, status, currentLocation, courierName, additionalComments)
+        SELECT trackingID, lastUpdateDate, status, currentLocation, courierName, additionalComments
+        FROM new_rows;
+    ELSE
+        INSERT INTO TrackingEvent (trackingID, eventTime, status, currentLocation, courierName, additionalComments)
+        SELECT N.trackingID, N.lastUpdateDate, N.status, N.currentLocation, N.courierName,
+               CASE WHEN N.additionalComments IS DISTINCT FROM O.additionalComments THEN N.additionalComments END
+        FROM new_rows N JOIN old_rows O ON O.trackingID = N.trackingID;
     END IF;
-    RETURN NEW;
+    RETURN NULL;
 END;
 $$ LANGUAGE plpgsql;
 
+CREATE TRIGGER log_tracking_events_on_insert
+AFTER INSERT ON TrackingInfo
+REFERENCING NEW TABLE AS new_rows
+FOR EACH STATEMENT
+EXECUTE PROCEDURE log_tracking_events();
 
-CREATE TRIGGER check_overdue_games
-AFTER INSERT OR UPDATE ON RentalOrder
-FOR EACH ROW
-EXECUTE PROCEDURE update_overdue_games();
+CREATE TRIGGER log_tracking_events_on_update
+AFTER UPDATE ON TrackingInfo
+REFERENCING OLD TABLE AS old_rows NEW TABLE AS new_rows
+FOR EACH STATEMENT
+EXECUTE PROCEDURE log_tracking_events();
 
 
+-- Keeps DailyRevenue in step with RentalOrder. Each statement folds its
+-- rows into one delta per day, so placing an order touches a single
+-- rollup row and the totals recalculated by update_total_price follow.
+CREATE OR REPLACE FUNCTION rollup_daily_revenue()
+RETURNS TRIGGER AS $$
+BEGIN
+    IF TG_OP = 'INSERT' THEN
+        INSERT INTO DailyRevenue (day, orders, revenue)
+        SELECT orderTimestamp::date, COUNT(*), SUM(totalPrice) FROM new_rows GROUP BY 1
+        ON CONFLICT (day) DO UPDATE
+        SET orders = DailyRevenue.orders + EXCLUDED.orders, revenue = DailyRevenue.revenue + EXCLUDED.revenue;
+    ELSIF TG_OP = 'DELETE' THEN
+        UPDATE DailyRevenue D SET orders = D.orders - O.orders, revenue = D.revenue - O.revenue
+        FROM (SELECT orderTimestamp::date AS day, COUNT(*) AS orders, SUM(totalPrice) AS revenue
+              FROM old_rows GROUP BY 1) O
+        WHERE D.day = O.day;
+    ELSE
+        -- an update that moves no order to another day or price, like the
+        -- overdue sweep counting orders, leaves the rollup alone; an UPDATE OF
+        -- column list is not allowed together with transition tables
+        IF NOT EXISTS (SELECT 1 FROM new_rows N
+                       WHERE NOT EXISTS (SELECT 1 FROM old_rows O
+                                         WHERE O.rentalOrderID = N.rentalOrderID
+                                         AND O.orderTimestamp = N.orderTimestamp
+                                         AND O.totalPrice = N.totalPrice)) THEN
+            RETURN NULL;
+        END IF;
+        INSERT INTO DailyRevenue (day, orders, revenue)
+        SELECT day, SUM(orders), SUM(revenue)
+        FROM (SELECT orderTimestamp::date AS day, 1 AS orders, totalPrice AS revenue FROM new_rows
+              UNION ALL
+              SELECT orderTimestamp::date, -1, -totalPrice FROM old_rows) T
+        GROUP BY day
+        HAVING SUM(orders) <> 0 OR SUM(revenue) <> 0
+        ON CONFLICT (day) DO UPDATE
+        SET orders = DailyRevenue.orders + EXCLUDED.orders, revenue = DailyRevenue.revenue + EXCLUDED.revenue;
+    END IF;
+    RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
 
-CREATE OR REPLACE FUNCTION update_total_price()
+CREATE TRIGGER rollup_daily_revenue_on_insert
+AFTER INSERT ON RentalOrder
+REFERENCING NEW TABLE AS new_rows
+FOR EACH STATEMENT
+EXECUTE PROCEDURE rollup_daily_revenue();
+
+CREATE TRIGGER rollup_daily_revenue_on_update
+AFTER UPDATE ON RentalOrder
+REFERENCING OLD TABLE AS old_rows NEW TABLE AS new_rows
+FOR EACH STATEMENT
+EXECUTE PROCEDURE rollup_daily_revenue();
+
+CREATE TRIGGER rollup_daily_revenue_on_delete
+AFTER DELETE ON RentalOrder
+REFERENCING OLD TABLE AS old_rows
+FOR EACH STATEMENT
+EXECUTE PROCEDURE rollup_daily_revenue();
+
+-- Keeps GameRentals and GenreRentals in step with GamesInOrder, one upsert
+-- per game and per genre touched by the statement.
+CREATE OR REPLACE FUNCTION rollup_game_rentals()
 RETURNS TRIGGER AS $$
 DECLARE
-    game_price DECIMAL(10,2);
-    total_price DECIMAL(10,2) := 0;
+    delta text;
 BEGIN
-    FOR game_price IN
-        SELECT price * unitsOrdered
-        FROM GamesInOrder JOIN Catalog ON GamesInOrder.gameID = Catalog.gameID
-        WHERE rentalOrderID = NEW.rentalOrderID
-    LOOP
-        total_price := total_price + game_price;
-    END LOOP;
-    UPDATE RentalOrder SET totalPrice = total_price WHERE rentalOrderID = NEW.rentalOrderID;
-    RETURN NEW;
+    -- only the transition tables of the firing event exist, hence the dynamic SQL
+    delta := CASE TG_OP
+        WHEN 'INSERT' THEN 'SELECT gameID, unitsOrdered AS units, 1 AS orders FROM new_rows'
+        WHEN 'DELETE' THEN 'SELECT gameID, -unitsOrdered AS units, -1 AS orders FROM old_rows'
+        ELSE 'SELECT gameID, unitsOrdered AS units, 1 AS orders FROM new_rows '
+             'UNION ALL SELECT gameID, -unitsOrdered, -1 FROM old_rows'
+    END;
+    EXECUTE
+        'WITH delta AS (' || delta || '), '
+        'games AS ('
+            'INSERT INTO GameRentals (gameID, units, orders) '
+            'SELECT gameID, SUM(units), SUM(orders) FROM delta GROUP BY gameID '
+            'ON CONFLICT (gameID) DO UPDATE '
+            'SET units = GameRentals.units + EXCLUDED.units, orders = GameRentals.orders + EXCLUDED.orders) '
+        'INSERT INTO GenreRentals (genre, units, orders) '
+        'SELECT C.genre, SUM(D.units), SUM(D.orders) FROM delta D JOIN Catalog C ON C.gameID = D.gameID GROUP BY C.genre '
+        'ON CONFLICT (genre) DO UPDATE '
+        'SET units = GenreRentals.units + EXCLUDED.units, orders = GenreRentals.orders + EXCLUDED.orders';
+    RETURN NULL;
 END;
 $$ LANGUAGE plpgsql;
 
-CREATE TRIGGER recalculate_total_price
-AFTER INSERT OR UPDATE ON GamesInOrder
-FOR EACH ROW
-EXECUTE PROCEDURE update_total_price();
+CREATE TRIGGER rollup_game_rentals_on_insert
+AFTER INSERT ON GamesInOrder
+REFERENCING NEW TABLE AS new_rows
+FOR EACH STATEMENT
+EXECUTE PROCEDURE rollup_game_rentals();
+
+CREATE TRIGGER rollup_game_rentals_on_update
+AFTER UPDATE ON GamesInOrder
+REFERENCING OLD TABLE AS old_rows NEW TABLE AS new_rows
+FOR EACH STATEMENT
+EXECUTE PROCEDURE rollup_game_rentals();
+
+CREATE TRIGGER rollup_game_rentals_on_delete
+AFTER DELETE ON GamesInOrder
+REFERENCING OLD TABLE AS old_rows
+FOR EACH STATEMENT
+EXECUTE PROCEDURE rollup_game_rentals();